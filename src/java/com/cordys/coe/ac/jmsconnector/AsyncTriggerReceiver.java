@@ -0,0 +1,436 @@
+/*
+ *
+ *  Copyright 2004 Cordys R&D B.V.
+ *
+ *  This file is part of the Cordys JMS Connector.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.cordys.coe.ac.jmsconnector;
+
+import com.cordys.coe.ac.jmsconnector.exceptions.JMSConnectorException;
+import com.cordys.coe.ac.jmsconnector.messages.LogMessages;
+
+import com.eibus.connector.nom.SOAPMessageListener;
+
+import com.eibus.management.counters.ITimerEventValueCounter;
+
+import com.eibus.xml.nom.Node;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+
+/**
+ * Trigger receiver which sends the trigger SOAP requests asynchronously. Up to <code>
+ * windowSize</code> requests can be outstanding at the same time. When the window is full, or no
+ * more messages are available, the receiver waits for all responses of the window and then
+ * commits the session once.
+ *
+ * <p>JMS only allows one open transaction per session, so the commit can not be done per message.
+ * Failed messages are put in the error destination as part of the window transaction. If that is
+ * not possible the whole window is rolled back and redelivered. With a redelivery policy the
+ * messages of the window that were handled successfully are then only acknowledged when they are
+ * delivered again.</p>
+ *
+ * <p>When the destination has a trigger worker pool the requests are sent by the workers of the
+ * pool instead of with a callback. The request is created on the receiving thread and the worker
+ * only sends it and checks the response.</p>
+ */
+class AsyncTriggerReceiver extends TriggerReceiver
+{
+    /**
+     * Used to wait for the responses.
+     */
+    private final Object lock = new Object();
+    /**
+     * The JMX counter for the message handling time.
+     */
+    private final ITimerEventValueCounter messageHandlingCounter;
+    /**
+     * The invocations of the current window.
+     */
+    private final List<PendingInvocation> window;
+    /**
+     * The maximum number of outstanding requests.
+     */
+    private final int windowSize;
+    /**
+     * The worker pool that sends the requests or <code>null</code> if the requests are sent with a
+     * callback.
+     */
+    private final TriggerWorkerPool workerPool;
+
+    /**
+     * Creates a new AsyncTriggerReceiver object.
+     *
+     * @param  trigger     The trigger.
+     * @param  session     The trigger session.
+     * @param  consumer    The consumer to receive from.
+     * @param  windowSize  The maximum number of outstanding requests.
+     * @param  workerPool  The worker pool that sends the requests or <code>null</code>.
+     */
+    AsyncTriggerReceiver(Trigger trigger, Session session, MessageConsumer consumer,
+                         int windowSize, TriggerWorkerPool workerPool)
+    {
+        super(trigger, session, consumer);
+
+        this.windowSize = windowSize;
+        this.workerPool = workerPool;
+        this.window = new ArrayList<PendingInvocation>(windowSize);
+        this.messageHandlingCounter = trigger.getMessageHandlingCounter();
+    }
+
+    /**
+     * @see  com.cordys.coe.ac.jmsconnector.TriggerReceiver#onStop()
+     */
+    @Override protected void onStop()
+                             throws Exception
+    {
+        // Finish the outstanding requests so that they are not redelivered.
+        if (!window.isEmpty())
+        {
+            completeWindow();
+        }
+    }
+
+    /**
+     * @see  com.cordys.coe.ac.jmsconnector.TriggerReceiver#receiveCycle()
+     */
+    @Override protected void receiveCycle()
+                                   throws Exception
+    {
+        Message message;
+
+        if (window.isEmpty())
+        {
+            message = consumer.receive(RECEIVE_TIMEOUT);
+        }
+        else
+        {
+            // Requests are outstanding, so only take the messages that are available right now.
+            message = consumer.receiveNoWait();
+        }
+
+        if (message != null)
+        {
+            if (trigger.isRedeliveredMessage(message) || trigger.isAlreadyHandled(message))
+            {
+                return;
+            }
+
+            dispatch(message);
+
+            if (window.size() < windowSize)
+            {
+                return;
+            }
+        }
+
+        if (!window.isEmpty())
+        {
+            completeWindow();
+        }
+    }
+
+    /**
+     * Waits for all responses of the current window and commits or rolls back the session.
+     *
+     * @throws  Exception  In case the commit failed.
+     */
+    private void completeWindow()
+                         throws Exception
+    {
+        synchronized (lock)
+        {
+            for (PendingInvocation invocation : window)
+            {
+                while (!invocation.done)
+                {
+                    long wait = invocation.deadline - System.currentTimeMillis();
+
+                    if (wait <= 0)
+                    {
+                        // Late responses are ignored.
+                        String sError = LogMessages.getFormatted(LogMessages.TRIGGER_ASYNC_REQUEST_TIMEOUT,
+                                                                 new Object[] { invocation.timeout });
+
+                        invocation.done = true;
+                        invocation.error = new JMSConnectorException(sError);
+                        break;
+                    }
+
+                    lock.wait(wait);
+                }
+            }
+        }
+
+        boolean rollback = false;
+
+        try
+        {
+            for (PendingInvocation invocation : window)
+            {
+                if ((invocation.error != null) &&
+                        !trigger.handleMessageError(invocation.message, session,
+                                                    invocation.error, false))
+                {
+                    rollback = true;
+                }
+            }
+
+            if (rollback)
+            {
+                JMSConnector.jmsLogger.warn(null, LogMessages.TRIGGER_ASYNC_WINDOW_ROLLBACK,
+                                            trigger.getDestination().getIdentifier(),
+                                            window.size());
+
+                for (PendingInvocation invocation : window)
+                {
+                    if (invocation.error == null)
+                    {
+                        trigger.markHandledBeforeRollback(invocation.message);
+                    }
+                }
+
+                session.rollback();
+                trigger.sessionCompleted(false);
+            }
+            else
+            {
+                session.commit();
+                trigger.sessionCompleted(true);
+            }
+        }
+        finally
+        {
+            for (PendingInvocation invocation : window)
+            {
+                messageHandlingCounter.finish(invocation.startTime);
+            }
+
+            // The requests of the window run in parallel, so the trigger was busy for the time
+            // of the window and not for the sum of the request times.
+            trigger.recordHandledMessages(window.size(),
+                                          System.currentTimeMillis() - window.get(0).beginTime);
+
+            window.clear();
+        }
+    }
+
+    /**
+     * Creates the trigger request for the message and sends it asynchronously.
+     *
+     * @param  message  The received message.
+     */
+    private void dispatch(Message message)
+    {
+        trigger.logReceivedMessage(message);
+
+        PendingInvocation invocation = new PendingInvocation(message,
+                                                             messageHandlingCounter.start());
+        int soapEnvelope = 0;
+
+        window.add(invocation);
+
+        try
+        {
+            JMSConnectorConfiguration.TriggerMessageInfo messageInfo = trigger
+                                                                       .createTriggerRequest(message,
+                                                                                             session);
+
+            soapEnvelope = messageInfo.soapRequestNode;
+            invocation.timeout = messageInfo.requestTimeout;
+
+            if (workerPool != null)
+            {
+                // The worker always completes the invocation, also when the request times out.
+                invocation.deadline = Long.MAX_VALUE;
+
+                workerPool.submit(new WorkerInvocation(invocation, soapEnvelope,
+                                                       messageInfo.requestTimeout));
+
+                // The request is deleted by the worker.
+                soapEnvelope = 0;
+            }
+            else
+            {
+                invocation.deadline = System.currentTimeMillis() + messageInfo.requestTimeout;
+
+                trigger.getConnector().getConnector().sendAndCallback(soapEnvelope, invocation);
+            }
+        }
+        catch (Exception e)
+        {
+            invocation.complete(e);
+        }
+        finally
+        {
+            Node.delete(soapEnvelope);
+        }
+    }
+
+    /**
+     * Holds the state of one outstanding trigger request.
+     */
+    private class PendingInvocation
+        implements SOAPMessageListener
+    {
+        /**
+         * The time at which the message was received.
+         */
+        final long beginTime = System.currentTimeMillis();
+        /**
+         * The time at which the request times out.
+         */
+        long deadline;
+        /**
+         * Indicates whether the request is finished. Guarded by the lock.
+         */
+        boolean done;
+        /**
+         * The error of the request. Guarded by the lock.
+         */
+        Exception error;
+        /**
+         * The received message.
+         */
+        final Message message;
+        /**
+         * The start time for the JMX counter.
+         */
+        final long startTime;
+        /**
+         * The request timeout.
+         */
+        long timeout;
+
+        /**
+         * Creates a new PendingInvocation object.
+         *
+         * @param  message    The received message.
+         * @param  startTime  The start time for the JMX counter.
+         */
+        PendingInvocation(Message message, long startTime)
+        {
+            this.message = message;
+            this.startTime = startTime;
+        }
+
+        /**
+         * @see  com.eibus.connector.nom.SOAPMessageListener#onReceive(int)
+         */
+        public boolean onReceive(int response)
+        {
+            Exception responseError = null;
+
+            try
+            {
+                trigger.checkTriggerResponse(response);
+            }
+            catch (Exception e)
+            {
+                responseError = e;
+            }
+
+            complete(responseError);
+
+            // The response can be deleted by the connector.
+            return true;
+        }
+
+        /**
+         * Marks the request as finished.
+         *
+         * @param  e  The error or <code>null</code> if the request was successful.
+         */
+        void complete(Exception e)
+        {
+            synchronized (lock)
+            {
+                if (done)
+                {
+                    return;
+                }
+
+                done = true;
+                error = e;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Sends one trigger request in a worker thread of the pool.
+     */
+    private class WorkerInvocation
+        implements Runnable
+    {
+        /**
+         * The invocation to complete.
+         */
+        private final PendingInvocation invocation;
+        /**
+         * The SOAP request. It is deleted by this worker.
+         */
+        private final int request;
+        /**
+         * The request timeout.
+         */
+        private final long timeout;
+
+        /**
+         * Creates a new WorkerInvocation object.
+         *
+         * @param  invocation  The invocation to complete.
+         * @param  request     The SOAP request.
+         * @param  timeout     The request timeout.
+         */
+        WorkerInvocation(PendingInvocation invocation, int request, long timeout)
+        {
+            this.invocation = invocation;
+            this.request = request;
+            this.timeout = timeout;
+        }
+
+        /**
+         * @see  java.lang.Runnable#run()
+         */
+        public void run()
+        {
+            Exception responseError = null;
+            int response = 0;
+
+            try
+            {
+                response = trigger.getConnector().getConnector().sendAndWait(request, timeout);
+
+                trigger.checkTriggerResponse(response);
+            }
+            catch (Exception e)
+            {
+                responseError = e;
+            }
+            finally
+            {
+                Node.delete(request);
+                Node.delete(Node.getRoot(response));
+
+                invocation.complete(responseError);
+            }
+        }
+    }
+}
@@ -0,0 +1,358 @@
+/*
+ *
+ *  Copyright 2004 Cordys R&D B.V.
+ *
+ *  This file is part of the Cordys JMS Connector.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.cordys.coe.ac.jmsconnector;
+
+import com.cordys.coe.ac.jmsconnector.exceptions.JMSConnectorException;
+import com.cordys.coe.ac.jmsconnector.messages.LogMessages;
+
+import com.eibus.connector.nom.SOAPMessage;
+
+import com.eibus.management.counters.ITimerEventValueCounter;
+
+
+import com.eibus.xml.nom.Node;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+
+/**
+ * Trigger receiver which collects up to <code>batchSize</code> messages and sends them in one
+ * SOAP request. The SOAP method gets one element per message, which contains the configured
+ * trigger parameters filled in for that message. The session is committed once per batch.
+ *
+ * <p>When the response of a batch is a SOAP fault or the request times out, or the request could
+ * not be created, the batch is split in two and both halves are sent again. This is repeated until a single message fails,
+ * which is then put in the error destination. Both halves are always sent, so every message of
+ * the batch is handled once before the session is committed or rolled back. The error message is
+ * part of the batch transaction. If it cannot be sent, the whole batch is rolled back. With a
+ * redelivery policy the messages of the batch that were handled successfully are then only
+ * acknowledged when they are delivered again.</p>
+ *
+ * <p>A SOAP fault or timeout does not tell which messages the back-end already processed, so the
+ * messages of a split batch can be sent twice. The batch service must therefore be idempotent.
+ * When the back-end is down each half times out as well, so a message only ends up in the error
+ * destination after its own request failed.</p>
+ *
+ * <p>Placeholders in the attributes of the SOAP method are filled in with the first message of
+ * the batch.</p>
+ */
+class BatchTriggerReceiver extends TriggerReceiver
+{
+    /**
+     * The SOAP request without the parameters.
+     */
+    private int batchPrototype;
+    /**
+     * The maximum number of messages in one batch.
+     */
+    private final int batchSize;
+    /**
+     * The compiled placeholders of the request outside the message elements.
+     */
+    private final TriggerParameterTemplate batchTemplate;
+    /**
+     * The element which holds the parameters of one message.
+     */
+    private int itemPrototype;
+    /**
+     * The compiled placeholders of one message element.
+     */
+    private final TriggerParameterTemplate itemTemplate;
+    /**
+     * The maximum time to wait for more messages once the first message of a batch is received.
+     */
+    private final long lingerTime;
+    /**
+     * The JMX counter for the message handling time.
+     */
+    private final ITimerEventValueCounter messageHandlingCounter;
+
+    /**
+     * Creates a new BatchTriggerReceiver object.
+     *
+     * @param   trigger          The trigger.
+     * @param   session          The trigger session.
+     * @param   consumer         The consumer to receive from.
+     * @param   batchSize        The maximum number of messages in one batch.
+     * @param   lingerTime       The maximum time to wait for more messages.
+     * @param   itemElementName  The name of the element that is created for each message.
+     *
+     * @throws  JMSConnectorException  In case the trigger request is not available.
+     */
+    BatchTriggerReceiver(Trigger trigger, Session session, MessageConsumer consumer,
+                         int batchSize, long lingerTime, String itemElementName)
+                  throws JMSConnectorException
+    {
+        super(trigger, session, consumer);
+
+        this.batchSize = batchSize;
+        this.lingerTime = lingerTime;
+        this.messageHandlingCounter = trigger.getMessageHandlingCounter();
+
+        if (trigger.getRequestPrototype() == 0)
+        {
+            throw new JMSConnectorException("Unable to create the trigger SOAP request. Message info object is not set.");
+        }
+
+        // Move the parameters of the SOAP method into the message element.
+        batchPrototype = Node.clone(trigger.getRequestPrototype(), true);
+
+        int method = getMethodNode(batchPrototype);
+
+        itemPrototype = Node.getDocument(method).createElement(itemElementName);
+
+        if (Node.getFirstChild(method) != 0)
+        {
+            Node.appendToChildren(Node.getFirstChild(method), Node.getLastChild(method),
+                                  itemPrototype);
+        }
+
+        itemTemplate = TriggerParameterTemplate.compile(itemPrototype);
+        batchTemplate = TriggerParameterTemplate.compile(batchPrototype);
+    }
+
+    /**
+     * @see  com.cordys.coe.ac.jmsconnector.TriggerReceiver#onStop()
+     */
+    @Override protected void onStop()
+                             throws Exception
+    {
+        Node.delete(itemPrototype);
+        itemPrototype = 0;
+        Node.delete(batchPrototype);
+        batchPrototype = 0;
+    }
+
+    /**
+     * @see  com.cordys.coe.ac.jmsconnector.TriggerReceiver#receiveCycle()
+     */
+    @Override protected void receiveCycle()
+                                   throws Exception
+    {
+        Message message = consumer.receive(RECEIVE_TIMEOUT);
+
+        if (message == null)
+        {
+            return;
+        }
+
+        List<Message> batch = new ArrayList<Message>(batchSize);
+        long deadline = System.currentTimeMillis() + lingerTime;
+
+        while (message != null)
+        {
+            if (!trigger.isRedeliveredMessage(message) && !trigger.isAlreadyHandled(message))
+            {
+                trigger.logReceivedMessage(message);
+                batch.add(message);
+            }
+
+            if (batch.size() >= batchSize)
+            {
+                break;
+            }
+
+            long wait = deadline - System.currentTimeMillis();
+
+            message = (wait > 0) ? consumer.receive(wait) : consumer.receiveNoWait();
+        }
+
+        if (batch.isEmpty())
+        {
+            return;
+        }
+
+        long startTime = messageHandlingCounter.start();
+        long beginTime = System.currentTimeMillis();
+        List<Message> succeeded = new ArrayList<Message>(batch.size());
+
+        try
+        {
+            if (invokeBatch(batch, succeeded))
+            {
+                session.commit();
+                trigger.sessionCompleted(true);
+            }
+            else
+            {
+                JMSConnector.jmsLogger.warn(null, LogMessages.TRIGGER_BATCH_ROLLBACK,
+                                            trigger.getDestination().getIdentifier(),
+                                            batch.size());
+
+                for (Message handledMessage : succeeded)
+                {
+                    trigger.markHandledBeforeRollback(handledMessage);
+                }
+
+                session.rollback();
+                trigger.sessionCompleted(false);
+            }
+        }
+        finally
+        {
+            for (int i = 0; i < batch.size(); i++)
+            {
+                messageHandlingCounter.finish(startTime);
+            }
+
+            // The messages share one request, so the batch took the time of one request.
+            trigger.recordHandledMessages(batch.size(), System.currentTimeMillis() - beginTime);
+        }
+    }
+
+    /**
+     * Returns the SOAP method node of the request.
+     *
+     * @param   request  The SOAP request.
+     *
+     * @return  The method node.
+     */
+    private static int getMethodNode(int request)
+    {
+        return Node.getFirstChild(SOAPMessage.getBodyNode(request));
+    }
+
+    /**
+     * Creates the SOAP request for the messages. The caller must delete the request.
+     *
+     * @param   messages  The messages to send.
+     *
+     * @return  The SOAP request.
+     *
+     * @throws  Exception  In case the request could not be created.
+     */
+    private int createBatchRequest(List<Message> messages)
+                            throws Exception
+    {
+        int request = Node.clone(batchPrototype, true);
+
+        try
+        {
+            int method = getMethodNode(request);
+
+            if (!batchTemplate.getBindings().isEmpty())
+            {
+                trigger.fillRequest(batchTemplate, request, messages.get(0), session);
+            }
+
+            for (Message message : messages)
+            {
+                int item = Node.clone(itemPrototype, true);
+
+                Node.appendToChildren(item, method);
+                trigger.fillRequest(itemTemplate, item, message, session);
+            }
+
+            if (JMSConnector.jmsLogger.isDebugEnabled())
+            {
+                JMSConnector.jmsLogger.debug("Triggering trigger for a batch of " +
+                                             messages.size() + " messages from destination '" +
+                                             trigger.getDestination().getIdentifier() +
+                                             "'. Sending message: " +
+                                             JMSUtil.safeFormatLogMessage(Node.writeToString(request,
+                                                                                             true)));
+            }
+
+            return request;
+        }
+        catch (Exception e)
+        {
+            Node.delete(request);
+            throw e;
+        }
+    }
+
+    /**
+     * Sends the messages in one SOAP request. If the request fails the batch is split.
+     *
+     * @param   messages   The messages to send.
+     * @param   succeeded  The list to which the messages are added when the request succeeded.
+     *
+     * @return  <code>true</code> if all messages are handled (successfully or put in the error
+     *          destination). If <code>false</code> is returned the session must be rolled back.
+     */
+    private boolean invokeBatch(List<Message> messages, List<Message> succeeded)
+    {
+        int request = 0;
+        int response = 0;
+
+        try
+        {
+            request = createBatchRequest(messages);
+            response = trigger.getConnector().getConnector().sendAndWait(request,
+                                                                         trigger
+                                                                         .getRequestTimeout());
+
+            trigger.checkTriggerResponse(response);
+            succeeded.addAll(messages);
+
+            return true;
+        }
+        catch (Exception e)
+        {
+            // A request that could not be created, a fault and a timeout are all handled by
+            // splitting, so only the messages that fail on their own are put in the error
+            // destination.
+            return splitBatch(messages, succeeded, e);
+        }
+        finally
+        {
+            Node.delete(request);
+            Node.delete(Node.getRoot(response));
+        }
+    }
+
+    /**
+     * Splits the failed batch in two and sends both halves. A single message is put in the error
+     * destination.
+     *
+     * @param   messages   The messages of the failed batch.
+     * @param   succeeded  The list to which the messages are added when a request succeeded.
+     * @param   e          The error of the batch.
+     *
+     * @return  <code>true</code> if all messages are handled. If <code>false</code> is returned
+     *          the session must be rolled back.
+     */
+    private boolean splitBatch(List<Message> messages, List<Message> succeeded, Exception e)
+    {
+        if (messages.size() == 1)
+        {
+            return trigger.handleMessageError(messages.get(0), session, e, false);
+        }
+
+        if (JMSConnector.jmsLogger.isDebugEnabled())
+        {
+            JMSConnector.jmsLogger.debug("Trigger batch of " + messages.size() +
+                                         " messages failed. Splitting the batch.", e);
+        }
+
+        int half = messages.size() / 2;
+
+        // Always send the second half, otherwise its messages are rolled back without being
+        // handled and are then skipped as redelivered messages.
+        boolean firstHandled = invokeBatch(messages.subList(0, half), succeeded);
+        boolean secondHandled = invokeBatch(messages.subList(half, messages.size()), succeeded);
+
+        return firstHandled && secondHandled;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ *
+ *  Copyright 2004 Cordys R&D B.V.
+ *
+ *  This file is part of the Cordys JMS Connector.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.cordys.coe.ac.jmsconnector;
+
+import com.cordys.coe.ac.jmsconnector.messages.LogMessages;
+
+import com.eibus.management.IManagedComponent;
+import com.eibus.management.counters.CounterFactory;
+import com.eibus.management.counters.IEventOccurrenceCounter;
+
+/**
+ * JMX component to reload the connector configuration without restarting the connector. The new
+ * configuration XML is passed to the <code>reloadConfiguration</code> operation. Only the
+ * destination managers, destinations and triggers that changed are restarted.
+ */
+public class ConfigurationReloader
+{
+    /**
+     * The connector.
+     */
+    private final JMSConnector connector;
+    /**
+     * The result of the last reload.
+     */
+    private String lastReloadResult = "";
+    /**
+     * Holds the JMX managed component.
+     */
+    private IManagedComponent managedComponent;
+    /**
+     * JMX counter for the number of reloads.
+     */
+    private IEventOccurrenceCounter reloadCounter;
+
+    /**
+     * Creates a new ConfigurationReloader object.
+     *
+     * @param  connector           The connector.
+     * @param  parentJMXComponent  The parent JMX component.
+     */
+    public ConfigurationReloader(JMSConnector connector, IManagedComponent parentJMXComponent)
+    {
+        this.connector = connector;
+
+        if (parentJMXComponent != null)
+        {
+            managedComponent = parentJMXComponent.createSubComponent("ConfigurationReloader",
+                                                                     "configuration",
+                                                                     LogMessages.JMX_CONFIGURATION_RELOADER_SUBCOMPONENT_NAME,
+                                                                     this);
+            reloadCounter = (IEventOccurrenceCounter)
+                                managedComponent.createPerformanceCounter("reloadCount",
+                                                                          LogMessages.JMX_CONFIGURATION_RELOAD_COUNTER_NAME,
+                                                                          CounterFactory.EVENT_OCCURRENCE_COUNTER);
+        }
+    }
+
+    /**
+     * Unregisters the JMX component.
+     */
+    public void close()
+    {
+        if (managedComponent != null)
+        {
+            try
+            {
+                managedComponent.unregisterComponentTree();
+                managedComponent = null;
+            }
+            catch (Exception e)
+            {
+                if (JMSConnector.jmsLogger.isDebugEnabled())
+                {
+                    JMSConnector.jmsLogger.debug("Ignored exception while unregistering the JMX components.",
+                                                 e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the result of the last reload.
+     *
+     * @return  The result.
+     */
+    public synchronized String getLastReloadResult()
+    {
+        return lastReloadResult;
+    }
+
+    /**
+     * Reloads the configuration. The parsed XML is handed over to the connector, which deletes it
+     * when it is no longer used.
+     *
+     * @param   configurationXml  The new configuration XML. The root element must be <code>
+     *                            configuration</code>.
+     *
+     * @return  A description of what was restarted or the error.
+     */
+    public synchronized String reloadConfiguration(String configurationXml)
+    {
+        try
+        {
+            int configNode = connector.getSharedNomDocument().parseString(configurationXml);
+
+            lastReloadResult = connector.reloadConfiguration(configNode);
+
+            if (reloadCounter != null)
+            {
+                reloadCounter.addEvent();
+            }
+        }
+        catch (Exception e)
+        {
+            JMSConnector.jmsLogger.error(e, LogMessages.CONFIGURATION_RELOAD_ERROR);
+
+            lastReloadResult = "Reload failed: " + e;
+        }
+
+        return lastReloadResult;
+    }
+
+    /**
+     * @see  java.lang.Object#toString()
+     */
+    @Override public synchronized String toString()
+    {
+        return lastReloadResult;
+    }
+}
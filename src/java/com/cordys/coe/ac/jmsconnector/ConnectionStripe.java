@@ -0,0 +1,253 @@
+/*
+ *
+ *  Copyright 2004 Cordys R&D B.V.
+ *
+ *  This file is part of the Cordys JMS Connector.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.cordys.coe.ac.jmsconnector;
+
+import com.cordys.coe.ac.jmsconnector.messages.LogMessages;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.Connection;
+import javax.jms.ExceptionListener;
+import javax.jms.JMSException;
+import javax.jms.Session;
+
+/**
+ * One of the physical JMS connections of a destination manager. The sessions of the destination
+ * manager are spread over the connections. The number of open sessions is kept per connection,
+ * so the least loaded connection can be selected.
+ *
+ * <p>The first connection is the primary connection of the destination manager. It is
+ * controlled by the destination manager itself. The other connections have their own exception
+ * listener. When such a connection fails it is closed and new sessions use the other
+ * connections until it is reconnected.</p>
+ */
+class ConnectionStripe
+    implements ExceptionListener
+{
+    /**
+     * The JMS connection or <code>null</code> if it is not connected.
+     */
+    private volatile Connection connection;
+    /**
+     * Incremented whenever the connection is closed or replaced, so sessions of an earlier
+     * connection can be recognized.
+     */
+    private final AtomicInteger generation = new AtomicInteger();
+    /**
+     * The index of the connection.
+     */
+    private final int index;
+    /**
+     * The destination manager.
+     */
+    private final DestinationManager manager;
+    /**
+     * The number of open sessions.
+     */
+    private final AtomicInteger sessionCount = new AtomicInteger();
+
+    /**
+     * Creates a new ConnectionStripe object.
+     *
+     * @param  manager  The destination manager.
+     * @param  index    The index of the connection.
+     */
+    ConnectionStripe(DestinationManager manager, int index)
+    {
+        this.manager = manager;
+        this.index = index;
+    }
+
+    /**
+     * @see  javax.jms.ExceptionListener#onException(javax.jms.JMSException)
+     */
+    public void onException(JMSException e)
+    {
+        JMSConnector.jmsLogger.warn(e, LogMessages.DESTINATIONMANAGER_CONNECTION_STRIPE_FAILED,
+                                    manager.getName(), index);
+
+        close();
+        manager.connectionStripeFailed(this);
+    }
+
+    /**
+     * Returns the generation of the connection. It changes whenever the connection is closed or
+     * replaced.
+     *
+     * @return  The generation.
+     */
+    int getGeneration()
+    {
+        return generation.get();
+    }
+
+    /**
+     * Returns the index of the connection.
+     *
+     * @return  The index.
+     */
+    int getIndex()
+    {
+        return index;
+    }
+
+    /**
+     * Returns the number of open sessions.
+     *
+     * @return  The number of sessions.
+     */
+    int getSessionCount()
+    {
+        return sessionCount.get();
+    }
+
+    /**
+     * Returns whether the connection can be used.
+     *
+     * @return  <code>true</code> if connected.
+     */
+    boolean isConnected()
+    {
+        return connection != null;
+    }
+
+    /**
+     * Closes the connection and ignores any errors. The sessions of the connection are closed by
+     * the provider.
+     */
+    void close()
+    {
+        Connection current = connection;
+
+        connection = null;
+        generation.incrementAndGet();
+        sessionCount.set(0);
+
+        if (current == null)
+        {
+            return;
+        }
+
+        try
+        {
+            current.close();
+        }
+        catch (Throwable e)
+        {
+            if (JMSConnector.jmsLogger.isDebugEnabled())
+            {
+                JMSConnector.jmsLogger.debug("Ignored exception while closing the the connection.",
+                                             e);
+            }
+        }
+    }
+
+    /**
+     * Creates a session on this connection.
+     *
+     * @param   transacted       Whether the session is transacted.
+     * @param   acknowledgeMode  The acknowledge mode.
+     *
+     * @return  The session.
+     *
+     * @throws  JMSException  In case the session could not be created or the connection is
+     *                        closed.
+     */
+    Session createSession(boolean transacted, int acknowledgeMode)
+                   throws JMSException
+    {
+        Connection current = connection;
+
+        if (current == null)
+        {
+            throw new javax.jms.IllegalStateException("Connection " + index + " of destination manager " +
+                                                      manager.getName() + " is not connected.");
+        }
+
+        Session session = current.createSession(transacted, acknowledgeMode);
+
+        sessionCount.incrementAndGet();
+
+        return session;
+    }
+
+    /**
+     * Sets the connection. The exception listener is registered on connections that are not the
+     * primary connection.
+     *
+     * @param   connection  The connection.
+     *
+     * @throws  JMSException  In case the exception listener could not be set.
+     */
+    void setConnection(Connection connection)
+                throws JMSException
+    {
+        if (index > 0)
+        {
+            connection.setExceptionListener(this);
+        }
+
+        sessionCount.set(0);
+        generation.incrementAndGet();
+        this.connection = connection;
+    }
+
+    /**
+     * Called when a session of this connection is closed. Sessions of an earlier connection were
+     * already removed from the count when that connection was closed, so they are ignored.
+     *
+     * @param  sessionGeneration  The generation of the connection when the session was created.
+     */
+    void sessionClosed(int sessionGeneration)
+    {
+        if (sessionGeneration != generation.get())
+        {
+            return;
+        }
+
+        if (sessionCount.decrementAndGet() < 0)
+        {
+            sessionCount.set(0);
+        }
+    }
+
+    /**
+     * Starts the delivery of messages on the connection.
+     *
+     * @throws  JMSException  In case the connection could not be started.
+     */
+    void start()
+        throws JMSException
+    {
+        Connection current = connection;
+
+        if (current != null)
+        {
+            current.start();
+        }
+    }
+
+    /**
+     * @see  java.lang.Object#toString()
+     */
+    @Override public String toString()
+    {
+        return index + ": " + (isConnected() ? (sessionCount.get() + " sessions") : "disconnected");
+    }
+}
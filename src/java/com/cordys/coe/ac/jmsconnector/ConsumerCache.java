@@ -0,0 +1,219 @@
+/*
+ *
+ *  Copyright 2004 Cordys R&D B.V.
+ *
+ *  This file is part of the Cordys JMS Connector.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.cordys.coe.ac.jmsconnector;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.jms.JMSException;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+
+/**
+ * Cache of open message consumers of one session. The consumers are keyed by destination,
+ * physical name and message selector. When the cache is full the least recently used consumer is
+ * closed. Consumers that were not used for longer than the idle timeout are closed as well.
+ *
+ * <p>The cache belongs to a {@link PooledSession}, so the consumers are reused by the SOAP
+ * transactions that borrow the session from the session pool. The consumers of an idle session
+ * stay open until the session is evicted from the pool, so a provider that prefetches messages may
+ * keep messages at them for that time. A JMS session may only be used by one thread, so this
+ * class is not thread safe. The cache must be closed before the session is closed.</p>
+ */
+class ConsumerCache
+{
+    /**
+     * The open consumers by key, in least recently used order.
+     */
+    private final LinkedHashMap<String, CachedConsumer> consumers;
+    /**
+     * The time in milliseconds after which an unused consumer is closed.
+     */
+    private final long idleTimeout;
+    /**
+     * The maximum number of open consumers.
+     */
+    private final int maxSize;
+
+    /**
+     * Creates a new ConsumerCache object.
+     *
+     * @param  maxSize      The maximum number of open consumers.
+     * @param  idleTimeout  The time in milliseconds after which an unused consumer is closed or 0
+     *                      to keep the consumers open until they are evicted.
+     */
+    ConsumerCache(int maxSize, long idleTimeout)
+    {
+        this.maxSize = maxSize;
+        this.idleTimeout = idleTimeout;
+        this.consumers = new LinkedHashMap<String, CachedConsumer>(16, 0.75f, true);
+    }
+
+    /**
+     * Closes all consumers.
+     */
+    void close()
+    {
+        for (CachedConsumer cached : consumers.values())
+        {
+            closeConsumer(cached.consumer);
+        }
+
+        consumers.clear();
+    }
+
+    /**
+     * Returns an open consumer for the destination and selector. A new consumer is created if the
+     * cache does not contain one.
+     *
+     * @param   session       The session to create the consumer with.
+     * @param   destination   The JMS destination.
+     * @param   identifier    The identifier of the connector destination.
+     * @param   physicalName  The physical name of a dynamic destination or <code>null</code>.
+     * @param   selector      The message selector or <code>null</code>.
+     *
+     * @return  The consumer. It must not be closed by the caller.
+     *
+     * @throws  JMSException  In case the consumer could not be created.
+     */
+    MessageConsumer getConsumer(Session session, javax.jms.Destination destination,
+                                String identifier, String physicalName, String selector)
+                         throws JMSException
+    {
+        long now = System.currentTimeMillis();
+
+        evictIdle(now);
+
+        String key = identifier + '\u0000' + ((physicalName != null) ? physicalName : "") +
+                     '\u0000' + ((selector != null) ? selector : "");
+        CachedConsumer cached = consumers.get(key);
+
+        if (cached == null)
+        {
+            MessageConsumer consumer = (selector == null)
+                                       ? session.createConsumer(destination)
+                                       : session.createConsumer(destination, selector);
+
+            cached = new CachedConsumer(consumer);
+            consumers.put(key, cached);
+
+            if (consumers.size() > maxSize)
+            {
+                Iterator<CachedConsumer> eldest = consumers.values().iterator();
+
+                closeConsumer(eldest.next().consumer);
+                eldest.remove();
+            }
+        }
+        else if (JMSConnector.jmsLogger.isDebugEnabled())
+        {
+            JMSConnector.jmsLogger.debug("Reusing the cached consumer for destination " +
+                                         identifier);
+        }
+
+        cached.lastUsed = now;
+
+        return cached.consumer;
+    }
+
+    /**
+     * Returns the number of open consumers.
+     *
+     * @return  The number of consumers.
+     */
+    int size()
+    {
+        return consumers.size();
+    }
+
+    /**
+     * Closes the consumer and ignores any errors.
+     *
+     * @param  consumer  The consumer to close.
+     */
+    private static void closeConsumer(MessageConsumer consumer)
+    {
+        try
+        {
+            consumer.close();
+        }
+        catch (JMSException e)
+        {
+            if (JMSConnector.jmsLogger.isDebugEnabled())
+            {
+                JMSConnector.jmsLogger.debug("Ignored exception while closing a cached consumer.",
+                                             e);
+            }
+        }
+    }
+
+    /**
+     * Closes the consumers that were not used within the idle timeout.
+     *
+     * @param  now  The current time.
+     */
+    private void evictIdle(long now)
+    {
+        if (idleTimeout <= 0)
+        {
+            return;
+        }
+
+        // The least recently used consumers come first.
+        for (Iterator<Map.Entry<String, CachedConsumer>> it = consumers.entrySet().iterator();
+                 it.hasNext();)
+        {
+            CachedConsumer cached = it.next().getValue();
+
+            if ((now - cached.lastUsed) < idleTimeout)
+            {
+                break;
+            }
+
+            closeConsumer(cached.consumer);
+            it.remove();
+        }
+    }
+
+    /**
+     * An open consumer and the time it was last used.
+     */
+    private static class CachedConsumer
+    {
+        /**
+         * The consumer.
+         */
+        final MessageConsumer consumer;
+        /**
+         * The time the consumer was last used.
+         */
+        long lastUsed;
+
+        /**
+         * Creates a new CachedConsumer object.
+         *
+         * @param  consumer  The consumer.
+         */
+        CachedConsumer(MessageConsumer consumer)
+        {
+            this.consumer = consumer;
+        }
+    }
+}
@@ -40,9 +40,11 @@ import java.io.UnsupportedEncodingException;
 import java.nio.charset.Charset;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.Map;
 
 import javax.jms.BytesMessage;
 import javax.jms.DeliveryMode;
@@ -65,10 +67,6 @@ import javax.naming.NamingException;
  */
 public class Destination
 {
-    /**
-     * Holds the list of registered destinations.
-     */
-    private static Hashtable<String, Destination> registeredDestinations = new Hashtable<String, Destination>();
     /**
      * Name of the dynamic destination physical name attribute for destination/reply2destination XML
      * elements.
@@ -114,6 +112,10 @@ public class Destination
      * The destination for error messages.
      */
     private Destination errorDestination;
+    /**
+     * The connector identifier (<code>manager.destination</code>).
+     */
+    private String identifier;
     /**
      * JMX Counter for the incoming messages.
      */
@@ -142,14 +144,52 @@ public class Destination
      * JMX Counter for the outgoing messages.
      */
     private ITimerEventValueCounter outgoingMessageHandlingCounter;
+    /**
+     * The redelivery policy for the triggers. If <code>null</code> the triggers only handle
+     * messages which are delivered for the first time.
+     */
+    private RedeliveryPolicy redeliveryPolicy;
+    /**
+     * The parsed dynamic destination parameters.
+     */
+    private Map<String, String> mDynamicDestinationParameters = Collections.emptyMap();
     /**
      * The dynamic destination string.
      */
     private String sDynamicDestinationParameterString;
+    /**
+     * Shared consumer for the replies of request messages. Created when it is first needed.
+     */
+    private ReplyListener replyListener;
+    /**
+     * Completes the parked getMessage requests. Created when it is first needed.
+     */
+    private LongPollDispatcher longPollDispatcher;
+    /**
+     * Indicates whether the long poll dispatcher could not be created.
+     */
+    private boolean bLongPollFailed;
+    /**
+     * Puts error messages in this destination in batches. Created when it is first needed.
+     */
+    private ErrorPublisher errorPublisher;
+    /**
+     * Indicates whether the error publisher is not used or could not be created.
+     */
+    private boolean bErrorPublisherFailed;
+    /**
+     * Adjusts the number of triggers. If <code>null</code> the number of triggers is fixed.
+     */
+    private TriggerScaler triggerScaler;
     /**
      * Holds the timeout for actions on the JMS queue.
      */
     private int timeout;
+    /**
+     * The worker pool that executes the trigger SOAP requests. If <code>null</code> the trigger
+     * sessions execute the requests themselves.
+     */
+    private TriggerWorkerPool triggerWorkerPool;
     /**
      * Indicates whether or not this is a dynamic destination.
      */
@@ -187,6 +227,7 @@ public class Destination
         this.destinationManager = manager;
         this.config = config;
         this.name = name;
+        this.identifier = manager.getName() + "." + name;
         this.timeout = destinationManager.getTimeout();
 
         // JMX initialization:
@@ -260,7 +301,7 @@ public class Destination
      */
     public static Destination getDestination(String uri)
     {
-        return (Destination) registeredDestinations.get(uri);
+        return DestinationRegistry.getByURI(uri);
     }
 
     /**
@@ -299,6 +340,11 @@ public class Destination
                                          stopOnly);
         }
 
+        stopTriggerScaler();
+        closeReplyListener();
+        closeLongPollDispatcher();
+        closeErrorPublisher();
+
         if (lTriggers != null)
         {
             for (Trigger tTrigger : lTriggers)
@@ -323,9 +369,21 @@ public class Destination
             }
         }
 
+        if (!stopOnly && (triggerWorkerPool != null))
+        {
+            triggerWorkerPool.shutdown();
+            triggerWorkerPool = null;
+        }
+
+        if (!stopOnly && (redeliveryPolicy != null))
+        {
+            redeliveryPolicy.shutdown();
+            redeliveryPolicy = null;
+        }
+
         if (!bIsDynamic)
         {
-            registeredDestinations.remove(JMSUtil.getDestinationURI(destination));
+            DestinationRegistry.unregisterURI(JMSUtil.getDestinationURI(destination), this);
         }
 
         if (!stopOnly)
@@ -366,6 +424,24 @@ public class Destination
      */
     public QueueBrowser getBrowser(JMSConnectorTransaction transaction)
                             throws JMSConnectorException, JMSException
+    {
+        return getBrowser(transaction, null);
+    }
+
+    /**
+     * Creates a browser object for this queue with a message selector.
+     *
+     * @param   transaction      the transaction to create the browser for
+     * @param   messageSelector  The message selector or <code>null</code>.
+     *
+     * @return  a QueueBrowser
+     *
+     * @throws  JMSConnectorException  if the destination is not a queue or doesn't have read
+     *                                 access
+     * @throws  JMSException
+     */
+    public QueueBrowser getBrowser(JMSConnectorTransaction transaction, String messageSelector)
+                            throws JMSConnectorException, JMSException
     {
         if (!initializedCorrectly)
         {
@@ -384,7 +460,7 @@ public class Destination
 
         Session session = transaction.getSessionForDestination(this);
 
-        return session.createBrowser((Queue) destination);
+        return session.createBrowser((Queue) destination, messageSelector);
     }
 
     /**
@@ -461,6 +537,16 @@ public class Destination
         return destinationManager;
     }
 
+    /**
+     * Returns the dynamic destination parameters.
+     *
+     * @return  The parameters by name. The map cannot be modified.
+     */
+    public Map<String, String> getDynamicDestinationParameters()
+    {
+        return mDynamicDestinationParameters;
+    }
+
     /**
      * Returns the dynamicDestinationParameterString.
      *
@@ -480,7 +566,7 @@ public class Destination
      */
     public String getIdentifier()
     {
-        return destinationManager.getName() + "." + name;
+        return identifier;
     }
 
     /**
@@ -506,24 +592,7 @@ public class Destination
                               boolean waitForMessage, String correlationId, long requestTimeout)
                        throws JMSConnectorException
     {
-        if (!initializedCorrectly)
-        {
-            throw new JMSConfigurationException("Destination is not correctly configured, see error log for details");
-        }
-
-        if (!canRead)
-        {
-            throw new JMSConnectorException("Destination has no read access");
-        }
-
-        if (bIsDynamic && (sDestinationProviderUrl == null))
-        {
-            throw new JMSConnectorException("Physical name must be specified for a dynamic destination.");
-        }
-        else if (!bIsDynamic && (sDestinationProviderUrl != null))
-        {
-            throw new JMSConnectorException("Physical name can only be specified for a dynamic destination.");
-        }
+        checkReadAccess(sDestinationProviderUrl);
 
         Message msg = null;
         long startTime = incomingMessageHandlingCounter.start();
@@ -534,44 +603,24 @@ public class Destination
 
             MessageConsumer consumer;
 
-            if (correlationId != null)
-            {
-                if (selector == null)
-                {
-                    selector = "JMSCorrelationID = '" + correlationId + "'";
-                }
-                else
-                {
-                    selector = "(" + selector + " ) and JMSCorrelationID = '" + correlationId + "'";
-                }
-            }
+            selector = getReceiveSelector(selector, correlationId);
 
-            javax.jms.Destination dGetDestination = destination;
+            javax.jms.Destination dGetDestination = getReceiveDestination(session,
+                                                                          sDestinationProviderUrl);
 
-            if ((sDestinationProviderUrl != null) && (sDestinationProviderUrl.length() > 0))
-            {
-                // Dynamic destinations are currently always queues.
-                if (JMSConnector.jmsLogger.isDebugEnabled())
-                {
-                    JMSConnector.jmsLogger.debug("Using a dynamic get queue: " +
-                                                 sDestinationProviderUrl);
-                }
+            ConsumerCache consumerCache = transaction.getConsumerCache(this);
 
-                dGetDestination = session.createQueue(sDestinationProviderUrl);
+            if (consumerCache != null)
+            {
+                consumer = consumerCache.getConsumer(session, dGetDestination, getIdentifier(),
+                                                     sDestinationProviderUrl, selector);
             }
-
-            if (selector == null)
+            else if (selector == null)
             {
                 consumer = session.createConsumer(dGetDestination);
             }
             else
             {
-                if (JMSConnector.jmsLogger.isDebugEnabled())
-                {
-                    JMSConnector.jmsLogger.debug("Message receive selector is: " +
-                                                 JMSUtil.safeFormatLogMessage(selector));
-                }
-
                 consumer = session.createConsumer(dGetDestination, selector);
             }
 
@@ -610,121 +659,162 @@ public class Destination
                                                  JMSUtil.safeFormatLogMessage(msg));
                 }
 
-                // Find out message character set.
-                Charset charset = getDefaultCharset();
+                writeMessage(msg, dGetDestination, resultNode, messageFormat);
 
-                if (charset == null)
+                return true;
+            }
+            finally
+            {
+                if (consumerCache == null)
                 {
-                    throw new JMSConnectorException("Unable to determine character set.");
+                    consumer.close();
                 }
 
-                String utf8String = null;
-                byte[] byteMessage = null;
-
-                if (msg instanceof BytesMessage)
-                {
-                    int len = (int) ((BytesMessage) msg).getBodyLength();
+                incomingMessageHandlingCounter.finish(startTime);
+            }
+        }
+        catch (Exception e)
+        {
+            JMSConnector.jmsLogger.error(e, LogMessages.DESTINATION_GET_MESSAGE_ERROR,
+                                         getIdentifier());
 
-                    byteMessage = new byte[len];
-                    ((BytesMessage) msg).readBytes(byteMessage);
+            messageHandlingErrorCounter.addEvent();
 
-                    if (!"base64".equalsIgnoreCase(messageFormat))
-                    {
-                        // We are not base64 encoding it, so convert it using configured character
-                        // set.
-                        utf8String = new String(byteMessage, charset);
-                        byteMessage = null;
-                    }
-                }
-                else if (msg instanceof TextMessage)
+            // if error destination is used...
+            if ((msg != null) && (errorDestination != null))
+            {
+                try
                 {
-                    TextMessage jmsTextMessage = (TextMessage) msg;
-                    utf8String = jmsTextMessage.getText();
+                    errorDestination.sendErrorMessage(msg, JMSUtil.getStackTrace(e));
                 }
-                else
+                catch (Exception ex)
                 {
-                    throw new JMSConnectorException("Cannot handle message of type '" +
-                                                    msg.getClass().getName() +
-                                                    "'. Only BytesMessage and TextMessage is supported.");
+                    JMSConnector.jmsLogger.error(e,
+                                                 LogMessages.DESTINATION_GET_MESSAGE_ERROR_QUEUE_ERROR,
+                                                 errorDestination.getIdentifier());
                 }
+            }
 
-                // convert to xml;
-                if (((messageFormat == null) || "".equals(messageFormat)) && (btcProtocol == null))
-                {
-                    Node.createCDataElement("message", utf8String, resultNode);
-                }
-                else if ("base64".equalsIgnoreCase(messageFormat))
+            throw new JMSConnectorException(e);
+        }
+    }
+
+    /**
+     * Reads up to <code>maxMessages</code> messages from the current destination. For each
+     * message an <code>entry</code> element is added under the result node, which has the same
+     * content as the response of getMessage. The messages are committed with the transaction.
+     *
+     * @param   transaction              Connector transaction object.
+     * @param   sDestinationProviderUrl  Provider specific URL or <code>null</code>.
+     * @param   resultNode               The messages are added under this node.
+     * @param   selector                 Optional selector string.
+     * @param   messageFormat            Message format string.
+     * @param   maxMessages              The maximum number of messages to read.
+     * @param   maxBytes                 The maximum total size of the message bodies or 0 if there
+     *                                   is no limit. The message that exceeds the limit is still
+     *                                   returned.
+     * @param   requestTimeout           The total time to wait for messages. If 0 only the messages
+     *                                   that are available right now are read.
+     *
+     * @return  The number of messages that were read.
+     *
+     * @throws  JMSConnectorException
+     */
+    public int getMessages(JMSConnectorTransaction transaction, String sDestinationProviderUrl,
+                           int resultNode, String selector, String messageFormat, int maxMessages,
+                           long maxBytes, long requestTimeout)
+                    throws JMSConnectorException
+    {
+        checkReadAccess(sDestinationProviderUrl);
+
+        Message msg = null;
+        int count = 0;
+
+        try
+        {
+            Session session = transaction.getSessionForDestination(this);
+            javax.jms.Destination dGetDestination = destination;
+
+            if ((sDestinationProviderUrl != null) && (sDestinationProviderUrl.length() > 0))
+            {
+                // Dynamic destinations are currently always queues.
+                dGetDestination = session.createQueue(sDestinationProviderUrl);
+            }
+
+            ConsumerCache consumerCache = transaction.getConsumerCache(this);
+            MessageConsumer consumer;
+
+            if (consumerCache != null)
+            {
+                consumer = consumerCache.getConsumer(session, dGetDestination, getIdentifier(),
+                                                     sDestinationProviderUrl, selector);
+            }
+            else if (selector == null)
+            {
+                consumer = session.createConsumer(dGetDestination);
+            }
+            else
+            {
+                consumer = session.createConsumer(dGetDestination, selector);
+            }
+
+            try
+            {
+                long deadline = System.currentTimeMillis() + requestTimeout;
+                long totalBytes = 0;
+
+                while (count < maxMessages)
                 {
-                    String result;
-                    byte[] tmpBytes;
+                    long wait = deadline - System.currentTimeMillis();
 
-                    if (byteMessage != null)
+                    msg = (wait > 0) ? consumer.receive(wait) : consumer.receiveNoWait();
+
+                    if (msg == null)
+                    {
+                        break;
+                    }
+
+                    long startTime = incomingMessageHandlingCounter.start();
+
+                    try
                     {
-                        tmpBytes = byteMessage;
+                        writeMessage(msg, dGetDestination, Node.createElement("entry", resultNode),
+                                     messageFormat);
                     }
-                    else
+                    finally
                     {
-                        try
-                        {
-                            tmpBytes = utf8String.getBytes("UTF-8");
-                        }
-                        catch (UnsupportedEncodingException e)
+                        incomingMessageHandlingCounter.finish(startTime);
+                    }
+
+                    count++;
+
+                    if (maxBytes > 0)
+                    {
+                        totalBytes += getBodySize(msg);
+
+                        if (totalBytes >= maxBytes)
                         {
-                            // This should not happen.
-                            throw new IllegalStateException("UTF-8 encoding failed.", e);
+                            break;
                         }
                     }
 
-                    result = JMSUtil.base64encode(tmpBytes);
-                    Node.createCDataElement("message", result, resultNode);
-                }
-                else if ("xml".equalsIgnoreCase(messageFormat))
-                {
-                    int result = Node.getDocument(resultNode).parseString(utf8String);
-                    Node.appendToChildren(result, resultNode);
-                }
-                else if ("xmlMessage".equalsIgnoreCase(messageFormat))
-                {
-                    // GS Start
-                    int msgNode = Node.createElement("message", resultNode);
-                    int result = Node.getDocument(resultNode).parseString(utf8String);
-                    Node.appendToChildren(result, msgNode);
-                    // GS End
-                }
-                else if ((messageFormat != null) && !"".equals(messageFormat))
-                {
-                    int msgNode = Node.createElement("message", resultNode);
-                    Node.appendToChildren(connector.getParserEngine(messageFormat).externalToXML(utf8String
-                                                                                                 .getBytes(),
-                                                                                                 messageFormat,
-                                                                                                 false),
-                                          msgNode);
-                }
-                else
-                {
-                    int msgNode = Node.createElement("message", resultNode);
-                    Node.appendToChildren(connector.getParserEngine(btcProtocol).externalToXML(utf8String
-                                                                                               .getBytes(),
-                                                                                               btcProtocol,
-                                                                                               false),
-                                          msgNode);
+                    msg = null;
                 }
 
-                // If the destination is not set in the message for some reason, set it now.
-                if (msg.getJMSDestination() == null)
+                if (JMSConnector.jmsLogger.isDebugEnabled())
                 {
-                    msg.setJMSDestination(dGetDestination);
+                    JMSConnector.jmsLogger.debug("Received " + count +
+                                                 " messages from the destination.");
                 }
 
-                // read default information
-                JMSUtil.getInformationFromMessage(this, msg, resultNode);
-
-                return true;
+                return count;
             }
             finally
             {
-                consumer.close();
-                incomingMessageHandlingCounter.finish(startTime);
+                if (consumerCache == null)
+                {
+                    consumer.close();
+                }
             }
         }
         catch (Exception e)
@@ -817,6 +907,48 @@ public class Destination
                               Hashtable<String, Object> properties, String messageId,
                               String messageType, String messageFormat, int priority)
                        throws JMSConnectorException
+    {
+        return sendMessage(transaction, messageNode, sDestinationProviderUrl, reply2Destination,
+                           sReplyToDestinationProviderUrl, correlationID, persistentDelivery,
+                           expiration, jmsType, properties, messageId, messageType,
+                           messageFormat, priority, null);
+    }
+
+    /**
+     * Sends a message to this destination. Same as the other sendMessage method, but the reply
+     * destination can also be a JMS destination which is not configured in the connector, like a
+     * temporary queue.
+     *
+     * @param   transaction                     The connector transaction.
+     * @param   messageNode                     The message XML.
+     * @param   sDestinationProviderUrl         Provider specific URL or <code>null</code>.
+     * @param   reply2Destination               The reply destination or <code>null</code>.
+     * @param   sReplyToDestinationProviderUrl  Provider specific URL of the reply destination or
+     *                                          <code>null</code>.
+     * @param   correlationID                   The correlation ID or <code>null</code>.
+     * @param   persistentDelivery              The delivery mode or <code>null</code>.
+     * @param   expiration                      The time to live or -1.
+     * @param   jmsType                         The JMS type or <code>null</code>.
+     * @param   properties                      The message properties.
+     * @param   messageId                       The message ID or <code>null</code>.
+     * @param   messageType                     The message type (text or bytes).
+     * @param   messageFormat                   The message format.
+     * @param   priority                        The priority or -1.
+     * @param   replyTo                         The JMS reply destination. If set, this is used
+     *                                          instead of <code>reply2Destination</code>.
+     *
+     * @return  The message ID.
+     *
+     * @throws  JMSConnectorException  In case the message could not be sent.
+     */
+    public String sendMessage(JMSConnectorTransaction transaction, int messageNode,
+                              String sDestinationProviderUrl, Destination reply2Destination,
+                              String sReplyToDestinationProviderUrl, String correlationID,
+                              Boolean persistentDelivery, long expiration, String jmsType,
+                              Hashtable<String, Object> properties, String messageId,
+                              String messageType, String messageFormat, int priority,
+                              javax.jms.Destination replyTo)
+                       throws JMSConnectorException
     {
         if (!initializedCorrectly)
         {
@@ -939,13 +1071,13 @@ public class Destination
 
             Session session = transaction.getSessionForDestination(this);
             javax.jms.Destination dSendToDestination = destination;
+            String sPhysicalName = null;
 
             if ((sDestinationProviderUrl != null) && (sDestinationProviderUrl.length() > 0))
             {
                 // Append parameters.
                 sDestinationProviderUrl = JMSUtil.appendDynamicDestinationParameters(sDestinationProviderUrl,
-                                                                                     this,
-                                                                                     getDynamicDestinationParameterString());
+                                                                                     getDynamicDestinationParameters());
 
                 // Dynamic destinations are currently always queues.
                 if (JMSConnector.jmsLogger.isDebugEnabled())
@@ -955,9 +1087,12 @@ public class Destination
                 }
 
                 dSendToDestination = session.createQueue(sDestinationProviderUrl);
+                sPhysicalName = sDestinationProviderUrl;
             }
 
-            MessageProducer producer = session.createProducer(dSendToDestination);
+            ProducerCache producerCache = transaction.getProducerCache(this);
+            MessageProducer producer = producerCache.getProducer(session, dSendToDestination,
+                                                                 getIdentifier(), sPhysicalName);
 
             try
             {
@@ -981,7 +1116,11 @@ public class Destination
                     msg.setJMSMessageID(messageId);
                 }
 
-                if (reply2Destination != null)
+                if (replyTo != null)
+                {
+                    msg.setJMSReplyTo(replyTo);
+                }
+                else if (reply2Destination != null)
                 {
                     try
                     {
@@ -993,9 +1132,8 @@ public class Destination
                             // Append parameters.
                             sReplyToDestinationProviderUrl = JMSUtil
                                                              .appendDynamicDestinationParameters(sReplyToDestinationProviderUrl,
-                                                                                                 reply2Destination,
                                                                                                  reply2Destination
-                                                                                                 .getDynamicDestinationParameterString());
+                                                                                                 .getDynamicDestinationParameters());
 
                             // Dynamic destinations are currently always queues.
                             if (JMSConnector.jmsLogger.isDebugEnabled())
@@ -1021,28 +1159,16 @@ public class Destination
                     msg.setJMSCorrelationID(correlationID);
                 }
 
-                if (persistentDelivery != null)
-                {
-                    // please note, it is set on the producer(!) this because setting it on a
-                    // message will be ignored while sending the message
-                    if (persistentDelivery.booleanValue())
-                    {
-                        producer.setDeliveryMode(DeliveryMode.PERSISTENT);
-                    }
-                    else
-                    {
-                        producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
-                    }
-                }
-
-                if (expiration != -1) // also on the producer (!)
-                {
-                    producer.setTimeToLive(expiration);
-                }
+                // Please note, these are passed to send(), because setting them on the message
+                // is ignored while sending the message. The cached producer is not changed.
+                int deliveryMode = Message.DEFAULT_DELIVERY_MODE;
+                int sendPriority = (priority != -1) ? priority : Message.DEFAULT_PRIORITY;
+                long timeToLive = (expiration != -1) ? expiration : Message.DEFAULT_TIME_TO_LIVE;
 
-                if (priority != -1) // on the producer again (!)
+                if (persistentDelivery != null)
                 {
-                    producer.setPriority(priority);
+                    deliveryMode = persistentDelivery.booleanValue() ? DeliveryMode.PERSISTENT
+                                                                     : DeliveryMode.NON_PERSISTENT;
                 }
 
                 if (jmsType != null)
@@ -1129,7 +1255,15 @@ public class Destination
                     }
                 }
 
-                producer.send(msg);
+                try
+                {
+                    producer.send(msg, deliveryMode, sendPriority, timeToLive);
+                }
+                catch (JMSException e)
+                {
+                    producerCache.invalidate(getIdentifier(), sPhysicalName);
+                    throw e;
+                }
 
                 String sMessageId = msg.getJMSMessageID();
 
@@ -1142,7 +1276,6 @@ public class Destination
             }
             finally
             {
-                producer.close();
                 outgoingMessageHandlingCounter.finish(startTime);
             }
         }
@@ -1183,6 +1316,34 @@ public class Destination
     public void setDynamicDestinationParameterString(String aDynamicDestinationParameterString)
     {
         sDynamicDestinationParameterString = aDynamicDestinationParameterString;
+        mDynamicDestinationParameters = JMSUtil.parseDynamicDestinationParameters(aDynamicDestinationParameterString);
+        JMSUtil.clearDestinationNameCache();
+    }
+
+    /**
+     * Adds a trigger to this destination. Used by the trigger scaler.
+     *
+     * @throws  GeneralException  In case of any exceptions
+     * @throws  JMSException      In case of any exceptions
+     */
+    void addTrigger()
+             throws GeneralException, JMSException
+    {
+        List<Trigger> triggers = lTriggers;
+
+        if (triggers == null)
+        {
+            return;
+        }
+
+        String triggerName = config.getTriggerNameForDestination(destinationManager.getName(),
+                                                                 name);
+        Trigger trigger = createTrigger(triggerName, triggers.size());
+
+        synchronized (triggers)
+        {
+            triggers.add(trigger);
+        }
     }
 
     /**
@@ -1210,41 +1371,112 @@ public class Destination
 
             lTriggers = new ArrayList<Trigger>(iThreadCount);
 
-            for (int i = 0; i < iThreadCount; i++)
-            {
-                String sTriggerJmxId = triggerName + ((i > 0) ? ("-" + (i + 1)) : "");
+            String sOrderKey = config.getTriggerOrderKey(destinationManager.getName(), name);
+            boolean bOrdered = (sOrderKey != null);
 
-                try 
-                {
-                	 lTriggers.add(new Trigger(connector, destinationManager, config, this, triggerName,
-                             		managedComponent, sTriggerJmxId));	
-				}
-                catch (GeneralException e) 
-		    	{
-                	initializedCorrectly = false;
-		    		JMSConnector.jmsLogger.error("Failed to Create Trigger "+triggerName,e);
-		    		throw new GeneralException(e);
-		    		 
-				}
-            }        
-    	}
-    }
+            if (bOrdered && (iThreadCount > 1))
+            {
+                JMSConnector.jmsLogger.warn(null, LogMessages.TRIGGER_ORDERED_MULTIPLE_LISTENERS,
+                                            getIdentifier(), iThreadCount);
+            }
 
-    /**
-     * DOCUMENTME.
-     *
-     * @return  DOCUMENTME
-     */
-    Destination getErrorDestination()
-    {
-        if (errorDestination == null)
-        {
-            // Try to get the destination manager default.
-            errorDestination = destinationManager.getDefaultErrorDestination();
+            int iWorkerCount = config.getTriggerWorkerThreadCount(destinationManager.getName(),
+                                                                  name);
 
-            if (errorDestination == this)
+            if ((iWorkerCount > 0) && (triggerWorkerPool == null))
             {
-                // Error destination cannot have error destinations. Otherwise can have a loop.
+                triggerWorkerPool = new TriggerWorkerPool(getIdentifier(), iWorkerCount,
+                                                          config.getTriggerWorkerQueueSize(destinationManager
+                                                                                           .getName(),
+                                                                                           name),
+                                                          managedComponent);
+            }
+
+            int iMaxRetries = config.getTriggerRedeliveryMaxRetries(destinationManager.getName(),
+                                                                    name);
+
+            if ((iMaxRetries >= 0) && (redeliveryPolicy == null))
+            {
+                redeliveryPolicy = new RedeliveryPolicy(iMaxRetries,
+                                                        config.getTriggerRedeliveryBackoff(destinationManager
+                                                                                           .getName(),
+                                                                                           name),
+                                                        config.getTriggerRedeliveryTrackerSize(destinationManager
+                                                                                               .getName(),
+                                                                                               name),
+                                                        managedComponent);
+            }
+
+            for (int i = 0; i < iThreadCount; i++)
+            {
+                try
+                {
+                    lTriggers.add(createTrigger(triggerName, i));
+                }
+                catch (GeneralException e)
+                {
+                    initializedCorrectly = false;
+                    JMSConnector.jmsLogger.error("Failed to Create Trigger " + triggerName, e);
+                    throw new GeneralException(e);
+                }
+            }
+
+            int iMaxTriggers = config.getTriggerMaxThreadCount(destinationManager.getName(), name);
+
+            if (iMaxTriggers > iThreadCount)
+            {
+                if (bOrdered)
+                {
+                    JMSConnector.jmsLogger.warn(null, LogMessages.TRIGGER_SCALER_ORDERED,
+                                                getIdentifier());
+                }
+                else if (destination instanceof Queue)
+                {
+                    triggerScaler = new TriggerScaler(connector, this,
+                                                      config.getTriggerMinThreadCount(destinationManager
+                                                                                      .getName(),
+                                                                                      name),
+                                                      iMaxTriggers,
+                                                      config.getTriggerScaleInterval(destinationManager
+                                                                                     .getName(),
+                                                                                     name),
+                                                      managedComponent);
+                    triggerScaler.start();
+                }
+                else
+                {
+                    JMSConnector.jmsLogger.warn(null, LogMessages.TRIGGER_SCALER_NOT_A_QUEUE,
+                                                getIdentifier());
+                }
+            }
+    	}
+    }
+
+    /**
+     * Returns the configuration this destination and its triggers were created with.
+     *
+     * @return  The configuration.
+     */
+    JMSConnectorConfiguration getConfiguration()
+    {
+        return config;
+    }
+
+    /**
+     * DOCUMENTME.
+     *
+     * @return  DOCUMENTME
+     */
+    Destination getErrorDestination()
+    {
+        if (errorDestination == null)
+        {
+            // Try to get the destination manager default.
+            errorDestination = destinationManager.getDefaultErrorDestination();
+
+            if (errorDestination == this)
+            {
+                // Error destination cannot have error destinations. Otherwise can have a loop.
                 return null;
             }
         }
@@ -1252,6 +1484,530 @@ public class Destination
         return errorDestination;
     }
 
+    /**
+     * Returns the redelivery policy for the triggers of this destination.
+     *
+     * @return  The redelivery policy or <code>null</code> if it is not configured.
+     */
+    RedeliveryPolicy getRedeliveryPolicy()
+    {
+        return redeliveryPolicy;
+    }
+
+    /**
+     * Waits for a reply that was registered with the shared reply listener and adds it under the
+     * result node.
+     *
+     * @param   listener       The reply listener of this destination.
+     * @param   pending        The registered request.
+     * @param   resultNode     Message is added under this node.
+     * @param   messageFormat  Message format string.
+     * @param   timeout        Timeout value from the SOAP request or 0 if not set.
+     *
+     * @return  <code>true</code> if the reply was received, otherwise <code>false</code>.
+     *
+     * @throws  JMSConnectorException  In case the reply could not be converted.
+     */
+    boolean getReply(ReplyListener listener, ReplyListener.PendingReply pending, int resultNode,
+                     String messageFormat, long timeout)
+              throws JMSConnectorException
+    {
+        Message msg = null;
+        long startTime = incomingMessageHandlingCounter.start();
+
+        try
+        {
+            msg = pending.await((timeout > 0) ? timeout : this.timeout);
+
+            if (msg == null)
+            {
+                return false;
+            }
+
+            if (JMSConnector.jmsLogger.isDebugEnabled())
+            {
+                JMSConnector.jmsLogger.debug("Received JMS reply message: " +
+                                             JMSUtil.safeFormatLogMessage(msg));
+            }
+
+            writeMessage(msg, listener.getReplyDestination(), resultNode, messageFormat);
+
+            return true;
+        }
+        catch (Exception e)
+        {
+            JMSConnector.jmsLogger.error(e, LogMessages.DESTINATION_GET_MESSAGE_ERROR,
+                                         getIdentifier());
+
+            messageHandlingErrorCounter.addEvent();
+
+            // The reply is already committed, so keep it in the error destination.
+            if ((msg != null) && (errorDestination != null))
+            {
+                try
+                {
+                    errorDestination.sendErrorMessageNow(msg, JMSUtil.getStackTrace(e));
+                }
+                catch (Exception ex)
+                {
+                    JMSConnector.jmsLogger.error(e,
+                                                 LogMessages.DESTINATION_GET_MESSAGE_ERROR_QUEUE_ERROR,
+                                                 errorDestination.getIdentifier());
+                }
+            }
+
+            throw new JMSConnectorException(e);
+        }
+        finally
+        {
+            listener.cancel(pending);
+            incomingMessageHandlingCounter.finish(startTime);
+        }
+    }
+
+    /**
+     * Returns the long poll dispatcher of this destination. The dispatcher is created when it is
+     * first needed.
+     *
+     * @return  The dispatcher or <code>null</code> if the getMessage requests wait in the
+     *          processor thread.
+     */
+    synchronized LongPollDispatcher getLongPollDispatcher()
+    {
+        if ((longPollDispatcher != null) || bLongPollFailed || !canRead || !initializedCorrectly)
+        {
+            return longPollDispatcher;
+        }
+
+        try
+        {
+            if (!config.isLongPoll(destinationManager.getName(), name))
+            {
+                bLongPollFailed = true;
+                return null;
+            }
+
+            longPollDispatcher = new LongPollDispatcher(this, managedComponent);
+        }
+        catch (Exception e)
+        {
+            bLongPollFailed = true;
+            JMSConnector.jmsLogger.warn(e, LogMessages.LONG_POLL_CREATE_ERROR, getIdentifier());
+        }
+
+        return longPollDispatcher;
+    }
+
+    /**
+     * Returns the publisher that puts error messages in this destination in batches. The
+     * publisher is created when it is first needed.
+     *
+     * @return  The publisher or <code>null</code> if the error messages must be sent
+     *          synchronously.
+     */
+    synchronized ErrorPublisher getErrorPublisher()
+    {
+        if ((errorPublisher != null) || bErrorPublisherFailed || bIsDynamic ||
+                !initializedCorrectly)
+        {
+            return errorPublisher;
+        }
+
+        try
+        {
+            int batchSize = config.getErrorBatchSize(destinationManager.getName(), name);
+
+            if (batchSize <= 0)
+            {
+                bErrorPublisherFailed = true;
+                return null;
+            }
+
+            errorPublisher = new ErrorPublisher(this, batchSize,
+                                                config.getErrorBacklogSize(destinationManager
+                                                                           .getName(), name),
+                                                managedComponent);
+        }
+        catch (Exception e)
+        {
+            bErrorPublisherFailed = true;
+            JMSConnector.jmsLogger.warn(e, LogMessages.ERROR_PUBLISHER_CREATE_ERROR,
+                                        getIdentifier());
+        }
+
+        return errorPublisher;
+    }
+
+    /**
+     * Returns the shared reply listener of this destination. The listener is created when it is
+     * first needed.
+     *
+     * @return  The reply listener or <code>null</code> if the replies must be received with a
+     *          correlation ID selector.
+     */
+    synchronized ReplyListener getReplyListener()
+    {
+        if ((replyListener != null) || bIsDynamic || !canRead || !initializedCorrectly)
+        {
+            return replyListener;
+        }
+
+        try
+        {
+            if (!config.isSharedReplyListener(destinationManager.getName(), name))
+            {
+                return null;
+            }
+
+            String managerName = destinationManager.getName();
+
+            replyListener = new ReplyListener(this, config.getLateReplyPolicy(managerName, name),
+                                              config.getReplyIndexSize(managerName, name),
+                                              config.getReplyIndexMaxAge(managerName, name),
+                                              managedComponent);
+        }
+        catch (Exception e)
+        {
+            JMSConnector.jmsLogger.warn(e, LogMessages.REPLY_LISTENER_CREATE_ERROR,
+                                        getIdentifier());
+        }
+
+        return replyListener;
+    }
+
+    /**
+     * Returns the timeout for actions on the JMS destination.
+     *
+     * @return  The timeout in milliseconds.
+     */
+    int getTimeout()
+    {
+        return timeout;
+    }
+
+    /**
+     * Returns a copy of the list of triggers of this destination.
+     *
+     * @return  The triggers.
+     */
+    List<Trigger> getTriggers()
+    {
+        List<Trigger> triggers = lTriggers;
+
+        if (triggers == null)
+        {
+            return new ArrayList<Trigger>();
+        }
+
+        synchronized (triggers)
+        {
+            return new ArrayList<Trigger>(triggers);
+        }
+    }
+
+    /**
+     * Returns the worker pool that executes the trigger SOAP requests for this destination.
+     *
+     * @return  The worker pool or <code>null</code> if the triggers execute the requests
+     *          themselves.
+     */
+    TriggerWorkerPool getTriggerWorkerPool()
+    {
+        return triggerWorkerPool;
+    }
+
+    /**
+     * Replaces the triggers and closes the shared reply listener whose session belonged to a
+     * connection that failed or was reconnected. The other triggers keep running. Used by the
+     * destination manager after it reconnected a failed connection.
+     *
+     * @throws  GeneralException  In case a trigger could not be created.
+     * @throws  JMSException      In case a trigger could not be created.
+     */
+    void reconnectFailedSessions()
+                          throws GeneralException, JMSException
+    {
+        ReplyListener listener;
+
+        synchronized (this)
+        {
+            listener = replyListener;
+        }
+
+        if ((listener != null) && !listener.isConnected())
+        {
+            // A new listener is created for the next request.
+            closeReplyListener();
+        }
+
+        List<Trigger> triggers = lTriggers;
+        List<Trigger> current;
+
+        if (triggers == null)
+        {
+            return;
+        }
+
+        synchronized (triggers)
+        {
+            current = new ArrayList<Trigger>(triggers);
+        }
+
+        String triggerName = null;
+
+        for (int i = 0; i < current.size(); i++)
+        {
+            Trigger trigger = current.get(i);
+
+            if (trigger.isConnected())
+            {
+                continue;
+            }
+
+            trigger.close(false);
+
+            if (triggerName == null)
+            {
+                triggerName = config.getTriggerNameForDestination(destinationManager.getName(),
+                                                                  name);
+            }
+
+            Trigger replacement = createTrigger(triggerName, i);
+            boolean replaced = false;
+
+            synchronized (triggers)
+            {
+                int index = triggers.indexOf(trigger);
+
+                if (index >= 0)
+                {
+                    triggers.set(index, replacement);
+                    replaced = true;
+                }
+            }
+
+            if (!replaced)
+            {
+                // The trigger scaler removed the trigger in the meantime.
+                replacement.close(false);
+            }
+        }
+    }
+
+    /**
+     * Removes the last trigger of this destination. The other triggers keep running. Used by the
+     * trigger scaler.
+     *
+     * @throws  JMSException  In case of any exceptions
+     */
+    void removeTrigger()
+                throws JMSException
+    {
+        List<Trigger> triggers = lTriggers;
+        Trigger trigger;
+
+        if (triggers == null)
+        {
+            return;
+        }
+
+        synchronized (triggers)
+        {
+            if (triggers.size() <= 1)
+            {
+                return;
+            }
+
+            trigger = triggers.remove(triggers.size() - 1);
+        }
+
+        trigger.close(false);
+    }
+
+    /**
+     * Returns the JMS destination a getMessage request receives from.
+     *
+     * @param   session                  The session of the request.
+     * @param   sDestinationProviderUrl  The provider URL of a dynamic destination or <code>
+     *                                   null</code>.
+     *
+     * @return  The JMS destination.
+     *
+     * @throws  JMSException  In case the dynamic destination could not be created.
+     */
+    javax.jms.Destination getReceiveDestination(Session session, String sDestinationProviderUrl)
+                                         throws JMSException
+    {
+        if ((sDestinationProviderUrl == null) || (sDestinationProviderUrl.length() == 0))
+        {
+            return destination;
+        }
+
+        // Dynamic destinations are currently always queues.
+        if (JMSConnector.jmsLogger.isDebugEnabled())
+        {
+            JMSConnector.jmsLogger.debug("Using a dynamic get queue: " + sDestinationProviderUrl);
+        }
+
+        return session.createQueue(sDestinationProviderUrl);
+    }
+
+    /**
+     * Returns the message selector of a getMessage request.
+     *
+     * @param   selector       The message selector of the request or <code>null</code>.
+     * @param   correlationId  The correlation ID of the request or <code>null</code>.
+     *
+     * @return  The selector or <code>null</code> if all messages are received.
+     */
+    static String getReceiveSelector(String selector, String correlationId)
+    {
+        if (correlationId != null)
+        {
+            if (selector == null)
+            {
+                selector = "JMSCorrelationID = '" + correlationId + "'";
+            }
+            else
+            {
+                selector = "(" + selector + " ) and JMSCorrelationID = '" + correlationId + "'";
+            }
+        }
+
+        if ((selector != null) && JMSConnector.jmsLogger.isDebugEnabled())
+        {
+            JMSConnector.jmsLogger.debug("Message receive selector is: " +
+                                         JMSUtil.safeFormatLogMessage(selector));
+        }
+
+        return selector;
+    }
+
+    /**
+     * Converts the received message to XML and adds it and the message information under the
+     * result node.
+     *
+     * @param   msg            The received message.
+     * @param   source         The JMS destination the message was received from.
+     * @param   resultNode     Message is added under this node.
+     * @param   messageFormat  Message format string.
+     *
+     * @throws  Exception  In case the message could not be converted.
+     */
+    void writeMessage(Message msg, javax.jms.Destination source, int resultNode,
+                      String messageFormat)
+               throws Exception
+    {
+        // Find out message character set.
+        Charset charset = getDefaultCharset();
+
+        if (charset == null)
+        {
+            throw new JMSConnectorException("Unable to determine character set.");
+        }
+
+        String utf8String = null;
+        byte[] byteMessage = null;
+
+        if (msg instanceof BytesMessage)
+        {
+            int len = (int) ((BytesMessage) msg).getBodyLength();
+
+            byteMessage = new byte[len];
+            ((BytesMessage) msg).readBytes(byteMessage);
+
+            if (!"base64".equalsIgnoreCase(messageFormat))
+            {
+                // We are not base64 encoding it, so convert it using configured character
+                // set.
+                utf8String = new String(byteMessage, charset);
+                byteMessage = null;
+            }
+        }
+        else if (msg instanceof TextMessage)
+        {
+            TextMessage jmsTextMessage = (TextMessage) msg;
+            utf8String = jmsTextMessage.getText();
+        }
+        else
+        {
+            throw new JMSConnectorException("Cannot handle message of type '" +
+                                            msg.getClass().getName() +
+                                            "'. Only BytesMessage and TextMessage is supported.");
+        }
+
+        // convert to xml;
+        if (((messageFormat == null) || "".equals(messageFormat)) && (btcProtocol == null))
+        {
+            Node.createCDataElement("message", utf8String, resultNode);
+        }
+        else if ("base64".equalsIgnoreCase(messageFormat))
+        {
+            String result;
+            byte[] tmpBytes;
+
+            if (byteMessage != null)
+            {
+                tmpBytes = byteMessage;
+            }
+            else
+            {
+                try
+                {
+                    tmpBytes = utf8String.getBytes("UTF-8");
+                }
+                catch (UnsupportedEncodingException e)
+                {
+                    // This should not happen.
+                    throw new IllegalStateException("UTF-8 encoding failed.", e);
+                }
+            }
+
+            result = JMSUtil.base64encode(tmpBytes);
+            Node.createCDataElement("message", result, resultNode);
+        }
+        else if ("xml".equalsIgnoreCase(messageFormat))
+        {
+            int result = Node.getDocument(resultNode).parseString(utf8String);
+            Node.appendToChildren(result, resultNode);
+        }
+        else if ("xmlMessage".equalsIgnoreCase(messageFormat))
+        {
+            // GS Start
+            int msgNode = Node.createElement("message", resultNode);
+            int result = Node.getDocument(resultNode).parseString(utf8String);
+            Node.appendToChildren(result, msgNode);
+            // GS End
+        }
+        else if ((messageFormat != null) && !"".equals(messageFormat))
+        {
+            int msgNode = Node.createElement("message", resultNode);
+            Node.appendToChildren(connector.getParserEngine(messageFormat).externalToXML(utf8String
+                                                                                         .getBytes(),
+                                                                                         messageFormat,
+                                                                                         false),
+                                  msgNode);
+        }
+        else
+        {
+            int msgNode = Node.createElement("message", resultNode);
+            Node.appendToChildren(connector.getParserEngine(btcProtocol).externalToXML(utf8String
+                                                                                       .getBytes(),
+                                                                                       btcProtocol,
+                                                                                       false),
+                                  msgNode);
+        }
+
+        // If the destination is not set in the message for some reason, set it now.
+        if (msg.getJMSDestination() == null)
+        {
+            msg.setJMSDestination(source);
+        }
+
+        // read default information
+        JMSUtil.getInformationFromMessage(this, msg, resultNode);
+    }
+
     /**
      * DOCUMENTME.
      *
@@ -1276,6 +2032,8 @@ public class Destination
     void restart()
           throws GeneralException, JMSException
     {
+        stopTriggerScaler();
+
         if (lTriggers != null)
         {
         	// Fix if Triggers are not created at the start. E.g If Durable subscribes are not created
@@ -1290,25 +2048,53 @@ public class Destination
         if (!bIsDynamic)
         {
             // re-register it:
-            registeredDestinations.put(JMSUtil.getDestinationURI(destination), this);
+            DestinationRegistry.registerURI(JMSUtil.getDestinationURI(destination), this);
         }
     }
 
     /**
      * Sends a message to the error queue. Original message ID will be put in property
-     * 'CORDYS_ORIG_MSGID' and error message in property 'CORDYS_PROCESS_ERROR'. This method creates
-     * a new session.
+     * 'CORDYS_ORIG_MSGID' and error message in property 'CORDYS_PROCESS_ERROR'. When this
+     * destination has an error publisher the message is queued and committed in the background,
+     * otherwise this method creates a new session.
      *
      * @param   msg           Message to be sent.
      * @param   errorMessage  Error message to be put in property 'CORDYS_PROCESS_ERROR'.
      *
-     * @return  Message ID of this message in the error queue (JMS always generates a new ID).
+     * @return  Message ID of this message in the error queue (JMS always generates a new ID) or
+     *          <code>null</code> if the message was queued.
      *
      * @throws  JMSException           Thrown if the message could not put into the error queue.
      * @throws  JMSConnectorException
      */
     String sendErrorMessage(Message msg, String errorMessage)
                      throws JMSException, JMSConnectorException
+    {
+        ErrorPublisher publisher = getErrorPublisher();
+
+        if ((publisher != null) && publisher.publish(msg, errorMessage))
+        {
+            return null;
+        }
+
+        return sendErrorMessageNow(msg, errorMessage);
+    }
+
+    /**
+     * Sends a message to the error queue with a new session and commits it before returning. This
+     * method must be used when the original message is already acknowledged, because the error
+     * publisher drops a message that it cannot send.
+     *
+     * @param   msg           Message to be sent.
+     * @param   errorMessage  Error message to be put in property 'CORDYS_PROCESS_ERROR'.
+     *
+     * @return  Message ID of this message in the error queue (JMS always generates a new ID).
+     *
+     * @throws  JMSException           Thrown if the message could not put into the error queue.
+     * @throws  JMSConnectorException
+     */
+    String sendErrorMessageNow(Message msg, String errorMessage)
+                        throws JMSException, JMSConnectorException
     {
         Session session = destinationManager.createTriggerSession();
 
@@ -1320,7 +2106,7 @@ public class Destination
         {
             if (session != null)
             {
-                session.close();
+                destinationManager.closeSession(session);
             }
         }
     }
@@ -1341,9 +2127,53 @@ public class Destination
      */
     String sendErrorMessage(Message msg, String errorMessage, Session session)
                      throws JMSException, JMSConnectorException
+    {
+        return sendErrorMessage(msg, errorMessage, session, null, true);
+    }
+
+    /**
+     * Sends a message to the error queue using an existing session. When <code>commit</code> is
+     * <code>false</code> the session is not committed, so the error message becomes part of the
+     * current transaction of the session.
+     *
+     * @param   msg           Message to be sent.
+     * @param   errorMessage  Error message to be put in property 'CORDYS_PROCESS_ERROR'.
+     * @param   session       Session to be used.
+     * @param   commit        Whether or not the session should be committed.
+     *
+     * @return  Message ID of this message in the error queue (JMS always generates a new ID).
+     *
+     * @throws  JMSException           Thrown if the message could not put into the error queue.
+     * @throws  JMSConnectorException
+     */
+    String sendErrorMessage(Message msg, String errorMessage, Session session, boolean commit)
+                     throws JMSException, JMSConnectorException
+    {
+        return sendErrorMessage(msg, errorMessage, session, null, commit);
+    }
+
+    /**
+     * Sends a message to the error queue using an existing session and the producers of the
+     * owner of the session. When <code>commit</code> is <code>false</code> the session is not
+     * committed, so the error message becomes part of the current transaction of the session.
+     *
+     * @param   msg            Message to be sent.
+     * @param   errorMessage   Error message to be put in property 'CORDYS_PROCESS_ERROR'.
+     * @param   session        Session to be used.
+     * @param   producerCache  The producer cache of the session or <code>null</code> to use a
+     *                         producer for this message only.
+     * @param   commit         Whether or not the session should be committed.
+     *
+     * @return  Message ID of this message in the error queue (JMS always generates a new ID).
+     *
+     * @throws  JMSException           Thrown if the message could not put into the error queue.
+     * @throws  JMSConnectorException
+     */
+    String sendErrorMessage(Message msg, String errorMessage, Session session,
+                            ProducerCache producerCache, boolean commit)
+                     throws JMSException, JMSConnectorException
     {
         Message errMsg = null;
-        MessageProducer producer = null;
         String sOrigMsgId;
 
         try
@@ -1355,32 +2185,49 @@ public class Destination
             sOrigMsgId = "Unkwown";
         }
 
-        try
+        errMsg = JMSUtil.getCopyOfMessageForSession(msg, session);
+        errMsg.setStringProperty("CORDYS_ORIG_MSGID", sOrigMsgId);
+        errMsg.setStringProperty("CORDYS_PROCESS_ERROR", errorMessage);
+
+        if (JMSConnector.jmsLogger.isInfoEnabled())
         {
-            producer = session.createProducer(destination);
+            JMSConnector.jmsLogger.info(LogMessages.DESTINATION_SEND_ERROR_MESSAGE,
+                                        errMsg.toString());
+        }
 
-            errMsg = JMSUtil.getCopyOfMessageForSession(msg, session);
-            errMsg.setStringProperty("CORDYS_ORIG_MSGID", sOrigMsgId);
-            errMsg.setStringProperty("CORDYS_PROCESS_ERROR", errorMessage);
+        MessageProducer producer = (producerCache != null)
+                                   ? producerCache.getProducer(session, destination,
+                                                               getIdentifier(), null)
+                                   : session.createProducer(destination);
 
-            if (JMSConnector.jmsLogger.isInfoEnabled())
+        try
+        {
+            producer.send(errMsg, Message.DEFAULT_DELIVERY_MODE, Message.DEFAULT_PRIORITY,
+                          Message.DEFAULT_TIME_TO_LIVE);
+        }
+        catch (JMSException e)
+        {
+            if (producerCache != null)
             {
-                JMSConnector.jmsLogger.info(LogMessages.DESTINATION_SEND_ERROR_MESSAGE,
-                                            errMsg.toString());
+                producerCache.invalidate(getIdentifier(), null);
             }
 
-            producer.send(errMsg);
-            session.commit();
-
-            return errMsg.getJMSMessageID();
+            throw e;
         }
         finally
         {
-            if (producer != null)
+            if (producerCache == null)
             {
                 producer.close();
             }
         }
+
+        if (commit)
+        {
+            session.commit();
+        }
+
+        return errMsg.getJMSMessageID();
     }
 
     /**
@@ -1396,6 +2243,18 @@ public class Destination
             JMSConnector.jmsLogger.info(LogMessages.DESTINATION_STARTING, name);
         }
 
+        resolveErrorDestination();
+    }
+
+    /**
+     * Looks up the error destination of this destination. This is called again after a
+     * configuration reload, because the error destination may have been replaced.
+     *
+     * @throws  JMSConfigurationException  In case the configuration is not valid.
+     */
+    void resolveErrorDestination()
+                          throws JMSConfigurationException
+    {
         // register error destination if used..
         String errorDestRef;
 
@@ -1404,10 +2263,8 @@ public class Destination
             errorDestRef = config.getDestinationErrorDestinationReference(destinationManager
                                                                           .getName(), name);
 
-            if (errorDestRef != null)
-            {
-                errorDestination = connector.getDestinationByURI(errorDestRef);
-            }
+            errorDestination = (errorDestRef != null)
+                               ? connector.getDestinationByURI(errorDestRef) : null;
         }
         catch (GeneralException e)
         {
@@ -1419,6 +2276,143 @@ public class Destination
         }
     }
 
+    /**
+     * Returns the size of the message body.
+     *
+     * @param   msg  The message.
+     *
+     * @return  The size in bytes (characters for text messages).
+     *
+     * @throws  JMSException  In case the body could not be read.
+     */
+    private static long getBodySize(Message msg)
+                             throws JMSException
+    {
+        if (msg instanceof BytesMessage)
+        {
+            return ((BytesMessage) msg).getBodyLength();
+        }
+
+        if (msg instanceof TextMessage)
+        {
+            String text = ((TextMessage) msg).getText();
+
+            return (text != null) ? text.length() : 0;
+        }
+
+        return 0;
+    }
+
+    /**
+     * Checks if messages can be read from this destination.
+     *
+     * @param   sDestinationProviderUrl  Provider specific URL or <code>null</code>.
+     *
+     * @throws  JMSConnectorException  In case messages cannot be read.
+     */
+    private void checkReadAccess(String sDestinationProviderUrl)
+                          throws JMSConnectorException
+    {
+        if (!initializedCorrectly)
+        {
+            throw new JMSConfigurationException("Destination is not correctly configured, see error log for details");
+        }
+
+        if (!canRead)
+        {
+            throw new JMSConnectorException("Destination has no read access");
+        }
+
+        if (bIsDynamic && (sDestinationProviderUrl == null))
+        {
+            throw new JMSConnectorException("Physical name must be specified for a dynamic destination.");
+        }
+        else if (!bIsDynamic && (sDestinationProviderUrl != null))
+        {
+            throw new JMSConnectorException("Physical name can only be specified for a dynamic destination.");
+        }
+    }
+
+    /**
+     * Stops the long poll dispatcher if it is running.
+     */
+    private void closeLongPollDispatcher()
+    {
+        LongPollDispatcher dispatcher;
+
+        synchronized (this)
+        {
+            dispatcher = longPollDispatcher;
+            longPollDispatcher = null;
+            bLongPollFailed = false;
+        }
+
+        if (dispatcher != null)
+        {
+            dispatcher.close();
+        }
+    }
+
+    /**
+     * Stops the error publisher if it is running. The error messages that are still queued are
+     * sent first.
+     */
+    private void closeErrorPublisher()
+    {
+        ErrorPublisher publisher;
+
+        synchronized (this)
+        {
+            publisher = errorPublisher;
+            errorPublisher = null;
+            bErrorPublisherFailed = false;
+        }
+
+        if (publisher != null)
+        {
+            publisher.close();
+        }
+    }
+
+    /**
+     * Closes the shared reply listener if it is running.
+     */
+    private void closeReplyListener()
+    {
+        ReplyListener listener;
+
+        synchronized (this)
+        {
+            listener = replyListener;
+            replyListener = null;
+        }
+
+        if (listener != null)
+        {
+            listener.close();
+        }
+    }
+
+    /**
+     * Creates a trigger for this destination.
+     *
+     * @param   triggerName  The name of the trigger.
+     * @param   index        The index of the trigger. Used for the JMX id.
+     *
+     * @return  The created trigger.
+     *
+     * @throws  GeneralException  In case of any exceptions
+     * @throws  JMSException      In case of any exceptions
+     */
+    private Trigger createTrigger(String triggerName, int index)
+                           throws GeneralException, JMSException
+    {
+        String sTriggerJmxId = triggerName + ((index > 0) ? ("-" + (index + 1)) : "");
+
+        return new Trigger(connector, destinationManager, config, this, triggerName,
+                           managedComponent, sTriggerJmxId);
+    }
+
     /**
      * DOCUMENTME.
      *
@@ -1480,12 +2474,13 @@ public class Destination
             sDynamicDestinationParameterString = config.getDynamicDestinationParameterString(destinationManager
                                                                                              .getName(),
                                                                                              name);
+            mDynamicDestinationParameters = JMSUtil.parseDynamicDestinationParameters(sDynamicDestinationParameterString);
         }
 
         if (!bIsDynamic)
         {
             // register it:
-            registeredDestinations.put(JMSUtil.getDestinationURI(destination), this);
+            DestinationRegistry.registerURI(JMSUtil.getDestinationURI(destination), this);
             createAnyTrigger();
         }
 
@@ -1499,4 +2494,16 @@ public class Destination
 
         initializedCorrectly = true;
     }
+
+    /**
+     * Stops the trigger scaler if it is running.
+     */
+    private void stopTriggerScaler()
+    {
+        if (triggerScaler != null)
+        {
+            triggerScaler.stop(true);
+            triggerScaler = null;
+        }
+    }
 }
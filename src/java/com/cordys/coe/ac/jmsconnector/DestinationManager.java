@@ -31,9 +31,18 @@ import com.eibus.util.logger.Severity;
 
 import java.nio.charset.Charset;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.jms.Connection;
 import javax.jms.ConnectionFactory;
@@ -55,6 +64,7 @@ import javax.naming.NamingException;
  * @author  $author$
  */
 public class DestinationManager
+    implements SessionPool.SessionFactory
 {
     /**
      * DOCUMENTME.
@@ -84,6 +94,26 @@ public class DestinationManager
      * DOCUMENTME.
      */
     private Connection connection;
+    /**
+     * The physical connections. The first one is the primary connection.
+     */
+    private ConnectionStripe[] connectionStripes;
+    /**
+     * Indicates whether a connection other than the primary connection failed.
+     */
+    private volatile boolean bConnectionStripeFailed;
+    /**
+     * Indicates whether the connection with the fewest open sessions is used for new sessions.
+     */
+    private boolean bLeastLoadedConnection;
+    /**
+     * The next connection in round-robin order.
+     */
+    private final AtomicInteger nextConnectionStripe = new AtomicInteger();
+    /**
+     * The connection of each open session.
+     */
+    private final Map<Session, SessionConnection> sessionConnections = Collections.synchronizedMap(new WeakHashMap<Session, SessionConnection>());
     /**
      * DOCUMENTME.
      */
@@ -99,7 +129,7 @@ public class DestinationManager
     /**
      * DOCUMENTME.
      */
-    private Hashtable<String, Destination> destinations;
+    private ConcurrentHashMap<String, Destination> destinations;
     /**
      * DOCUMENTME.
      */
@@ -136,6 +166,11 @@ public class DestinationManager
      * DOCUMENTME.
      */
     private Session sShutdownListenSession;
+    /**
+     * The JNDI context of the destination manager. This is kept to create destinations when the
+     * configuration is reloaded.
+     */
+    private InitialContext jndiContext;
     /**
      * DOCUMENTME.
      */
@@ -144,6 +179,43 @@ public class DestinationManager
      * DOCUMENTME.
      */
     private TemporaryQueue tqShutdownListenQueue;
+    /**
+     * The time in milliseconds after which an unused cached consumer is closed.
+     */
+    private long lConsumerCacheIdleTimeout;
+    /**
+     * The maximum number of cached consumers per session.
+     */
+    private int iConsumerCacheSize;
+    /**
+     * The number of physical connections.
+     */
+    private int iConnectionCount = 1;
+    /**
+     * Holds the transacted sessions of the SOAP transactions.
+     */
+    private SessionPool sessionPool;
+    /**
+     * Indicates whether request messages without a reply destination use a temporary queue.
+     */
+    private boolean bUseTemporaryReplyQueue;
+    /**
+     * The late reply policy of the temporary reply queue.
+     */
+    private String sLateReplyPolicy;
+    /**
+     * The maximum time in milliseconds a reply is kept in the reply index of the temporary reply
+     * queue.
+     */
+    private long lReplyIndexMaxAge;
+    /**
+     * The maximum number of replies in the reply index of the temporary reply queue.
+     */
+    private int iReplyIndexSize;
+    /**
+     * Receives the replies on the temporary reply queue. Created when it is first needed.
+     */
+    private ReplyListener temporaryReplyListener;
     /**
      * DOCUMENTME.
      */
@@ -171,7 +243,7 @@ public class DestinationManager
         }
 
         this.name = managerName;
-        this.destinations = new Hashtable<String, Destination>();
+        this.destinations = new ConcurrentHashMap<String, Destination>();
         this.jcAppConnector = connector;
 
         try
@@ -269,6 +341,10 @@ public class DestinationManager
                 }
             }
         }
+        else if (bConnectionStripeFailed)
+        {
+            reconnectConnectionStripes();
+        }
         else
         {
         	// This is a fix for configuring JMS Connector in failover mode. 
@@ -334,6 +410,13 @@ public class DestinationManager
 
         tqShutdownListenQueue = null;
 
+        closeTemporaryReplyListener();
+
+        if (sessionPool != null)
+        {
+            sessionPool.close(!stopOnly);
+        }
+
         if (mcShutdownMessageConsumer != null)
         {
             if (JMSConnector.jmsLogger.isDebugEnabled())
@@ -429,6 +512,11 @@ public class DestinationManager
 
             if (!stopOnly)
             {
+                for (Destination destination : destinations.values())
+                {
+                    DestinationRegistry.unregisterIdentifier(destination);
+                }
+
                 destinations.clear();
                 destinations = null;
 
@@ -461,6 +549,8 @@ public class DestinationManager
             connection = null;
         }
 
+        closeConnectionStripes();
+
         if (!stopOnly)
         {
             initializedCorrectly = false;
@@ -472,6 +562,45 @@ public class DestinationManager
         }
     }
 
+    /**
+     * Returns the number of physical connections.
+     *
+     * @return  The number of connections.
+     */
+    public int getConnectionCount()
+    {
+        return iConnectionCount;
+    }
+
+    /**
+     * Returns the number of open sessions of each connection.
+     *
+     * @return  The sessions per connection.
+     */
+    public String getConnectionLoad()
+    {
+        ConnectionStripe[] stripes = connectionStripes;
+
+        if (stripes == null)
+        {
+            return "";
+        }
+
+        StringBuilder sb = new StringBuilder();
+
+        for (ConnectionStripe stripe : stripes)
+        {
+            if (sb.length() > 0)
+            {
+                sb.append(", ");
+            }
+
+            sb.append(stripe);
+        }
+
+        return sb.toString();
+    }
+
     /**
      * Returns the defaultCharset.
      *
@@ -512,6 +641,51 @@ public class DestinationManager
         return (com.cordys.coe.ac.jmsconnector.Destination) destinations.get(destinationName);
     }
 
+    /**
+     * Returns the time after which an unused cached consumer is closed.
+     *
+     * @return  The idle timeout in milliseconds.
+     */
+    public long getConsumerCacheIdleTimeout()
+    {
+        return lConsumerCacheIdleTimeout;
+    }
+
+    /**
+     * Returns the maximum number of consumers that are kept open per session.
+     *
+     * @return  The consumer cache size or 0 if consumers are not cached.
+     */
+    public int getConsumerCacheSize()
+    {
+        return iConsumerCacheSize;
+    }
+
+    /**
+     * Returns the listener for the temporary reply queue of this destination manager. The
+     * temporary queue is created when it is first needed.
+     *
+     * @return  The reply listener or <code>null</code> if temporary reply queues are not used.
+     *
+     * @throws  JMSException  In case the temporary queue could not be created.
+     */
+    public synchronized ReplyListener getTemporaryReplyListener()
+                                                         throws JMSException
+    {
+        if (!bUseTemporaryReplyQueue || !initializedCorrectly || (connection == null))
+        {
+            return null;
+        }
+
+        if (temporaryReplyListener == null)
+        {
+            temporaryReplyListener = new ReplyListener(this, sLateReplyPolicy, iReplyIndexSize,
+                                                       lReplyIndexMaxAge, managedComponent);
+        }
+
+        return temporaryReplyListener;
+    }
+
     /**
      * Returns the dynamicDestination.
      *
@@ -580,6 +754,8 @@ public class DestinationManager
 
             try
             {
+                openConnectionStripes();
+
                 if (JMSConnector.jmsLogger.isInfoEnabled())
                 {
                     JMSConnector.jmsLogger.info(LogMessages.DESTINATIONMANAGER_RESTARTING, name);
@@ -593,7 +769,7 @@ public class DestinationManager
                 {
                     enumDestinations.nextElement().restart();
                 }
-                connection.start();
+                startConnectionStripes();
                 createExceptionListener();
                 bStartedOk = true;
             }
@@ -625,6 +801,7 @@ public class DestinationManager
     public void setDynamicDestination(Destination aDynamicDestination)
     {
         dDynamicDestination = aDynamicDestination;
+        JMSUtil.clearDestinationNameCache();
     }
 
     /**
@@ -655,7 +832,7 @@ public class DestinationManager
             enumDestinations.nextElement().start();
         }
 
-        connection.start();
+        startConnectionStripes();
 
         createExceptionListener();
 
@@ -705,7 +882,295 @@ public class DestinationManager
 
         // create a session transacted, and undefined acknowledge mode (not needed, because we use
         // transacted)
-        return connection.createSession(true, 0);
+        return openSession(selectConnectionStripe(false));
+    }
+
+    /**
+     * Returns a transacted session for a SOAP transaction. The session is taken from the session
+     * pool if possible and must be returned with <code>releaseSession</code>.
+     *
+     * @return  The session and its cached consumers.
+     *
+     * @throws  JMSException               In case of any exceptions
+     * @throws  JMSConfigurationException  In case of any exceptions
+     * @throws  JMSConnectorException      In case of any exceptions
+     */
+    PooledSession borrowSession()
+                         throws JMSException, JMSConfigurationException, JMSConnectorException
+    {
+        SessionPool pool = sessionPool;
+
+        return (pool != null) ? pool.borrowSession() : createPooledSession();
+    }
+
+    /**
+     * Creates a transacted session for the session pool.
+     *
+     * @return  The session.
+     *
+     * @throws  JMSException               In case of any exceptions
+     * @throws  JMSConfigurationException  In case of any exceptions
+     * @throws  JMSConnectorException      In case of any exceptions
+     *
+     * @see     com.cordys.coe.ac.jmsconnector.SessionPool.SessionFactory#createPooledSession()
+     */
+    public PooledSession createPooledSession()
+                                      throws JMSException, JMSConfigurationException,
+                                             JMSConnectorException
+    {
+        Session session = createSession();
+        SessionConnection sessionConnection = sessionConnections.get(session);
+
+        if (sessionConnection == null)
+        {
+            return new PooledSession(session, null, 0, iConsumerCacheSize,
+                                     lConsumerCacheIdleTimeout);
+        }
+
+        return new PooledSession(session, sessionConnection.stripe, sessionConnection.generation,
+                                 iConsumerCacheSize, lConsumerCacheIdleTimeout);
+    }
+
+    /**
+     * Returns a session of a SOAP transaction after it was committed or rolled back.
+     *
+     * @param  session  The session.
+     * @param  valid    <code>false</code> if the commit or rollback failed and the session must be
+     *                  closed.
+     */
+    void releaseSession(PooledSession session, boolean valid)
+    {
+        SessionPool pool = sessionPool;
+
+        if (pool != null)
+        {
+            pool.releaseSession(session, valid);
+            return;
+        }
+
+        try
+        {
+            closeSession(session);
+        }
+        catch (JMSException e)
+        {
+            JMSConnector.jmsLogger.error("Exception during closure of the session for Destination Manager " +
+                                         name, e);
+        }
+    }
+
+    /**
+     * Closes a session of a SOAP transaction together with its cached producers and consumers.
+     *
+     * @param   session  The session.
+     *
+     * @throws  JMSException  In case of any exceptions
+     *
+     * @see     com.cordys.coe.ac.jmsconnector.SessionPool.SessionFactory#closeSession(PooledSession)
+     */
+    public void closeSession(PooledSession session)
+               throws JMSException
+    {
+        session.closeCaches();
+        closeSession(session.getSession());
+    }
+
+    /**
+     * Closes a session that was created by this destination manager.
+     *
+     * @param   session  The session.
+     *
+     * @throws  JMSException  In case of any exceptions
+     */
+    void closeSession(Session session)
+               throws JMSException
+    {
+        SessionConnection sessionConnection = sessionConnections.remove(session);
+
+        if (sessionConnection != null)
+        {
+            sessionConnection.stripe.sessionClosed(sessionConnection.generation);
+        }
+
+        session.close();
+    }
+
+    /**
+     * Returns whether the connection of a session is still the one the session was created on.
+     * This is <code>false</code> when the connection failed or was reconnected since.
+     *
+     * @param   session  The session.
+     *
+     * @return  <code>true</code> if the session can still be used.
+     */
+    boolean isSessionConnected(Session session)
+    {
+        SessionConnection sessionConnection = sessionConnections.get(session);
+
+        return (sessionConnection == null) || sessionConnection.isCurrent();
+    }
+
+    /**
+     * Returns whether the destinations can be replaced without restarting the destination
+     * manager. This is not possible when the destination manager did not initialize correctly or
+     * when the shutdown destination is one of the destinations.
+     *
+     * @param   destinationNames  The names of the destinations to replace.
+     *
+     * @return  <code>true</code> if the destinations can be replaced.
+     */
+    boolean canReloadDestinations(Collection<String> destinationNames)
+    {
+        if (!initializedCorrectly || (destinations == null))
+        {
+            return false;
+        }
+
+        return (dShutdownDestination == null) ||
+               !destinationNames.contains(dShutdownDestination.getName());
+    }
+
+    /**
+     * Replaces destinations after the configuration was reloaded. The old destinations are closed
+     * and the destinations that are still configured are created and started with the new
+     * configuration. The connections, sessions and other destinations are not touched.
+     *
+     * @param   config            The new configuration.
+     * @param   destinationNames  The names of the destinations that were added, removed or
+     *                            changed.
+     *
+     * @throws  JMSConfigurationException  In case a destination could not be created.
+     */
+    void reloadDestinations(JMSConnectorConfiguration config, Collection<String> destinationNames)
+                     throws JMSConfigurationException
+    {
+        for (String destinationName : destinationNames)
+        {
+            Destination old = destinations.remove(destinationName);
+
+            if (old == null)
+            {
+                continue;
+            }
+
+            DestinationRegistry.unregisterIdentifier(old);
+
+            if (old == dDefaultErrorDestination)
+            {
+                dDefaultErrorDestination = null;
+            }
+
+            if (old == dDynamicDestination)
+            {
+                setDynamicDestination(null);
+            }
+
+            try
+            {
+                old.close(false);
+            }
+            catch (Exception e)
+            {
+                if (JMSConnector.jmsLogger.isDebugEnabled())
+                {
+                    JMSConnector.jmsLogger.debug("Ignored exception while closing a destination.",
+                                                 e);
+                }
+            }
+        }
+
+        List<Destination> created = new ArrayList<Destination>();
+
+        for (String destinationName : destinationNames)
+        {
+            if (config.getDestinationConfig(name, destinationName) == null)
+            {
+                continue;
+            }
+
+            try
+            {
+                Destination destination = new Destination(jcAppConnector, this, config,
+                                                          destinationName, managedComponent,
+                                                          jndiContext);
+
+                destinations.put(destinationName, destination);
+                DestinationRegistry.registerIdentifier(destination);
+                created.add(destination);
+            }
+            catch (Exception e)
+            {
+                throw new JMSConfigurationException(e,
+                                                    "Error while initializing destination " +
+                                                    destinationName + " of manager " + name);
+            }
+        }
+
+        for (Destination destination : created)
+        {
+            destination.start();
+        }
+    }
+
+    /**
+     * Adds the configurations that the destinations of this destination manager use. A
+     * destination that was replaced by a configuration reload uses the new configuration, the
+     * other destinations keep the configuration they were created with.
+     *
+     * @param  configurations  The set to add the configurations to.
+     */
+    void collectConfigurations(Set<JMSConnectorConfiguration> configurations)
+    {
+        Map<String, Destination> current = destinations;
+
+        if (current == null)
+        {
+            return;
+        }
+
+        for (Destination destination : current.values())
+        {
+            configurations.add(destination.getConfiguration());
+        }
+    }
+
+    /**
+     * Looks up the error destinations of all destinations again. This is called after a
+     * configuration reload, because an error destination may have been replaced.
+     *
+     * @throws  JMSConfigurationException  In case the configuration is not valid.
+     */
+    void resolveErrorDestinations()
+                           throws JMSConfigurationException
+    {
+        Map<String, Destination> current = destinations;
+
+        if (current == null)
+        {
+            return;
+        }
+
+        for (Destination destination : current.values())
+        {
+            destination.resolveErrorDestination();
+        }
+    }
+
+    /**
+     * Called by a connection other than the primary connection when it failed. The connection is
+     * reconnected by the next connection check.
+     *
+     * @param  stripe  The failed connection.
+     */
+    void connectionStripeFailed(ConnectionStripe stripe)
+    {
+        bConnectionStripeFailed = true;
+
+        // Idle sessions may belong to the failed connection.
+        if (sessionPool != null)
+        {
+            sessionPool.clear();
+        }
     }
 
     /**
@@ -718,13 +1183,69 @@ public class DestinationManager
      */
     Session createTriggerSession()
                           throws JMSException, JMSConfigurationException
+    {
+        return createTriggerSession(false);
+    }
+
+    /**
+     * Creates a session for a trigger or listener.
+     *
+     * @param   primary  Whether the session must use the primary connection. This is needed for
+     *                   durable subscriptions, because they are bound to the client ID.
+     *
+     * @return  The session.
+     *
+     * @throws  JMSException               In case of any exceptions
+     * @throws  JMSConfigurationException  In case of any exceptions
+     */
+    Session createTriggerSession(boolean primary)
+                          throws JMSException, JMSConfigurationException
     {
         if (!initializedCorrectly)
         {
             throw new JMSConfigurationException("Destination Manager is not correctly configured, see error log for details");
         }
 
-        return connection.createSession(true, 0);
+        return openSession(selectConnectionStripe(primary));
+    }
+
+    /**
+     * Closes the connections other than the primary connection. The primary connection is closed
+     * by <code>close()</code>.
+     */
+    private void closeConnectionStripes()
+    {
+        if (connectionStripes == null)
+        {
+            return;
+        }
+
+        for (ConnectionStripe stripe : connectionStripes)
+        {
+            stripe.close();
+        }
+
+        sessionConnections.clear();
+        bConnectionStripeFailed = false;
+    }
+
+    /**
+     * Closes the temporary reply queue listener if it is running.
+     */
+    private void closeTemporaryReplyListener()
+    {
+        ReplyListener listener;
+
+        synchronized (this)
+        {
+            listener = temporaryReplyListener;
+            temporaryReplyListener = null;
+        }
+
+        if (listener != null)
+        {
+            listener.close();
+        }
     }
 
     /**
@@ -736,6 +1257,21 @@ public class DestinationManager
      */
     private Connection createConnection()
                                  throws JMSException
+    {
+        return createConnection(this.getName());
+    }
+
+    /**
+     * Create a queue/topic connection with the given client ID.
+     *
+     * @param   clientId  The client ID of the connection.
+     *
+     * @return  The connection.
+     *
+     * @throws  JMSException  Thrown if the creation failed.
+     */
+    private Connection createConnection(String clientId)
+                                 throws JMSException
     {
     	Connection connection = null;
         if ((sConnectionUsername != null) && (sConnectionUsername.length() > 0) &&
@@ -748,7 +1284,7 @@ public class DestinationManager
         	connection = cFactory.createConnection();
         }
         //set clientID for publish subscriber. It will be set to the Destination Manager name
-        connection.setClientID(this.getName());
+        connection.setClientID(clientId);
 
         return connection;
     }
@@ -873,8 +1409,6 @@ public class DestinationManager
     private void initialize(JMSConnectorConfiguration config, IManagedComponent parentJMXComponent)
                      throws JMSConfigurationException
     {
-        InitialContext jndiContext;
-
         managedComponent = parentJMXComponent.createSubComponent("DestinationManager", name,
                                                                  LogMessages.JMX_DESTINATION_MANAGER_SUBCOMPONENT_NAME,
                                                                  this);
@@ -882,6 +1416,16 @@ public class DestinationManager
         try
         {
             timeout = config.getDestinationManagerTimeout(name);
+            bUseTemporaryReplyQueue = config.isDestinationManagerTemporaryReplyQueue(name);
+            iConsumerCacheSize = config.getDestinationManagerConsumerCacheSize(name);
+            lConsumerCacheIdleTimeout = config.getDestinationManagerConsumerCacheIdleTimeout(name);
+            sLateReplyPolicy = config.getDestinationManagerLateReplyPolicy(name);
+            iReplyIndexSize = config.getDestinationManagerReplyIndexSize(name);
+            lReplyIndexMaxAge = config.getDestinationManagerReplyIndexMaxAge(name);
+            sessionPool = new SessionPool(this, config.getDestinationManagerSessionPoolSize(name),
+                                          config.getDestinationManagerSessionPoolMaxActive(name),
+                                          config.getDestinationManagerSessionPoolIdleTimeout(name),
+                                          managedComponent);
 
             Hashtable<String, String> destinationManagerContext = config
                                                                   .getDestinationManagerContext(name);
@@ -889,8 +1433,12 @@ public class DestinationManager
             jndiContext = new InitialContext(destinationManagerContext);
             type = Type.getByInitialContext(destinationManagerContext.get("java.naming.factory.initial"));
             cFactory = (ConnectionFactory) jndiContext.lookup(config.getDestinationManagerJNDIName(name));
+            iConnectionCount = Math.max(1, config.getDestinationManagerConnectionCount(name));
+            bLeastLoadedConnection = "least-load".equals(config.getDestinationManagerConnectionSelection(name));
+
             // get connection
             connection = createConnection();
+            openConnectionStripes();
         }
         catch (GeneralException e)
         {
@@ -977,6 +1525,7 @@ public class DestinationManager
                                                                                                    managedComponent,
                                                                                                    jndiContext);
                 destinations.put(destinationNames[i], destination);
+                DestinationRegistry.registerIdentifier(destination);
             }
             catch (Exception e)
             {
@@ -1038,6 +1587,182 @@ public class DestinationManager
         bCheckConnectionOnRequest = config.getCheckConnectionOnRequest();
     }
 
+    /**
+     * Creates the connections other than the primary connection. Connections that are still
+     * connected are kept.
+     *
+     * @throws  JMSException  In case a connection could not be created.
+     */
+    private void openConnectionStripes()
+                                throws JMSException
+    {
+        if (connectionStripes == null)
+        {
+            connectionStripes = new ConnectionStripe[iConnectionCount];
+
+            for (int i = 0; i < connectionStripes.length; i++)
+            {
+                connectionStripes[i] = new ConnectionStripe(this, i);
+            }
+        }
+
+        connectionStripes[0].setConnection(connection);
+
+        for (int i = 1; i < connectionStripes.length; i++)
+        {
+            if (!connectionStripes[i].isConnected())
+            {
+                // The client ID must be unique, so only the primary connection uses the name.
+                connectionStripes[i].setConnection(createConnection(name + "-" + i));
+            }
+        }
+
+        bConnectionStripeFailed = false;
+    }
+
+    /**
+     * Creates a transacted session on the connection.
+     *
+     * @param   stripe  The connection.
+     *
+     * @return  The session.
+     *
+     * @throws  JMSException  In case of any exceptions
+     */
+    private Session openSession(ConnectionStripe stripe)
+                         throws JMSException
+    {
+        if (stripe == null)
+        {
+            throw new javax.jms.IllegalStateException("Destination manager " + name +
+                                                      " is not connected.");
+        }
+
+        int generation = stripe.getGeneration();
+        Session session = stripe.createSession(true, 0);
+
+        sessionConnections.put(session, new SessionConnection(stripe, generation));
+
+        return session;
+    }
+
+    /**
+     * Reconnects the connections that failed. Only the triggers and listeners whose session
+     * belonged to a failed connection are reconnected, the other destinations are not touched.
+     */
+    private void reconnectConnectionStripes()
+    {
+        try
+        {
+            openConnectionStripes();
+            startConnectionStripes();
+
+            ReplyListener listener;
+
+            synchronized (this)
+            {
+                listener = temporaryReplyListener;
+            }
+
+            if ((listener != null) && !listener.isConnected())
+            {
+                // The temporary queue was deleted with its connection. A new listener is created
+                // for the next request.
+                closeTemporaryReplyListener();
+            }
+
+            Enumeration<com.cordys.coe.ac.jmsconnector.Destination> enumDestinations = destinations
+                                                                                       .elements();
+
+            while (enumDestinations.hasMoreElements())
+            {
+                enumDestinations.nextElement().reconnectFailedSessions();
+            }
+
+            if (JMSConnector.jmsLogger.isInfoEnabled())
+            {
+                JMSConnector.jmsLogger.info(LogMessages.DESTINATIONMANAGER_CONNECTION_STRIPES_RECONNECTED,
+                                            name);
+            }
+        }
+        catch (Exception e)
+        {
+            bConnectionStripeFailed = true;
+
+            JMSConnector.jmsLogger.warn(e, LogMessages.DESTINATIONMANAGER_UNABLE_TO_RESTART, name,
+                                        e.getMessage());
+        }
+    }
+
+    /**
+     * Selects the connection for a new session, either round-robin or the one with the fewest
+     * open sessions. Connections that failed are skipped.
+     *
+     * @param   primary  Whether the primary connection must be used.
+     *
+     * @return  The connection or <code>null</code> if the connections are not created.
+     */
+    private ConnectionStripe selectConnectionStripe(boolean primary)
+    {
+        ConnectionStripe[] stripes = connectionStripes;
+
+        if (stripes == null)
+        {
+            return null;
+        }
+
+        if (primary || (stripes.length == 1))
+        {
+            return stripes[0];
+        }
+
+        ConnectionStripe selected = null;
+
+        if (bLeastLoadedConnection)
+        {
+            for (ConnectionStripe stripe : stripes)
+            {
+                if (stripe.isConnected() &&
+                        ((selected == null) || (stripe.getSessionCount() < selected.getSessionCount())))
+                {
+                    selected = stripe;
+                }
+            }
+        }
+        else
+        {
+            int start = nextConnectionStripe.getAndIncrement() & Integer.MAX_VALUE;
+
+            for (int i = 0; (i < stripes.length) && (selected == null); i++)
+            {
+                ConnectionStripe stripe = stripes[(start + i) % stripes.length];
+
+                if (stripe.isConnected())
+                {
+                    selected = stripe;
+                }
+            }
+        }
+
+        return (selected != null) ? selected : stripes[0];
+    }
+
+    /**
+     * Starts the delivery of messages on all connections.
+     *
+     * @throws  JMSException  In case a connection could not be started.
+     */
+    private void startConnectionStripes()
+                                 throws JMSException
+    {
+        connection.start();
+
+        for (int i = 1; i < connectionStripes.length; i++)
+        {
+            connectionStripes[i].start();
+        }
+    }
+
     /**
      * DOCUMENTME.
      *
@@ -1094,4 +1819,42 @@ public class DestinationManager
             return UNKNOWN;
         }
     }
+
+    /**
+     * The connection of a session and the generation of the connection when the session was
+     * created.
+     */
+    private static class SessionConnection
+    {
+        /**
+         * The generation of the connection when the session was created.
+         */
+        final int generation;
+        /**
+         * The connection.
+         */
+        final ConnectionStripe stripe;
+
+        /**
+         * Creates a new SessionConnection object.
+         *
+         * @param  stripe      The connection.
+         * @param  generation  The generation of the connection when the session was created.
+         */
+        SessionConnection(ConnectionStripe stripe, int generation)
+        {
+            this.stripe = stripe;
+            this.generation = generation;
+        }
+
+        /**
+         * Returns whether the session still belongs to the current connection.
+         *
+         * @return  <code>true</code> if the connection is connected and was not replaced.
+         */
+        boolean isCurrent()
+        {
+            return stripe.isConnected() && (stripe.getGeneration() == generation);
+        }
+    }
 }
@@ -0,0 +1,121 @@
+/*
+ *
+ *  Copyright 2004 Cordys R&D B.V.
+ *
+ *  This file is part of the Cordys JMS Connector.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.cordys.coe.ac.jmsconnector;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of the connector destinations. A destination can be looked up by its connector
+ * identifier (<code>manager.destination</code>) and by the physical name (URI) of its JMS
+ * destination. The lookups are done for every message, so they do not take a lock.
+ *
+ * <p>The destination name cache of <code>JMSUtil</code> is cleared whenever the registry changes.
+ * A destination is only removed when it is still the registered one, so closing a destination
+ * that was already replaced (e.g. after a configuration reload) does not remove its
+ * successor.</p>
+ */
+final class DestinationRegistry
+{
+    /**
+     * The destinations by connector identifier.
+     */
+    private static final ConcurrentMap<String, Destination> byIdentifier = new ConcurrentHashMap<String, Destination>();
+    /**
+     * The static destinations by physical name.
+     */
+    private static final ConcurrentMap<String, Destination> byURI = new ConcurrentHashMap<String, Destination>();
+
+    /**
+     * Creates a new DestinationRegistry object.
+     */
+    private DestinationRegistry()
+    {
+    }
+
+    /**
+     * Returns the destination with the connector identifier.
+     *
+     * @param   identifier  The identifier (<code>manager.destination</code>).
+     *
+     * @return  The destination or <code>null</code> if it is not registered.
+     */
+    static Destination getByIdentifier(String identifier)
+    {
+        return (identifier != null) ? byIdentifier.get(identifier) : null;
+    }
+
+    /**
+     * Returns the static destination with the physical name.
+     *
+     * @param   uri  The physical name without parameters.
+     *
+     * @return  The destination or <code>null</code> if it is not registered.
+     */
+    static Destination getByURI(String uri)
+    {
+        return (uri != null) ? byURI.get(uri) : null;
+    }
+
+    /**
+     * Registers the destination by its connector identifier.
+     *
+     * @param  destination  The destination.
+     */
+    static void registerIdentifier(Destination destination)
+    {
+        byIdentifier.put(destination.getIdentifier(), destination);
+        JMSUtil.clearDestinationNameCache();
+    }
+
+    /**
+     * Registers the destination by the physical name of its JMS destination.
+     *
+     * @param  uri          The physical name without parameters.
+     * @param  destination  The destination.
+     */
+    static void registerURI(String uri, Destination destination)
+    {
+        byURI.put(uri, destination);
+        JMSUtil.clearDestinationNameCache();
+    }
+
+    /**
+     * Removes the destination from the identifier index if it is still registered.
+     *
+     * @param  destination  The destination.
+     */
+    static void unregisterIdentifier(Destination destination)
+    {
+        byIdentifier.remove(destination.getIdentifier(), destination);
+        JMSUtil.clearDestinationNameCache();
+    }
+
+    /**
+     * Removes the destination from the physical name index if it is still registered.
+     *
+     * @param  uri          The physical name without parameters.
+     * @param  destination  The destination.
+     */
+    static void unregisterURI(String uri, Destination destination)
+    {
+        byURI.remove(uri, destination);
+        JMSUtil.clearDestinationNameCache();
+    }
+}
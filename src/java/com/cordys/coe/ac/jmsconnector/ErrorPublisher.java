@@ -0,0 +1,519 @@
+/*
+ *
+ *  Copyright 2004 Cordys R&D B.V.
+ *
+ *  This file is part of the Cordys JMS Connector.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.cordys.coe.ac.jmsconnector;
+
+import com.cordys.coe.ac.jmsconnector.messages.LogMessages;
+
+import com.eibus.management.IManagedComponent;
+import com.eibus.management.counters.CounterFactory;
+import com.eibus.management.counters.IEventOccurrenceCounter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Session;
+
+/**
+ * Puts error messages in an error destination in the background. Error messages that are not
+ * part of a transaction of the caller are queued here instead of being sent with a new session
+ * per message. One publisher thread sends the queued messages in batches with a session from the
+ * session pool and commits each batch once.
+ *
+ * <p>A queued error message keeps a reference to the original message until its copy is
+ * committed. When a batch fails the messages are retried one by one, so one bad message does not
+ * block the others. A message is dropped and logged after {@link #MAX_ATTEMPTS} failed attempts.
+ * When the backlog is full, <code>publish()</code> returns <code>false</code> and the caller must
+ * send the message itself.</p>
+ *
+ * <p>Because a message can be dropped, only messages whose original is redelivered when it is
+ * lost may be queued here. When the original is already acknowledged (e.g. a reply), the caller
+ * must use <code>Destination.sendErrorMessageNow()</code> instead.</p>
+ */
+public class ErrorPublisher
+    implements Runnable
+{
+    /**
+     * The number of times a message is tried before it is dropped.
+     */
+    private static final int MAX_ATTEMPTS = 3;
+    /**
+     * The time in milliseconds to wait after a failed attempt.
+     */
+    private static final long RETRY_DELAY = 1000L;
+    /**
+     * The messages that wait to be committed, oldest first.
+     */
+    private final LinkedList<PendingMessage> backlog = new LinkedList<PendingMessage>();
+    /**
+     * JMX counter for the number of committed batches.
+     */
+    private IEventOccurrenceCounter batchCounter;
+    /**
+     * The maximum number of messages per commit.
+     */
+    private final int batchSize;
+    /**
+     * The error destination.
+     */
+    private final Destination destination;
+    /**
+     * JMX counter for the number of messages that were dropped.
+     */
+    private IEventOccurrenceCounter failedCounter;
+    /**
+     * Holds the JMX managed component.
+     */
+    private IManagedComponent managedComponent;
+    /**
+     * The maximum number of messages in the backlog.
+     */
+    private final int maxBacklog;
+    /**
+     * JMX counter for the number of committed messages.
+     */
+    private IEventOccurrenceCounter publishedCounter;
+    /**
+     * Indicates whether the publisher has been stopped.
+     */
+    private boolean stopped;
+    /**
+     * The publisher thread.
+     */
+    private final Thread thread;
+
+    /**
+     * Creates and starts a new ErrorPublisher object.
+     *
+     * @param  destination         The error destination.
+     * @param  batchSize           The maximum number of messages per commit.
+     * @param  maxBacklog          The maximum number of messages in the backlog.
+     * @param  parentJMXComponent  The parent JMX component.
+     */
+    public ErrorPublisher(Destination destination, int batchSize, int maxBacklog,
+                          IManagedComponent parentJMXComponent)
+    {
+        this.destination = destination;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxBacklog = Math.max(1, maxBacklog);
+
+        if (parentJMXComponent != null)
+        {
+            managedComponent = parentJMXComponent.createSubComponent("ErrorPublisher", "errors",
+                                                                     LogMessages.JMX_ERROR_PUBLISHER_SUBCOMPONENT_NAME,
+                                                                     this);
+            publishedCounter = (IEventOccurrenceCounter)
+                                   managedComponent.createPerformanceCounter("publishedCount",
+                                                                             LogMessages.JMX_ERROR_PUBLISHER_PUBLISHED_COUNTER_NAME,
+                                                                             CounterFactory.EVENT_OCCURRENCE_COUNTER);
+            batchCounter = (IEventOccurrenceCounter)
+                               managedComponent.createPerformanceCounter("batchCount",
+                                                                         LogMessages.JMX_ERROR_PUBLISHER_BATCH_COUNTER_NAME,
+                                                                         CounterFactory.EVENT_OCCURRENCE_COUNTER);
+            failedCounter = (IEventOccurrenceCounter)
+                                managedComponent.createPerformanceCounter("failedCount",
+                                                                          LogMessages.JMX_ERROR_PUBLISHER_FAILED_COUNTER_NAME,
+                                                                          CounterFactory.EVENT_OCCURRENCE_COUNTER);
+        }
+
+        thread = new Thread(this, "JMSConnector-" + destination.getIdentifier() + "-errors");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the publisher. The messages in the backlog are still sent, but failed messages are
+     * not retried. Messages that could not be sent within a minute are logged.
+     */
+    public void close()
+    {
+        List<PendingMessage> remaining;
+
+        synchronized (this)
+        {
+            stopped = true;
+            notifyAll();
+        }
+
+        try
+        {
+            thread.join(60000);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this)
+        {
+            remaining = new ArrayList<PendingMessage>(backlog);
+            backlog.clear();
+        }
+
+        for (PendingMessage pending : remaining)
+        {
+            dropped(pending, null);
+        }
+
+        if (managedComponent != null)
+        {
+            try
+            {
+                managedComponent.unregisterComponentTree();
+                managedComponent = null;
+            }
+            catch (Exception e)
+            {
+                if (JMSConnector.jmsLogger.isDebugEnabled())
+                {
+                    JMSConnector.jmsLogger.debug("Ignored exception while unregistering the JMX components.",
+                                                 e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of messages that wait to be committed.
+     *
+     * @return  The backlog.
+     */
+    public synchronized int getBacklog()
+    {
+        return backlog.size();
+    }
+
+    /**
+     * Returns the maximum number of messages per commit.
+     *
+     * @return  The batch size.
+     */
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+
+    /**
+     * Returns the maximum number of messages in the backlog.
+     *
+     * @return  The maximum backlog.
+     */
+    public int getMaxBacklog()
+    {
+        return maxBacklog;
+    }
+
+    /**
+     * Queues a message for the error destination.
+     *
+     * @param   message       The original message.
+     * @param   errorMessage  Error message to be put in property 'CORDYS_PROCESS_ERROR'.
+     *
+     * @return  <code>true</code> if the message was queued, <code>false</code> if the publisher
+     *          is stopped or the backlog is full.
+     */
+    public synchronized boolean publish(Message message, String errorMessage)
+    {
+        if (stopped || (backlog.size() >= maxBacklog))
+        {
+            return false;
+        }
+
+        backlog.add(new PendingMessage(message, errorMessage));
+        notifyAll();
+
+        return true;
+    }
+
+    /**
+     * @see  java.lang.Runnable#run()
+     */
+    public void run()
+    {
+        while (true)
+        {
+            List<PendingMessage> batch;
+
+            synchronized (this)
+            {
+                while (!stopped && backlog.isEmpty())
+                {
+                    try
+                    {
+                        wait();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        return;
+                    }
+                }
+
+                if (backlog.isEmpty())
+                {
+                    return;
+                }
+
+                batch = new ArrayList<PendingMessage>(backlog.subList(0,
+                                                                      Math.min(batchSize,
+                                                                               backlog.size())));
+            }
+
+            boolean failed = false;
+
+            try
+            {
+                failed = !dispatch(batch);
+            }
+            catch (Throwable e)
+            {
+                JMSConnector.jmsLogger.error(e, LogMessages.ERROR_PUBLISHER_BATCH_ERROR,
+                                             destination.getIdentifier(), batch.size());
+                failed = true;
+            }
+
+            if (failed)
+            {
+                synchronized (this)
+                {
+                    if (stopped)
+                    {
+                        continue;
+                    }
+
+                    try
+                    {
+                        wait(RETRY_DELAY);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @see  java.lang.Object#toString()
+     */
+    @Override public String toString()
+    {
+        return destination.getIdentifier() + ", backlog: " + getBacklog() + "/" + maxBacklog;
+    }
+
+    /**
+     * Sends and commits the messages. When the batch fails the messages are sent one by one.
+     *
+     * @param   batch  The messages.
+     *
+     * @return  <code>false</code> if a message failed and will be retried.
+     */
+    private boolean dispatch(List<PendingMessage> batch)
+    {
+        Exception error = send(batch);
+
+        if (error == null)
+        {
+            synchronized (this)
+            {
+                for (PendingMessage pending : batch)
+                {
+                    backlog.remove(pending);
+                }
+            }
+
+            if (publishedCounter != null)
+            {
+                for (int i = 0; i < batch.size(); i++)
+                {
+                    publishedCounter.addEvent();
+                }
+
+                batchCounter.addEvent();
+            }
+
+            return true;
+        }
+
+        if (batch.size() > 1)
+        {
+            JMSConnector.jmsLogger.warn(error, LogMessages.ERROR_PUBLISHER_BATCH_ERROR,
+                                        destination.getIdentifier(), batch.size());
+
+            boolean ok = true;
+
+            for (PendingMessage pending : batch)
+            {
+                ok &= dispatch(Collections.singletonList(pending));
+            }
+
+            return ok;
+        }
+
+        PendingMessage pending = batch.get(0);
+        boolean stop;
+
+        synchronized (this)
+        {
+            stop = stopped;
+        }
+
+        if (stop || (++pending.attempts >= MAX_ATTEMPTS))
+        {
+            synchronized (this)
+            {
+                backlog.remove(pending);
+            }
+
+            dropped(pending, error);
+
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Logs a message that could not be put in the error destination.
+     *
+     * @param  pending  The message.
+     * @param  error    The last error or <code>null</code>.
+     */
+    private void dropped(PendingMessage pending, Exception error)
+    {
+        String messageId;
+
+        try
+        {
+            messageId = pending.message.getJMSMessageID();
+        }
+        catch (Exception ignored)
+        {
+            messageId = "Unknown";
+        }
+
+        JMSConnector.jmsLogger.fatal(error, LogMessages.ERROR_PUBLISHER_SEND_ERROR,
+                                     destination.getIdentifier(), messageId);
+
+        if (failedCounter != null)
+        {
+            failedCounter.addEvent();
+        }
+    }
+
+    /**
+     * Sends the messages with a pooled session and commits them.
+     *
+     * @param   batch  The messages.
+     *
+     * @return  <code>null</code> if the messages were committed, otherwise the error.
+     */
+    private Exception send(List<PendingMessage> batch)
+    {
+        DestinationManager manager = destination.getDestinationManager();
+        PooledSession pooledSession = null;
+        Session session = null;
+        boolean valid = false;
+
+        try
+        {
+            pooledSession = manager.borrowSession();
+            session = pooledSession.getSession();
+
+            for (PendingMessage pending : batch)
+            {
+                String errorMessageId = destination.sendErrorMessage(pending.message,
+                                                                     pending.errorMessage,
+                                                                     session,
+                                                                     pooledSession
+                                                                     .getProducerCache(),
+                                                                     false);
+
+                if (JMSConnector.jmsLogger.isDebugEnabled())
+                {
+                    JMSConnector.jmsLogger.debug("Sent error message " + errorMessageId +
+                                                 " for destination " +
+                                                 destination.getIdentifier());
+                }
+            }
+
+            session.commit();
+            valid = true;
+
+            return null;
+        }
+        catch (Exception e)
+        {
+            if (session != null)
+            {
+                try
+                {
+                    session.rollback();
+                    valid = true;
+                }
+                catch (JMSException ignored)
+                {
+                }
+            }
+
+            return e;
+        }
+        finally
+        {
+            if (pooledSession != null)
+            {
+                manager.releaseSession(pooledSession, valid);
+            }
+        }
+    }
+
+    /**
+     * An error message that waits to be committed.
+     */
+    private static class PendingMessage
+    {
+        /**
+         * The number of failed attempts.
+         */
+        int attempts;
+        /**
+         * Error message to be put in property 'CORDYS_PROCESS_ERROR'.
+         */
+        final String errorMessage;
+        /**
+         * The original message.
+         */
+        final Message message;
+
+        /**
+         * Creates a new PendingMessage object.
+         *
+         * @param  message       The original message.
+         * @param  errorMessage  Error message to be put in property 'CORDYS_PROCESS_ERROR'.
+         */
+        PendingMessage(Message message, String errorMessage)
+        {
+            this.message = message;
+            this.errorMessage = errorMessage;
+        }
+    }
+}
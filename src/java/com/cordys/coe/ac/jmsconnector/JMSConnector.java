@@ -46,8 +46,12 @@ import com.eibus.xml.nom.Node;
 
 import java.util.ArrayList;
 import java.util.Enumeration;
-import java.util.Hashtable;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.jms.JMSException;
 
@@ -88,6 +92,10 @@ public class JMSConnector extends ApplicationConnector
      * Holds the connector to use for sending messages to Cordys.
      */
     private Connector cConnector;
+    /**
+     * Reloads the configuration through JMX.
+     */
+    private ConfigurationReloader configurationReloader;
 
     /**
      * DOCUMENTME.
@@ -106,7 +114,13 @@ public class JMSConnector extends ApplicationConnector
     /**
      * DOCUMENTME.
      */
-    private Hashtable<String, DestinationManager> m_registeredDMList;
+    private volatile ConcurrentHashMap<String, DestinationManager> m_registeredDMList;
+    /**
+     * The configurations created by <code>reloadConfiguration()</code>. The connector owns their
+     * XML and deletes it when neither the connector nor a running destination uses the
+     * configuration any more. The configuration of the SOAP processor is not in this list.
+     */
+    private final List<JMSConnectorConfiguration> reloadedConfigurations = new ArrayList<JMSConnectorConfiguration>();
     /**
      * Contains a shared NOM document for parsing XML.
      */
@@ -133,7 +147,14 @@ public class JMSConnector extends ApplicationConnector
      */
     @Override public void close(Processor pProcessor)
     {
+        if (configurationReloader != null)
+        {
+            configurationReloader.close();
+            configurationReloader = null;
+        }
+
         closeJmsConnection(true);
+        releaseUnusedConfigurations(true);
 
         if (jmsLogger.isInfoEnabled())
         {
@@ -212,7 +233,8 @@ public class JMSConnector extends ApplicationConnector
     }
 
     /**
-     * Get a destination by the given URI.
+     * Get a destination by the given URI. The URI is the connector identifier of the destination
+     * (<code>manager.destination</code>).
      *
      * @param   uri  the uri to get the destination for
      *
@@ -228,24 +250,7 @@ public class JMSConnector extends ApplicationConnector
             throw new JMSConfigurationException("Destination managers are not opened.");
         }
 
-        int iPos = uri.indexOf(".");
-
-        if ((iPos < 1) || (iPos >= (uri.length() - 1)))
-        {
-            return null;
-        }
-
-        String sDestMananager = uri.substring(0, iPos);
-        String sDest = uri.substring(iPos + 1);
-
-        DestinationManager dm = (DestinationManager) m_registeredDMList.get(sDestMananager);
-
-        if (dm == null)
-        {
-            return null;
-        }
-
-        return dm.getDestination(sDest);
+        return DestinationRegistry.getByIdentifier(uri);
     }
 
     /**
@@ -368,6 +373,8 @@ public class JMSConnector extends ApplicationConnector
             Thread pollerThread = new Thread(jmsConnectionPoller);
             pollerThread.start();
 
+            configurationReloader = new ConfigurationReloader(this, getManagedComponent());
+
             if (jmsLogger.isInfoEnabled())
             {
                 jmsLogger.info(LogMessages.CONNECTOR_STARTED);
@@ -425,7 +432,7 @@ public class JMSConnector extends ApplicationConnector
         try
         {
             // load the configured destination managers
-            m_registeredDMList = new Hashtable<String, DestinationManager>();
+            m_registeredDMList = new ConcurrentHashMap<String, DestinationManager>();
 
             String[] destinationManagers = acConfiguration.getDestinationManagers();
             IManagedComponent mc = getManagedComponent();
@@ -462,6 +469,95 @@ public class JMSConnector extends ApplicationConnector
         bConnectionsOpened = true;
     }
 
+    /**
+     * Replaces the configuration without restarting the connector. The new configuration is
+     * compared with the running one. Only the destination managers and destinations whose
+     * configuration changed are restarted, including the destinations of which the trigger
+     * changed. The connections and sessions of the other destination managers keep running. When
+     * a setting outside the destination managers and triggers changed, or the partial reload
+     * fails, all destination managers are restarted.
+     *
+     * <p>The connector takes ownership of the configuration XML. It is deleted right away when
+     * the configuration is not valid. Otherwise it is deleted when neither the connector nor a
+     * running destination uses it any more. Destinations that were not restarted keep the
+     * configuration they were created with, so the XML of an earlier configuration is kept until
+     * the last of these destinations is replaced or closed.</p>
+     *
+     * @param   configNode  The new configuration XML. The caller must not delete it.
+     *
+     * @return  A description of what was restarted.
+     *
+     * @throws  JMSConnectorException      In case the configuration is not valid.
+     * @throws  JMSConfigurationException  In case the destination managers could not be started.
+     * @throws  JMSException               In case the destination managers could not be started.
+     */
+    public synchronized String reloadConfiguration(int configNode)
+                                            throws JMSConnectorException,
+                                                   JMSConfigurationException, JMSException
+    {
+        JMSConnectorConfiguration newConfiguration;
+
+        try
+        {
+            newConfiguration = new JMSConnectorConfiguration(configNode, this);
+            newConfiguration.inlineAllTriggerParameterXmls();
+        }
+        catch (JMSConnectorException e)
+        {
+            Node.delete(configNode);
+            throw e;
+        }
+        catch (Exception e)
+        {
+            Node.delete(configNode);
+            throw new JMSConnectorException(e, "Unable to parse the trigger parameters.");
+        }
+
+        reloadedConfigurations.add(newConfiguration);
+
+        String result;
+
+        try
+        {
+            if (!bConnectionsOpened)
+            {
+                acConfiguration = newConfiguration;
+                result = "The destination managers are not running.";
+            }
+            else if (!acConfiguration.getSignature().equals(newConfiguration.getSignature()))
+            {
+                restartJmsConnection(newConfiguration);
+                result = "All destination managers were restarted.";
+            }
+            else
+            {
+                try
+                {
+                    result = reloadDestinationManagers(newConfiguration);
+                }
+                catch (Exception e)
+                {
+                    jmsLogger.error(e, LogMessages.CONFIGURATION_RELOAD_ERROR);
+
+                    restartJmsConnection(newConfiguration);
+                    result = "All destination managers were restarted.";
+                }
+            }
+        }
+        finally
+        {
+            // Also after a failure, because the new configuration may already be in use.
+            releaseUnusedConfigurations(false);
+        }
+
+        if (jmsLogger.isInfoEnabled())
+        {
+            jmsLogger.info(LogMessages.CONFIGURATION_RELOADED, result);
+        }
+
+        return result;
+    }
+
     /**
      * This method gets called when the processor is ordered to reset.
      *
@@ -485,6 +581,167 @@ public class JMSConnector extends ApplicationConnector
         bTerminateOnInitError = aTerminateOnInitError;
     }
 
+    /**
+     * Restarts the destination managers of which the configuration changed and replaces the
+     * destinations that were added, removed or changed in the other destination managers.
+     *
+     * @param   newConfiguration  The new configuration.
+     *
+     * @return  A description of what was restarted.
+     *
+     * @throws  JMSConfigurationException  In case a destination manager or destination could not
+     *                                     be started.
+     * @throws  JMSException               In case a destination manager could not be started.
+     */
+    private String reloadDestinationManagers(JMSConnectorConfiguration newConfiguration)
+                                      throws JMSConfigurationException, JMSException
+    {
+        JMSConnectorConfiguration oldConfiguration = acConfiguration;
+        List<String> restartedManagers = new ArrayList<String>();
+        List<String> restartedDestinations = new ArrayList<String>();
+
+        // Close the destination managers that were removed.
+        for (String managerName : new ArrayList<String>(m_registeredDMList.keySet()))
+        {
+            if (newConfiguration.getDestinationManagerConfig(managerName) == null)
+            {
+                m_registeredDMList.remove(managerName).close(false, false);
+                restartedManagers.add(managerName);
+            }
+        }
+
+        for (String managerName : newConfiguration.getDestinationManagers())
+        {
+            JMSConnectorConfiguration.DestinationManagerConfig oldManager = oldConfiguration
+                                                                            .getDestinationManagerConfig(managerName);
+            JMSConnectorConfiguration.DestinationManagerConfig newManager = newConfiguration
+                                                                            .getDestinationManagerConfig(managerName);
+            DestinationManager destManager = m_registeredDMList.get(managerName);
+            Set<String> changed = new HashSet<String>();
+
+            if (oldManager != null)
+            {
+                for (String destinationName : oldManager.getDestinationNames())
+                {
+                    if (newManager.getDestination(destinationName) == null)
+                    {
+                        changed.add(destinationName);
+                    }
+                }
+
+                for (String destinationName : newManager.getDestinationNames())
+                {
+                    JMSConnectorConfiguration.DestinationConfig oldDestination = oldManager
+                                                                                 .getDestination(destinationName);
+
+                    if ((oldDestination == null) ||
+                            !oldDestination.getSignature().equals(newManager.getDestination(destinationName)
+                                                                  .getSignature()))
+                    {
+                        changed.add(destinationName);
+                    }
+                }
+            }
+
+            if ((oldManager == null) || (destManager == null) ||
+                    !oldManager.getSignature().equals(newManager.getSignature()) ||
+                    !destManager.canReloadDestinations(changed))
+            {
+                if (destManager != null)
+                {
+                    m_registeredDMList.remove(managerName);
+                    destManager.close(false, false);
+                }
+
+                destManager = new DestinationManager(this, newConfiguration, managerName,
+                                                     getManagedComponent());
+                m_registeredDMList.put(managerName, destManager);
+                destManager.start();
+                restartedManagers.add(managerName);
+            }
+            else if (!changed.isEmpty())
+            {
+                destManager.reloadDestinations(newConfiguration, changed);
+
+                for (String destinationName : changed)
+                {
+                    restartedDestinations.add(managerName + "." + destinationName);
+                }
+            }
+        }
+
+        acConfiguration = newConfiguration;
+
+        // The error destinations of the remaining destinations may have been replaced.
+        for (DestinationManager destManager : m_registeredDMList.values())
+        {
+            destManager.resolveErrorDestinations();
+        }
+
+        if (restartedManagers.isEmpty() && restartedDestinations.isEmpty())
+        {
+            return "Nothing was changed.";
+        }
+
+        return "Restarted destination managers: " + restartedManagers +
+               ", restarted destinations: " + restartedDestinations;
+    }
+
+    /**
+     * Deletes the XML of the reloaded configurations that are no longer used by the connector or
+     * by a running destination.
+     *
+     * @param  all  <code>true</code> to delete all reloaded configurations because the connector
+     *              is stopped.
+     */
+    private void releaseUnusedConfigurations(boolean all)
+    {
+        Set<JMSConnectorConfiguration> used = new HashSet<JMSConnectorConfiguration>();
+
+        if (!all)
+        {
+            used.add(acConfiguration);
+
+            Map<String, DestinationManager> managers = m_registeredDMList;
+
+            if (managers != null)
+            {
+                for (DestinationManager destManager : managers.values())
+                {
+                    destManager.collectConfigurations(used);
+                }
+            }
+        }
+
+        for (Iterator<JMSConnectorConfiguration> it = reloadedConfigurations.iterator();
+                 it.hasNext();)
+        {
+            JMSConnectorConfiguration configuration = it.next();
+
+            if (!used.contains(configuration))
+            {
+                Node.delete(configuration.getConfigNode());
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Closes all destination managers and starts them again with the given configuration.
+     *
+     * @param   newConfiguration  The new configuration.
+     *
+     * @throws  JMSConfigurationException  Thrown if the configuration contained error(s).
+     * @throws  JMSException               Thrown if the connection could not be opened.
+     */
+    private void restartJmsConnection(JMSConnectorConfiguration newConfiguration)
+                               throws JMSConfigurationException, JMSException
+    {
+        closeJmsConnection(false);
+        acConfiguration = newConfiguration;
+        openJmsConnection();
+    }
+
     // JMX implementation:
     /**
      * @see  com.eibus.soap.ApplicationConnector#createManagedComponent()
@@ -19,6 +19,7 @@
 package com.cordys.coe.ac.jmsconnector;
 
 import com.cordys.coe.ac.jmsconnector.exceptions.JMSConnectorException;
+import com.cordys.coe.ac.jmsconnector.messages.LogMessages;
 import com.cordys.coe.exception.GeneralException;
 import com.cordys.coe.util.XMLProperties;
 
@@ -34,7 +35,11 @@ import com.eibus.xml.nom.XMLException;
 
 import java.io.UnsupportedEncodingException;
 
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * This class holds the configuration details for the JMSConnector.
@@ -57,6 +62,21 @@ public class JMSConnectorConfiguration
      * DOCUMENTME.
      */
     private JMSConnector jmsConnector;
+    /**
+     * The destination managers by name, in configuration order. The map is created once when the
+     * configuration is loaded and is never changed.
+     */
+    private Map<String, DestinationManagerConfig> managers;
+    /**
+     * The XML of the settings that are not part of a destination manager or trigger. This is used
+     * to detect changes when the configuration is reloaded.
+     */
+    private String signature;
+    /**
+     * The triggers by name. The map is created once when the configuration is loaded and is
+     * never changed.
+     */
+    private Map<String, TriggerConfig> triggers;
     /**
      * Holds the XMLProperties object to extract the value for different configuration keys.
      */
@@ -99,6 +119,8 @@ public class JMSConnectorConfiguration
             xpDummy = new XMLProperties(xDummyNode);
 
             this.jmsConnector = jmsConnector;
+
+            compile();
         }
         catch (GeneralException e)
         {
@@ -122,44 +144,20 @@ public class JMSConnectorConfiguration
                                                             String destinationName)
                                                      throws DirectoryException, GeneralException
     {
-        XMLProperties triggerProperties = getTriggerProperties(getDestinationProperties(managerName,
-                                                                                        destinationName)
-                                                               .getStringValue("inboundmessagetrigger"));
-
-        if (triggerProperties == null)
-        {
-            return null;
-        }
+        DestinationConfig destination = getDestinationConfig(managerName, destinationName);
+        TriggerConfig trigger = (destination != null) ? destination.getTrigger() : null;
 
-        if (getDestinationHasTrigger(managerName, destinationName))
+        if (trigger != null)
         {
-            String method = triggerProperties.getStringValue("method");
-            String namespace = triggerProperties.getStringValue("namespace");
-            String oDN = triggerProperties.getStringValue("odn");
-            String uDN = triggerProperties.getStringValue("udn");
-            long timeout = 30000L;
-
-            // Parse the timeout.
-            try
-            {
-                String str = triggerProperties.getStringValue("request-timeout");
-
-                if ((str != null) && (str.length() > 0))
-                {
-                    timeout = Long.parseLong(str);
-                }
-            }
-            catch (Exception e)
-            {
-                JMSConnector.jmsLogger.log(Severity.WARN, "Unable to parse trigger timeout.", e);
-            }
-
-            int soapMethod = jmsConnector.getConnector().createSOAPMethod(uDN, oDN, namespace,
-                                                                          method);
+            int soapMethod = jmsConnector.getConnector().createSOAPMethod(trigger.getUDN(),
+                                                                          trigger.getODN(),
+                                                                          trigger.getNamespace(),
+                                                                          trigger.getMethod());
             // int soapMethod = jmsConnector.getConnector().createSOAPMethodEx( namespace, method,
             // oDN, uDN, null, null );
 
-            int parameters = Node.clone(triggerProperties.getXMLNode("parameters"), true);
+            int parameters = (trigger.getParametersNode() != 0)
+                             ? Node.clone(trigger.getParametersNode(), true) : 0;
 
             if (parameters != 0)
             {
@@ -184,7 +182,7 @@ public class JMSConnectorConfiguration
             TriggerMessageInfo res = new TriggerMessageInfo();
 
             res.soapRequestNode = Node.getRoot(soapMethod);
-            res.requestTimeout = timeout;
+            res.requestTimeout = trigger.getRequestTimeout();
 
             return res;
         }
@@ -206,6 +204,16 @@ public class JMSConnectorConfiguration
                                       DEFAULT_DISABLE_MESSAGE_SELECTOR);
     }
 
+    /**
+     * Returns the root node of the configuration XML.
+     *
+     * @return  The configuration node.
+     */
+    public int getConfigNode()
+    {
+        return xpBase.getConfigNode();
+    }
+
     /**
      * DOCUMENTME.
      *
@@ -470,6 +478,23 @@ public class JMSConnectorConfiguration
         return getDestinationManagerProperties(managerName).getStringValue("charset");
     }
 
+    /**
+     * Returns the number of physical JMS connections of the destination manager. The sessions
+     * are spread over the connections.
+     *
+     * @param   managerName  The name of the destination manager.
+     *
+     * @return  The number of connections.
+     *
+     * @throws  GeneralException  In case of any exceptions
+     */
+    public int getDestinationManagerConnectionCount(String managerName)
+                                             throws GeneralException
+    {
+        return parseIntValue(getDestinationManagerProperties(managerName).getStringValue("connection-count"),
+                             1);
+    }
+
     /**
      * DOCUMENTME.
      *
@@ -492,6 +517,24 @@ public class JMSConnectorConfiguration
         return Base64.decode(sPwd);
     }
 
+    /**
+     * Returns how a connection is selected for a new session. This is either <code>
+     * round-robin</code> or <code>least-load</code>.
+     *
+     * @param   managerName  The name of the destination manager.
+     *
+     * @return  The connection selection.
+     *
+     * @throws  GeneralException  In case of any exceptions
+     */
+    public String getDestinationManagerConnectionSelection(String managerName)
+                                                    throws GeneralException
+    {
+        String sValue = getDestinationManagerProperties(managerName).getStringValue("connection-selection");
+
+        return ((sValue != null) && (sValue.length() > 0)) ? sValue : "round-robin";
+    }
+
     /**
      * DOCUMENTME.
      *
@@ -529,19 +572,182 @@ public class JMSConnectorConfiguration
      */
     public String[] getDestinationManagers()
     {
-        String[] brokers;
-        int managers = xpBase.getXMLNode("DestinationManagers");
-        brokers = new String[Node.getNumChildren(managers)];
+        return managers.keySet().toArray(new String[managers.size()]);
+    }
 
-        int i = 0;
+    /**
+     * Returns the compiled configuration of a destination manager.
+     *
+     * @param   managerName  The name of the destination manager.
+     *
+     * @return  The destination manager configuration or <code>null</code> if it is not
+     *          configured.
+     */
+    public DestinationManagerConfig getDestinationManagerConfig(String managerName)
+    {
+        return managers.get(managerName);
+    }
 
-        for (int nManager = Node.getFirstChild(managers); nManager != 0;
-                 nManager = Node.getNextSibling(nManager))
-        {
-            brokers[i++] = Node.getAttribute(nManager, "name");
-        }
+    /**
+     * Returns the compiled configuration of a destination.
+     *
+     * @param   managerName      The name of the destination manager.
+     * @param   destinationName  The name of the destination.
+     *
+     * @return  The destination configuration or <code>null</code> if it is not configured.
+     */
+    public DestinationConfig getDestinationConfig(String managerName, String destinationName)
+    {
+        DestinationManagerConfig manager = managers.get(managerName);
+
+        return (manager != null) ? manager.getDestination(destinationName) : null;
+    }
+
+    /**
+     * Returns the XML of the connector settings that are not part of a destination manager or
+     * trigger. When this differs between two configurations all destination managers must be
+     * restarted.
+     *
+     * @return  The signature.
+     */
+    public String getSignature()
+    {
+        return signature;
+    }
+
+    /**
+     * Returns the time in milliseconds after which a cached consumer that was not used is closed.
+     *
+     * @param   managerName  The name of the destination manager.
+     *
+     * @return  The idle timeout.
+     *
+     * @throws  GeneralException  In case of any exceptions
+     */
+    public long getDestinationManagerConsumerCacheIdleTimeout(String managerName)
+                                                       throws GeneralException
+    {
+        return parseIntValue(getDestinationManagerProperties(managerName).getStringValue("consumer-cache-idle-timeout"),
+                             60000);
+    }
+
+    /**
+     * Returns the maximum number of message consumers that are kept open per session for
+     * getMessage and requestMessage. When this is 0 a consumer is created for every call.
+     *
+     * @param   managerName  The name of the destination manager.
+     *
+     * @return  The consumer cache size.
+     *
+     * @throws  GeneralException  In case of any exceptions
+     */
+    public int getDestinationManagerConsumerCacheSize(String managerName)
+                                               throws GeneralException
+    {
+        return parseIntValue(getDestinationManagerProperties(managerName).getStringValue("consumer-cache-size"),
+                             8);
+    }
+
+    /**
+     * Returns how the temporary reply queue of the destination manager handles replies for which
+     * no request is waiting. This is either <code>error</code> or <code>discard</code>.
+     *
+     * @param   managerName  The name of the destination manager.
+     *
+     * @return  The late reply policy.
+     *
+     * @throws  GeneralException  In case of any exceptions
+     */
+    public String getDestinationManagerLateReplyPolicy(String managerName)
+                                                throws GeneralException
+    {
+        String sValue = getDestinationManagerProperties(managerName).getStringValue("late-reply-policy");
+
+        return ((sValue != null) && (sValue.length() > 0)) ? sValue : "error";
+    }
+
+    /**
+     * Returns the time in milliseconds after which a pooled session that was not used is closed.
+     *
+     * @param   managerName  The name of the destination manager.
+     *
+     * @return  The idle timeout.
+     *
+     * @throws  GeneralException  In case of any exceptions
+     */
+    public long getDestinationManagerSessionPoolIdleTimeout(String managerName)
+                                                     throws GeneralException
+    {
+        return parseIntValue(getDestinationManagerProperties(managerName).getStringValue("session-pool-idle-timeout"),
+                             60000);
+    }
+
+    /**
+     * Returns the maximum number of sessions that SOAP transactions may use at the same time. When
+     * this is 0 the number is not limited.
+     *
+     * @param   managerName  The name of the destination manager.
+     *
+     * @return  The maximum number of active sessions.
+     *
+     * @throws  GeneralException  In case of any exceptions
+     */
+    public int getDestinationManagerSessionPoolMaxActive(String managerName)
+                                                  throws GeneralException
+    {
+        return parseIntValue(getDestinationManagerProperties(managerName).getStringValue("session-pool-max-active"),
+                             0);
+    }
+
+    /**
+     * Returns the maximum number of idle sessions that are kept open for the SOAP transactions.
+     * When this is 0 a session is created and closed for every transaction.
+     *
+     * @param   managerName  The name of the destination manager.
+     *
+     * @return  The session pool size.
+     *
+     * @throws  GeneralException  In case of any exceptions
+     */
+    public int getDestinationManagerSessionPoolSize(String managerName)
+                                             throws GeneralException
+    {
+        return parseIntValue(getDestinationManagerProperties(managerName).getStringValue("session-pool-size"),
+                             8);
+    }
+
+    /**
+     * Returns the maximum time in milliseconds a reply without a waiting request is kept in the
+     * reply index of the temporary reply queue.
+     *
+     * @param   managerName  The name of the destination manager.
+     *
+     * @return  The maximum age.
+     *
+     * @throws  GeneralException  In case of any exceptions
+     */
+    public long getDestinationManagerReplyIndexMaxAge(String managerName)
+                                               throws GeneralException
+    {
+        return parseIntValue(getDestinationManagerProperties(managerName).getStringValue("reply-index-max-age"),
+                             60000);
+    }
 
-        return brokers;
+    /**
+     * Returns the maximum number of replies without a waiting request that are kept in the reply
+     * index of the temporary reply queue. When this is 0 replies are not indexed.
+     *
+     * @param   managerName  The name of the destination manager.
+     *
+     * @return  The reply index size.
+     *
+     * @throws  GeneralException  In case of any exceptions
+     */
+    public int getDestinationManagerReplyIndexSize(String managerName)
+                                            throws GeneralException
+    {
+        return parseIntValue(getDestinationManagerProperties(managerName).getStringValue("reply-index-size"),
+                             0);
     }
 
     /**
@@ -586,18 +792,9 @@ public class JMSConnectorConfiguration
      */
     public String[] getDMDestinations(String managerName)
     {
-        String[] destinations;
-        int[] dests = Find.match(xpBase.getXMLNode("DestinationManagers"),
-                                 "<><DestinationManager name=\"" + managerName +
-                                 "\"><Destination>");
-        destinations = new String[dests.length];
-
-        for (int i = 0; i < dests.length; i++)
-        {
-            destinations[i] = Node.getAttribute(dests[i], "name");
-        }
+        DestinationManagerConfig manager = managers.get(managerName);
 
-        return destinations;
+        return (manager != null) ? manager.getDestinationNames() : new String[0];
     }
 
     /**
@@ -696,14 +893,9 @@ public class JMSConnectorConfiguration
     public String getTriggerCharacterSet(String triggerId)
                                   throws DirectoryException, GeneralException
     {
-        XMLProperties triggerProperties = getTriggerProperties(triggerId);
-
-        if (triggerProperties != null)
-        {
-            return triggerProperties.getStringValue("charset");
-        }
+        TriggerConfig trigger = triggers.get(triggerId);
 
-        return null;
+        return (trigger != null) ? trigger.getCharacterSet() : null;
     }
 
     /**
@@ -748,161 +940,602 @@ public class JMSConnectorConfiguration
     }
 
     /**
-     * Creates parameters XML for the given trigger if this the XML is as a encoded text inside the
-     * parameters element (this is the new version).
+     * Returns the name of the element that is created for each message in a trigger batch
+     * request.
      *
-     * @throws  UnsupportedEncodingException
-     * @throws  XMLException
+     * @param   managerName      The name of the destination manager.
+     * @param   destinationName  The name of the destination.
+     *
+     * @return  The element name.
+     *
+     * @throws  GeneralException  In case of any exceptions
      */
-    public void inlineAllTriggerParameterXmls()
-                                       throws UnsupportedEncodingException, XMLException
+    public String getTriggerBatchElement(String managerName, String destinationName)
+                                  throws GeneralException
     {
-        int[] xaTriggerParams = Find.match(xpBase.getConfigNode(),
-                                           "<><Triggers><Trigger><parameters>");
+        String sValue = getDestinationProperties(managerName, destinationName).getStringValue("trigger-batch-element");
 
-        for (int xParams : xaTriggerParams)
-        {
-            // Check if the parameters node is XML or escaped XML. New version of the config page
-            // uses escaped XML to fix problems with tuple elements in the trigger XML.
-            int xTmp = Node.getFirstChild(xParams);
-
-            if ((xTmp != 0) &&
-                    ((Node.getType(xTmp) == NodeType.CDATA) ||
-                         (Node.getType(xTmp) == NodeType.DATA)))
-            {
-                // Parse the parameter text into XML.
-                String sData = Node.getData(xParams);
-                int xNewParams;
-
-                // Clear all content.
-                while ((xTmp = Node.getFirstChild(xParams)) != 0)
-                {
-                    Node.delete(xTmp);
-                    xTmp = 0;
-                }
-
-                xNewParams = Node.getDocument(xParams).parseString(sData);
-                Node.appendToChildren(Node.getFirstChild(xNewParams), Node.getLastChild(xNewParams),
-                                      xParams);
-                Node.delete(xNewParams);
-                xNewParams = 0;
-            }
-        }
+        return ((sValue != null) && (sValue.length() > 0)) ? sValue : "message";
     }
 
     /**
-     * DOCUMENTME.
+     * Returns the maximum time in milliseconds the trigger waits for more messages before sending
+     * a batch that is not full.
      *
-     * @param   managerName      DOCUMENTME
-     * @param   destinationName  DOCUMENTME
+     * @param   managerName      The name of the destination manager.
+     * @param   destinationName  The name of the destination.
      *
-     * @return  DOCUMENTME
+     * @return  The linger time.
      *
-     * @throws  GeneralException  DOCUMENTME
+     * @throws  GeneralException  In case of any exceptions
      */
-    public boolean isDestinationDefaultErrorDestination(String managerName, String destinationName)
-                                                 throws GeneralException
+    public long getTriggerBatchLingerTime(String managerName, String destinationName)
+                                   throws GeneralException
     {
-        return "true".equals(getDestinationProperties(managerName, destinationName).getStringValue("is-default-error-dest"));
+        return parseIntValue(getDestinationProperties(managerName, destinationName).getStringValue("trigger-batch-linger-time"),
+                             0);
     }
 
     /**
-     * DOCUMENTME.
+     * Returns the maximum number of messages that the trigger sends in one SOAP request. When
+     * this is 0 or 1 every message is sent in its own request.
      *
-     * @param   managerName      DOCUMENTME
-     * @param   destinationName  DOCUMENTME
+     * @param   managerName      The name of the destination manager.
+     * @param   destinationName  The name of the destination.
      *
-     * @return  DOCUMENTME
+     * @return  The maximum batch size.
      *
-     * @throws  GeneralException  DOCUMENTME
+     * @throws  GeneralException  In case of any exceptions
      */
-    public boolean isDestinationDynamic(String managerName, String destinationName)
-                                 throws GeneralException
+    public int getTriggerBatchSize(String managerName, String destinationName)
+                            throws GeneralException
     {
-        return "true".equals(getDestinationProperties(managerName, destinationName).getStringValue("is-dynamic"));
+        return parseIntValue(getDestinationProperties(managerName, destinationName).getStringValue("trigger-batch-size"),
+                             0);
     }
-    
+
     /**
-     * DOCUMENTME.
+     * Returns the maximum time in milliseconds a reply without a waiting request is kept in the
+     * reply index of the shared reply listener.
      *
-     * @param   managerName      DOCUMENTME
-     * @param   destinationName  DOCUMENTME
+     * @param   managerName      The name of the destination manager.
+     * @param   destinationName  The name of the destination.
      *
-     * @return  DOCUMENTME
+     * @return  The maximum age.
      *
-     * @throws  GeneralException  DOCUMENTME
+     * @throws  GeneralException  In case of any exceptions
      */
-    public boolean isDurableSubscriber(String managerName, String destinationName)
-                                 throws GeneralException
+    public long getReplyIndexMaxAge(String managerName, String destinationName)
+                             throws GeneralException
     {
-        return "true".equals(getDestinationProperties(managerName, destinationName).getStringValue("is-durable-subscriber"));
+        return parseIntValue(getDestinationProperties(managerName, destinationName).getStringValue("reply-index-max-age"),
+                             60000);
     }
 
     /**
-     * DOCUMENTME.
+     * Returns the maximum number of replies without a waiting request that are kept in the reply
+     * index of the shared reply listener. When this is 0 replies are not indexed.
      *
-     * @param   managerName  DOCUMENTME
+     * @param   managerName      The name of the destination manager.
+     * @param   destinationName  The name of the destination.
      *
-     * @return  DOCUMENTME
+     * @return  The reply index size.
      *
-     * @throws  GeneralException  DOCUMENTME
+     * @throws  GeneralException  In case of any exceptions
      */
-    protected Hashtable<String, String> getDestinationManagerContext(String managerName)
-                                                              throws GeneralException
+    public int getReplyIndexSize(String managerName, String destinationName)
+                          throws GeneralException
     {
-        Hashtable<String, String> env = new Hashtable<String, String>();
-        String sProviderUrl = getProviderURL(managerName);
-        String sVendor = getJMSVendor(managerName);
-
-        if ((sProviderUrl == null) || (sProviderUrl.length() == 0))
-        {
-            throw new GeneralException("Provider URL not set for destination manager: " +
-                                       managerName);
-        }
-
-        if ((sVendor == null) || (sVendor.length() == 0))
-        {
-            throw new GeneralException("JMS vendor not set for destination manager: " +
-                                       managerName);
-        }
-
-        env.put("java.naming.factory.initial", sVendor);
-        env.put("java.naming.provider.url", sProviderUrl);
-
-        String authentication = getDestinationManagerAuthentication(managerName);
-        env.put("java.naming.security.authentication", authentication);
-
-        if (!"none".equals(authentication))
-        {
-            env.put("java.naming.security.principal",
-                    getDestinationManagerAuthenticationUsername(managerName));
-            env.put("java.naming.security.credentials",
-                    getDestinationManagerAuthenticationPassword(managerName));
-        }
-        return env;
+        return parseIntValue(getDestinationProperties(managerName, destinationName).getStringValue("reply-index-size"),
+                             0);
     }
 
     /**
-     * DOCUMENTME.
+     * Returns the maximum number of error messages that are committed together when messages are
+     * put in this error destination asynchronously. When this is 0 every error message is sent
+     * and committed by the caller.
      *
-     * @param   managerName  DOCUMENTME
+     * @param   managerName      The name of the destination manager.
+     * @param   destinationName  The name of the error destination.
      *
-     * @return  DOCUMENTME
+     * @return  The batch size or 0 if error messages are sent synchronously.
      *
-     * @throws  GeneralException  DOCUMENTME
+     * @throws  GeneralException  In case of any exceptions
      */
-    protected XMLProperties getDestinationManagerProperties(String managerName)
+    public int getErrorBatchSize(String managerName, String destinationName)
+                          throws GeneralException
+    {
+        return parseIntValue(getDestinationProperties(managerName, destinationName).getStringValue("error-batch-size"),
+                             0);
+    }
+
+    /**
+     * Returns the maximum number of error messages that may wait to be put in this error
+     * destination. When the backlog is full the error messages are sent by the caller.
+     *
+     * @param   managerName      The name of the destination manager.
+     * @param   destinationName  The name of the error destination.
+     *
+     * @return  The maximum backlog.
+     *
+     * @throws  GeneralException  In case of any exceptions
+     */
+    public int getErrorBacklogSize(String managerName, String destinationName)
+                            throws GeneralException
+    {
+        return parseIntValue(getDestinationProperties(managerName, destinationName).getStringValue("error-backlog-size"),
+                             10000);
+    }
+
+    /**
+     * Returns how the shared reply listener handles replies for which no request is waiting.
+     * This is either <code>error</code> (put the reply in the error destination) or <code>
+     * discard</code>.
+     *
+     * @param   managerName      The name of the destination manager.
+     * @param   destinationName  The name of the destination.
+     *
+     * @return  The late reply policy.
+     *
+     * @throws  GeneralException  In case of any exceptions
+     */
+    public String getLateReplyPolicy(String managerName, String destinationName)
+                              throws GeneralException
+    {
+        String sValue = getDestinationProperties(managerName, destinationName).getStringValue("late-reply-policy");
+
+        return ((sValue != null) && (sValue.length() > 0)) ? sValue : "error";
+    }
+
+    /**
+     * Returns the maximum number of triggers the trigger scaler may start for the destination.
+     * When this is not larger than the trigger thread count the number of triggers is fixed.
+     *
+     * @param   managerName      The name of the destination manager.
+     * @param   destinationName  The name of the destination.
+     *
+     * @return  The maximum number of triggers or 0 if the triggers are not scaled.
+     *
+     * @throws  GeneralException  In case of any exceptions
+     */
+    public int getTriggerMaxThreadCount(String managerName, String destinationName)
+                                 throws GeneralException
+    {
+        return parseIntValue(getDestinationProperties(managerName, destinationName).getStringValue("trigger-max-threads"),
+                             0);
+    }
+
+    /**
+     * Returns the minimum number of triggers the trigger scaler keeps running for the
+     * destination.
+     *
+     * @param   managerName      The name of the destination manager.
+     * @param   destinationName  The name of the destination.
+     *
+     * @return  The minimum number of triggers.
+     *
+     * @throws  GeneralException  In case of any exceptions
+     */
+    public int getTriggerMinThreadCount(String managerName, String destinationName)
+                                 throws GeneralException
+    {
+        return parseIntValue(getDestinationProperties(managerName, destinationName).getStringValue("trigger-min-threads"),
+                             1);
+    }
+
+    /**
+     * Returns the name of the JMS header or property that holds the ordering key of the trigger
+     * messages. Messages with the same key are handled in order, messages with different keys in
+     * parallel. Supported headers are <code>JMSCorrelationID</code> and <code>JMSType</code>, any
+     * other name is read as a string property (e.g. <code>JMSXGroupID</code>).
+     *
+     * @param   managerName      The name of the destination manager.
+     * @param   destinationName  The name of the destination.
+     *
+     * @return  The name of the ordering key or <code>null</code> if the messages are not grouped.
+     *
+     * @throws  GeneralException  In case of any exceptions
+     */
+    public String getTriggerOrderKey(String managerName, String destinationName)
+                              throws GeneralException
+    {
+        String sValue = getDestinationProperties(managerName, destinationName).getStringValue("trigger-order-key");
+
+        return ((sValue != null) && (sValue.length() > 0)) ? sValue : null;
+    }
+
+    /**
+     * Returns the number of message groups the trigger handles in parallel.
+     *
+     * @param   managerName      The name of the destination manager.
+     * @param   destinationName  The name of the destination.
+     *
+     * @return  The number of threads.
+     *
+     * @throws  GeneralException  In case of any exceptions
+     */
+    public int getTriggerOrderThreadCount(String managerName, String destinationName)
+                                   throws GeneralException
+    {
+        return parseIntValue(getDestinationProperties(managerName, destinationName).getStringValue("trigger-order-threads"),
+                             4);
+    }
+
+    /**
+     * Returns the maximum number of messages the trigger groups by ordering key and commits in
+     * one transaction.
+     *
+     * @param   managerName      The name of the destination manager.
+     * @param   destinationName  The name of the destination.
+     *
+     * @return  The window size.
+     *
+     * @throws  GeneralException  In case of any exceptions
+     */
+    public int getTriggerOrderWindowSize(String managerName, String destinationName)
+                                  throws GeneralException
+    {
+        return parseIntValue(getDestinationProperties(managerName, destinationName).getStringValue("trigger-order-window"),
+                             100);
+    }
+
+    /**
+     * Returns the number of messages the trigger receives into its local buffer before handling
+     * them. When this is 0 or 1 the trigger uses a message listener.
+     *
+     * @param   managerName      The name of the destination manager.
+     * @param   destinationName  The name of the destination.
+     *
+     * @return  The prefetch buffer size.
+     *
+     * @throws  GeneralException  In case of any exceptions
+     */
+    public int getTriggerPrefetchSize(String managerName, String destinationName)
+                               throws GeneralException
+    {
+        return parseIntValue(getDestinationProperties(managerName, destinationName).getStringValue("trigger-prefetch-size"),
+                             0);
+    }
+
+    /**
+     * Returns the minimum time in milliseconds between a failed trigger message and its first
+     * retry. The time is doubled for every next retry.
+     *
+     * @param   managerName      The name of the destination manager.
+     * @param   destinationName  The name of the destination.
+     *
+     * @return  The backoff time.
+     *
+     * @throws  GeneralException  In case of any exceptions
+     */
+    public long getTriggerRedeliveryBackoff(String managerName, String destinationName)
+                                     throws GeneralException
+    {
+        return parseIntValue(getDestinationProperties(managerName, destinationName).getStringValue("trigger-redelivery-backoff"),
+                             0);
+    }
+
+    /**
+     * Returns the maximum number of times a failed trigger message is retried before it is put in
+     * the error destination. When this is negative the redelivery policy is not used and only
+     * messages which are delivered for the first time are handled.
+     *
+     * @param   managerName      The name of the destination manager.
+     * @param   destinationName  The name of the destination.
+     *
+     * @return  The maximum number of retries or -1 if the redelivery policy is not used.
+     *
+     * @throws  GeneralException  In case of any exceptions
+     */
+    public int getTriggerRedeliveryMaxRetries(String managerName, String destinationName)
+                                       throws GeneralException
+    {
+        return parseIntValue(getDestinationProperties(managerName, destinationName).getStringValue("trigger-redelivery-max-retries"),
+                             -1);
+    }
+
+    /**
+     * Returns the maximum number of messages for which the redelivery policy keeps track of the
+     * failed attempts.
+     *
+     * @param   managerName      The name of the destination manager.
+     * @param   destinationName  The name of the destination.
+     *
+     * @return  The tracker size.
+     *
+     * @throws  GeneralException  In case of any exceptions
+     */
+    public int getTriggerRedeliveryTrackerSize(String managerName, String destinationName)
+                                        throws GeneralException
+    {
+        return parseIntValue(getDestinationProperties(managerName, destinationName).getStringValue("trigger-redelivery-tracker-size"),
+                             10000);
+    }
+
+    /**
+     * Returns the interval in milliseconds at which the trigger scaler checks the backlog of the
+     * destination.
+     *
+     * @param   managerName      The name of the destination manager.
+     * @param   destinationName  The name of the destination.
+     *
+     * @return  The scale interval.
+     *
+     * @throws  GeneralException  In case of any exceptions
+     */
+    public long getTriggerScaleInterval(String managerName, String destinationName)
+                                 throws GeneralException
+    {
+        return parseIntValue(getDestinationProperties(managerName, destinationName).getStringValue("trigger-scale-interval"),
+                             10000);
+    }
+
+    /**
+     * Returns the maximum number of trigger SOAP requests that a trigger can have outstanding at
+     * the same time. When this is 0 or 1 the trigger waits for each response before handling the
+     * next message.
+     *
+     * @param   managerName      The name of the destination manager.
+     * @param   destinationName  The name of the destination.
+     *
+     * @return  The size of the asynchronous window.
+     *
+     * @throws  GeneralException  In case of any exceptions
+     */
+    public int getTriggerAsyncWindowSize(String managerName, String destinationName)
+                                  throws GeneralException
+    {
+        return parseIntValue(getDestinationProperties(managerName, destinationName).getStringValue("trigger-async-window"),
+                             0);
+    }
+
+    /**
+     * Returns the maximum number of trigger requests that can wait for a free worker. If not set
+     * the queue size is the same as the number of workers.
+     *
+     * @param   managerName      The name of the destination manager.
+     * @param   destinationName  The name of the destination.
+     *
+     * @return  The worker queue size or 0 if not set.
+     *
+     * @throws  GeneralException  In case of any exceptions
+     */
+    public int getTriggerWorkerQueueSize(String managerName, String destinationName)
+                                  throws GeneralException
+    {
+        return parseIntValue(getDestinationProperties(managerName, destinationName).getStringValue("trigger-worker-queue-size"),
+                             0);
+    }
+
+    /**
+     * Returns the number of worker threads that execute the trigger SOAP requests for the
+     * destination. When this is 0 the trigger sessions execute the requests themselves.
+     *
+     * @param   managerName      The name of the destination manager.
+     * @param   destinationName  The name of the destination.
+     *
+     * @return  The number of worker threads or 0 if the worker pool is not used.
+     *
+     * @throws  GeneralException  In case of any exceptions
+     */
+    public int getTriggerWorkerThreadCount(String managerName, String destinationName)
+                                    throws GeneralException
+    {
+        return parseIntValue(getDestinationProperties(managerName, destinationName).getStringValue("trigger-worker-threads"),
+                             0);
+    }
+
+    /**
+     * Creates parameters XML for the given trigger if this the XML is as a encoded text inside the
+     * parameters element (this is the new version).
+     *
+     * @throws  UnsupportedEncodingException
+     * @throws  XMLException
+     */
+    public void inlineAllTriggerParameterXmls()
+                                       throws UnsupportedEncodingException, XMLException
+    {
+        int[] xaTriggerParams = Find.match(xpBase.getConfigNode(),
+                                           "<><Triggers><Trigger><parameters>");
+
+        for (int xParams : xaTriggerParams)
+        {
+            // Check if the parameters node is XML or escaped XML. New version of the config page
+            // uses escaped XML to fix problems with tuple elements in the trigger XML.
+            int xTmp = Node.getFirstChild(xParams);
+
+            if ((xTmp != 0) &&
+                    ((Node.getType(xTmp) == NodeType.CDATA) ||
+                         (Node.getType(xTmp) == NodeType.DATA)))
+            {
+                // Parse the parameter text into XML.
+                String sData = Node.getData(xParams);
+                int xNewParams;
+
+                // Clear all content.
+                while ((xTmp = Node.getFirstChild(xParams)) != 0)
+                {
+                    Node.delete(xTmp);
+                    xTmp = 0;
+                }
+
+                xNewParams = Node.getDocument(xParams).parseString(sData);
+                Node.appendToChildren(Node.getFirstChild(xNewParams), Node.getLastChild(xNewParams),
+                                      xParams);
+                Node.delete(xNewParams);
+                xNewParams = 0;
+            }
+        }
+    }
+
+    /**
+     * DOCUMENTME.
+     *
+     * @param   managerName      DOCUMENTME
+     * @param   destinationName  DOCUMENTME
+     *
+     * @return  DOCUMENTME
+     *
+     * @throws  GeneralException  DOCUMENTME
+     */
+    public boolean isDestinationDefaultErrorDestination(String managerName, String destinationName)
+                                                 throws GeneralException
+    {
+        return "true".equals(getDestinationProperties(managerName, destinationName).getStringValue("is-default-error-dest"));
+    }
+
+    /**
+     * DOCUMENTME.
+     *
+     * @param   managerName      DOCUMENTME
+     * @param   destinationName  DOCUMENTME
+     *
+     * @return  DOCUMENTME
+     *
+     * @throws  GeneralException  DOCUMENTME
+     */
+    public boolean isDestinationDynamic(String managerName, String destinationName)
+                                 throws GeneralException
+    {
+        return "true".equals(getDestinationProperties(managerName, destinationName).getStringValue("is-dynamic"));
+    }
+    
+    /**
+     * Returns whether request messages without a reply destination get a temporary queue of the
+     * destination manager as reply destination.
+     *
+     * @param   managerName  The name of the destination manager.
+     *
+     * @return  <code>true</code> if a temporary reply queue is used.
+     *
+     * @throws  GeneralException  In case of any exceptions
+     */
+    public boolean isDestinationManagerTemporaryReplyQueue(String managerName)
+                                                    throws GeneralException
+    {
+        return "true".equals(getDestinationManagerProperties(managerName).getStringValue("temporary-reply-queue"));
+    }
+
+    /**
+     * Returns whether getMessage requests on this destination that have to wait for a message
+     * are parked instead of blocking a processor thread.
+     *
+     * @param   managerName      The name of the destination manager.
+     * @param   destinationName  The name of the destination.
+     *
+     * @return  <code>true</code> if long polling is used.
+     *
+     * @throws  GeneralException  In case of any exceptions
+     */
+    public boolean isLongPoll(String managerName, String destinationName)
+                       throws GeneralException
+    {
+        return "true".equals(getDestinationProperties(managerName, destinationName).getStringValue("long-poll"));
+    }
+
+    /**
+     * Returns whether the replies for request messages on this destination are received by one
+     * shared consumer instead of a consumer with a correlation ID selector per request.
+     *
+     * @param   managerName      The name of the destination manager.
+     * @param   destinationName  The name of the destination.
+     *
+     * @return  <code>true</code> if the shared reply listener is used.
+     *
+     * @throws  GeneralException  In case of any exceptions
+     */
+    public boolean isSharedReplyListener(String managerName, String destinationName)
+                                  throws GeneralException
+    {
+        return "true".equals(getDestinationProperties(managerName, destinationName).getStringValue("shared-reply-listener"));
+    }
+
+    /**
+     * DOCUMENTME.
+     *
+     * @param   managerName      DOCUMENTME
+     * @param   destinationName  DOCUMENTME
+     *
+     * @return  DOCUMENTME
+     *
+     * @throws  GeneralException  DOCUMENTME
+     */
+    public boolean isDurableSubscriber(String managerName, String destinationName)
+                                 throws GeneralException
+    {
+        return "true".equals(getDestinationProperties(managerName, destinationName).getStringValue("is-durable-subscriber"));
+    }
+
+    /**
+     * DOCUMENTME.
+     *
+     * @param   managerName  DOCUMENTME
+     *
+     * @return  DOCUMENTME
+     *
+     * @throws  GeneralException  DOCUMENTME
+     */
+    protected Hashtable<String, String> getDestinationManagerContext(String managerName)
+                                                              throws GeneralException
+    {
+        Hashtable<String, String> env = new Hashtable<String, String>();
+        String sProviderUrl = getProviderURL(managerName);
+        String sVendor = getJMSVendor(managerName);
+
+        if ((sProviderUrl == null) || (sProviderUrl.length() == 0))
+        {
+            throw new GeneralException("Provider URL not set for destination manager: " +
+                                       managerName);
+        }
+
+        if ((sVendor == null) || (sVendor.length() == 0))
+        {
+            throw new GeneralException("JMS vendor not set for destination manager: " +
+                                       managerName);
+        }
+
+        env.put("java.naming.factory.initial", sVendor);
+        env.put("java.naming.provider.url", sProviderUrl);
+
+        String authentication = getDestinationManagerAuthentication(managerName);
+        env.put("java.naming.security.authentication", authentication);
+
+        if (!"none".equals(authentication))
+        {
+            env.put("java.naming.security.principal",
+                    getDestinationManagerAuthenticationUsername(managerName));
+            env.put("java.naming.security.credentials",
+                    getDestinationManagerAuthenticationPassword(managerName));
+        }
+        return env;
+    }
+
+    /**
+     * DOCUMENTME.
+     *
+     * @param   managerName  DOCUMENTME
+     *
+     * @return  DOCUMENTME
+     *
+     * @throws  GeneralException  DOCUMENTME
+     */
+    protected XMLProperties getDestinationManagerProperties(String managerName)
                                                      throws GeneralException
     {
-        XMLProperties xpRes = xpBase.getXMLProperties("DestinationManagers><DestinationManager name=\"" +
-                                                      managerName + "\"");
+        DestinationManagerConfig manager = managers.get(managerName);
 
-        if (xpRes == null)
+        if (manager == null)
         {
-            xpRes = xpDummy;
+            if (JMSConnector.jmsLogger.isDebugEnabled())
+            {
+                JMSConnector.jmsLogger.debug("Destination manager " + managerName +
+                                             " is not configured.");
+            }
+
+            return xpDummy;
         }
 
-        return xpRes;
+        return manager.getProperties();
     }
 
     /**
@@ -933,31 +1566,167 @@ public class JMSConnectorConfiguration
     protected XMLProperties getDestinationProperties(String managerName, String destinationName)
                                               throws GeneralException
     {
-        XMLProperties xpRes = xpBase.getXMLProperties("DestinationManagers><DestinationManager name=\"" +
-                                                      managerName + "\"><Destination name=\"" +
-                                                      destinationName + "\"");
+        DestinationConfig destination = getDestinationConfig(managerName, destinationName);
+
+        if (destination == null)
+        {
+            if (JMSConnector.jmsLogger.isDebugEnabled())
+            {
+                JMSConnector.jmsLogger.debug("Destination " + managerName + "." + destinationName +
+                                             " is not configured.");
+            }
+
+            return xpDummy;
+        }
+
+        return destination.getProperties();
+    }
+
+    /**
+     * DOCUMENTME.
+     *
+     * @param   triggerId  DOCUMENTME
+     *
+     * @return  DOCUMENTME
+     *
+     * @throws  GeneralException  DOCUMENTME
+     */
+    private XMLProperties getTriggerProperties(String triggerId)
+                                        throws GeneralException
+    {
+        TriggerConfig trigger = triggers.get(triggerId);
+
+        return (trigger != null) ? trigger.getProperties() : null;
+    }
+
+    /**
+     * Parses the destination managers, destinations and triggers into the compiled configuration
+     * objects. References to triggers and error destinations that are not configured are reported
+     * here, so they do not go unnoticed until the first message arrives.
+     *
+     * @throws  GeneralException  In case the configuration could not be parsed.
+     */
+    private void compile()
+                  throws GeneralException
+    {
+        Map<String, TriggerConfig> triggerMap = new HashMap<String, TriggerConfig>();
+        int triggersNode = xpBase.getXMLNode("Triggers");
+
+        for (int node = (triggersNode != 0) ? Node.getFirstChild(triggersNode) : 0; node != 0;
+                 node = Node.getNextSibling(node))
+        {
+            if (!"Trigger".equals(Node.getName(node)))
+            {
+                continue;
+            }
+
+            String name = Node.getAttribute(node, "name");
+
+            if (triggerMap.containsKey(name))
+            {
+                JMSConnector.jmsLogger.warn(null, LogMessages.CONFIGURATION_DUPLICATE_NAME,
+                                            "trigger", name);
+                continue;
+            }
+
+            triggerMap.put(name, new TriggerConfig(name, node));
+        }
+
+        Map<String, DestinationManagerConfig> managerMap = new LinkedHashMap<String, DestinationManagerConfig>();
+        int managersNode = xpBase.getXMLNode("DestinationManagers");
+
+        for (int node = (managersNode != 0) ? Node.getFirstChild(managersNode) : 0; node != 0;
+                 node = Node.getNextSibling(node))
+        {
+            if (!"DestinationManager".equals(Node.getName(node)))
+            {
+                continue;
+            }
+
+            String name = Node.getAttribute(node, "name");
+
+            if (managerMap.containsKey(name))
+            {
+                JMSConnector.jmsLogger.warn(null, LogMessages.CONFIGURATION_DUPLICATE_NAME,
+                                            "destination manager", name);
+                continue;
+            }
+
+            managerMap.put(name, new DestinationManagerConfig(name, node, triggerMap));
+        }
+
+        // Check the error destination references now that all destinations are known.
+        for (DestinationManagerConfig manager : managerMap.values())
+        {
+            for (DestinationConfig destination : manager.destinations.values())
+            {
+                String ref = destination.getErrorDestinationReference();
+
+                if (ref == null)
+                {
+                    continue;
+                }
+
+                int iPos = ref.indexOf('.');
+                DestinationManagerConfig errorManager = (iPos > 0)
+                                                        ? managerMap.get(ref.substring(0, iPos))
+                                                        : null;
+
+                if ((errorManager == null) ||
+                        (errorManager.getDestination(ref.substring(iPos + 1)) == null))
+                {
+                    JMSConnector.jmsLogger.warn(null,
+                                                LogMessages.CONFIGURATION_UNKNOWN_ERROR_DESTINATION,
+                                                destination.getIdentifier(), ref);
+                }
+            }
+        }
 
-        if (xpRes == null)
+        StringBuilder sb = new StringBuilder();
+        int configNode = xpBase.getConfigNode();
+
+        for (int node = Node.getFirstChild(configNode); node != 0;
+                 node = Node.getNextSibling(node))
         {
-            xpRes = xpDummy;
+            String nodeName = Node.getName(node);
+
+            if (!"DestinationManagers".equals(nodeName) && !"Triggers".equals(nodeName) &&
+                    !"__dummy-cfg-element__".equals(nodeName))
+            {
+                sb.append(Node.writeToString(node, false));
+            }
         }
 
-        return xpRes;
+        signature = sb.toString();
+        triggers = Collections.unmodifiableMap(triggerMap);
+        managers = Collections.unmodifiableMap(managerMap);
     }
 
     /**
-     * DOCUMENTME.
-     *
-     * @param   triggerId  DOCUMENTME
+     * Parses an integer configuration value.
      *
-     * @return  DOCUMENTME
+     * @param   sValue         The value to parse.
+     * @param   iDefaultValue  Returned when the value is not set or is not a valid number.
      *
-     * @throws  GeneralException  DOCUMENTME
+     * @return  The parsed value.
      */
-    private XMLProperties getTriggerProperties(String triggerId)
-                                        throws GeneralException
+    private int parseIntValue(String sValue, int iDefaultValue)
     {
-        return xpBase.getXMLProperties("Triggers><Trigger name=\"" + triggerId + "\"");
+        if ((sValue == null) || (sValue.trim().length() == 0))
+        {
+            return iDefaultValue;
+        }
+
+        try
+        {
+            return Integer.parseInt(sValue.trim());
+        }
+        catch (NumberFormatException e)
+        {
+            JMSConnector.jmsLogger.log(Severity.WARN,
+                                       "Invalid numeric configuration value: " + sValue, e);
+            return iDefaultValue;
+        }
     }
 
     /**
@@ -1006,4 +1775,477 @@ public class JMSConnectorConfiguration
          */
         public int soapRequestNode;
     }
+
+    /**
+     * The compiled configuration of a destination. The values that are used for every message are
+     * read once when the configuration is loaded. The other values are read from the properties of
+     * the destination element.
+     */
+    public static final class DestinationConfig
+    {
+        /**
+         * The error destination reference or <code>null</code>.
+         */
+        private final String errorDestinationReference;
+        /**
+         * The name of the destination manager.
+         */
+        private final String managerName;
+        /**
+         * The name of the destination.
+         */
+        private final String name;
+        /**
+         * The properties of the destination element.
+         */
+        private final XMLProperties properties;
+        /**
+         * The XML of the destination and its trigger.
+         */
+        private final String signature;
+        /**
+         * The inbound message trigger or <code>null</code>.
+         */
+        private final TriggerConfig trigger;
+
+        /**
+         * Creates a new DestinationConfig object.
+         *
+         * @param   managerName  The name of the destination manager.
+         * @param   name         The name of the destination.
+         * @param   node         The destination element.
+         * @param   triggers     The configured triggers by name.
+         *
+         * @throws  GeneralException  In case the element could not be read.
+         */
+        DestinationConfig(String managerName, String name, int node,
+                          Map<String, TriggerConfig> triggers)
+                   throws GeneralException
+        {
+            this.managerName = managerName;
+            this.name = name;
+            this.properties = new XMLProperties(node);
+
+            String triggerName = properties.getStringValue("inboundmessagetrigger");
+
+            if ((triggerName != null) && (triggerName.length() > 0) &&
+                    !triggerName.equals("none"))
+            {
+                trigger = triggers.get(triggerName);
+
+                if (trigger == null)
+                {
+                    JMSConnector.jmsLogger.error(null, LogMessages.CONFIGURATION_UNKNOWN_TRIGGER,
+                                                 getIdentifier(), triggerName);
+                }
+            }
+            else
+            {
+                trigger = null;
+            }
+
+            String ref = properties.getStringValue("errordestination");
+
+            errorDestinationReference = ((ref != null) && (ref.length() > 0) &&
+                                         !ref.equals("none")) ? ref : null;
+            signature = Node.writeToString(node, false) +
+                        ((trigger != null) ? trigger.signature : "");
+        }
+
+        /**
+         * Returns the error destination reference (<code>manager.destination</code>).
+         *
+         * @return  The reference or <code>null</code> if the destination has no error destination.
+         */
+        public String getErrorDestinationReference()
+        {
+            return errorDestinationReference;
+        }
+
+        /**
+         * Returns the identifier of the destination (<code>manager.destination</code>).
+         *
+         * @return  The identifier.
+         */
+        public String getIdentifier()
+        {
+            return managerName + "." + name;
+        }
+
+        /**
+         * Returns the name of the destination manager.
+         *
+         * @return  The name of the destination manager.
+         */
+        public String getManagerName()
+        {
+            return managerName;
+        }
+
+        /**
+         * Returns the name of the destination.
+         *
+         * @return  The name.
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * Returns the XML of the destination and its inbound message trigger. When this differs
+         * between two configurations the destination must be restarted.
+         *
+         * @return  The signature.
+         */
+        public String getSignature()
+        {
+            return signature;
+        }
+
+        /**
+         * Returns the inbound message trigger.
+         *
+         * @return  The trigger or <code>null</code> if the destination has no (valid) trigger.
+         */
+        public TriggerConfig getTrigger()
+        {
+            return trigger;
+        }
+
+        /**
+         * Returns the properties of the destination element.
+         *
+         * @return  The properties.
+         */
+        XMLProperties getProperties()
+        {
+            return properties;
+        }
+    }
+
+    /**
+     * The compiled configuration of a destination manager and its destinations.
+     */
+    public static final class DestinationManagerConfig
+    {
+        /**
+         * The destination names in configuration order.
+         */
+        private final String[] destinationNames;
+        /**
+         * The destinations by name.
+         */
+        private final Map<String, DestinationConfig> destinations;
+        /**
+         * The name of the destination manager.
+         */
+        private final String name;
+        /**
+         * The properties of the destination manager element.
+         */
+        private final XMLProperties properties;
+        /**
+         * The XML of the destination manager element without the destinations.
+         */
+        private final String signature;
+
+        /**
+         * Creates a new DestinationManagerConfig object.
+         *
+         * @param   name      The name of the destination manager.
+         * @param   node      The destination manager element.
+         * @param   triggers  The configured triggers by name.
+         *
+         * @throws  GeneralException  In case the element could not be read.
+         */
+        DestinationManagerConfig(String name, int node, Map<String, TriggerConfig> triggers)
+                          throws GeneralException
+        {
+            this.name = name;
+            this.properties = new XMLProperties(node);
+
+            Map<String, DestinationConfig> destinationMap = new LinkedHashMap<String, DestinationConfig>();
+            int copy = Node.duplicate(node);
+
+            try
+            {
+                for (int child = Node.getFirstChild(copy); child != 0;)
+                {
+                    int next = Node.getNextSibling(child);
+
+                    if ("Destination".equals(Node.getName(child)))
+                    {
+                        Node.delete(child);
+                    }
+
+                    child = next;
+                }
+
+                signature = Node.writeToString(copy, false);
+            }
+            finally
+            {
+                Node.delete(copy);
+                copy = 0;
+            }
+
+            for (int child = Node.getFirstChild(node); child != 0;
+                     child = Node.getNextSibling(child))
+            {
+                if (!"Destination".equals(Node.getName(child)))
+                {
+                    continue;
+                }
+
+                String destinationName = Node.getAttribute(child, "name");
+
+                if (destinationMap.containsKey(destinationName))
+                {
+                    JMSConnector.jmsLogger.warn(null, LogMessages.CONFIGURATION_DUPLICATE_NAME,
+                                                "destination", name + "." + destinationName);
+                    continue;
+                }
+
+                destinationMap.put(destinationName,
+                                   new DestinationConfig(name, destinationName, child, triggers));
+            }
+
+            destinations = Collections.unmodifiableMap(destinationMap);
+            destinationNames = destinationMap.keySet().toArray(new String[destinationMap.size()]);
+        }
+
+        /**
+         * Returns the configuration of a destination.
+         *
+         * @param   destinationName  The name of the destination.
+         *
+         * @return  The destination configuration or <code>null</code> if it is not configured.
+         */
+        public DestinationConfig getDestination(String destinationName)
+        {
+            return destinations.get(destinationName);
+        }
+
+        /**
+         * Returns the names of the destinations in configuration order.
+         *
+         * @return  A copy of the destination names.
+         */
+        public String[] getDestinationNames()
+        {
+            return destinationNames.clone();
+        }
+
+        /**
+         * Returns the name of the destination manager.
+         *
+         * @return  The name.
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * Returns the XML of the destination manager settings without the destinations. When this
+         * differs between two configurations the destination manager must be restarted.
+         *
+         * @return  The signature.
+         */
+        public String getSignature()
+        {
+            return signature;
+        }
+
+        /**
+         * Returns the properties of the destination manager element.
+         *
+         * @return  The properties.
+         */
+        XMLProperties getProperties()
+        {
+            return properties;
+        }
+    }
+
+    /**
+     * The compiled configuration of an inbound message trigger.
+     */
+    public static final class TriggerConfig
+    {
+        /**
+         * The character set of the trigger messages or <code>null</code>.
+         */
+        private final String characterSet;
+        /**
+         * The SOAP method name.
+         */
+        private final String method;
+        /**
+         * The name of the trigger.
+         */
+        private final String name;
+        /**
+         * The SOAP method namespace.
+         */
+        private final String namespace;
+        /**
+         * The organization DN.
+         */
+        private final String oDN;
+        /**
+         * The parameters element or 0.
+         */
+        private final int parametersNode;
+        /**
+         * The properties of the trigger element.
+         */
+        private final XMLProperties properties;
+        /**
+         * The request timeout in milliseconds.
+         */
+        private final long requestTimeout;
+        /**
+         * The XML of the trigger element as it was loaded.
+         */
+        private final String signature;
+        /**
+         * The user DN.
+         */
+        private final String uDN;
+
+        /**
+         * Creates a new TriggerConfig object.
+         *
+         * @param   name  The name of the trigger.
+         * @param   node  The trigger element.
+         *
+         * @throws  GeneralException  In case the element could not be read.
+         */
+        TriggerConfig(String name, int node)
+               throws GeneralException
+        {
+            this.name = name;
+            this.properties = new XMLProperties(node);
+            this.signature = Node.writeToString(node, false);
+            this.method = properties.getStringValue("method");
+            this.namespace = properties.getStringValue("namespace");
+            this.oDN = properties.getStringValue("odn");
+            this.uDN = properties.getStringValue("udn");
+            this.characterSet = properties.getStringValue("charset");
+            this.parametersNode = properties.getXMLNode("parameters");
+
+            long timeout = 30000L;
+
+            // Parse the timeout.
+            try
+            {
+                String str = properties.getStringValue("request-timeout");
+
+                if ((str != null) && (str.length() > 0))
+                {
+                    timeout = Long.parseLong(str);
+                }
+            }
+            catch (Exception e)
+            {
+                JMSConnector.jmsLogger.log(Severity.WARN,
+                                           "Unable to parse timeout of trigger " + name + ".", e);
+            }
+
+            this.requestTimeout = timeout;
+        }
+
+        /**
+         * Returns the character set of the trigger messages.
+         *
+         * @return  The character set or <code>null</code>.
+         */
+        public String getCharacterSet()
+        {
+            return characterSet;
+        }
+
+        /**
+         * Returns the SOAP method name.
+         *
+         * @return  The method name.
+         */
+        public String getMethod()
+        {
+            return method;
+        }
+
+        /**
+         * Returns the name of the trigger.
+         *
+         * @return  The name.
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * Returns the SOAP method namespace.
+         *
+         * @return  The namespace.
+         */
+        public String getNamespace()
+        {
+            return namespace;
+        }
+
+        /**
+         * Returns the organization DN.
+         *
+         * @return  The organization DN.
+         */
+        public String getODN()
+        {
+            return oDN;
+        }
+
+        /**
+         * Returns the request timeout.
+         *
+         * @return  The timeout in milliseconds.
+         */
+        public long getRequestTimeout()
+        {
+            return requestTimeout;
+        }
+
+        /**
+         * Returns the user DN.
+         *
+         * @return  The user DN.
+         */
+        public String getUDN()
+        {
+            return uDN;
+        }
+
+        /**
+         * Returns the parameters element of the trigger. Escaped parameter XML is parsed into this
+         * element after the configuration is loaded, so its children must not be cached.
+         *
+         * @return  The parameters element or 0.
+         */
+        int getParametersNode()
+        {
+            return parametersNode;
+        }
+
+        /**
+         * Returns the properties of the trigger element.
+         *
+         * @return  The properties.
+         */
+        XMLProperties getProperties()
+        {
+            return properties;
+        }
+    }
 }
@@ -36,6 +36,8 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.Vector;
 
 import javax.jms.JMSException;
 import javax.jms.Session;
@@ -63,6 +65,20 @@ public class JMSConnectorTransaction
      * Holds the instance of the current JMS Connector.
      */
     private JMSConnector jmsConnector;
+    /**
+     * Holds the messages of parked getMessage requests that are committed or rolled back with
+     * this transaction.
+     */
+    private Vector<LongPollDispatcher.Delivery> longPollDeliveries;
+    /**
+     * Holds the pooled session of each session and its cached consumers, keyed by destination
+     * manager name.
+     */
+    private Hashtable<String, PooledSession> pooledSessions;
+    /**
+     * Holds the destination manager of each session, so the session can be returned to its pool.
+     */
+    private Hashtable<String, DestinationManager> sessionManagers;
 
     /**
      * Creates the transactional object.
@@ -77,6 +93,9 @@ public class JMSConnectorTransaction
         hmSeviceTypes.put(SERVICE_TYPE, SERVICE_TYPE);
 
         destinationManagerSessions = new Hashtable<String, Session>();
+        pooledSessions = new Hashtable<String, PooledSession>();
+        sessionManagers = new Hashtable<String, DestinationManager>();
+        longPollDeliveries = new Vector<LongPollDispatcher.Delivery>();
 
         if (JMSConnector.jmsLogger.isDebugEnabled())
         {
@@ -91,23 +110,37 @@ public class JMSConnectorTransaction
     public void abort()
     {
         // abort all sessions
-        Iterator<Session> sessions = destinationManagerSessions.values().iterator();
+        Iterator<Map.Entry<String, Session>> sessions = destinationManagerSessions.entrySet()
+                                                                                  .iterator();
 
         while (sessions.hasNext())
         {
-            Session session = sessions.next();
+            Map.Entry<String, Session> entry = sessions.next();
+            Session session = entry.getValue();
+            boolean valid = false;
 
             try
             {
                 session.rollback();
-                session.close();
+                valid = true;
             }
             catch (JMSException e)
             {
             	JMSConnector.jmsLogger.error("Exception during the rollback or closure of the session ",e);
             } // ignore
+            finally
+            {
+                releaseSession(entry.getKey(), session, valid);
+            }
         }
         destinationManagerSessions.clear();
+        sessionManagers.clear();
+
+        for (LongPollDispatcher.Delivery delivery : longPollDeliveries)
+        {
+            delivery.rollback();
+        }
+        longPollDeliveries.clear();
 
         if (JMSConnector.jmsLogger.isWarningEnabled())
         {
@@ -144,10 +177,12 @@ public class JMSConnectorTransaction
         	{
     			 String dmName = (String) dmNames.nextElement();
     			 Session session = destinationManagerSessions.get(dmName);
+    			 boolean valid = false;
 
     			 try
     	            {
     	                session.commit();
+    	                valid = true;
     	            }
     	            catch (JMSException commitEx)
     	            {
@@ -167,21 +202,31 @@ public class JMSConnectorTransaction
     	            }
     	            finally
     	            {
-    	            	try 
-    	            	{
-    						session.close();    						
-    					}
-    	            	catch (JMSException closeEx) //Ignore the exception as already session is committed / rolledback   
-    					{
-    						JMSConnector.jmsLogger.error("Exception during closure of the session for Destination Manager "+dmName,closeEx);
-    					}
+    	            	// A session that failed to commit is closed instead of being reused.
+    	            	releaseSession(dmName, session, valid);
     	            }
     		}
     	}
 		finally
 	    {
 			destinationManagerSessions.clear();	
+			sessionManagers.clear();
 	    } 
+
+        for (LongPollDispatcher.Delivery delivery : longPollDeliveries)
+        {
+            try
+            {
+                delivery.commit();
+            }
+            catch (JMSException commitEx)
+            {
+                JMSConnector.jmsLogger.error("Exception while commiting the long poll message for Destination Manager " +
+                                             delivery.managerName, commitEx);
+                failedSessionExceptions.put(delivery.managerName + " (long poll)", commitEx);
+            }
+        }
+        longPollDeliveries.clear();
         
         if (failedSessionExceptions.size()>0)
         {	
@@ -204,6 +249,47 @@ public class JMSConnectorTransaction
         }
     }
 
+    /**
+     * Returns the consumer cache for the session of the given destination. The consumers stay
+     * open when the session is returned to the session pool.
+     *
+     * @param   destination  The destination.
+     *
+     * @return  The consumer cache or <code>null</code> if consumers are not cached for the
+     *          destination manager.
+     *
+     * @throws  JMSException           An error occured while creating a JMS session
+     * @throws  JMSConnectorException  The connector is not correctly configured
+     */
+    public ConsumerCache getConsumerCache(Destination destination)
+                                   throws JMSException, JMSConnectorException
+    {
+        getSessionForDestination(destination);
+
+        return pooledSessions.get(destination.getDestinationManager().getName())
+                             .getConsumerCache();
+    }
+
+    /**
+     * Returns the producer cache for the session of the given destination. The producers stay
+     * open when the session is returned to the session pool.
+     *
+     * @param   destination  The destination.
+     *
+     * @return  The producer cache.
+     *
+     * @throws  JMSException           An error occured while creating a JMS session
+     * @throws  JMSConnectorException  The connector is not correctly configured
+     */
+    public ProducerCache getProducerCache(Destination destination)
+                                   throws JMSException, JMSConnectorException
+    {
+        getSessionForDestination(destination);
+
+        return pooledSessions.get(destination.getDestinationManager().getName())
+                             .getProducerCache();
+    }
+
     /**
      * Implementation of a get message method.
      *
@@ -218,6 +304,28 @@ public class JMSConnectorTransaction
      */
     public boolean getMessage(int request, int implementation, BodyBlock bbResponse)
                        throws TimeoutException, JMSConnectorException
+    {
+        return getMessage(request, implementation, null, bbResponse);
+    }
+
+    /**
+     * Implementation of a get message method. When the request is asynchronous and the
+     * destination uses long polling, a request that has to wait for a message is parked and
+     * completed later by the long poll dispatcher of the destination.
+     *
+     * @param   request         the request xml
+     * @param   implementation  the xml of the method implementation
+     * @param   bbRequest       the request body block or <code>null</code>
+     * @param   bbResponse      the response body block
+     *
+     * @return  true if the response can be sent, false if the request has been parked
+     *
+     * @throws  TimeoutException       The message has not arrived witin the given time
+     * @throws  JMSConnectorException  Some parameter was wrong
+     */
+    public boolean getMessage(int request, int implementation, BodyBlock bbRequest,
+                              BodyBlock bbResponse)
+                       throws TimeoutException, JMSConnectorException
     {
         String destinationId = JMSUtil.getParameter(request, implementation, "destination", "");
         String sDestinationProviderUrl = getRequestDestinationProviderUrl(request, "destination");
@@ -242,6 +350,61 @@ public class JMSConnectorTransaction
             throw new JMSConnectorException("destination '" + destinationId + "' not found");
         }
 
+        LongPollDispatcher dispatcher = null;
+
+        if (waitForMessage && (bbRequest != null) && bbRequest.isAsync())
+        {
+            dispatcher = destination.getLongPollDispatcher();
+        }
+
+        if (dispatcher != null)
+        {
+            String managerName = destination.getDestinationManager().getName();
+            boolean hadSession = destinationManagerSessions.containsKey(managerName);
+
+            if (destination.getMessage(this, sDestinationProviderUrl, bbResponse.getXMLNode(),
+                                       messageSelector, messageFormat, false, correlationId, 0))
+            {
+                return true;
+            }
+
+            // The request does not hold a session while it is parked.
+            if (!hadSession)
+            {
+                Session session = destinationManagerSessions.remove(managerName);
+
+                if (session != null)
+                {
+                    boolean valid = false;
+
+                    try
+                    {
+                        session.rollback();
+                        valid = true;
+                    }
+                    catch (JMSException e)
+                    {
+                        JMSConnector.jmsLogger.error("Exception during the rollback of the session ",
+                                                     e);
+                    }
+                    finally
+                    {
+                        releaseSession(managerName, session, valid);
+                    }
+                }
+            }
+
+            dispatcher.park(new LongPollDispatcher.ParkedRequest(this, bbRequest, bbResponse,
+                                                                 sDestinationProviderUrl,
+                                                                 messageSelector, messageFormat,
+                                                                 correlationId,
+                                                                 (timeout > 0)
+                                                                 ? timeout
+                                                                 : destination.getTimeout()));
+
+            return false;
+        }
+
         boolean result = destination.getMessage(this, sDestinationProviderUrl,
                                                 bbResponse.getXMLNode(), messageSelector,
                                                 messageFormat, waitForMessage, correlationId,
@@ -255,6 +418,56 @@ public class JMSConnectorTransaction
         return true;
     }
 
+    /**
+     * Implementation of a get messages method. Reads up to maxmessages messages, which are
+     * committed together with the transaction.
+     *
+     * @param   request         the request xml
+     * @param   implementation  the xml of the method implementation
+     * @param   bbResponse      the response body block
+     *
+     * @return  true if success
+     *
+     * @throws  JMSConnectorException  Some parameter was wrong
+     */
+    public boolean getMessages(int request, int implementation, BodyBlock bbResponse)
+                        throws JMSConnectorException
+    {
+        String destinationId = JMSUtil.getParameter(request, implementation, "destination", "");
+        String sDestinationProviderUrl = getRequestDestinationProviderUrl(request, "destination");
+        String messageSelector = JMSUtil.getParameter(request, implementation, "messageselector",
+                                                      null);
+        String messageFormat = JMSUtil.getParameter(request, implementation, "messageformat",
+                                                    "responsemessageformat", null);
+        long maxMessages = JMSUtil.getLongParameter(request, implementation, "maxmessages", false,
+                                                    100L);
+        long maxBytes = JMSUtil.getLongParameter(request, implementation, "maxbytes", false, 0L);
+        long timeout = JMSUtil.getLongParameter(request, implementation, "timeout", false, 0L);
+
+        if ("".equals(destinationId))
+        {
+            throw new JMSConnectorException("destination parameter cannot be empty!");
+        }
+
+        if ((maxMessages < 1) || (maxMessages > Integer.MAX_VALUE))
+        {
+            throw new JMSConnectorException("maxmessages must be a positive number!");
+        }
+
+        Destination destination = jmsConnector.getDestinationByURI(destinationId);
+
+        if (destination == null)
+        {
+            throw new JMSConnectorException("destination '" + destinationId + "' not found");
+        }
+
+        destination.getMessages(this, sDestinationProviderUrl, bbResponse.getXMLNode(),
+                                messageSelector, messageFormat, (int) maxMessages, maxBytes,
+                                timeout);
+
+        return true;
+    }
+
     /**
      * Returns a session for a given destination.
      *
@@ -270,12 +483,17 @@ public class JMSConnectorTransaction
     {
         if (!destinationManagerSessions.containsKey(destination.getDestinationManager().getName()))
         {
-            destinationManagerSessions.put(destination.getDestinationManager().getName(),
-                                           destination.getDestinationManager().createSession());
+            DestinationManager manager = destination.getDestinationManager();
+
+            PooledSession session = manager.borrowSession();
+
+            destinationManagerSessions.put(manager.getName(), session.getSession());
+            pooledSessions.put(manager.getName(), session);
+            sessionManagers.put(manager.getName(), manager);
 
             if (JMSConnector.jmsLogger.isDebugEnabled())
             {
-                JMSConnector.jmsLogger.debug("Created new session for transaction, requested for destination access @ " +
+                JMSConnector.jmsLogger.debug("Using session for transaction, requested for destination access @ " +
                                              destination.getIdentifier());
             }
         }
@@ -322,7 +540,15 @@ public class JMSConnectorTransaction
             }
             else if (action.equals("get"))
             {
-                bReturn = getMessage(request, parameters, bbResponse);
+                bReturn = getMessage(request, parameters, bbRequest, bbResponse);
+            }
+            else if (action.equals("getmessages"))
+            {
+                bReturn = getMessages(request, parameters, bbResponse);
+            }
+            else if (action.equals("sendmessages"))
+            {
+                bReturn = sendMessages(request, parameters, bbResponse);
             }
             else if (action.equals("request"))
             {
@@ -331,15 +557,7 @@ public class JMSConnectorTransaction
         }
         catch (Throwable e)
         {
-            String sMessage = JMSUtil.getStackTrace(e);
-
-            String code = "Server.Exception";
-            String message = JMSUtil.findCause(e);
-
-            JMSConnector.jmsLogger.error(e, LogMessages.TRANSACTION_ERROR, message);
-
-            int SOAPFaultDetail = bbResponse.createSOAPFault(code, message);
-            Node.setDataElement(SOAPFaultDetail, "", sMessage);
+            createSOAPFault(bbResponse, e);
 
             if (bbRequest.isAsync())
             {
@@ -367,17 +585,45 @@ public class JMSConnectorTransaction
     {
         String reply2destination = JMSUtil.getParameter(request, implementation,
                                                         "reply2destination", "");
-        Destination replydestination = jmsConnector.getDestinationByURI(reply2destination);
+        Destination replydestination = null;
+        ReplyListener replyListener = null;
 
         if ("".equals(reply2destination))
         {
-            throw new JMSConnectorException("reply2destination parameter cannot be empty!");
-        }
+            String sDestinationId = JMSUtil.getParameter(request, implementation, "destination",
+                                                         "");
+            Destination dDestination = jmsConnector.getDestinationByURI(sDestinationId);
 
-        if (replydestination == null)
+            if (dDestination != null)
+            {
+                try
+                {
+                    replyListener = dDestination.getDestinationManager()
+                                                .getTemporaryReplyListener();
+                }
+                catch (JMSException e)
+                {
+                    throw new JMSConnectorException(e, "Unable to create the temporary reply queue.");
+                }
+
+                // The reply is converted with the settings of the request destination.
+                replydestination = dDestination;
+            }
+
+            if (replyListener == null)
+            {
+                throw new JMSConnectorException("reply2destination parameter cannot be empty!");
+            }
+        }
+        else
         {
-            throw new JMSConnectorException("Reply destination '" + reply2destination +
-                                            "' not found");
+            replydestination = jmsConnector.getDestinationByURI(reply2destination);
+
+            if (replydestination == null)
+            {
+                throw new JMSConnectorException("Reply destination '" + reply2destination +
+                                                "' not found");
+            }
         }
 
         String messageFormat = JMSUtil.getParameter(request, implementation, "messageformat", null);
@@ -394,7 +640,33 @@ public class JMSConnectorTransaction
             responseMessageFormat = messageFormat;
         }
 
-        String[] saIdArray = sendMessage(request, implementation, useCorrelationId);
+        String[] saIdArray = sendMessage(request, implementation, useCorrelationId,
+                                         (replyListener != null)
+                                         ? replyListener.getReplyDestination() : null);
+        String replyMessageId = null;
+
+        if (useCorrelationId || (replyListener != null))
+        {
+            // Get the message with the correlation ID or the sent message ID if correlation ID is
+            // not set.
+            replyMessageId = ((saIdArray[1] != null) ? saIdArray[1] : saIdArray[0]);
+        }
+
+        ReplyListener.PendingReply pendingReply = null;
+
+        if (replyMessageId != null)
+        {
+            if (replyListener == null)
+            {
+                replyListener = replydestination.getReplyListener();
+            }
+
+            if (replyListener != null)
+            {
+                // Register before the commit, otherwise the reply can arrive first.
+                pendingReply = replyListener.register(replyMessageId);
+            }
+        }
 
         // mpoyhone: We need to commit the session so that the message actually gets sent before
         // listening for the reply.
@@ -411,6 +683,7 @@ public class JMSConnectorTransaction
 
             if (dDestination == null)
             {
+                cancelReply(replyListener, pendingReply);
                 throw new JMSConfigurationException("Unable to get the request message destination.");
             }
 
@@ -420,39 +693,51 @@ public class JMSConnectorTransaction
 
             if (sRequestSession == null)
             {
+                cancelReply(replyListener, pendingReply);
                 throw new JMSConfigurationException("Unable to get the request session for destination " +
                                                     sDestinationId);
             }
 
+            String sManagerName = dDestination.getDestinationManager().getName();
+
+            destinationManagerSessions.remove(sManagerName);
+
+            boolean bCommitted = false;
+
             try
             {
                 sRequestSession.commit();
-                sRequestSession.close();
+                bCommitted = true;
             }
             catch (JMSException e)
             {
+                cancelReply(replyListener, pendingReply);
                 throw new JMSConnectorException(e,
                                                 "Unable to commit the session for destination " +
                                                 sDestinationId);
             }
-
-            destinationManagerSessions.remove(dDestination.getDestinationManager().getName());
+            finally
+            {
+                releaseSession(sManagerName, sRequestSession, bCommitted);
+            }
         }
 
         String sDestinationProviderUrl = getRequestDestinationProviderUrl(request, "destination");
         boolean result;
-        String replyMessageId = null;
 
-        if (useCorrelationId)
+        if (pendingReply != null)
         {
-            // Get the message with the correlation ID or the sent message ID if correlation ID is
-            // not set.
-            replyMessageId = ((saIdArray[1] != null) ? saIdArray[1] : saIdArray[0]);
+            result = replydestination.getReply(replyListener, pendingReply,
+                                               bbResponse.getXMLNode(), responseMessageFormat,
+                                               timeout);
+        }
+        else
+        {
+            result = replydestination.getMessage(this, sDestinationProviderUrl,
+                                                 bbResponse.getXMLNode(), null,
+                                                 responseMessageFormat, true, replyMessageId,
+                                                 timeout);
         }
-
-        result = replydestination.getMessage(this, sDestinationProviderUrl, bbResponse.getXMLNode(),
-                                             null, responseMessageFormat, true, replyMessageId,
-                                             timeout);
 
         if (!result)
         {
@@ -488,6 +773,93 @@ public class JMSConnectorTransaction
         return true;
     }
 
+    /**
+     * Implementation of a send messages method. Every <code>entry</code> element of the request
+     * holds the parameters of one message, like a sendMessage request. An entry without a
+     * destination uses the destination of the request. All messages must be sent to destinations
+     * of the same destination manager, so that they are committed together. The message IDs are
+     * returned in the order of the entries.
+     *
+     * @param   request         the request xml
+     * @param   implementation  the xml of the method implementation
+     * @param   bbResponse      the response body block
+     *
+     * @return  true if success
+     *
+     * @throws  JMSConnectorException  Some parameter is wrong
+     */
+    public boolean sendMessages(int request, int implementation, BodyBlock bbResponse)
+                         throws JMSConnectorException
+    {
+        int defaultDestination = Node.getElement(request, "destination");
+        int responseNode = bbResponse.getXMLNode();
+        DestinationManager manager = null;
+        int count = 0;
+
+        for (int entry = Node.getElement(request, "entry"); entry != 0;
+                 entry = Node.getNextSibling(entry))
+        {
+            if (!"entry".equals(Node.getLocalName(entry)))
+            {
+                continue;
+            }
+
+            if ((Node.getElement(entry, "destination") == 0) && (defaultDestination != 0))
+            {
+                Node.appendToChildren(Node.duplicate(defaultDestination), entry);
+            }
+
+            String destinationId = JMSUtil.getParameter(entry, implementation, "destination", "");
+            Destination destination = jmsConnector.getDestinationByURI(destinationId);
+
+            if (destination == null)
+            {
+                throw new JMSConnectorException("Destination '" + destinationId + "' not found");
+            }
+
+            if (manager == null)
+            {
+                manager = destination.getDestinationManager();
+            }
+            else if (manager != destination.getDestinationManager())
+            {
+                throw new JMSConnectorException("All messages must be sent to destinations of destination manager " +
+                                                manager.getName() + ".");
+            }
+
+            String[] saIdArray = sendMessage(entry, implementation, true);
+
+            Node.createTextElement("messageid", saIdArray[0], responseNode);
+            count++;
+        }
+
+        if (count == 0)
+        {
+            throw new JMSConnectorException("entry parameter cannot be empty!");
+        }
+
+        return true;
+    }
+
+    /**
+     * Logs the error and puts it as a SOAP fault in the response.
+     *
+     * @param  bbResponse  The response body block.
+     * @param  e           The error.
+     */
+    static void createSOAPFault(BodyBlock bbResponse, Throwable e)
+    {
+        String sMessage = JMSUtil.getStackTrace(e);
+
+        String code = "Server.Exception";
+        String message = JMSUtil.findCause(e);
+
+        JMSConnector.jmsLogger.error(e, LogMessages.TRANSACTION_ERROR, message);
+
+        int SOAPFaultDetail = bbResponse.createSOAPFault(code, message);
+        Node.setDataElement(SOAPFaultDetail, "", sMessage);
+    }
+
     /**
      * Generates a correlation ID for a message to be sent. Normally the message ID is used as a
      * correlation ID but that is available only after the message is sent, so that ID cannot be set
@@ -514,6 +886,27 @@ public class JMSConnectorTransaction
      */
     protected String[] sendMessage(int request, int implementation, boolean enableCorrelationId)
                             throws JMSConnectorException
+    {
+        return sendMessage(request, implementation, enableCorrelationId, null);
+    }
+
+    /**
+     * Sends a message to a destination.
+     *
+     * @param   request              the xml of the request
+     * @param   implementation       the xml of the method implementation
+     * @param   enableCorrelationId  look for a correlation id in the request (false if called from
+     *                               requestMessage)
+     * @param   replyTo              JMS reply destination (e.g. a temporary queue) or <code>
+     *                               null</code> to use the reply2destination parameter
+     *
+     * @return  A string array containing the message ID (index 0) and the correlation ID (index 1).
+     *
+     * @throws  JMSConnectorException  Some parameter is wrong
+     */
+    protected String[] sendMessage(int request, int implementation, boolean enableCorrelationId,
+                                   javax.jms.Destination replyTo)
+                            throws JMSConnectorException
     {
         // read parameters:
         String destinationId = JMSUtil.getParameter(request, implementation, "destination", "");
@@ -622,11 +1015,55 @@ public class JMSConnectorTransaction
                                                     sReplyToDestinationProviderUrl, correlationId,
                                                     persistentDelivery, expiration, jmsType,
                                                     properties, messageId, messageType,
-                                                    messageFormat, priority);
+                                                    messageFormat, priority, replyTo);
 
         return new String[] { sMessageId, correlationId };
     }
 
+    /**
+     * Adds the message of a parked getMessage request, which is committed or rolled back with
+     * this transaction.
+     *
+     * @param  delivery  The message delivery.
+     */
+    void addLongPollDelivery(LongPollDispatcher.Delivery delivery)
+    {
+        longPollDeliveries.add(delivery);
+    }
+
+    /**
+     * Returns the session to the pool of its destination manager.
+     *
+     * @param  managerName  The name of the destination manager.
+     * @param  session      The committed or rolled back session.
+     * @param  valid        <code>false</code> if the session must be closed.
+     */
+    private void releaseSession(String managerName, Session session, boolean valid)
+    {
+        DestinationManager manager = sessionManagers.remove(managerName);
+        PooledSession pooledSession = pooledSessions.remove(managerName);
+
+        if ((manager != null) && (pooledSession != null))
+        {
+            manager.releaseSession(pooledSession, valid);
+        }
+    }
+
+    /**
+     * Removes the registered request from the reply listener.
+     *
+     * @param  replyListener  The reply listener or <code>null</code>.
+     * @param  pendingReply   The registered request or <code>null</code>.
+     */
+    private static void cancelReply(ReplyListener replyListener,
+                                    ReplyListener.PendingReply pendingReply)
+    {
+        if (pendingReply != null)
+        {
+            replyListener.cancel(pendingReply);
+        }
+    }
+
     /**
      * Returns the provider URL attribute from 'destination' or 'reply2destination' element from the
      * SOAP request.
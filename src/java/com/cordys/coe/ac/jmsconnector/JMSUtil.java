@@ -27,10 +27,12 @@ import com.eibus.xml.nom.Node;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.jms.BytesMessage;
 import javax.jms.JMSException;
@@ -50,6 +52,17 @@ import javax.jms.Topic;
  */
 public class JMSUtil
 {
+    /**
+     * The maximum number of entries in the destination name cache.
+     */
+    private static final int DESTINATION_NAME_CACHE_SIZE = 1024;
+    /**
+     * Cache of the connector names and provider URLs of JMS destinations, see <code>
+     * getJmsDestinationNames()</code>. The cache is cleared when it is full or when destinations
+     * are registered or removed.
+     */
+    private static final Map<String, String[]> destinationNameCache = new ConcurrentHashMap<String, String[]>();
+
     /**
      * Appends extra parameters to a dynamic destination URL. The format of this URL is provider
      * specific and probably not supported by all providers. Currently this method is hard-coded for
@@ -64,33 +77,26 @@ public class JMSUtil
     public static String appendDynamicDestinationParameters(String sPhysicalName, Destination dDest,
                                                             String sParamString)
     {
-        if ((sParamString == null) || (sParamString.length() == 0))
-        {
-            return sPhysicalName;
-        }
-
-        // Parse them in to a hash map, so later we can do parameter merging.
-        Map<String, String> mParams = new HashMap<String, String>();
-        String[] saTmpArray = sParamString.split(",");
+        return appendDynamicDestinationParameters(sPhysicalName,
+                                                  parseDynamicDestinationParameters(sParamString));
+    }
 
-        for (String sTmp : saTmpArray)
+    /**
+     * Appends extra parameters to a dynamic destination URL. Any parameters that are already in
+     * the URL are replaced.
+     *
+     * @param   sPhysicalName  Physical URL of the destination.
+     * @param   mParams        The parsed parameters, see <code>
+     *                         parseDynamicDestinationParameters()</code>.
+     *
+     * @return  The URL with the parameters.
+     */
+    public static String appendDynamicDestinationParameters(String sPhysicalName,
+                                                            Map<String, String> mParams)
+    {
+        if ((mParams == null) || mParams.isEmpty())
         {
-            int iPos = sTmp.indexOf('=');
-            String sName;
-            String sValue;
-
-            if (iPos > 0)
-            {
-                sName = sTmp.substring(0, iPos).trim();
-                sValue = ((iPos < (sTmp.length() - 1)) ? sTmp.substring(iPos + 1).trim() : "");
-            }
-            else
-            {
-                sName = sTmp;
-                sValue = null;
-            }
-
-            mParams.put(sName, sValue);
+            return sPhysicalName;
         }
 
         // Discard the possible query part from the physical name.
@@ -133,6 +139,48 @@ public class JMSUtil
         return sbRes.toString();
     }
 
+    /**
+     * Parses the dynamic destination parameters as configured in the connector configuration page
+     * (<code>name=value,name=value</code>).
+     *
+     * @param   sParamString  The parameter string or <code>null</code>.
+     *
+     * @return  The parameters by name. The map cannot be modified.
+     */
+    public static Map<String, String> parseDynamicDestinationParameters(String sParamString)
+    {
+        if ((sParamString == null) || (sParamString.length() == 0))
+        {
+            return Collections.emptyMap();
+        }
+
+        // Parse them in to a hash map, so later we can do parameter merging.
+        Map<String, String> mParams = new HashMap<String, String>();
+        String[] saTmpArray = sParamString.split(",");
+
+        for (String sTmp : saTmpArray)
+        {
+            int iPos = sTmp.indexOf('=');
+            String sName;
+            String sValue;
+
+            if (iPos > 0)
+            {
+                sName = sTmp.substring(0, iPos).trim();
+                sValue = ((iPos < (sTmp.length() - 1)) ? sTmp.substring(iPos + 1).trim() : "");
+            }
+            else
+            {
+                sName = sTmp;
+                sValue = null;
+            }
+
+            mParams.put(sName, sValue);
+        }
+
+        return Collections.unmodifiableMap(mParams);
+    }
+
     /**
      * DOCUMENTME.
      *
@@ -227,7 +275,7 @@ public class JMSUtil
         {
             return null;
         }
-        return dest.getDestinationManager().getName() + "." + dest.getName();
+        return dest.getIdentifier();
     }
 
     /**
@@ -281,6 +329,69 @@ public class JMSUtil
                                                   javax.jms.Destination dDest,
                                                   boolean bAddParameters)
                                            throws JMSException
+    {
+        String sName = null;
+
+        if (dDest instanceof Queue)
+        {
+            sName = "Q" + ((Queue) dDest).getQueueName();
+        }
+        else if (dDest instanceof Topic)
+        {
+            sName = "T" + ((Topic) dDest).getTopicName();
+        }
+
+        if (sName == null)
+        {
+            return resolveJmsDestinationNames(dOrigConnectorDest, dDest, bAddParameters);
+        }
+
+        String sKey = dOrigConnectorDest.getIdentifier() + '\u0000' + (bAddParameters ? '1' : '0') +
+                      sName;
+        String[] saNames = destinationNameCache.get(sKey);
+
+        if (saNames == null)
+        {
+            saNames = resolveJmsDestinationNames(dOrigConnectorDest, dDest, bAddParameters);
+
+            if (destinationNameCache.size() >= DESTINATION_NAME_CACHE_SIZE)
+            {
+                destinationNameCache.clear();
+            }
+
+            destinationNameCache.put(sKey, saNames);
+        }
+
+        return saNames.clone();
+    }
+
+    /**
+     * Clears the destination name cache. This is called when destinations are registered or
+     * removed, because that changes the result of <code>getJmsDestinationNames()</code>.
+     */
+    static void clearDestinationNameCache()
+    {
+        destinationNameCache.clear();
+    }
+
+    /**
+     * Resolves the JMSConnector name and provider URL of a JMS destination without using the
+     * cache.
+     *
+     * @param   dOrigConnectorDest  Related JMSConnector destination.
+     * @param   dDest               JMS destination.
+     * @param   bAddParameters      If <code>true</code> dynamic destinations parameters are added
+     *                              to the physical name (provider URL).
+     *
+     * @return  String array where [0] = JMSConnector name, [1] = JMS provider URL (null if the
+     *          destination is known).
+     *
+     * @throws  JMSException
+     */
+    private static String[] resolveJmsDestinationNames(Destination dOrigConnectorDest,
+                                                       javax.jms.Destination dDest,
+                                                       boolean bAddParameters)
+                                                throws JMSException
     {
         String sProviderUrl = getDestinationURI(dDest);
         String sConnectorName = getDestinationIdentifier(sProviderUrl);
@@ -307,13 +418,12 @@ public class JMSUtil
             dUseDest = dOrigConnectorDest;
         }
 
-        sConnectorName = dUseDest.getDestinationManager().getName() + "." + dUseDest.getName();
+        sConnectorName = dUseDest.getIdentifier();
 
         if ((sProviderUrl != null) && (sProviderUrl.length() > 0) && bAddParameters)
         {
-            sProviderUrl = appendDynamicDestinationParameters(sProviderUrl, dUseDest,
-                                                              dUseDest
-                                                              .getDynamicDestinationParameterString());
+            sProviderUrl = appendDynamicDestinationParameters(sProviderUrl,
+                                                              dUseDest.getDynamicDestinationParameters());
         }
 
         return new String[]
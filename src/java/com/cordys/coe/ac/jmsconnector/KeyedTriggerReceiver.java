@@ -0,0 +1,521 @@
+/*
+ *
+ *  Copyright 2004 Cordys R&D B.V.
+ *
+ *  This file is part of the Cordys JMS Connector.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.cordys.coe.ac.jmsconnector;
+
+import com.cordys.coe.ac.jmsconnector.messages.LogMessages;
+
+import com.eibus.management.counters.ITimerEventValueCounter;
+
+import com.eibus.xml.nom.Node;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+
+/**
+ * Trigger receiver which handles messages with different ordering keys in parallel. The ordering
+ * key is read from a JMS header or property, e.g. <code>JMSXGroupID</code> or <code>
+ * JMSCorrelationID</code>. Messages with the same key are sent one after the other in the order
+ * in which they were received. Messages without a key do not have to be ordered.
+ *
+ * <p>The receiver collects up to <code>windowSize</code> messages, groups them by key and sends
+ * each group in a worker thread. The SOAP requests are created in the receiving thread, because
+ * the JMS session and messages may only be used by one thread. Once all groups are done the
+ * session is committed once. A group stops at its first failed message. That message is put in
+ * the error destination as part of the window transaction and then the rest of the group is
+ * sent, so a message is never sent before a failed message with the same key is handled. If a
+ * message cannot be put in the error destination the whole window is rolled back and no further
+ * messages are sent. With a redelivery policy the messages of the groups without a failure are
+ * only acknowledged when they are delivered again. The groups with a failure are delivered again
+ * completely and in order. Without a redelivery policy the rolled back messages are not
+ * delivered to the trigger again.</p>
+ *
+ * <p>The ordering is only guaranteed within one trigger, so the destination should have one
+ * trigger listener. Trigger scaling is not used for ordered destinations.</p>
+ */
+class KeyedTriggerReceiver extends TriggerReceiver
+{
+    /**
+     * Executes the groups of a window.
+     */
+    private final ExecutorService executor;
+    /**
+     * The JMX counter for the message handling time.
+     */
+    private final ITimerEventValueCounter messageHandlingCounter;
+    /**
+     * The name of the JMS header or property that holds the ordering key.
+     */
+    private final String orderKey;
+    /**
+     * The maximum number of messages in one window.
+     */
+    private final int windowSize;
+
+    /**
+     * Creates a new KeyedTriggerReceiver object.
+     *
+     * @param  trigger      The trigger.
+     * @param  session      The trigger session.
+     * @param  consumer     The consumer to receive from.
+     * @param  orderKey     The name of the JMS header or property that holds the ordering key.
+     * @param  threadCount  The number of groups that are sent in parallel.
+     * @param  windowSize   The maximum number of messages in one window.
+     */
+    KeyedTriggerReceiver(final Trigger trigger, Session session, MessageConsumer consumer,
+                         String orderKey, int threadCount, int windowSize)
+    {
+        super(trigger, session, consumer);
+
+        this.orderKey = orderKey;
+        this.windowSize = Math.max(1, windowSize);
+        this.messageHandlingCounter = trigger.getMessageHandlingCounter();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threadCount), new ThreadFactory()
+            {
+                private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+                public Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r,
+                                          "JMSConnector-" + trigger.getName() + "-order-" +
+                                          threadNumber.getAndIncrement());
+
+                    t.setDaemon(true);
+
+                    return t;
+                }
+            });
+    }
+
+    /**
+     * @see  com.cordys.coe.ac.jmsconnector.TriggerReceiver#onStop()
+     */
+    @Override protected void onStop()
+                             throws Exception
+    {
+        executor.shutdown();
+        executor.awaitTermination(RECEIVE_TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @see  com.cordys.coe.ac.jmsconnector.TriggerReceiver#receiveCycle()
+     */
+    @Override protected void receiveCycle()
+                                   throws Exception
+    {
+        Message message = consumer.receive(RECEIVE_TIMEOUT);
+        Map<String, List<KeyedInvocation>> groups = new LinkedHashMap<String, List<KeyedInvocation>>();
+        List<KeyedInvocation> window = new ArrayList<KeyedInvocation>();
+
+        // Take the messages that are available right now.
+        while (message != null)
+        {
+            if (!trigger.isRedeliveredMessage(message) && !trigger.isAlreadyHandled(message))
+            {
+                KeyedInvocation invocation = prepare(message);
+                String key = getOrderKey(message);
+
+                if (key == null)
+                {
+                    // No ordering needed, so the message gets its own group.
+                    key = "\u0000" + window.size();
+                }
+
+                List<KeyedInvocation> group = groups.get(key);
+
+                if (group == null)
+                {
+                    group = new ArrayList<KeyedInvocation>();
+                    groups.put(key, group);
+                }
+
+                group.add(invocation);
+                window.add(invocation);
+            }
+
+            if (window.size() >= windowSize)
+            {
+                break;
+            }
+
+            message = consumer.receiveNoWait();
+        }
+
+        if (window.isEmpty())
+        {
+            return;
+        }
+
+        try
+        {
+            List<KeyedGroup> remaining = new ArrayList<KeyedGroup>(groups.size());
+
+            for (List<KeyedInvocation> group : groups.values())
+            {
+                remaining.add(new KeyedGroup(group));
+            }
+
+            boolean rollback = false;
+
+            // Each round sends every group until its first failure. A failed message must be in
+            // the error destination before the next message with the same key is sent.
+            while (!remaining.isEmpty() && !rollback)
+            {
+                List<Future<Object>> futures = new ArrayList<Future<Object>>(remaining.size());
+
+                for (final KeyedGroup group : remaining)
+                {
+                    futures.add(executor.submit(new Callable<Object>()
+                            {
+                                public Object call()
+                                {
+                                    group.sendUntilFailure();
+
+                                    return null;
+                                }
+                            }));
+                }
+
+                for (Future<Object> future : futures)
+                {
+                    future.get();
+                }
+
+                rollback = !handleErrors(remaining);
+            }
+
+            completeWindow(window, rollback);
+        }
+        finally
+        {
+            for (KeyedInvocation invocation : window)
+            {
+                Node.delete(invocation.request);
+                messageHandlingCounter.finish(invocation.startTime);
+            }
+
+            // The groups of the window run in parallel, so the trigger was busy for the time of
+            // the window and not for the sum of the request times.
+            trigger.recordHandledMessages(window.size(),
+                                          System.currentTimeMillis() - window.get(0).beginTime);
+        }
+    }
+
+    /**
+     * Commits or rolls back the session. On a rollback only the messages of the groups without a
+     * failure are registered as handled. The messages of a group with a failure are all delivered
+     * again, so the failed message is sent again before the messages that follow it.
+     *
+     * @param   window    The invocations of the window.
+     * @param   rollback  <code>true</code> if the window must be rolled back.
+     *
+     * @throws  JMSException  In case the commit failed.
+     */
+    private void completeWindow(List<KeyedInvocation> window, boolean rollback)
+                         throws JMSException
+    {
+        if (rollback)
+        {
+            JMSConnector.jmsLogger.warn(null, LogMessages.TRIGGER_ORDERED_WINDOW_ROLLBACK,
+                                        trigger.getDestination().getIdentifier(), window.size());
+
+            for (KeyedInvocation invocation : window)
+            {
+                if (!invocation.group.failed)
+                {
+                    trigger.markHandledBeforeRollback(invocation.message);
+                }
+            }
+
+            session.rollback();
+            trigger.sessionCompleted(false);
+        }
+        else
+        {
+            session.commit();
+            trigger.sessionCompleted(true);
+        }
+    }
+
+    /**
+     * Puts the messages that failed in the last round in the error destination as part of the
+     * window transaction. The groups that are done are removed from the list.
+     *
+     * @param   groups  The groups of the last round.
+     *
+     * @return  <code>false</code> if a message could not be put in the error destination and the
+     *          window must be rolled back.
+     */
+    private boolean handleErrors(List<KeyedGroup> groups)
+    {
+        boolean ok = true;
+
+        for (Iterator<KeyedGroup> it = groups.iterator(); it.hasNext();)
+        {
+            KeyedGroup group = it.next();
+            KeyedInvocation failed = group.getFailedInvocation();
+
+            if (failed != null)
+            {
+                group.failed = true;
+
+                if (!trigger.handleMessageError(failed.message, session, failed.error, false))
+                {
+                    ok = false;
+                }
+            }
+
+            if (group.isDone())
+            {
+                it.remove();
+            }
+        }
+
+        return ok;
+    }
+
+    /**
+     * Returns the ordering key of the message.
+     *
+     * @param   message  The message.
+     *
+     * @return  The key or <code>null</code> if the message has no key.
+     *
+     * @throws  JMSException  In case the key could not be read.
+     */
+    private String getOrderKey(Message message)
+                        throws JMSException
+    {
+        String key;
+
+        if ("JMSCorrelationID".equals(orderKey))
+        {
+            key = message.getJMSCorrelationID();
+        }
+        else if ("JMSType".equals(orderKey))
+        {
+            key = message.getJMSType();
+        }
+        else
+        {
+            key = message.getStringProperty(orderKey);
+        }
+
+        return ((key != null) && (key.length() > 0)) ? key : null;
+    }
+
+    /**
+     * Creates the trigger request for the message.
+     *
+     * @param   message  The received message.
+     *
+     * @return  The invocation. If the request could not be created the error is set.
+     */
+    private KeyedInvocation prepare(Message message)
+    {
+        trigger.logReceivedMessage(message);
+
+        KeyedInvocation invocation = new KeyedInvocation(message, messageHandlingCounter.start());
+
+        try
+        {
+            JMSConnectorConfiguration.TriggerMessageInfo messageInfo = trigger
+                                                                       .createTriggerRequest(message,
+                                                                                             session);
+
+            invocation.request = messageInfo.soapRequestNode;
+            invocation.timeout = messageInfo.requestTimeout;
+        }
+        catch (Exception e)
+        {
+            invocation.error = e;
+        }
+
+        return invocation;
+    }
+
+    /**
+     * The messages of a window with the same ordering key.
+     */
+    private static class KeyedGroup
+    {
+        /**
+         * Indicates whether a message of this group failed.
+         */
+        boolean failed;
+        /**
+         * The invocations in the order in which the messages were received.
+         */
+        final List<KeyedInvocation> invocations;
+        /**
+         * The index of the next invocation to send.
+         */
+        int next;
+
+        /**
+         * Creates a new KeyedGroup object.
+         *
+         * @param  invocations  The invocations in the order in which the messages were received.
+         */
+        KeyedGroup(List<KeyedInvocation> invocations)
+        {
+            this.invocations = invocations;
+
+            for (KeyedInvocation invocation : invocations)
+            {
+                invocation.group = this;
+            }
+        }
+
+        /**
+         * Returns the invocation that stopped the last call to <code>sendUntilFailure</code>.
+         *
+         * @return  The failed invocation or <code>null</code> if the last invocation succeeded.
+         */
+        KeyedInvocation getFailedInvocation()
+        {
+            if (next == 0)
+            {
+                return null;
+            }
+
+            KeyedInvocation invocation = invocations.get(next - 1);
+
+            return (invocation.error != null) ? invocation : null;
+        }
+
+        /**
+         * Returns whether all invocations of this group were sent.
+         *
+         * @return  <code>true</code> if the group is done.
+         */
+        boolean isDone()
+        {
+            return next >= invocations.size();
+        }
+
+        /**
+         * Sends the invocations one after the other and stops after the first one that fails.
+         * Called from a worker thread.
+         */
+        void sendUntilFailure()
+        {
+            while (next < invocations.size())
+            {
+                KeyedInvocation invocation = invocations.get(next++);
+
+                invocation.send();
+
+                if (invocation.error != null)
+                {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Holds the state of one trigger request in a window.
+     */
+    private class KeyedInvocation
+    {
+        /**
+         * The time at which the message was received.
+         */
+        final long beginTime = System.currentTimeMillis();
+        /**
+         * The error of the request.
+         */
+        volatile Exception error;
+        /**
+         * The group of the message.
+         */
+        KeyedGroup group;
+        /**
+         * The received message.
+         */
+        final Message message;
+        /**
+         * The SOAP request.
+         */
+        int request;
+        /**
+         * The start time for the JMX counter.
+         */
+        final long startTime;
+        /**
+         * The request timeout.
+         */
+        long timeout;
+
+        /**
+         * Creates a new KeyedInvocation object.
+         *
+         * @param  message    The received message.
+         * @param  startTime  The start time for the JMX counter.
+         */
+        KeyedInvocation(Message message, long startTime)
+        {
+            this.message = message;
+            this.startTime = startTime;
+        }
+
+        /**
+         * Sends the request and checks the response. Called from a worker thread.
+         */
+        void send()
+        {
+            if (error != null)
+            {
+                return;
+            }
+
+            int response = 0;
+
+            try
+            {
+                response = trigger.getConnector().getConnector().sendAndWait(request, timeout);
+
+                trigger.checkTriggerResponse(response);
+            }
+            catch (Exception e)
+            {
+                error = e;
+            }
+            finally
+            {
+                Node.delete(Node.getRoot(response));
+            }
+        }
+    }
+}
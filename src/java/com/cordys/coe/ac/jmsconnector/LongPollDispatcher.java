@@ -0,0 +1,810 @@
+/*
+ *
+ *  Copyright 2004 Cordys R&D B.V.
+ *
+ *  This file is part of the Cordys JMS Connector.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.cordys.coe.ac.jmsconnector;
+
+import com.cordys.coe.ac.jmsconnector.exceptions.JMSConnectorException;
+import com.cordys.coe.ac.jmsconnector.messages.LogMessages;
+
+import com.eibus.exception.TimeoutException;
+
+import com.eibus.management.IManagedComponent;
+import com.eibus.management.counters.CounterFactory;
+import com.eibus.management.counters.IEventOccurrenceCounter;
+
+import com.eibus.soap.BodyBlock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+
+/**
+ * Completes parked getMessage requests of a destination. A getMessage request that has to wait
+ * for a message is parked here instead of blocking a SOAP processor thread. The parked request
+ * does not hold a session. The requests with the same provider URL, selector and correlation ID
+ * share one receiver thread with its own session and consumer, which hands each message to the
+ * oldest parked request as it arrives. The receiver stops when no requests have been parked for
+ * a while. The dispatcher thread completes the requests whose timeout expires.
+ *
+ * <p>The message is written in the response and the request is continued, after which the
+ * receiver waits until the SOAP transaction commits or aborts and commits or rolls back its
+ * session accordingly. So, as with a blocking getMessage, the message is only removed when the
+ * transaction commits.</p>
+ */
+public class LongPollDispatcher
+    implements Runnable
+{
+    /**
+     * The time in milliseconds the receiver waits for the SOAP transaction of a delivered
+     * message before the message is rolled back.
+     */
+    private static final long DELIVERY_TIMEOUT = 60000;
+    /**
+     * The time in milliseconds a receiver stays open without parked requests.
+     */
+    private static final long IDLE_TIME = 2000;
+    /**
+     * The time in milliseconds the receiver blocks in a receive call.
+     */
+    private static final long RECEIVE_TIMEOUT = 1000;
+    /**
+     * The destination.
+     */
+    private final Destination destination;
+    /**
+     * Holds the JMX managed component.
+     */
+    private IManagedComponent managedComponent;
+    /**
+     * JMX counter for the number of parked requests.
+     */
+    private IEventOccurrenceCounter parkedCounter;
+    /**
+     * The receivers by request key.
+     */
+    private final Map<String, KeyReceiver> receivers = new HashMap<String, KeyReceiver>();
+    /**
+     * Indicates whether the dispatcher has been stopped.
+     */
+    private boolean stopped;
+    /**
+     * The dispatcher thread.
+     */
+    private final Thread thread;
+    /**
+     * JMX counter for the number of parked requests that timed out.
+     */
+    private IEventOccurrenceCounter timeoutCounter;
+
+    /**
+     * Creates and starts a new LongPollDispatcher object.
+     *
+     * @param  destination         The destination.
+     * @param  parentJMXComponent  The parent JMX component.
+     */
+    public LongPollDispatcher(Destination destination, IManagedComponent parentJMXComponent)
+    {
+        this.destination = destination;
+
+        if (parentJMXComponent != null)
+        {
+            managedComponent = parentJMXComponent.createSubComponent("LongPollDispatcher",
+                                                                     "longpoll",
+                                                                     LogMessages.JMX_LONG_POLL_SUBCOMPONENT_NAME,
+                                                                     this);
+            parkedCounter = (IEventOccurrenceCounter)
+                                managedComponent.createPerformanceCounter("parkedCount",
+                                                                          LogMessages.JMX_LONG_POLL_PARKED_COUNTER_NAME,
+                                                                          CounterFactory.EVENT_OCCURRENCE_COUNTER);
+            timeoutCounter = (IEventOccurrenceCounter)
+                                 managedComponent.createPerformanceCounter("timeoutCount",
+                                                                           LogMessages.JMX_LONG_POLL_TIMEOUT_COUNTER_NAME,
+                                                                           CounterFactory.EVENT_OCCURRENCE_COUNTER);
+        }
+
+        thread = new Thread(this, "JMSConnector-" + destination.getIdentifier() + "-longpoll");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the dispatcher and its receivers. The requests that are still parked are completed
+     * with an error.
+     */
+    public void close()
+    {
+        List<KeyReceiver> stoppedReceivers;
+        List<ParkedRequest> remaining = new ArrayList<ParkedRequest>();
+
+        synchronized (this)
+        {
+            stopped = true;
+            notifyAll();
+
+            stoppedReceivers = new ArrayList<KeyReceiver>(receivers.values());
+        }
+
+        try
+        {
+            thread.join(60000);
+
+            for (KeyReceiver receiver : stoppedReceivers)
+            {
+                receiver.thread.join(60000);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this)
+        {
+            for (KeyReceiver receiver : stoppedReceivers)
+            {
+                remaining.addAll(receiver.requests);
+                receiver.requests.clear();
+            }
+
+            receivers.clear();
+        }
+
+        for (ParkedRequest request : remaining)
+        {
+            request.complete(new JMSConnectorException("Destination " +
+                                                       destination.getIdentifier() +
+                                                       " was stopped while waiting for a message."));
+        }
+
+        if (managedComponent != null)
+        {
+            try
+            {
+                managedComponent.unregisterComponentTree();
+                managedComponent = null;
+            }
+            catch (Exception e)
+            {
+                if (JMSConnector.jmsLogger.isDebugEnabled())
+                {
+                    JMSConnector.jmsLogger.debug("Ignored exception while unregistering the JMX components.",
+                                                 e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of parked requests.
+     *
+     * @return  The number of parked requests.
+     */
+    public synchronized int getParkedRequestCount()
+    {
+        int count = 0;
+
+        for (KeyReceiver receiver : receivers.values())
+        {
+            count += receiver.requests.size();
+        }
+
+        return count;
+    }
+
+    /**
+     * Parks the request until a message arrives or the timeout expires. The receiver for the
+     * key of the request is started when it is not running.
+     *
+     * @param   request  The request.
+     *
+     * @throws  JMSConnectorException  In case the dispatcher has been stopped.
+     */
+    public synchronized void park(ParkedRequest request)
+                           throws JMSConnectorException
+    {
+        if (stopped)
+        {
+            throw new JMSConnectorException("Destination " + destination.getIdentifier() +
+                                            " is stopped.");
+        }
+
+        KeyReceiver receiver = receivers.get(request.key);
+
+        if (receiver == null)
+        {
+            receiver = new KeyReceiver(request);
+            receivers.put(request.key, receiver);
+            receiver.thread.start();
+        }
+
+        receiver.requests.add(request);
+        notifyAll();
+
+        if (parkedCounter != null)
+        {
+            parkedCounter.addEvent();
+        }
+    }
+
+    /**
+     * Completes the parked requests whose timeout expires.
+     *
+     * @see  java.lang.Runnable#run()
+     */
+    public void run()
+    {
+        while (true)
+        {
+            List<ParkedRequest> expired = new ArrayList<ParkedRequest>();
+
+            synchronized (this)
+            {
+                long now = System.currentTimeMillis();
+                long nextDeadline = Long.MAX_VALUE;
+
+                for (KeyReceiver receiver : receivers.values())
+                {
+                    Iterator<ParkedRequest> requests = receiver.requests.iterator();
+
+                    while (requests.hasNext())
+                    {
+                        ParkedRequest request = requests.next();
+
+                        if (now >= request.deadline)
+                        {
+                            requests.remove();
+                            expired.add(request);
+                        }
+                        else
+                        {
+                            nextDeadline = Math.min(nextDeadline, request.deadline);
+                        }
+                    }
+                }
+
+                if (expired.isEmpty())
+                {
+                    if (stopped)
+                    {
+                        return;
+                    }
+
+                    try
+                    {
+                        if (nextDeadline == Long.MAX_VALUE)
+                        {
+                            wait();
+                        }
+                        else
+                        {
+                            wait(nextDeadline - now);
+                        }
+                    }
+                    catch (InterruptedException e)
+                    {
+                        return;
+                    }
+
+                    continue;
+                }
+            }
+
+            for (ParkedRequest request : expired)
+            {
+                if (timeoutCounter != null)
+                {
+                    timeoutCounter.addEvent();
+                }
+
+                request.complete(new TimeoutException("Queue timeout while waiting for response message."));
+            }
+        }
+    }
+
+    /**
+     * @see  java.lang.Object#toString()
+     */
+    @Override public String toString()
+    {
+        return destination.getIdentifier() + ", parked: " + getParkedRequestCount();
+    }
+
+    /**
+     * Closes the consumer and the session of a receiver.
+     *
+     * @param  consumer  The consumer or <code>null</code>.
+     * @param  session   The session or <code>null</code>.
+     */
+    private void closeReceiver(MessageConsumer consumer, Session session)
+    {
+        try
+        {
+            if (consumer != null)
+            {
+                consumer.close();
+            }
+        }
+        catch (JMSException e)
+        {
+            if (JMSConnector.jmsLogger.isDebugEnabled())
+            {
+                JMSConnector.jmsLogger.debug("Ignored exception while closing the consumer.", e);
+            }
+        }
+
+        try
+        {
+            if (session != null)
+            {
+                destination.getDestinationManager().closeSession(session);
+            }
+        }
+        catch (JMSException e)
+        {
+            if (JMSConnector.jmsLogger.isDebugEnabled())
+            {
+                JMSConnector.jmsLogger.debug("Ignored exception while closing the session.", e);
+            }
+        }
+    }
+
+    /**
+     * The message of a parked request that is committed or rolled back with the SOAP
+     * transaction of the request. The receiver that owns the session waits until the transaction
+     * has completed before it uses the session again.
+     */
+    static class Delivery
+    {
+        /**
+         * Indicates whether the session has been committed or rolled back.
+         */
+        private boolean completed;
+        /**
+         * The name of the destination manager of the session.
+         */
+        final String managerName;
+        /**
+         * The session of the receiver.
+         */
+        private final Session session;
+        /**
+         * Indicates whether the session can be used for the next message.
+         */
+        private boolean valid = true;
+
+        /**
+         * Creates a new Delivery object.
+         *
+         * @param  managerName  The name of the destination manager of the session.
+         * @param  session      The session of the receiver.
+         */
+        Delivery(String managerName, Session session)
+        {
+            this.managerName = managerName;
+            this.session = session;
+        }
+
+        /**
+         * Commits the message.
+         *
+         * @throws  JMSException  In case the commit failed or the message was already rolled
+         *                        back.
+         */
+        synchronized void commit()
+                          throws JMSException
+        {
+            if (completed)
+            {
+                throw new JMSException("The message was rolled back because the transaction did not complete in time.");
+            }
+
+            try
+            {
+                session.commit();
+            }
+            catch (JMSException e)
+            {
+                valid = false;
+
+                throw e;
+            }
+            finally
+            {
+                completed = true;
+                notifyAll();
+            }
+        }
+
+        /**
+         * Rolls back the message unless the delivery has already completed.
+         */
+        synchronized void rollback()
+        {
+            if (completed)
+            {
+                return;
+            }
+
+            try
+            {
+                session.rollback();
+            }
+            catch (JMSException e)
+            {
+                valid = false;
+
+                JMSConnector.jmsLogger.error("Exception during the rollback of a long poll message",
+                                             e);
+            }
+            finally
+            {
+                completed = true;
+                notifyAll();
+            }
+        }
+
+        /**
+         * Waits until the transaction commits or rolls back the message. The message is rolled
+         * back when this takes longer than the timeout.
+         *
+         * @param   timeout  The timeout in milliseconds.
+         *
+         * @return  <code>true</code> if the session can be used for the next message.
+         *
+         * @throws  InterruptedException  In case the thread was interrupted.
+         */
+        synchronized boolean await(long timeout)
+                            throws InterruptedException
+        {
+            long end = System.currentTimeMillis() + timeout;
+            long now;
+
+            while (!completed && ((now = System.currentTimeMillis()) < end))
+            {
+                wait(end - now);
+            }
+
+            if (!completed)
+            {
+                if (JMSConnector.jmsLogger.isWarningEnabled())
+                {
+                    JMSConnector.jmsLogger.warn(null, LogMessages.LONG_POLL_DELIVERY_TIMEOUT,
+                                                timeout);
+                }
+
+                rollback();
+            }
+
+            return valid;
+        }
+    }
+
+    /**
+     * Receives the messages for the parked requests with the same key.
+     */
+    private class KeyReceiver
+        implements Runnable
+    {
+        /**
+         * The key of the requests.
+         */
+        private final String key;
+        /**
+         * The provider URL of a dynamic destination or <code>null</code>.
+         */
+        private final String providerUrl;
+        /**
+         * The parked requests in the order in which they were parked. Guarded by the
+         * dispatcher.
+         */
+        private final LinkedList<ParkedRequest> requests = new LinkedList<ParkedRequest>();
+        /**
+         * The message selector including the correlation ID or <code>null</code>.
+         */
+        private final String selector;
+        /**
+         * The receiver thread.
+         */
+        private final Thread thread;
+
+        /**
+         * Creates a new KeyReceiver object.
+         *
+         * @param  request  The first request with the key.
+         */
+        KeyReceiver(ParkedRequest request)
+        {
+            key = request.key;
+            providerUrl = request.providerUrl;
+            selector = Destination.getReceiveSelector(request.selector, request.correlationId);
+
+            thread = new Thread(this,
+                                "JMSConnector-" + destination.getIdentifier() + "-longpoll-" +
+                                receivers.size());
+            thread.setDaemon(true);
+        }
+
+        /**
+         * @see  java.lang.Runnable#run()
+         */
+        public void run()
+        {
+            Session session = null;
+            javax.jms.Destination source = null;
+            MessageConsumer consumer = null;
+
+            try
+            {
+                while (waitForRequests())
+                {
+                    try
+                    {
+                        if (session == null)
+                        {
+                            session = destination.getDestinationManager().createTriggerSession();
+
+                            source = destination.getReceiveDestination(session, providerUrl);
+
+                            consumer = (selector == null) ? session.createConsumer(source)
+                                                          : session.createConsumer(source,
+                                                                                   selector);
+                        }
+
+                        Message message = consumer.receive(RECEIVE_TIMEOUT);
+                        boolean valid;
+
+                        if (message != null)
+                        {
+                            valid = deliver(session, source, message);
+                        }
+                        else
+                        {
+                            valid = destination.getDestinationManager().isSessionConnected(session);
+                        }
+
+                        if (!valid)
+                        {
+                            closeReceiver(consumer, session);
+                            consumer = null;
+                            session = null;
+                        }
+                    }
+                    catch (InterruptedException e)
+                    {
+                        return;
+                    }
+                    catch (Throwable e)
+                    {
+                        JMSConnector.jmsLogger.error(e, LogMessages.LONG_POLL_ERROR,
+                                                     destination.getIdentifier());
+
+                        closeReceiver(consumer, session);
+                        consumer = null;
+                        session = null;
+
+                        synchronized (LongPollDispatcher.this)
+                        {
+                            if (!stopped)
+                            {
+                                LongPollDispatcher.this.wait(RECEIVE_TIMEOUT);
+                            }
+                        }
+                    }
+                }
+            }
+            catch (InterruptedException e)
+            {
+                // The receiver is stopped.
+            }
+            finally
+            {
+                closeReceiver(consumer, session);
+            }
+        }
+
+        /**
+         * Hands the message to the oldest parked request and waits until its transaction has
+         * completed. The message is rolled back when no request is waiting anymore.
+         *
+         * @param   session  The session of the receiver.
+         * @param   source   The destination the message was received from.
+         * @param   message  The received message.
+         *
+         * @return  <code>true</code> if the session can be used for the next message.
+         *
+         * @throws  InterruptedException  In case the thread was interrupted.
+         */
+        private boolean deliver(Session session, javax.jms.Destination source,
+                                Message message)
+                         throws InterruptedException
+        {
+            ParkedRequest request;
+
+            synchronized (LongPollDispatcher.this)
+            {
+                request = requests.poll();
+            }
+
+            Delivery delivery = new Delivery(destination.getDestinationManager().getName(),
+                                             session);
+
+            if (request == null)
+            {
+                delivery.rollback();
+
+                return delivery.valid;
+            }
+
+            try
+            {
+                if (JMSConnector.jmsLogger.isDebugEnabled())
+                {
+                    JMSConnector.jmsLogger.debug("Received JMS message: " +
+                                                 JMSUtil.safeFormatLogMessage(message));
+                }
+
+                destination.writeMessage(message, source, request.bbResponse.getXMLNode(),
+                                         request.messageFormat);
+                request.transaction.addLongPollDelivery(delivery);
+            }
+            catch (Throwable e)
+            {
+                JMSConnector.jmsLogger.error(e, LogMessages.DESTINATION_GET_MESSAGE_ERROR,
+                                             destination.getIdentifier());
+
+                delivery.rollback();
+                request.complete(e);
+
+                return delivery.valid;
+            }
+
+            request.complete(null);
+
+            return delivery.await(DELIVERY_TIMEOUT);
+        }
+
+        /**
+         * Waits until a request is parked. The receiver is removed when no request is parked
+         * within the idle time.
+         *
+         * @return  <code>false</code> if the receiver must stop.
+         *
+         * @throws  InterruptedException  In case the thread was interrupted.
+         */
+        private boolean waitForRequests()
+                                 throws InterruptedException
+        {
+            synchronized (LongPollDispatcher.this)
+            {
+                long end = System.currentTimeMillis() + IDLE_TIME;
+
+                while (!stopped && requests.isEmpty())
+                {
+                    long now = System.currentTimeMillis();
+
+                    if (now >= end)
+                    {
+                        receivers.remove(key);
+
+                        return false;
+                    }
+
+                    LongPollDispatcher.this.wait(end - now);
+                }
+
+                return !stopped;
+            }
+        }
+    }
+
+    /**
+     * A getMessage request that waits for a message.
+     */
+    public static class ParkedRequest
+    {
+        /**
+         * The request body block.
+         */
+        final BodyBlock bbRequest;
+        /**
+         * The response body block.
+         */
+        final BodyBlock bbResponse;
+        /**
+         * The correlation ID or <code>null</code>.
+         */
+        final String correlationId;
+        /**
+         * The time at which the request times out.
+         */
+        final long deadline;
+        /**
+         * The requests with the same key receive the same messages.
+         */
+        final String key;
+        /**
+         * The message format or <code>null</code>.
+         */
+        final String messageFormat;
+        /**
+         * The provider URL of a dynamic destination or <code>null</code>.
+         */
+        final String providerUrl;
+        /**
+         * The message selector or <code>null</code>.
+         */
+        final String selector;
+        /**
+         * The transaction of the request.
+         */
+        final JMSConnectorTransaction transaction;
+
+        /**
+         * Creates a new ParkedRequest object.
+         *
+         * @param  transaction    The transaction of the request.
+         * @param  bbRequest      The request body block.
+         * @param  bbResponse     The response body block.
+         * @param  providerUrl    The provider URL of a dynamic destination or <code>null</code>.
+         * @param  selector       The message selector or <code>null</code>.
+         * @param  messageFormat  The message format or <code>null</code>.
+         * @param  correlationId  The correlation ID or <code>null</code>.
+         * @param  timeout        The timeout in milliseconds or 0 to wait without a timeout.
+         */
+        public ParkedRequest(JMSConnectorTransaction transaction, BodyBlock bbRequest,
+                             BodyBlock bbResponse, String providerUrl, String selector,
+                             String messageFormat, String correlationId, long timeout)
+        {
+            this.transaction = transaction;
+            this.bbRequest = bbRequest;
+            this.bbResponse = bbResponse;
+            this.providerUrl = providerUrl;
+            this.selector = selector;
+            this.messageFormat = messageFormat;
+            this.correlationId = correlationId;
+            this.deadline = (timeout > 0) ? (System.currentTimeMillis() + timeout)
+                                          : Long.MAX_VALUE;
+            this.key = ((providerUrl != null) ? providerUrl : "") + '\u0000' +
+                       ((selector != null) ? selector : "") + '\u0000' +
+                       ((correlationId != null) ? correlationId : "");
+        }
+
+        /**
+         * Sends the response of the request.
+         *
+         * @param  error  The error or <code>null</code> if the message was received.
+         */
+        void complete(Throwable error)
+        {
+            if (error != null)
+            {
+                JMSConnectorTransaction.createSOAPFault(bbResponse, error);
+            }
+
+            bbRequest.continueTransaction();
+        }
+    }
+}
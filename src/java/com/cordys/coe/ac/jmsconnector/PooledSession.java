@@ -0,0 +1,175 @@
+/*
+ *
+ *  Copyright 2004 Cordys R&D B.V.
+ *
+ *  This file is part of the Cordys JMS Connector.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.cordys.coe.ac.jmsconnector;
+
+import javax.jms.JMSException;
+import javax.jms.Session;
+
+/**
+ * A transacted session of a destination manager that is borrowed by SOAP transactions, together
+ * with the producers and consumers that are cached for it. The cached producers and consumers
+ * live as long as the session: they stay open while the session is idle in the session pool and
+ * are closed just before the session is closed by <code>DestinationManager.closeSession()</code>.
+ *
+ * <p>A JMS session may only be used by one thread, so this class is not thread safe.</p>
+ */
+class PooledSession
+{
+    /**
+     * The cached consumers or <code>null</code> if none were created yet.
+     */
+    private ConsumerCache consumerCache;
+    /**
+     * The time in milliseconds after which an unused cached consumer is closed.
+     */
+    private final long consumerCacheIdleTimeout;
+    /**
+     * The maximum number of cached consumers. When this is 0 consumers are not cached.
+     */
+    private final int consumerCacheSize;
+    /**
+     * The generation of the connection when the session was created.
+     */
+    private final int generation;
+    /**
+     * The cached producers or <code>null</code> if none were created yet.
+     */
+    private ProducerCache producerCache;
+    /**
+     * The JMS session.
+     */
+    private final Session session;
+    /**
+     * The connection of the session or <code>null</code> if it is not known.
+     */
+    private final ConnectionStripe stripe;
+
+    /**
+     * Creates a new PooledSession object.
+     *
+     * @param  session                   The JMS session.
+     * @param  stripe                    The connection of the session or <code>null</code> if it
+     *                                   is not known.
+     * @param  generation                The generation of the connection when the session was
+     *                                   created.
+     * @param  consumerCacheSize         The maximum number of cached consumers or 0 to not cache
+     *                                   consumers.
+     * @param  consumerCacheIdleTimeout  The time in milliseconds after which an unused cached
+     *                                   consumer is closed.
+     */
+    PooledSession(Session session, ConnectionStripe stripe, int generation, int consumerCacheSize,
+                  long consumerCacheIdleTimeout)
+    {
+        this.session = session;
+        this.stripe = stripe;
+        this.generation = generation;
+        this.consumerCacheSize = consumerCacheSize;
+        this.consumerCacheIdleTimeout = consumerCacheIdleTimeout;
+    }
+
+    /**
+     * Returns the consumer cache of the session.
+     *
+     * @return  The consumer cache or <code>null</code> if consumers are not cached for the
+     *          destination manager.
+     */
+    ConsumerCache getConsumerCache()
+    {
+        if ((consumerCache == null) && (consumerCacheSize > 0))
+        {
+            consumerCache = new ConsumerCache(consumerCacheSize, consumerCacheIdleTimeout);
+        }
+
+        return consumerCache;
+    }
+
+    /**
+     * Returns the producer cache of the session.
+     *
+     * @return  The producer cache.
+     */
+    ProducerCache getProducerCache()
+    {
+        if (producerCache == null)
+        {
+            producerCache = new ProducerCache();
+        }
+
+        return producerCache;
+    }
+
+    /**
+     * Returns the JMS session.
+     *
+     * @return  The session.
+     */
+    Session getSession()
+    {
+        return session;
+    }
+
+    /**
+     * Checks whether the session can still be used. A session is not valid when it was closed or
+     * when its connection was closed or reconnected since the session was created. A connection
+     * failure that the JMS provider did not report yet is not detected; the session then fails
+     * when it is used and is closed instead of being returned to the pool.
+     *
+     * @return  <code>true</code> if the session is valid.
+     */
+    boolean isValid()
+    {
+        if ((stripe != null) && (!stripe.isConnected() || (stripe.getGeneration() != generation)))
+        {
+            return false;
+        }
+
+        try
+        {
+            // A closed session throws an exception on every call.
+            return session.getTransacted();
+        }
+        catch (JMSException e)
+        {
+            if (JMSConnector.jmsLogger.isDebugEnabled())
+            {
+                JMSConnector.jmsLogger.debug("Discarding an invalid pooled session.", e);
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * Closes the cached producers and consumers. This must be done before the session is closed.
+     */
+    void closeCaches()
+    {
+        if (producerCache != null)
+        {
+            producerCache.close();
+            producerCache = null;
+        }
+
+        if (consumerCache != null)
+        {
+            consumerCache.close();
+            consumerCache = null;
+        }
+    }
+}
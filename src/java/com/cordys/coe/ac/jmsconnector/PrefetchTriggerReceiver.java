@@ -0,0 +1,299 @@
+/*
+ *
+ *  Copyright 2004 Cordys R&D B.V.
+ *
+ *  This file is part of the Cordys JMS Connector.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.cordys.coe.ac.jmsconnector;
+
+import com.cordys.coe.ac.jmsconnector.messages.LogMessages;
+
+import com.eibus.management.IManagedComponent;
+import com.eibus.management.counters.CounterFactory;
+import com.eibus.management.counters.IEventOccurrenceCounter;
+import com.eibus.management.counters.ITimerEventValueCounter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+
+/**
+ * Trigger receiver which pulls the available messages into a local buffer before handling them.
+ * The buffer is filled with one blocking receive followed by non-blocking receives until it is
+ * full or no more messages are available. The messages are then handled one by one and the
+ * session is committed once the buffer is empty.
+ *
+ * <p>The buffered messages are part of the open transaction, so a commit per message would also
+ * acknowledge the messages that are not handled yet. Failed messages are put in the error
+ * destination within the buffer transaction. If that is not possible the whole buffer is rolled
+ * back. All buffered messages are handled before the buffer is rolled back, because without a
+ * redelivery policy the rolled back messages are not delivered to the trigger again. With a
+ * redelivery policy the messages that were handled successfully are only acknowledged when they
+ * are delivered again.</p>
+ */
+class PrefetchTriggerReceiver extends TriggerReceiver
+{
+    /**
+     * The ring buffer.
+     */
+    private final Message[] buffer;
+    /**
+     * The number of messages in the buffer.
+     */
+    private volatile int count;
+    /**
+     * The position of the oldest message in the buffer.
+     */
+    private int head;
+    /**
+     * Holds the JMX managed component.
+     */
+    private IManagedComponent managedComponent;
+    /**
+     * The JMX counter for the message handling time.
+     */
+    private final ITimerEventValueCounter messageHandlingCounter;
+    /**
+     * JMX counter for the number of times the buffer was filled.
+     */
+    private IEventOccurrenceCounter refillCounter;
+
+    /**
+     * Creates a new PrefetchTriggerReceiver object.
+     *
+     * @param  trigger     The trigger.
+     * @param  session     The trigger session.
+     * @param  consumer    The consumer to receive from.
+     * @param  bufferSize  The maximum number of buffered messages.
+     */
+    PrefetchTriggerReceiver(Trigger trigger, Session session, MessageConsumer consumer,
+                            int bufferSize)
+    {
+        super(trigger, session, consumer);
+
+        this.buffer = new Message[bufferSize];
+        this.messageHandlingCounter = trigger.getMessageHandlingCounter();
+
+        IManagedComponent parent = trigger.getManagedComponent();
+
+        if (parent != null)
+        {
+            managedComponent = parent.createSubComponent("PrefetchBuffer", "prefetch",
+                                                         LogMessages.JMX_PREFETCH_BUFFER_SUBCOMPONENT_NAME,
+                                                         this);
+            refillCounter = (IEventOccurrenceCounter)
+                                managedComponent.createPerformanceCounter("refillCount",
+                                                                          LogMessages.JMX_PREFETCH_BUFFER_REFILL_COUNTER_NAME,
+                                                                          CounterFactory.EVENT_OCCURRENCE_COUNTER);
+        }
+    }
+
+    /**
+     * Returns the number of messages in the buffer.
+     *
+     * @return  The number of buffered messages.
+     */
+    public int getBufferedMessageCount()
+    {
+        return count;
+    }
+
+    /**
+     * Returns the size of the buffer.
+     *
+     * @return  The buffer size.
+     */
+    public int getBufferSize()
+    {
+        return buffer.length;
+    }
+
+    /**
+     * Returns the fill level of the buffer.
+     *
+     * @return  The fill level in percent (0-100).
+     */
+    public int getFillLevel()
+    {
+        return (count * 100) / buffer.length;
+    }
+
+    /**
+     * @see  java.lang.Object#toString()
+     */
+    @Override public String toString()
+    {
+        return trigger.getName() + ", buffered: " + count + "/" + buffer.length;
+    }
+
+    /**
+     * @see  com.cordys.coe.ac.jmsconnector.TriggerReceiver#onStop()
+     */
+    @Override protected void onStop()
+                             throws Exception
+    {
+        // Messages that are still buffered were not committed and will be redelivered.
+        clear();
+
+        if (managedComponent != null)
+        {
+            managedComponent.unregisterComponentTree();
+            managedComponent = null;
+        }
+    }
+
+    /**
+     * @see  com.cordys.coe.ac.jmsconnector.TriggerReceiver#receiveCycle()
+     */
+    @Override protected void receiveCycle()
+                                   throws Exception
+    {
+        Message message = consumer.receive(RECEIVE_TIMEOUT);
+
+        if (message == null)
+        {
+            return;
+        }
+
+        while (message != null)
+        {
+            buffer[(head + count) % buffer.length] = message;
+            count++;
+
+            if (count == buffer.length)
+            {
+                break;
+            }
+
+            message = consumer.receiveNoWait();
+        }
+
+        if (refillCounter != null)
+        {
+            refillCounter.addEvent();
+        }
+
+        List<Message> succeeded = new ArrayList<Message>(count);
+        boolean rollback = false;
+        int handled = count;
+
+        try
+        {
+            // Handle every message, also after a failure. Otherwise the rest of the buffer is
+            // rolled back without being handled.
+            while (count > 0)
+            {
+                if (!handleMessage(take(), succeeded))
+                {
+                    rollback = true;
+                }
+            }
+
+            if (rollback)
+            {
+                JMSConnector.jmsLogger.warn(null, LogMessages.TRIGGER_PREFETCH_ROLLBACK,
+                                            trigger.getDestination().getIdentifier(), handled);
+
+                for (Message handledMessage : succeeded)
+                {
+                    trigger.markHandledBeforeRollback(handledMessage);
+                }
+
+                session.rollback();
+                trigger.sessionCompleted(false);
+            }
+            else
+            {
+                session.commit();
+                trigger.sessionCompleted(true);
+            }
+        }
+        finally
+        {
+            clear();
+        }
+    }
+
+    /**
+     * Removes all messages from the buffer.
+     */
+    private void clear()
+    {
+        while (count > 0)
+        {
+            take();
+        }
+
+        head = 0;
+    }
+
+    /**
+     * Sends the trigger request for one message.
+     *
+     * @param   message    The message.
+     * @param   succeeded  The list to which the message is added when the request succeeded.
+     *
+     * @return  <code>false</code> if the message failed and could not be put in the error
+     *          destination.
+     */
+    private boolean handleMessage(Message message, List<Message> succeeded)
+    {
+        if (trigger.isRedeliveredMessage(message) || trigger.isAlreadyHandled(message))
+        {
+            return true;
+        }
+
+        trigger.logReceivedMessage(message);
+
+        long startTime = messageHandlingCounter.start();
+        long beginTime = System.currentTimeMillis();
+
+        try
+        {
+            trigger.invokeTrigger(message, session);
+            succeeded.add(message);
+
+            return true;
+        }
+        catch (Exception e)
+        {
+            return trigger.handleMessageError(message, session, e, false);
+        }
+        finally
+        {
+            messageHandlingCounter.finish(startTime);
+            trigger.recordHandledMessages(1, System.currentTimeMillis() - beginTime);
+        }
+    }
+
+    /**
+     * Removes the oldest message from the buffer.
+     *
+     * @return  The message.
+     */
+    private Message take()
+    {
+        Message message = buffer[head];
+
+        buffer[head] = null;
+        head = (head + 1) % buffer.length;
+        count--;
+
+        return message;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ *
+ *  Copyright 2004 Cordys R&D B.V.
+ *
+ *  This file is part of the Cordys JMS Connector.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.cordys.coe.ac.jmsconnector;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+/**
+ * Cache of open message producers of one session. The producers are keyed by the connector
+ * destination and the physical name of a dynamic destination, so they live as long as the
+ * session. The producers are never changed; delivery mode, priority and time to live must be
+ * passed to <code>send()</code>. When the cache is full the least recently used producer is
+ * closed.
+ *
+ * <p>The cache belongs to the owner of the session: a {@link PooledSession}, a trigger or the
+ * error publisher. It must be closed before the session is closed. A JMS session may only be used
+ * by one thread, so this class is not thread safe.</p>
+ */
+class ProducerCache
+{
+    /**
+     * The maximum number of open producers per session.
+     */
+    private static final int MAX_SIZE = 64;
+    /**
+     * The open producers by key, in least recently used order.
+     */
+    private final LinkedHashMap<String, MessageProducer> producers;
+
+    /**
+     * Creates a new ProducerCache object.
+     */
+    ProducerCache()
+    {
+        producers = new LinkedHashMap<String, MessageProducer>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override protected boolean removeEldestEntry(Map.Entry<String, MessageProducer> eldest)
+            {
+                if (size() <= MAX_SIZE)
+                {
+                    return false;
+                }
+
+                closeProducer(eldest.getValue());
+
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Closes all producers.
+     */
+    void close()
+    {
+        for (MessageProducer producer : producers.values())
+        {
+            closeProducer(producer);
+        }
+
+        producers.clear();
+    }
+
+    /**
+     * Returns an open producer for the destination. A new producer is created if the cache does
+     * not contain one.
+     *
+     * @param   session       The session to create the producer with.
+     * @param   destination   The JMS destination.
+     * @param   identifier    The identifier of the connector destination.
+     * @param   physicalName  The physical name of a dynamic destination or <code>null</code>.
+     *
+     * @return  The producer. It must not be closed or changed by the caller.
+     *
+     * @throws  JMSException  In case the producer could not be created.
+     */
+    MessageProducer getProducer(Session session, javax.jms.Destination destination,
+                                String identifier, String physicalName)
+                         throws JMSException
+    {
+        String key = getKey(identifier, physicalName);
+        MessageProducer producer = producers.get(key);
+
+        if (producer == null)
+        {
+            producer = session.createProducer(destination);
+            producers.put(key, producer);
+        }
+        else if (JMSConnector.jmsLogger.isDebugEnabled())
+        {
+            JMSConnector.jmsLogger.debug("Reusing the cached producer for destination " +
+                                         identifier);
+        }
+
+        return producer;
+    }
+
+    /**
+     * Closes and removes the producer of the destination. This is called when a send failed, so
+     * a new producer is created for the next message.
+     *
+     * @param  identifier    The identifier of the connector destination.
+     * @param  physicalName  The physical name of a dynamic destination or <code>null</code>.
+     */
+    void invalidate(String identifier, String physicalName)
+    {
+        MessageProducer producer = producers.remove(getKey(identifier, physicalName));
+
+        if (producer != null)
+        {
+            closeProducer(producer);
+        }
+    }
+
+    /**
+     * Returns the number of open producers.
+     *
+     * @return  The number of producers.
+     */
+    int size()
+    {
+        return producers.size();
+    }
+
+    /**
+     * Closes the producer and ignores any errors.
+     *
+     * @param  producer  The producer to close.
+     */
+    private static void closeProducer(MessageProducer producer)
+    {
+        try
+        {
+            producer.close();
+        }
+        catch (JMSException e)
+        {
+            if (JMSConnector.jmsLogger.isDebugEnabled())
+            {
+                JMSConnector.jmsLogger.debug("Ignored exception while closing a cached producer.",
+                                             e);
+            }
+        }
+    }
+
+    /**
+     * Returns the cache key.
+     *
+     * @param   identifier    The identifier of the connector destination.
+     * @param   physicalName  The physical name of a dynamic destination or <code>null</code>.
+     *
+     * @return  The key.
+     */
+    private static String getKey(String identifier, String physicalName)
+    {
+        return identifier + '\u0000' + ((physicalName != null) ? physicalName : "");
+    }
+}
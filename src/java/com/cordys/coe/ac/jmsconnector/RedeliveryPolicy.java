@@ -0,0 +1,521 @@
+/*
+ *
+ *  Copyright 2004 Cordys R&D B.V.
+ *
+ *  This file is part of the Cordys JMS Connector.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.cordys.coe.ac.jmsconnector;
+
+import com.cordys.coe.ac.jmsconnector.messages.LogMessages;
+
+import com.eibus.management.IManagedComponent;
+import com.eibus.management.counters.CounterFactory;
+import com.eibus.management.counters.IEventOccurrenceCounter;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+/**
+ * Redelivery policy for the triggers of a destination. When this policy is used the triggers do
+ * not use a <code>JMSXDeliveryCount</code> message selector, so the JMS provider does not have to
+ * evaluate one for every message. Instead the trigger checks each message in <code>
+ * onMessage</code>. The failed attempts are counted per JMS message ID, and the <code>
+ * JMSXDeliveryCount</code> property is used for messages that are not tracked (e.g. after a
+ * restart). A failed message is rolled back (and thus redelivered) until the maximum number of
+ * retries is reached. After that it is put in the error destination. If that is not possible the
+ * message is rolled back once more and is then skipped, in the same way as a redelivered message
+ * on JBossMQ and OpenJMS without a redelivery policy.
+ *
+ * <p>Each failed message gets a retry time: the backoff time doubled for every failed attempt,
+ * up to a minute. The connector does not wait inside the transaction. When the message is
+ * redelivered before its retry time it is rolled back again without counting a failed
+ * attempt.</p>
+ *
+ * <p>Only the message listener mode retries single messages. The receiver modes (asynchronous,
+ * batch, ordered and prefetch) put a failed message in the error destination at once, so for
+ * them the policy only limits how often a rolled back window is delivered again. The messages of
+ * such a window that were handled successfully are remembered until they are acknowledged, so
+ * that they are not sent a second time.</p>
+ *
+ * <p>The failed attempts are kept in a bounded map, so the oldest entries are dropped when there
+ * are many failing messages.</p>
+ */
+public class RedeliveryPolicy
+{
+    /**
+     * The maximum backoff time.
+     */
+    private static final long MAX_BACKOFF = 60000L;
+    /**
+     * The backoff time for the first retry. It is doubled for every next retry.
+     */
+    private final long backoffTime;
+    /**
+     * JMX counter for the redeliveries that were rolled back before their retry time.
+     */
+    private IEventOccurrenceCounter deferredCounter;
+    /**
+     * Holds the failed attempts per message ID.
+     */
+    private final Map<String, FailedMessage> failedMessages;
+    /**
+     * Holds the IDs of the messages that were handled successfully in a rolled back window.
+     */
+    private final Set<String> handledMessages;
+    /**
+     * Holds the JMX managed component.
+     */
+    private IManagedComponent managedComponent;
+    /**
+     * The maximum number of retries.
+     */
+    private final int maxRetries;
+    /**
+     * JMX counter for the messages that reached the maximum number of retries.
+     */
+    private IEventOccurrenceCounter retriesExhaustedCounter;
+    /**
+     * JMX counter for the number of retries.
+     */
+    private IEventOccurrenceCounter retryCounter;
+
+    /**
+     * Creates a new RedeliveryPolicy object.
+     *
+     * @param  maxRetries          The maximum number of retries.
+     * @param  backoffTime         The backoff time for the first retry in milliseconds.
+     * @param  trackerSize         The maximum number of messages to keep track of.
+     * @param  parentJMXComponent  The parent JMX component.
+     */
+    public RedeliveryPolicy(int maxRetries, long backoffTime, final int trackerSize,
+                            IManagedComponent parentJMXComponent)
+    {
+        this.maxRetries = maxRetries;
+        this.backoffTime = backoffTime;
+        this.failedMessages = new LinkedHashMap<String, FailedMessage>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override protected boolean removeEldestEntry(Map.Entry<String, FailedMessage> eldest)
+            {
+                return size() > trackerSize;
+            }
+        };
+
+        this.handledMessages = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>()
+            {
+                private static final long serialVersionUID = 1L;
+
+                @Override protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest)
+                {
+                    return size() > trackerSize;
+                }
+            });
+
+        if (parentJMXComponent != null)
+        {
+            managedComponent = parentJMXComponent.createSubComponent("RedeliveryPolicy",
+                                                                     "redelivery",
+                                                                     LogMessages.JMX_REDELIVERY_POLICY_SUBCOMPONENT_NAME,
+                                                                     this);
+            retryCounter = (IEventOccurrenceCounter)
+                               managedComponent.createPerformanceCounter("retryCount",
+                                                                         LogMessages.JMX_REDELIVERY_POLICY_RETRY_COUNTER_NAME,
+                                                                         CounterFactory.EVENT_OCCURRENCE_COUNTER);
+            retriesExhaustedCounter = (IEventOccurrenceCounter)
+                                          managedComponent.createPerformanceCounter("retriesExhaustedCount",
+                                                                                    LogMessages.JMX_REDELIVERY_POLICY_EXHAUSTED_COUNTER_NAME,
+                                                                                    CounterFactory.EVENT_OCCURRENCE_COUNTER);
+            deferredCounter = (IEventOccurrenceCounter)
+                                  managedComponent.createPerformanceCounter("deferredCount",
+                                                                            LogMessages.JMX_REDELIVERY_POLICY_DEFERRED_COUNTER_NAME,
+                                                                            CounterFactory.EVENT_OCCURRENCE_COUNTER);
+        }
+    }
+
+    /**
+     * Removes a message that was handled in a rolled back window from the policy. Called when the
+     * message is acknowledged.
+     *
+     * @param  message  The message.
+     */
+    public void acknowledged(Message message)
+    {
+        String messageId = getMessageId(message);
+
+        if (messageId != null)
+        {
+            synchronized (handledMessages)
+            {
+                handledMessages.remove(messageId);
+            }
+        }
+    }
+
+    /**
+     * Returns whether a message with the given number of failed attempts can be retried.
+     *
+     * @param   attempts  The number of failed attempts.
+     *
+     * @return  <code>true</code> if the message should be rolled back for a retry.
+     */
+    public boolean canRetry(int attempts)
+    {
+        if (attempts <= maxRetries)
+        {
+            if (retryCounter != null)
+            {
+                retryCounter.addEvent();
+            }
+
+            return true;
+        }
+
+        if (retriesExhaustedCounter != null)
+        {
+            retriesExhaustedCounter.addEvent();
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the maximum number of times a failed message is handled before it is put in the
+     * error destination.
+     *
+     * @return  The maximum number of retries plus one.
+     */
+    public int getMaxDeliveryCount()
+    {
+        return maxRetries + 1;
+    }
+
+    /**
+     * Returns the maximum number of retries.
+     *
+     * @return  The maximum number of retries.
+     */
+    public int getMaxRetries()
+    {
+        return maxRetries;
+    }
+
+    /**
+     * Returns the time until the message may be retried. When the message is redelivered before
+     * that time it should be rolled back again. Such a redelivery is counted in JMX.
+     *
+     * @param   message  The received message.
+     *
+     * @return  The remaining backoff time in milliseconds or 0 if the message may be handled.
+     */
+    public long getRetryDelay(Message message)
+    {
+        FailedMessage failed = getFailedMessage(message);
+
+        if (failed == null)
+        {
+            return 0;
+        }
+
+        long delay = failed.retryTime - System.currentTimeMillis();
+
+        if (delay <= 0)
+        {
+            return 0;
+        }
+
+        if (deferredCounter != null)
+        {
+            deferredCounter.addEvent();
+        }
+
+        return delay;
+    }
+
+    /**
+     * Returns the number of messages for which failed attempts are tracked.
+     *
+     * @return  The number of tracked messages.
+     */
+    public int getTrackedMessageCount()
+    {
+        synchronized (failedMessages)
+        {
+            return failedMessages.size();
+        }
+    }
+
+    /**
+     * Returns whether the message failed once more after it was exhausted, i.e. it could not be
+     * put in the error destination either. Such a message is skipped by the trigger.
+     *
+     * @param   message  The received message.
+     *
+     * @return  <code>true</code> if the message must not be handled anymore.
+     */
+    public boolean isDeliveryLimitExceeded(Message message)
+    {
+        return getFailedAttempts(message) > getMaxDeliveryCount();
+    }
+
+    /**
+     * Returns whether the message already failed too often. Such a message should not be handled
+     * again. This can happen when the connector was restarted.
+     *
+     * @param   message  The received message.
+     *
+     * @return  <code>true</code> if the maximum number of retries is reached.
+     */
+    public boolean isExhausted(Message message)
+    {
+        return getFailedAttempts(message) > maxRetries;
+    }
+
+    /**
+     * Returns whether the message was handled successfully in a window that was rolled back.
+     *
+     * @param   message  The received message.
+     *
+     * @return  <code>true</code> if the message should only be acknowledged.
+     */
+    public boolean isHandled(Message message)
+    {
+        String messageId = getMessageId(message);
+
+        if (messageId == null)
+        {
+            return false;
+        }
+
+        synchronized (handledMessages)
+        {
+            return handledMessages.contains(messageId);
+        }
+    }
+
+    /**
+     * Registers a message that was handled successfully, but whose window was rolled back because
+     * of another message.
+     *
+     * @param  message  The message.
+     */
+    public void markHandled(Message message)
+    {
+        String messageId = getMessageId(message);
+
+        if (messageId != null)
+        {
+            synchronized (handledMessages)
+            {
+                handledMessages.add(messageId);
+            }
+        }
+    }
+
+    /**
+     * Removes the message from the tracker. Called when the message is handled.
+     *
+     * @param  message  The message.
+     */
+    public void messageHandled(Message message)
+    {
+        String messageId = getMessageId(message);
+
+        if (messageId == null)
+        {
+            return;
+        }
+
+        synchronized (failedMessages)
+        {
+            if (!failedMessages.isEmpty())
+            {
+                failedMessages.remove(messageId);
+            }
+        }
+    }
+
+    /**
+     * Registers a failed attempt for the message and sets its retry time.
+     *
+     * @param   message  The message that failed.
+     *
+     * @return  The number of failed attempts including this one.
+     */
+    public int recordFailure(Message message)
+    {
+        int attempts = getFailedAttempts(message) + 1;
+        String messageId = getMessageId(message);
+
+        if (messageId != null)
+        {
+            long wait = backoffTime;
+
+            for (int i = 1; (i < attempts) && (wait < MAX_BACKOFF); i++)
+            {
+                wait *= 2;
+            }
+
+            FailedMessage failed = new FailedMessage(attempts,
+                                                     System.currentTimeMillis() +
+                                                     Math.min(Math.max(wait, 0), MAX_BACKOFF));
+
+            synchronized (failedMessages)
+            {
+                failedMessages.put(messageId, failed);
+            }
+        }
+
+        return attempts;
+    }
+
+    /**
+     * Unregisters the JMX components.
+     */
+    public void shutdown()
+    {
+        if (managedComponent != null)
+        {
+            try
+            {
+                managedComponent.unregisterComponentTree();
+                managedComponent = null;
+            }
+            catch (Exception e)
+            {
+                if (JMSConnector.jmsLogger.isDebugEnabled())
+                {
+                    JMSConnector.jmsLogger.debug("Ignored exception while unregistering the JMX components.",
+                                                 e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @see  java.lang.Object#toString()
+     */
+    @Override public String toString()
+    {
+        return "max retries: " + maxRetries + ", backoff: " + backoffTime + ", tracked: " +
+               getTrackedMessageCount();
+    }
+
+    /**
+     * Returns the message ID or <code>null</code> if it is not available.
+     *
+     * @param   message  The message.
+     *
+     * @return  The message ID.
+     */
+    private static String getMessageId(Message message)
+    {
+        try
+        {
+            return message.getJMSMessageID();
+        }
+        catch (JMSException ignored)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the number of failed attempts of the message. For a tracked message this is the
+     * tracked number, because a redelivery before the retry time also raises the delivery count
+     * of the JMS provider. Otherwise the delivery count is used when the JMS provider sets it.
+     *
+     * @param   message  The message.
+     *
+     * @return  The number of failed attempts.
+     */
+    private int getFailedAttempts(Message message)
+    {
+        FailedMessage failed = getFailedMessage(message);
+
+        if (failed != null)
+        {
+            return failed.attempts;
+        }
+
+        try
+        {
+            if (message.propertyExists("JMSXDeliveryCount"))
+            {
+                // The first delivery has count 1.
+                return Math.max(0, message.getIntProperty("JMSXDeliveryCount") - 1);
+            }
+        }
+        catch (JMSException ignored)
+        {
+        }
+
+        return 0;
+    }
+
+    /**
+     * Returns the tracked failed attempts of the message.
+     *
+     * @param   message  The message.
+     *
+     * @return  The failed attempts or <code>null</code> if the message is not tracked.
+     */
+    private FailedMessage getFailedMessage(Message message)
+    {
+        String messageId = getMessageId(message);
+
+        if (messageId == null)
+        {
+            return null;
+        }
+
+        synchronized (failedMessages)
+        {
+            return failedMessages.get(messageId);
+        }
+    }
+
+    /**
+     * The failed attempts of a message.
+     */
+    private static class FailedMessage
+    {
+        /**
+         * The number of failed attempts.
+         */
+        final int attempts;
+        /**
+         * The time before which the message should not be handled again.
+         */
+        final long retryTime;
+
+        /**
+         * Creates a new FailedMessage object.
+         *
+         * @param  attempts   The number of failed attempts.
+         * @param  retryTime  The time before which the message should not be handled again.
+         */
+        FailedMessage(int attempts, long retryTime)
+        {
+            this.attempts = attempts;
+            this.retryTime = retryTime;
+        }
+    }
+}
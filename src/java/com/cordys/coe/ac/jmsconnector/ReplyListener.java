@@ -0,0 +1,669 @@
+/*
+ *
+ *  Copyright 2004 Cordys R&D B.V.
+ *
+ *  This file is part of the Cordys JMS Connector.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.cordys.coe.ac.jmsconnector;
+
+import com.cordys.coe.ac.jmsconnector.messages.LogMessages;
+
+import com.eibus.management.IManagedComponent;
+import com.eibus.management.counters.CounterFactory;
+import com.eibus.management.counters.IEventOccurrenceCounter;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+import javax.jms.Session;
+import javax.jms.TemporaryQueue;
+
+/**
+ * Shared consumer for the replies of request messages. Instead of creating a consumer with a
+ * <code>JMSCorrelationID</code> selector for every request, one consumer receives all messages
+ * from the reply destination and hands each reply to the request that waits for its correlation
+ * ID.
+ *
+ * <p>The listener either consumes a configured reply destination or a temporary queue owned by
+ * a destination manager. In the latter case the request messages get the temporary queue as
+ * <code>JMSReplyTo</code>.</p>
+ *
+ * <p>Replies for which no request is waiting can be kept in a reply index, bounded by count and
+ * by age. A request that registers for a correlation ID that is in the index gets the reply
+ * immediately. This serves replies that arrive before the request is registered without a
+ * <code>JMSCorrelationID</code> selector, which some providers evaluate by scanning the whole
+ * queue.</p>
+ *
+ * <p>Replies for which no request is waiting (e.g. because the request already timed out) and
+ * replies that are removed from the index unclaimed are handled by the late reply policy. With
+ * <code>error</code> they are put in the error destination, with <code>discard</code> they are
+ * only logged and removed.</p>
+ */
+public class ReplyListener
+    implements MessageListener
+{
+    /**
+     * The consumer on the reply destination.
+     */
+    private MessageConsumer consumer;
+    /**
+     * The reply destination or <code>null</code> if a temporary queue is used.
+     */
+    private final Destination destination;
+    /**
+     * The destination manager that owns the session.
+     */
+    private final DestinationManager destinationManager;
+    /**
+     * The name used in log messages.
+     */
+    private final String identifier;
+    /**
+     * JMX counter for the replies that were taken from the reply index.
+     */
+    private IEventOccurrenceCounter indexedReplyCounter;
+    /**
+     * The maximum time in milliseconds a reply is kept in the reply index.
+     */
+    private final long indexMaxAge;
+    /**
+     * The maximum number of replies in the reply index or 0 if replies are not indexed.
+     */
+    private final int indexSize;
+    /**
+     * JMX counter for the replies without a waiting request.
+     */
+    private IEventOccurrenceCounter lateReplyCounter;
+    /**
+     * The late reply policy.
+     */
+    private final LateReplyPolicy lateReplyPolicy;
+    /**
+     * Holds the JMX managed component.
+     */
+    private IManagedComponent managedComponent;
+    /**
+     * JMX counter for the replies that were handed to a waiting request.
+     */
+    private IEventOccurrenceCounter matchedReplyCounter;
+    /**
+     * The waiting requests by correlation ID.
+     */
+    private final ConcurrentMap<String, PendingReply> pendingReplies = new ConcurrentHashMap<String, PendingReply>();
+    /**
+     * The JMS destination the replies are received from.
+     */
+    private javax.jms.Destination replyDestination;
+    /**
+     * The replies without a waiting request by correlation ID, oldest first. Guarded by itself.
+     */
+    private final LinkedHashMap<String, IndexedReply> replyIndex = new LinkedHashMap<String, IndexedReply>();
+    /**
+     * The session of the consumer.
+     */
+    private Session session;
+
+    /**
+     * Creates a new ReplyListener object which consumes the given reply destination.
+     *
+     * @param   destination         The reply destination.
+     * @param   lateReplyPolicy     The name of the late reply policy.
+     * @param   indexSize           The maximum number of replies in the reply index or 0 if
+     *                              replies are not indexed.
+     * @param   indexMaxAge         The maximum time in milliseconds a reply is kept in the reply
+     *                              index.
+     * @param   parentJMXComponent  The parent JMX component.
+     *
+     * @throws  JMSException  In case the consumer could not be created.
+     */
+    public ReplyListener(Destination destination, String lateReplyPolicy, int indexSize,
+                         long indexMaxAge, IManagedComponent parentJMXComponent)
+                  throws JMSException
+    {
+        this.destination = destination;
+        this.destinationManager = destination.getDestinationManager();
+        this.identifier = destination.getIdentifier();
+        this.lateReplyPolicy = LateReplyPolicy.forName(lateReplyPolicy);
+        this.indexSize = indexSize;
+        this.indexMaxAge = indexMaxAge;
+
+        initialize(destination.getInnerDestination(), parentJMXComponent);
+    }
+
+    /**
+     * Creates a new ReplyListener object which consumes a new temporary queue.
+     *
+     * @param   destinationManager  The destination manager that owns the temporary queue.
+     * @param   lateReplyPolicy     The name of the late reply policy.
+     * @param   indexSize           The maximum number of replies in the reply index or 0 if
+     *                              replies are not indexed.
+     * @param   indexMaxAge         The maximum time in milliseconds a reply is kept in the reply
+     *                              index.
+     * @param   parentJMXComponent  The parent JMX component.
+     *
+     * @throws  JMSException  In case the temporary queue or the consumer could not be created.
+     */
+    public ReplyListener(DestinationManager destinationManager, String lateReplyPolicy,
+                         int indexSize, long indexMaxAge, IManagedComponent parentJMXComponent)
+                  throws JMSException
+    {
+        this.destination = null;
+        this.destinationManager = destinationManager;
+        this.identifier = destinationManager.getName() + ".<temporary>";
+        this.lateReplyPolicy = LateReplyPolicy.forName(lateReplyPolicy);
+        this.indexSize = indexSize;
+        this.indexMaxAge = indexMaxAge;
+
+        initialize(null, parentJMXComponent);
+    }
+
+    /**
+     * Returns whether the connection of the listener session is still connected. This is <code>
+     * false</code> when the connection failed or was reconnected since the listener was created.
+     *
+     * @return  <code>true</code> if the listener can still receive replies.
+     */
+    boolean isConnected()
+    {
+        return destinationManager.isSessionConnected(session);
+    }
+
+    /**
+     * Stops the consumer. Requests that are still waiting return without a reply.
+     */
+    public void close()
+    {
+        try
+        {
+            consumer.close();
+
+            if (replyDestination instanceof TemporaryQueue)
+            {
+                ((TemporaryQueue) replyDestination).delete();
+            }
+
+            destinationManager.closeSession(session);
+        }
+        catch (JMSException e)
+        {
+            if (JMSConnector.jmsLogger.isDebugEnabled())
+            {
+                JMSConnector.jmsLogger.debug("Ignored exception while closing the reply listener.",
+                                             e);
+            }
+        }
+
+        for (PendingReply pending : pendingReplies.values())
+        {
+            pending.complete(null);
+        }
+
+        pendingReplies.clear();
+
+        // The indexed replies were consumed, so they must not get lost.
+        evictIndexedReplies(Long.MAX_VALUE, 0);
+
+        if (managedComponent != null)
+        {
+            try
+            {
+                managedComponent.unregisterComponentTree();
+                managedComponent = null;
+            }
+            catch (Exception e)
+            {
+                if (JMSConnector.jmsLogger.isDebugEnabled())
+                {
+                    JMSConnector.jmsLogger.debug("Ignored exception while unregistering the JMX components.",
+                                                 e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of replies in the reply index.
+     *
+     * @return  The number of indexed replies.
+     */
+    public int getIndexedReplyCount()
+    {
+        synchronized (replyIndex)
+        {
+            return replyIndex.size();
+        }
+    }
+
+    /**
+     * Returns the name of the late reply policy.
+     *
+     * @return  The late reply policy.
+     */
+    public String getLateReplyPolicy()
+    {
+        return lateReplyPolicy.name().toLowerCase();
+    }
+
+    /**
+     * Returns the JMS destination the replies are received from. This is set as <code>
+     * JMSReplyTo</code> when a temporary queue is used.
+     *
+     * @return  The reply destination.
+     */
+    public javax.jms.Destination getReplyDestination()
+    {
+        return replyDestination;
+    }
+
+    /**
+     * Returns the number of requests waiting for a reply.
+     *
+     * @return  The number of pending requests.
+     */
+    public int getPendingRequestCount()
+    {
+        return pendingReplies.size();
+    }
+
+    /**
+     * @see  javax.jms.MessageListener#onMessage(javax.jms.Message)
+     */
+    public void onMessage(Message message)
+    {
+        try
+        {
+            String correlationId = message.getJMSCorrelationID();
+            PendingReply pending = (correlationId != null) ? pendingReplies.remove(correlationId)
+                                                           : null;
+
+            if ((pending != null) && pending.complete(message))
+            {
+                if (matchedReplyCounter != null)
+                {
+                    matchedReplyCounter.addEvent();
+                }
+            }
+            else if ((pending == null) && (correlationId != null) && (indexSize > 0))
+            {
+                synchronized (replyIndex)
+                {
+                    replyIndex.put(correlationId, new IndexedReply(message));
+                }
+            }
+            else
+            {
+                handleLateReply(message, correlationId, session);
+            }
+
+            session.commit();
+
+            evictIndexedReplies(System.currentTimeMillis() - indexMaxAge, indexSize);
+        }
+        catch (Exception e)
+        {
+            JMSConnector.jmsLogger.error(e, LogMessages.REPLY_LISTENER_ERROR,
+                                         identifier);
+
+            try
+            {
+                session.rollback();
+            }
+            catch (JMSException ignored)
+            {
+            }
+        }
+    }
+
+    /**
+     * @see  java.lang.Object#toString()
+     */
+    @Override public String toString()
+    {
+        return identifier + ", pending: " + pendingReplies.size() + ", indexed: " +
+               getIndexedReplyCount() +
+               ", late reply policy: " + getLateReplyPolicy();
+    }
+
+    /**
+     * Removes the request from the waiting requests. Can be called more than once.
+     *
+     * @param  pending  The pending request.
+     */
+    void cancel(PendingReply pending)
+    {
+        pendingReplies.remove(pending.correlationId, pending);
+    }
+
+    /**
+     * Registers a request which waits for a reply. This must be done before the request message
+     * is committed, otherwise the reply can arrive before the request is registered.
+     *
+     * @param   correlationId  The correlation ID of the reply.
+     *
+     * @return  The pending request.
+     */
+    PendingReply register(String correlationId)
+    {
+        PendingReply pending = new PendingReply(correlationId);
+
+        pendingReplies.put(correlationId, pending);
+
+        if (indexSize > 0)
+        {
+            IndexedReply indexed;
+
+            // The reply may have arrived before the request was registered.
+            synchronized (replyIndex)
+            {
+                indexed = replyIndex.remove(correlationId);
+            }
+
+            if ((indexed != null) && pendingReplies.remove(correlationId, pending))
+            {
+                pending.complete(indexed.message);
+
+                if (indexedReplyCounter != null)
+                {
+                    indexedReplyCounter.addEvent();
+                }
+            }
+        }
+
+        return pending;
+    }
+
+    /**
+     * Creates the session and the consumer.
+     *
+     * @param   jmsDestination      The destination to consume or <code>null</code> to create a
+     *                              temporary queue.
+     * @param   parentJMXComponent  The parent JMX component.
+     *
+     * @throws  JMSException  In case the consumer could not be created.
+     */
+    private void initialize(javax.jms.Destination jmsDestination,
+                            IManagedComponent parentJMXComponent)
+                     throws JMSException
+    {
+        try
+        {
+            session = destinationManager.createTriggerSession();
+        }
+        catch (JMSException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            JMSException je = new JMSException("Unable to create the reply listener session.");
+
+            je.setLinkedException(e);
+            throw je;
+        }
+
+        replyDestination = (jmsDestination != null) ? jmsDestination
+                                                    : session.createTemporaryQueue();
+        consumer = session.createConsumer(replyDestination);
+        consumer.setMessageListener(this);
+
+        if (parentJMXComponent != null)
+        {
+            managedComponent = parentJMXComponent.createSubComponent("ReplyListener", "replies",
+                                                                     LogMessages.JMX_REPLY_LISTENER_SUBCOMPONENT_NAME,
+                                                                     this);
+            matchedReplyCounter = (IEventOccurrenceCounter)
+                                      managedComponent.createPerformanceCounter("matchedReplyCount",
+                                                                                LogMessages.JMX_REPLY_LISTENER_MATCHED_COUNTER_NAME,
+                                                                                CounterFactory.EVENT_OCCURRENCE_COUNTER);
+            lateReplyCounter = (IEventOccurrenceCounter)
+                                   managedComponent.createPerformanceCounter("lateReplyCount",
+                                                                             LogMessages.JMX_REPLY_LISTENER_LATE_COUNTER_NAME,
+                                                                             CounterFactory.EVENT_OCCURRENCE_COUNTER);
+            indexedReplyCounter = (IEventOccurrenceCounter)
+                                      managedComponent.createPerformanceCounter("indexedReplyCount",
+                                                                                LogMessages.JMX_REPLY_LISTENER_INDEXED_COUNTER_NAME,
+                                                                                CounterFactory.EVENT_OCCURRENCE_COUNTER);
+        }
+    }
+
+    /**
+     * Removes the replies that are older than the given time or exceed the given count from the
+     * reply index and handles them with the late reply policy. The error messages are sent with
+     * their own session, because the session of the listener may only be used by the listener
+     * thread.
+     *
+     * @param  oldest    Replies received before this time are removed.
+     * @param  maxCount  The maximum number of replies that are kept.
+     */
+    private void evictIndexedReplies(long oldest, int maxCount)
+    {
+        List<IndexedReply> evicted = new ArrayList<IndexedReply>();
+
+        synchronized (replyIndex)
+        {
+            for (Iterator<IndexedReply> it = replyIndex.values().iterator(); it.hasNext();)
+            {
+                IndexedReply indexed = it.next();
+
+                if ((indexed.receiveTime >= oldest) && (replyIndex.size() <= maxCount))
+                {
+                    break;
+                }
+
+                evicted.add(indexed);
+                it.remove();
+            }
+        }
+
+        for (IndexedReply indexed : evicted)
+        {
+            try
+            {
+                handleLateReply(indexed.message, indexed.message.getJMSCorrelationID(), null);
+            }
+            catch (Exception e)
+            {
+                JMSConnector.jmsLogger.error(e, LogMessages.REPLY_LISTENER_ERROR, identifier);
+            }
+        }
+    }
+
+    /**
+     * Handles a reply for which no request is waiting.
+     *
+     * @param   message        The reply.
+     * @param   correlationId  The correlation ID of the reply.
+     * @param   errorSession   The session to send the error message with or <code>null</code>
+     *                         if the reply is already acknowledged. The error message is then
+     *                         committed with a new session before this method returns.
+     *
+     * @throws  Exception  In case the reply could not be put in the error destination.
+     */
+    private void handleLateReply(Message message, String correlationId, Session errorSession)
+                          throws Exception
+    {
+        if (lateReplyCounter != null)
+        {
+            lateReplyCounter.addEvent();
+        }
+
+        Destination errorDestination = (destination != null)
+                                       ? destination.getErrorDestination()
+                                       : destinationManager.getDefaultErrorDestination();
+
+        if ((lateReplyPolicy == LateReplyPolicy.ERROR) && (errorDestination != null))
+        {
+            JMSConnector.jmsLogger.warn(null, LogMessages.REPLY_LISTENER_LATE_REPLY_TO_ERROR,
+                                        identifier, correlationId,
+                                        errorDestination.getIdentifier());
+
+            String errorMessage = "No request is waiting for the reply with correlation ID " +
+                                  correlationId;
+
+            if (errorSession != null)
+            {
+                errorDestination.sendErrorMessage(message, errorMessage, errorSession, false);
+            }
+            else
+            {
+                errorDestination.sendErrorMessageNow(message, errorMessage);
+            }
+        }
+        else
+        {
+            JMSConnector.jmsLogger.warn(null, LogMessages.REPLY_LISTENER_LATE_REPLY_DISCARDED,
+                                        identifier, correlationId);
+        }
+    }
+
+    /**
+     * A reply in the reply index.
+     */
+    private static class IndexedReply
+    {
+        /**
+         * The reply.
+         */
+        final Message message;
+        /**
+         * The time the reply was received.
+         */
+        final long receiveTime = System.currentTimeMillis();
+
+        /**
+         * Creates a new IndexedReply object.
+         *
+         * @param  message  The reply.
+         */
+        IndexedReply(Message message)
+        {
+            this.message = message;
+        }
+    }
+
+    /**
+     * The ways a reply without a waiting request can be handled.
+     */
+    enum LateReplyPolicy
+    {
+        DISCARD,
+        ERROR;
+
+        /**
+         * Returns the policy with the given name. The default is <code>ERROR</code>.
+         *
+         * @param   name  The name of the policy.
+         *
+         * @return  The policy.
+         */
+        static LateReplyPolicy forName(String name)
+        {
+            return "discard".equalsIgnoreCase(name) ? DISCARD : ERROR;
+        }
+    }
+
+    /**
+     * A request that waits for its reply.
+     */
+    static class PendingReply
+    {
+        /**
+         * The correlation ID of the reply.
+         */
+        final String correlationId;
+        /**
+         * Indicates whether the request stopped waiting. Guarded by this object.
+         */
+        private boolean abandoned;
+        /**
+         * Indicates whether the request is finished. Guarded by this object.
+         */
+        private boolean done;
+        /**
+         * The reply. Guarded by this object.
+         */
+        private Message reply;
+
+        /**
+         * Creates a new PendingReply object.
+         *
+         * @param  correlationId  The correlation ID of the reply.
+         */
+        PendingReply(String correlationId)
+        {
+            this.correlationId = correlationId;
+        }
+
+        /**
+         * Waits for the reply.
+         *
+         * @param   timeout  The maximum time to wait in milliseconds.
+         *
+         * @return  The reply or <code>null</code> if it did not arrive in time.
+         *
+         * @throws  InterruptedException  In case the thread was interrupted.
+         */
+        synchronized Message await(long timeout)
+                            throws InterruptedException
+        {
+            long deadline = System.currentTimeMillis() + timeout;
+
+            while (!done)
+            {
+                long wait = deadline - System.currentTimeMillis();
+
+                if (wait <= 0)
+                {
+                    // A reply that arrives from now on is a late reply.
+                    abandoned = true;
+                    break;
+                }
+
+                wait(wait);
+            }
+
+            return reply;
+        }
+
+        /**
+         * Hands the reply to the waiting request.
+         *
+         * @param   message  The reply or <code>null</code> if no reply will come.
+         *
+         * @return  <code>false</code> if the request already stopped waiting.
+         */
+        synchronized boolean complete(Message message)
+        {
+            if (abandoned || done)
+            {
+                return false;
+            }
+
+            reply = message;
+            done = true;
+            notifyAll();
+
+            return true;
+        }
+    }
+}
@@ -0,0 +1,505 @@
+/*
+ *
+ *  Copyright 2004 Cordys R&D B.V.
+ *
+ *  This file is part of the Cordys JMS Connector.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.cordys.coe.ac.jmsconnector;
+
+import com.cordys.coe.ac.jmsconnector.exceptions.JMSConfigurationException;
+import com.cordys.coe.ac.jmsconnector.exceptions.JMSConnectorException;
+import com.cordys.coe.ac.jmsconnector.messages.LogMessages;
+
+import com.eibus.management.IManagedComponent;
+import com.eibus.management.counters.CounterFactory;
+import com.eibus.management.counters.IEventOccurrenceCounter;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import javax.jms.JMSException;
+
+/**
+ * Pool of transacted sessions of a destination manager. The SOAP transactions borrow a session
+ * when a destination of the destination manager is first used and return it after the commit or
+ * rollback. At most <code>maxIdle</code> sessions are kept open. When more sessions are needed at
+ * the same time they are created and closed again when they are returned.
+ *
+ * <p>The number of borrowed sessions is only limited when <code>maxActive</code> is set. Each
+ * running SOAP transaction holds one session per destination manager, so without a limit the
+ * number of open sessions grows with the number of concurrent requests. Parked long poll requests
+ * do not hold a session. When the limit is reached <code>borrowSession()</code> fails instead of
+ * waiting for a session.</p>
+ *
+ * <p>Idle sessions are returned most recently used first. Sessions that were idle longer than
+ * the idle timeout are closed from the other end of the pool whenever a session is borrowed or
+ * returned. An idle session is validated when it is borrowed, see {@link PooledSession#isValid()}
+ * for what this detects. Sessions must only be returned after they were committed or rolled
+ * back. The producers and consumers that are cached for a session are kept while the session is
+ * idle and are closed together with the session when the pool evicts or closes it.</p>
+ */
+public class SessionPool
+{
+    /**
+     * The number of borrowed sessions.
+     */
+    private int activeCount;
+    /**
+     * Indicates whether the pool has been closed.
+     */
+    private boolean closed;
+    /**
+     * JMX counter for the number of created sessions.
+     */
+    private IEventOccurrenceCounter createdCounter;
+    /**
+     * JMX counter for the number of idle sessions that were closed because of the idle timeout.
+     */
+    private IEventOccurrenceCounter evictedCounter;
+    /**
+     * Creates and closes the sessions.
+     */
+    private final SessionFactory factory;
+    /**
+     * The idle sessions, most recently returned first.
+     */
+    private final LinkedList<IdleSession> idleSessions = new LinkedList<IdleSession>();
+    /**
+     * The time in milliseconds after which an idle session is closed.
+     */
+    private final long idleTimeout;
+    /**
+     * Holds the JMX managed component.
+     */
+    private IManagedComponent managedComponent;
+    /**
+     * The maximum number of borrowed sessions or 0 if the number is not limited.
+     */
+    private final int maxActive;
+    /**
+     * The maximum number of idle sessions.
+     */
+    private final int maxIdle;
+    /**
+     * JMX counter for the number of sessions taken from the pool.
+     */
+    private IEventOccurrenceCounter reusedCounter;
+
+    /**
+     * Creates a new SessionPool object.
+     *
+     * @param  factory             Creates and closes the sessions, normally the destination
+     *                             manager.
+     * @param  maxIdle             The maximum number of idle sessions.
+     * @param  maxActive           The maximum number of borrowed sessions or 0 to not limit the
+     *                             number.
+     * @param  idleTimeout         The time in milliseconds after which an idle session is closed
+     *                             or 0 to keep idle sessions open.
+     * @param  parentJMXComponent  The parent JMX component.
+     */
+    public SessionPool(SessionFactory factory, int maxIdle, int maxActive, long idleTimeout,
+                       IManagedComponent parentJMXComponent)
+    {
+        this.factory = factory;
+        this.maxIdle = maxIdle;
+        this.maxActive = maxActive;
+        this.idleTimeout = idleTimeout;
+
+        if (parentJMXComponent != null)
+        {
+            managedComponent = parentJMXComponent.createSubComponent("SessionPool", "sessions",
+                                                                     LogMessages.JMX_SESSION_POOL_SUBCOMPONENT_NAME,
+                                                                     this);
+            createdCounter = (IEventOccurrenceCounter)
+                                 managedComponent.createPerformanceCounter("createdCount",
+                                                                           LogMessages.JMX_SESSION_POOL_CREATED_COUNTER_NAME,
+                                                                           CounterFactory.EVENT_OCCURRENCE_COUNTER);
+            reusedCounter = (IEventOccurrenceCounter)
+                                managedComponent.createPerformanceCounter("reusedCount",
+                                                                          LogMessages.JMX_SESSION_POOL_REUSED_COUNTER_NAME,
+                                                                          CounterFactory.EVENT_OCCURRENCE_COUNTER);
+            evictedCounter = (IEventOccurrenceCounter)
+                                 managedComponent.createPerformanceCounter("evictedCount",
+                                                                           LogMessages.JMX_SESSION_POOL_EVICTED_COUNTER_NAME,
+                                                                           CounterFactory.EVENT_OCCURRENCE_COUNTER);
+        }
+    }
+
+    /**
+     * Returns a session. An idle session is used if a valid one is available, otherwise a new
+     * session is created.
+     *
+     * @return  The session and its cached producers and consumers.
+     *
+     * @throws  JMSException               In case the session could not be created.
+     * @throws  JMSConfigurationException  In case the destination manager is not configured.
+     * @throws  JMSConnectorException      In case the destination manager has no connection or
+     *                                     the maximum number of borrowed sessions is reached.
+     */
+    public PooledSession borrowSession()
+                                throws JMSException, JMSConfigurationException,
+                                       JMSConnectorException
+    {
+        List<PooledSession> expired;
+
+        synchronized (this)
+        {
+            if ((maxActive > 0) && (activeCount >= maxActive))
+            {
+                throw new JMSConnectorException("All " + maxActive +
+                                                " sessions of destination manager " +
+                                                factory.getName() + " are in use.");
+            }
+
+            activeCount++;
+            expired = removeExpired(System.currentTimeMillis());
+        }
+
+        closeSessions(expired);
+
+        boolean borrowed = false;
+
+        try
+        {
+            while (true)
+            {
+                IdleSession idle;
+
+                synchronized (this)
+                {
+                    idle = idleSessions.poll();
+                }
+
+                if (idle == null)
+                {
+                    break;
+                }
+
+                if (!idle.session.isValid())
+                {
+                    closeSession(idle.session);
+                    continue;
+                }
+
+                if (reusedCounter != null)
+                {
+                    reusedCounter.addEvent();
+                }
+
+                borrowed = true;
+
+                return idle.session;
+            }
+
+            PooledSession session = factory.createPooledSession();
+
+            borrowed = true;
+
+            if (createdCounter != null)
+            {
+                createdCounter.addEvent();
+            }
+
+            if (JMSConnector.jmsLogger.isDebugEnabled())
+            {
+                JMSConnector.jmsLogger.debug("Created a new session for destination manager " +
+                                             factory.getName());
+            }
+
+            return session;
+        }
+        finally
+        {
+            if (!borrowed)
+            {
+                synchronized (this)
+                {
+                    activeCount--;
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes all idle sessions. Sessions that are borrowed are closed when they are returned.
+     *
+     * @param  unregister  Whether the JMX components should be unregistered.
+     */
+    public void close(boolean unregister)
+    {
+        synchronized (this)
+        {
+            closed = unregister;
+        }
+
+        clear();
+
+        if (unregister && (managedComponent != null))
+        {
+            try
+            {
+                managedComponent.unregisterComponentTree();
+                managedComponent = null;
+            }
+            catch (Exception e)
+            {
+                if (JMSConnector.jmsLogger.isDebugEnabled())
+                {
+                    JMSConnector.jmsLogger.debug("Ignored exception while unregistering the JMX components.",
+                                                 e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of borrowed sessions.
+     *
+     * @return  The number of active sessions.
+     */
+    public synchronized int getActiveSessionCount()
+    {
+        return activeCount;
+    }
+
+    /**
+     * Returns the number of idle sessions.
+     *
+     * @return  The number of idle sessions.
+     */
+    public synchronized int getIdleSessionCount()
+    {
+        return idleSessions.size();
+    }
+
+    /**
+     * Returns the maximum number of borrowed sessions.
+     *
+     * @return  The maximum number of active sessions or 0 if the number is not limited.
+     */
+    public int getMaxActiveSessionCount()
+    {
+        return maxActive;
+    }
+
+    /**
+     * Returns the maximum number of idle sessions.
+     *
+     * @return  The maximum number of idle sessions.
+     */
+    public int getMaxIdleSessionCount()
+    {
+        return maxIdle;
+    }
+
+    /**
+     * Returns a session to the pool. The session must be committed or rolled back. If the session
+     * is not valid or the pool is full the session is closed.
+     *
+     * @param  session  The session.
+     * @param  valid    <code>false</code> if the session failed and must be closed.
+     */
+    public void releaseSession(PooledSession session, boolean valid)
+    {
+        List<PooledSession> expired;
+        boolean pooled = false;
+
+        synchronized (this)
+        {
+            activeCount--;
+            expired = removeExpired(System.currentTimeMillis());
+
+            if (valid && !closed && (idleSessions.size() < maxIdle))
+            {
+                idleSessions.addFirst(new IdleSession(session));
+                pooled = true;
+            }
+        }
+
+        closeSessions(expired);
+
+        if (!pooled)
+        {
+            closeSession(session);
+        }
+    }
+
+    /**
+     * @see  java.lang.Object#toString()
+     */
+    @Override public synchronized String toString()
+    {
+        return factory.getName() + ", active: " + activeCount +
+               ((maxActive > 0) ? ("/" + maxActive) : "") + ", idle: " + idleSessions.size() +
+               "/" + maxIdle;
+    }
+
+    /**
+     * Closes the idle sessions.
+     */
+    void clear()
+    {
+        LinkedList<IdleSession> sessions;
+
+        synchronized (this)
+        {
+            sessions = new LinkedList<IdleSession>(idleSessions);
+            idleSessions.clear();
+        }
+
+        for (Iterator<IdleSession> it = sessions.iterator(); it.hasNext();)
+        {
+            closeSession(it.next().session);
+        }
+    }
+
+    /**
+     * Closes the session and ignores any errors.
+     *
+     * @param  session  The session to close.
+     */
+    private void closeSession(PooledSession session)
+    {
+        try
+        {
+            factory.closeSession(session);
+        }
+        catch (JMSException e)
+        {
+            if (JMSConnector.jmsLogger.isDebugEnabled())
+            {
+                JMSConnector.jmsLogger.debug("Ignored exception while closing a pooled session.",
+                                             e);
+            }
+        }
+    }
+
+    /**
+     * Closes the sessions that were removed because of the idle timeout.
+     *
+     * @param  sessions  The sessions or <code>null</code>.
+     */
+    private void closeSessions(List<PooledSession> sessions)
+    {
+        if (sessions == null)
+        {
+            return;
+        }
+
+        for (PooledSession session : sessions)
+        {
+            closeSession(session);
+
+            if (evictedCounter != null)
+            {
+                evictedCounter.addEvent();
+            }
+        }
+    }
+
+    /**
+     * Removes the sessions that were idle longer than the idle timeout. The least recently
+     * returned sessions are at the end of the list. The caller must hold the lock of the pool and
+     * close the returned sessions after releasing it.
+     *
+     * @param   now  The current time.
+     *
+     * @return  The removed sessions or <code>null</code> if none were removed.
+     */
+    private List<PooledSession> removeExpired(long now)
+    {
+        if (idleTimeout <= 0)
+        {
+            return null;
+        }
+
+        List<PooledSession> expired = null;
+
+        while (!idleSessions.isEmpty() && ((now - idleSessions.getLast().returnTime) >= idleTimeout))
+        {
+            if (expired == null)
+            {
+                expired = new ArrayList<PooledSession>();
+            }
+
+            expired.add(idleSessions.removeLast().session);
+        }
+
+        return expired;
+    }
+
+    /**
+     * Creates and closes the sessions of a session pool.
+     */
+    interface SessionFactory
+    {
+        /**
+         * Creates a new transacted session.
+         *
+         * @return  The session.
+         *
+         * @throws  JMSException               In case the session could not be created.
+         * @throws  JMSConfigurationException  In case the destination manager is not configured.
+         * @throws  JMSConnectorException      In case the destination manager has no connection.
+         */
+        PooledSession createPooledSession()
+                                   throws JMSException, JMSConfigurationException,
+                                          JMSConnectorException;
+
+        /**
+         * Closes the session together with its cached producers and consumers.
+         *
+         * @param   session  The session.
+         *
+         * @throws  JMSException  In case the session could not be closed.
+         */
+        void closeSession(PooledSession session)
+                   throws JMSException;
+
+        /**
+         * Returns the name of the destination manager.
+         *
+         * @return  The name.
+         */
+        String getName();
+    }
+
+    /**
+     * An idle session and the time it was returned.
+     */
+    private static class IdleSession
+    {
+        /**
+         * The time the session was returned.
+         */
+        final long returnTime = System.currentTimeMillis();
+        /**
+         * The session.
+         */
+        final PooledSession session;
+
+        /**
+         * Creates a new IdleSession object.
+         *
+         * @param  session  The session.
+         */
+        IdleSession(PooledSession session)
+        {
+            this.session = session;
+        }
+    }
+}
@@ -25,6 +25,8 @@ import com.cordys.coe.exception.GeneralException;
 
 import com.eibus.connector.nom.SOAPMessage;
 
+import com.eibus.directory.soap.DirectoryException;
+
 import com.eibus.management.IManagedComponent;
 import com.eibus.management.counters.CounterFactory;
 import com.eibus.management.counters.IEventOccurrenceCounter;
@@ -41,9 +43,17 @@ import com.eibus.xml.nom.XMLException;
 
 import java.io.UnsupportedEncodingException;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.jms.BytesMessage;
 import javax.jms.JMSException;
@@ -65,6 +75,25 @@ public class Trigger
      * Holds the logger to use.
      */
     private static final CordysLogger LOG = CordysLogger.getCordysLogger(Trigger.class);
+    /**
+     * The size of the buffers used to decode bytes messages.
+     */
+    private static final int DECODE_BUFFER_SIZE = 8192;
+    /**
+     * The maximum time to wait for the receiver thread when closing the trigger.
+     */
+    private static final long RECEIVER_STOP_TIMEOUT = 60000L;
+    /**
+     * The maximum time to pause after a message was rolled back because it was redelivered before
+     * its retry time. The pause prevents a busy redelivery loop.
+     */
+    private static final long RETRY_CHECK_INTERVAL = 100L;
+    /**
+     * The messages that were only acknowledged because they were already handled in a rolled back
+     * window. They are removed from the redelivery policy when the session is committed. Only
+     * used by the receiver thread.
+     */
+    private final List<Message> m_acknowledgedMessages = new ArrayList<Message>();
     /**
      * The name of the binary transformation channel that should be used.
      */
@@ -90,6 +119,10 @@ public class Trigger
      * DOCUMENTME.
      */
     private Charset m_defaultCharset;
+    /**
+     * The decoder for bytes messages. Recreated when the character set changes.
+     */
+    private CharsetDecoder m_decoder;
     /**
      * DOCUMENTME.
      */
@@ -98,6 +131,14 @@ public class Trigger
      * DOCUMENTME.
      */
     private DestinationManager m_destinationManager;
+    /**
+     * The number of messages handled by this trigger. Used by the trigger scaler.
+     */
+    private final AtomicLong m_handledMessageCount = new AtomicLong();
+    /**
+     * The total time in milliseconds spent on handling the messages.
+     */
+    private final AtomicLong m_handlingTime = new AtomicLong();
     /**
      * The name of the trigger.
      */
@@ -118,6 +159,37 @@ public class Trigger
      * The JMS message selector that should be used..
      */
     private String messageSelector = null;
+    /**
+     * The compiled parameters of the request prototype.
+     */
+    private TriggerParameterTemplate m_parameterTemplate;
+    /**
+     * The producers of the trigger session, used to put failed messages in the error destination.
+     * It is closed together with the session.
+     */
+    private ProducerCache m_producerCache;
+    /**
+     * The trigger SOAP request without the message data. Each message gets a clone of this
+     * request. It is created once when the trigger is created.
+     */
+    private int m_requestPrototype;
+    /**
+     * The timeout for the trigger SOAP request.
+     */
+    private long m_requestTimeout;
+    /**
+     * Buffer holding the undecoded bytes of a bytes message. The read buffers are reused for every
+     * message, which is safe because a trigger handles one message at a time.
+     */
+    private ByteBuffer m_readBuffer;
+    /**
+     * Chunk buffer for reading bytes messages.
+     */
+    private byte[] m_readChunk;
+    /**
+     * The receiver thread in case the trigger does not use a message listener.
+     */
+    private TriggerReceiver m_receiver;
     /**
      * The JMS session for this trigger.
      */
@@ -166,7 +238,13 @@ public class Trigger
         this.messageSelector = config.getDestinationMessageSelector(manager.getName(),
                                                                     destination.getName());
 
-        if ((this.messageSelector == null) || (this.messageSelector.trim().length() == 0))
+        if (destination.getRedeliveryPolicy() != null)
+        {
+            // The redelivery policy checks the delivery count in onMessage, so the JMS provider
+            // does not have to evaluate a message selector for it.
+            m_checkDeliveryCount = true;
+        }
+        else if ((this.messageSelector == null) || (this.messageSelector.trim().length() == 0))
         {
             DestinationManager.Type providerType = manager.getType();
 
@@ -212,6 +290,8 @@ public class Trigger
                                             e.getMessage());
         }
 
+        createRequestPrototype();
+
         createConsumer();
 
         if (LOG.isDebugEnabled())
@@ -236,6 +316,11 @@ public class Trigger
                                          stopOnly);
         }
 
+        if (m_receiver != null)
+        {
+            m_receiver.stop();
+        }
+
         if (m_consumer != null)
         {
             try
@@ -253,11 +338,24 @@ public class Trigger
             m_consumer = null;
         }
 
+        if (m_receiver != null)
+        {
+            // The receiver finishes the outstanding messages using the session.
+            m_receiver.waitForStop(RECEIVER_STOP_TIMEOUT);
+            m_receiver = null;
+        }
+
         if (session != null)
         {
+            if (m_producerCache != null)
+            {
+                m_producerCache.close();
+                m_producerCache = null;
+            }
+
             try
             {
-                session.close();
+                m_destinationManager.closeSession(session);
             }
             catch (JMSException e)
             {
@@ -272,6 +370,12 @@ public class Trigger
 
         if (!stopOnly)
         {
+            if (m_requestPrototype != 0)
+            {
+                Node.delete(m_requestPrototype);
+                m_requestPrototype = 0;
+            }
+
             if (managedComponent != null)
             {
                 try
@@ -296,6 +400,26 @@ public class Trigger
         }
     }
 
+    /**
+     * Returns the number of messages handled by this trigger.
+     *
+     * @return  The handled message count.
+     */
+    public long getHandledMessageCount()
+    {
+        return m_handledMessageCount.get();
+    }
+
+    /**
+     * Returns the total time spent on handling the messages.
+     *
+     * @return  The handling time in milliseconds.
+     */
+    public long getHandlingTime()
+    {
+        return m_handlingTime.get();
+    }
+
     /**
      * DOCUMENTME.
      *
@@ -323,269 +447,68 @@ public class Trigger
      */
     public void onMessage(Message message, Session forSession)
     {
-        int soapEnvelope = 0;
-        int xml = 0;
-        int response = 0;
-
-        if (m_checkDeliveryCount)
+        if (isRedeliveredMessage(message))
         {
-            int redeliveryCount = 0;
-
-            try
-            {
-                redeliveryCount = message.getIntProperty("JMSXDeliveryCount");
-            }
-            catch (JMSException ignored)
-            {
-            }
-
-            if (1 != redeliveryCount)
-            {
-                try
-                {
-                    if (JMSConnector.jmsLogger.isInfoEnabled())
-                    {
-                        String errorMessage = LogMessages.getFormatted(LogMessages.DO_NOT_PROCESS_REDELIVERED_MESSAGE,
-                                                                       new Object[]
-                                                                       {
-                                                                           message.getJMSMessageID(),
-                                                                           JMSUtil
-                                                                           .getDestinationURI(message
-                                                                                              .getJMSDestination())
-                                                                       });
-                        JMSConnector.jmsLogger.warn(new JMSConnectorException(errorMessage),
-                                                    LogMessages.DO_NOT_PROCESS_REDELIVERED_MESSAGE,
-                                                    new Object[]
-                                                    {
-                                                        message.getJMSMessageID(),
-                                                        JMSUtil.getDestinationURI(message
-                                                                                  .getJMSDestination())
-                                                    });
-                    }
-                }
-                catch (JMSException ignored)
-                {
-                }
-                return;
-            }
+            return;
         }
 
-        if (JMSConnector.jmsLogger.isDebugEnabled())
-        {
-            String destPhysicalName = null;
-            String messageDestPhysicalName = null;
-
-            try
-            {
-                if (m_destination.getInnerDestination() != null)
-                {
-                    destPhysicalName = JMSUtil.getDestinationURI(m_destination
-                                                                 .getInnerDestination());
-                }
-            }
-            catch (JMSException ignored)
-            {
-            }
-
-            try
-            {
-                if (message.getJMSDestination() != null)
-                {
-                    messageDestPhysicalName = JMSUtil.getDestinationURI(message
-                                                                        .getJMSDestination());
-                }
-            }
-            catch (JMSException ignored)
-            {
-            }
-
-            JMSConnector.jmsLogger.debug("Receiving message from destination '" +
-                                         m_destination.getIdentifier() + "': " +
-                                         JMSUtil.safeFormatLogMessage(message));
+        RedeliveryPolicy redeliveryPolicy = m_destination.getRedeliveryPolicy();
 
-            JMSConnector.jmsLogger.debug("Trigger destination physical name: " + destPhysicalName);
-            JMSConnector.jmsLogger.debug("From destination physical name: " +
-                                         messageDestPhysicalName);
+        if ((redeliveryPolicy != null) && deferRetry(message, forSession, redeliveryPolicy))
+        {
+            return;
         }
 
-        long startTime = messageHandlingCounter.start();
-        String sMessageId;
+        logReceivedMessage(message);
 
-        try
-        {
-            sMessageId = message.getJMSMessageID();
-        }
-        catch (Exception ignored)
-        {
-            sMessageId = "Unkwown";
-        }
+        long startTime = messageHandlingCounter.start();
+        long beginTime = System.currentTimeMillis();
 
         try
         {
-            // Find out message character set.
-            Charset charset = m_defaultCharset;
-
-            if (charset == null)
-            {
-                if (JMSConnector.jmsLogger.isDebugEnabled())
-                {
-                    JMSConnector.jmsLogger.debug("Trigger character set not set. Using the one from destination or destination manager.");
-                }
-
-                charset = m_destination.getDefaultCharset();
-
-                if (charset == null)
-                {
-                    throw new JMSConnectorException("Unable to determine character set.");
-                }
-            }
-
-            if (JMSConnector.jmsLogger.isDebugEnabled())
-            {
-                JMSConnector.jmsLogger.debug("Using character set: " + charset.displayName());
-            }
-
-            String utf8String;
-
-            if (message instanceof BytesMessage)
-            {
-                int len = (int) ((BytesMessage) message).getBodyLength();
-                byte[] utf8Text = new byte[len];
-                ((BytesMessage) message).readBytes(utf8Text);
-                utf8String = new String(utf8Text, charset);
-            }
-            else if (message instanceof TextMessage)
-            {
-                TextMessage jmsTextMessage = (TextMessage) message;
-                utf8String = jmsTextMessage.getText();
-            }
-            else if (message instanceof MapMessage)
-            {
-                ConvertMapMessage convert = new ConvertMapMessage(forSession, message);
-                utf8String = ((TextMessage) convert.convert(m_connector.getSharedNomDocument()))
-                             .getText();
-            }
-            else
-            {
-                throw new JMSConnectorException("Cannot handle message of type '" +
-                                                message.getClass().getName() +
-                                                "'. Only BytesMessage, MapMessage " +
-                                                "and TextMessage is supported.");
-            }
-
-            if (m_btcProtocol != null)
-            {
-                xml = m_connector.getParserEngine(m_btcProtocol).externalToXML(utf8String
-                                                                               .getBytes(),
-                                                                               m_btcProtocol,
-                                                                               false);
-            }
-
-            JMSConnectorConfiguration.TriggerMessageInfo messageInfo = m_config
-                                                                       .createMethodForInboundTrigger(m_destinationManager
-                                                                                                      .getName(),
-                                                                                                      m_destination
-                                                                                                      .getName());
-
-            if (messageInfo == null)
-            {
-                throw new JMSConnectorException("Unable to create the trigger SOAP request. Message info object is not set.");
-            }
-
-            soapEnvelope = messageInfo.soapRequestNode;
-            messageInfo.soapRequestNode = 0;
-
-            handleParameters(soapEnvelope, utf8String, xml, message);
-            xml = 0;
-
-            if (JMSConnector.jmsLogger.isDebugEnabled())
+            if ((redeliveryPolicy != null) && redeliveryPolicy.isExhausted(message))
             {
-                JMSConnector.jmsLogger.debug("Triggering trigger after receiving message from destination '" +
-                                             m_destination.getIdentifier() + "'. Timeout: " +
-                                             messageInfo.requestTimeout + ". Sending message: " +
-                                             JMSUtil.safeFormatLogMessage(Node.writeToString(soapEnvelope,
-                                                                                             true)));
+                throw new JMSConnectorException(LogMessages.getFormatted(LogMessages.TRIGGER_MESSAGE_RETRIES_EXHAUSTED,
+                                                                         new Object[]
+                                                                         {
+                                                                             m_destination
+                                                                             .getIdentifier(),
+                                                                             getMessageId(message),
+                                                                             redeliveryPolicy
+                                                                             .getMaxRetries()
+                                                                         }));
             }
 
-            response = m_connector.getConnector().sendAndWait(soapEnvelope,
-                                                              messageInfo.requestTimeout);
+            invokeTrigger(message, forSession);
 
-            if (Node.getLocalName(Node.getFirstChild(SOAPMessage.getBodyNode(response))).equals("Fault"))
-            {
-                // Throw an exception which will be catched by the generic catch block. This way
-                // we do not have to worry about error destinations here.
-                throw new SOAPFault("",
-                                    "SOAP Fault on response: \n" +
-                                    JMSUtil.safeFormatLogMessage(Node.writeToString(response,
-                                                                                    false)));
-            }
+            forSession.commit();
 
-            if (JMSConnector.jmsLogger.isDebugEnabled())
+            if (redeliveryPolicy != null)
             {
-                JMSConnector.jmsLogger.debug("Succesfully executed trigger after receiving message from destination '" +
-                                             m_destination.getIdentifier() +
-                                             "'. Received response: " +
-                                             JMSUtil.safeFormatLogMessage(Node.writeToString(response,
-                                                                                             true)));
+                redeliveryPolicy.messageHandled(message);
             }
-
-            forSession.commit();
         }
         catch (Exception e)
         {
-            JMSConnector.jmsLogger.error(e, LogMessages.TRIGGER_RECEIVE_ERROR,
-                                         m_destination.getIdentifier(), sMessageId);
-
-            messageHandlingErrorCounter.addEvent();
-
-            Destination dErrorDestination = m_destination.getErrorDestination();
-
-            // if error destination is used...
-            if (dErrorDestination != null)
+            if ((redeliveryPolicy != null) && retryMessage(message, forSession, e, redeliveryPolicy))
             {
-                try
-                {
-                    String sErrorMsgID;
-                    String sErrorMessage = JMSUtil.safeFormatLogMessage(JMSUtil.getStackTrace(e));
-
-                    // Put the message in the error destination. This will also commit this session.
-                    sErrorMsgID = dErrorDestination.sendErrorMessage(message, sErrorMessage,
-                                                                     forSession);
-
-                    // Log the new message ID.
-                    JMSConnector.jmsLogger.error(e,
-                                                 LogMessages.TRIGGER_MESSAGE_SENT_TO_ERROR_DESTINATION,
-                                                 dErrorDestination.getIdentifier(), sMessageId,
-                                                 sErrorMsgID);
-
-                    // successfully committed, so don't rollback (see below)
-                    return;
-                }
-                catch (Exception ex)
-                {
-                    JMSConnector.jmsLogger.fatal(ex,
-                                                 LogMessages.TRIGGER_ERROR_SENDING_TO_ERROR_DESTINATION,
-                                                 dErrorDestination.getIdentifier(), sMessageId);
-                }
+                return;
             }
 
-            try
+            // Put the message in the error destination. This will also commit this session.
+            if (!handleMessageError(message, forSession, e, true))
             {
-                // either no error destination is configured or sending to it wend wrong
-                forSession.rollback();
+                rollback(forSession, getMessageId(message));
             }
-            catch (Exception ex)
+            else if (redeliveryPolicy != null)
             {
-                JMSConnector.jmsLogger.error(ex, LogMessages.TRIGGER_ROLLBACK_ERROR,
-                                             m_destination.getIdentifier(), sMessageId);
+                redeliveryPolicy.messageHandled(message);
             }
         }
         finally
         {
-            Node.delete(xml);
-            Node.delete(soapEnvelope);
-            Node.delete(Node.getRoot(response));
             messageHandlingCounter.finish(startTime);
+            recordHandledMessages(1, System.currentTimeMillis() - beginTime);
         }
     }
 
@@ -621,207 +544,493 @@ public class Trigger
                                     Message message)
                              throws JMSException, UnsupportedEncodingException, XMLException
     {
-        // walk through attributes
-        int attrCount = Node.getNumAttributes(cnode);
+        fillParameters(TriggerParameterTemplate.compile(cnode), cnode, inputmsg, xml, message);
+    }
+
+    /**
+     * Fills in the placeholders of the compiled parameter template.
+     *
+     * @param   template  The compiled template.
+     * @param   root      The root node of the SOAP request.
+     * @param   inputmsg  The JMS message body string
+     * @param   xml       The JMS message body converted as XML
+     * @param   message   The JMS message
+     *
+     * @throws  JMSException
+     * @throws  UnsupportedEncodingException
+     * @throws  XMLException
+     */
+    void fillParameters(TriggerParameterTemplate template, int root, String inputmsg, int xml,
+                        Message message)
+                 throws JMSException, UnsupportedEncodingException, XMLException
+    {
+        List<TriggerParameterTemplate.Binding> bindings = template.getBindings();
+        int[] nodes = template.resolve(root);
 
-        for (int i = 0; i < attrCount; i++)
+        for (int i = 0; i < nodes.length; i++)
         {
-            String attrName = Node.getAttributeName(cnode, i + 1);
-            String value = Node.getAttribute(cnode, attrName);
+            TriggerParameterTemplate.Binding binding = bindings.get(i);
 
-            if (value.equals("{$messageid}"))
-            {
-                Node.setAttribute(cnode, attrName, nullToEmpty(message.getJMSMessageID()));
-            }
-            else if (value.equals("{$reply2destination}"))
-            {
-                String[] saNames = JMSUtil.getJmsDestinationNames(m_destination,
-                                                                  message.getJMSReplyTo(), true);
-                String sValue = (saNames[1] != null) ? saNames[1] : saNames[0];
-                Node.setAttribute(cnode, attrName, nullToEmpty(sValue));
-            }
-            else if (value.equals("{$fromdestination}"))
-            {
-                String[] saNames = JMSUtil.getJmsDestinationNames(m_destination,
-                                                                  message.getJMSDestination(),
-                                                                  true);
-                String sValue = (saNames[1] != null) ? saNames[1] : saNames[0];
-                Node.setAttribute(cnode, attrName, nullToEmpty(sValue));
-            }
-            else if (value.equals("{$messageprotocol}"))
+            if (binding.attributeName != null)
             {
-                Node.setAttribute(cnode, attrName, nullToEmpty(m_btcProtocol));
+                setAttributeParameter(nodes[i], binding.attributeName, binding.placeholder,
+                                      message);
             }
-            else if (value.equals("{$correlationid}"))
-            {
-                Node.setAttribute(cnode, attrName, nullToEmpty(message.getJMSCorrelationID()));
-            }
-            else if (value.equals("{$jmstype}"))
+            else
             {
-                Node.setAttribute(cnode, attrName, nullToEmpty(message.getJMSType()));
+                setDataParameter(nodes[i], binding.placeholder, inputmsg, xml, message);
             }
         }
+    }
+
+    /**
+     * Converts the JMS message into the trigger SOAP request, sends it and checks the response.
+     * This method does not commit or rollback the session.
+     *
+     * @param   message     The received JMS message.
+     * @param   forSession  The session that received the message.
+     *
+     * @throws  Exception  In case the trigger request failed.
+     */
+    void invokeTrigger(Message message, Session forSession)
+                throws Exception
+    {
+        int soapEnvelope = 0;
+        int response = 0;
+
+        try
+        {
+            JMSConnectorConfiguration.TriggerMessageInfo messageInfo = createTriggerRequest(message,
+                                                                                             forSession);
+
+            soapEnvelope = messageInfo.soapRequestNode;
+
+            response = m_connector.getConnector().sendAndWait(soapEnvelope,
+                                                              messageInfo.requestTimeout);
+
+            checkTriggerResponse(response);
+        }
+        finally
+        {
+            Node.delete(soapEnvelope);
+            Node.delete(Node.getRoot(response));
+        }
+    }
 
-        for (int child = Node.getFirstChild(cnode); child != 0; child = Node.getNextSibling(child))
+    /**
+     * Converts the JMS message into the trigger SOAP request. The caller is responsible for
+     * deleting the returned SOAP request node.
+     *
+     * @param   message     The received JMS message.
+     * @param   forSession  The session that received the message.
+     *
+     * @return  The request information with the filled SOAP request.
+     *
+     * @throws  Exception  In case the request could not be created.
+     */
+    JMSConnectorConfiguration.TriggerMessageInfo createTriggerRequest(Message message,
+                                                                      Session forSession)
+                                                               throws Exception
+    {
+        if (m_requestPrototype == 0)
         {
-            handleParameters(child, inputmsg, xml, message);
+            throw new JMSConnectorException("Unable to create the trigger SOAP request. Message info object is not set.");
         }
 
-        String value = Node.getDataWithDefault(cnode, null);
+        JMSConnectorConfiguration.TriggerMessageInfo messageInfo = new JMSConnectorConfiguration.TriggerMessageInfo();
 
-        if (value != null)
+        messageInfo.soapRequestNode = Node.clone(m_requestPrototype, true);
+        messageInfo.requestTimeout = m_requestTimeout;
+
+        try
         {
-            if (value.equals("{$inputmessagebase64}"))
-            {
-                Node.setData(cnode, Base64.encode(inputmsg));
-            }
-            else if (value.equals("{$inputmessage}"))
+            fillRequest(m_parameterTemplate, messageInfo.soapRequestNode, message, forSession);
+
+            if (JMSConnector.jmsLogger.isDebugEnabled())
             {
-                Node.setData(cnode, nullToEmpty(inputmsg));
+                JMSConnector.jmsLogger.debug("Triggering trigger after receiving message from destination '" +
+                                             m_destination.getIdentifier() + "'. Timeout: " +
+                                             messageInfo.requestTimeout + ". Sending message: " +
+                                             JMSUtil.safeFormatLogMessage(Node.writeToString(messageInfo.soapRequestNode,
+                                                                                             true)));
             }
-            else if (value.equals("{$inputmessageinxml}"))
-            {
-                Document doc = Node.getDocument(cnode);
 
-                Node.setData(cnode, "");
+            return messageInfo;
+        }
+        catch (Exception e)
+        {
+            Node.delete(messageInfo.soapRequestNode);
+            messageInfo.soapRequestNode = 0;
 
-                if ((inputmsg != null) && (inputmsg.length() > 0))
-                {
-                    Node.appendToChildren(doc.parseString(inputmsg), Node.getParent(cnode));
-                }
-            }
-            else if (value.equals("{$xmlmessage}"))
+            throw e;
+        }
+    }
+
+    /**
+     * Fills in the placeholders of the template with the data of the JMS message.
+     *
+     * @param   template    The compiled template.
+     * @param   root        The node the template was compiled for.
+     * @param   message     The received JMS message.
+     * @param   forSession  The session that received the message.
+     *
+     * @throws  Exception  In case the message could not be converted.
+     */
+    void fillRequest(TriggerParameterTemplate template, int root, Message message,
+                     Session forSession)
+              throws Exception
+    {
+        int xml = 0;
+
+        try
+        {
+            Charset charset = getCharset();
+            String utf8String = null;
+
+            if (m_btcProtocol != null)
             {
-                Node.setData(cnode, "");
+                byte[] data;
 
-                if (xml != 0)
+                if (message instanceof BytesMessage)
                 {
-                    Node.appendToChildren(xml, Node.getParent(cnode));
+                    // Give the raw bytes to the BTC instead of decoding and encoding them again.
+                    data = readBytes((BytesMessage) message);
+
+                    if (template.usesMessageText())
+                    {
+                        utf8String = new String(data, charset);
+                    }
                 }
-                else if ((inputmsg != null) && (inputmsg.length() > 0))
+                else
                 {
-                    Document doc = Node.getDocument(cnode);
-
-                    Node.appendToChildren(doc.parseString(inputmsg), Node.getParent(cnode));
+                    utf8String = getMessageText(message, forSession, charset);
+                    data = utf8String.getBytes(charset);
                 }
+
+                xml = m_connector.getParserEngine(m_btcProtocol).externalToXML(data,
+                                                                               m_btcProtocol,
+                                                                               false);
             }
-            else if (value.equals("{$messageid}"))
+            else if (template.usesMessageText())
             {
-                Node.setData(cnode, nullToEmpty(message.getJMSMessageID()));
+                utf8String = getMessageText(message, forSession, charset);
             }
-            else if (value.equals("{$reply2destination}"))
+            else
             {
-                if (message.getJMSReplyTo() != null)
-                {
-                    String[] saNames = JMSUtil.getJmsDestinationNames(m_destination,
-                                                                      message.getJMSReplyTo(),
-                                                                      true);
+                checkMessageType(message);
+            }
 
-                    Node.setData(cnode, saNames[0]);
+            fillParameters(template, root, utf8String, xml, message);
 
-                    if (saNames[1] != null)
-                    {
-                        int xParent = Node.getParent(cnode);
+            if (template.usesXmlMessage())
+            {
+                // The XML is now part of the request.
+                xml = 0;
+            }
+        }
+        finally
+        {
+            Node.delete(xml);
+        }
+    }
 
-                        if (xParent != 0)
-                        {
-                            Node.setAttribute(xParent, Destination.DESTINATION_PHYSICALNAME_ATTRIB,
-                                              saNames[1]);
-                        }
-                    }
-                }
-                else
-                {
-                    String reply2queue = JMSUtil.getDestinationIdentifier(JMSUtil.getDestinationURI(message
-                                                                                                    .getJMSReplyTo()));
-                    Node.setData(cnode, nullToEmpty(reply2queue));
-                }
+    /**
+     * Handles a message for which the trigger failed. The error is logged and the message is put
+     * in the error destination if one is configured.
+     *
+     * @param   message     The message that failed.
+     * @param   forSession  The session that received the message.
+     * @param   e           The error.
+     * @param   commit      Whether the session should be committed after sending the message to
+     *                      the error destination.
+     *
+     * @return  <code>true</code> if the message was put in the error destination. If
+     *          <code>false</code> is returned the caller must rollback the session.
+     */
+    boolean handleMessageError(Message message, Session forSession, Exception e, boolean commit)
+    {
+        String sMessageId = getMessageId(message);
+
+        JMSConnector.jmsLogger.error(e, LogMessages.TRIGGER_RECEIVE_ERROR,
+                                     m_destination.getIdentifier(), sMessageId);
+
+        messageHandlingErrorCounter.addEvent();
+
+        Destination dErrorDestination = m_destination.getErrorDestination();
+
+        // if error destination is used...
+        if (dErrorDestination != null)
+        {
+            try
+            {
+                String sErrorMsgID;
+                String sErrorMessage = JMSUtil.safeFormatLogMessage(JMSUtil.getStackTrace(e));
+
+                sErrorMsgID = dErrorDestination.sendErrorMessage(message, sErrorMessage,
+                                                                 forSession,
+                                                                 (forSession == session)
+                                                                 ? m_producerCache : null,
+                                                                 commit);
+
+                // Log the new message ID.
+                JMSConnector.jmsLogger.error(e,
+                                             LogMessages.TRIGGER_MESSAGE_SENT_TO_ERROR_DESTINATION,
+                                             dErrorDestination.getIdentifier(), sMessageId,
+                                             sErrorMsgID);
+
+                return true;
             }
-            else if (value.equals("{$fromdestination}"))
+            catch (Exception ex)
             {
-                String[] saNames = JMSUtil.getJmsDestinationNames(m_destination,
-                                                                  message.getJMSDestination(),
-                                                                  true);
+                JMSConnector.jmsLogger.fatal(ex,
+                                             LogMessages.TRIGGER_ERROR_SENDING_TO_ERROR_DESTINATION,
+                                             dErrorDestination.getIdentifier(), sMessageId);
+            }
+        }
 
-                Node.setData(cnode, saNames[0]);
+        return false;
+    }
 
-                if (saNames[1] != null)
+    /**
+     * Checks if the message was already delivered more often than allowed (normally once, with a
+     * redelivery policy until it could not be put in the error destination after the last retry).
+     * In that case the message should not be processed again. This check is only done when the
+     * message selector is not used for it.
+     *
+     * @param   message  The received message.
+     *
+     * @return  <code>true</code> if the message is redelivered and must be skipped.
+     */
+    boolean isRedeliveredMessage(Message message)
+    {
+        if (exceedsMaxDeliveryCount(message))
+        {
+            try
+            {
+                if (JMSConnector.jmsLogger.isInfoEnabled())
                 {
-                    int xParent = Node.getParent(cnode);
-
-                    if (xParent != 0)
-                    {
-                        Node.setAttribute(xParent, Destination.DESTINATION_PHYSICALNAME_ATTRIB,
-                                          saNames[1]);
-                    }
+                    String errorMessage = LogMessages.getFormatted(LogMessages.DO_NOT_PROCESS_REDELIVERED_MESSAGE,
+                                                                   new Object[]
+                                                                   {
+                                                                       message.getJMSMessageID(),
+                                                                       JMSUtil
+                                                                       .getDestinationURI(message
+                                                                                          .getJMSDestination())
+                                                                   });
+                    JMSConnector.jmsLogger.warn(new JMSConnectorException(errorMessage),
+                                                LogMessages.DO_NOT_PROCESS_REDELIVERED_MESSAGE,
+                                                new Object[]
+                                                {
+                                                    message.getJMSMessageID(),
+                                                    JMSUtil.getDestinationURI(message
+                                                                              .getJMSDestination())
+                                                });
                 }
             }
-            else if (value.equals("{$messageprotocol}"))
+            catch (JMSException ignored)
             {
-                Node.setData(cnode, nullToEmpty(m_btcProtocol));
             }
-            else if (value.equals("{$correlationid}"))
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Checks the delivery count of the message in the same way as <code>
+     * isRedeliveredMessage</code>, but without logging.
+     *
+     * @param   message  The message.
+     *
+     * @return  <code>true</code> if the trigger would skip the message.
+     */
+    boolean exceedsMaxDeliveryCount(Message message)
+    {
+        if (!m_checkDeliveryCount)
+        {
+            return false;
+        }
+
+        RedeliveryPolicy redeliveryPolicy = m_destination.getRedeliveryPolicy();
+
+        if (redeliveryPolicy != null)
+        {
+            return redeliveryPolicy.isDeliveryLimitExceeded(message);
+        }
+
+        int redeliveryCount = 0;
+
+        try
+        {
+            redeliveryCount = message.getIntProperty("JMSXDeliveryCount");
+        }
+        catch (JMSException ignored)
+        {
+        }
+
+        return 1 != redeliveryCount;
+    }
+
+    /**
+     * Checks if the message was already handled successfully in a window that was rolled back.
+     * Such a message must only be acknowledged.
+     *
+     * @param   message  The received message.
+     *
+     * @return  <code>true</code> if the message must not be sent again.
+     */
+    boolean isAlreadyHandled(Message message)
+    {
+        RedeliveryPolicy redeliveryPolicy = m_destination.getRedeliveryPolicy();
+
+        if ((redeliveryPolicy == null) || !redeliveryPolicy.isHandled(message))
+        {
+            return false;
+        }
+
+        if (JMSConnector.jmsLogger.isDebugEnabled())
+        {
+            JMSConnector.jmsLogger.debug("Message " + getMessageId(message) + " from destination " +
+                                         m_destination.getIdentifier() +
+                                         " was already handled in a rolled back window. It is only acknowledged.");
+        }
+
+        m_acknowledgedMessages.add(message);
+
+        return true;
+    }
+
+    /**
+     * Logs the received message when debug is enabled.
+     *
+     * @param  message  The received message.
+     */
+    void logReceivedMessage(Message message)
+    {
+        if (!JMSConnector.jmsLogger.isDebugEnabled())
+        {
+            return;
+        }
+
+        String destPhysicalName = null;
+        String messageDestPhysicalName = null;
+
+        try
+        {
+            if (m_destination.getInnerDestination() != null)
             {
-                Node.setData(cnode, nullToEmpty(message.getJMSCorrelationID()));
+                destPhysicalName = JMSUtil.getDestinationURI(m_destination
+                                                             .getInnerDestination());
             }
-            else if (value.equals("{$jmstype}"))
+        }
+        catch (JMSException ignored)
+        {
+        }
+
+        try
+        {
+            if (message.getJMSDestination() != null)
             {
-                Node.setData(cnode, nullToEmpty(message.getJMSType()));
+                messageDestPhysicalName = JMSUtil.getDestinationURI(message
+                                                                    .getJMSDestination());
             }
-            else if (value.equals("{$properties}"))
-            {
-                Node.setData(cnode, ""); // empty it
+        }
+        catch (JMSException ignored)
+        {
+        }
 
-                Enumeration<?> properties = message.getPropertyNames();
+        JMSConnector.jmsLogger.debug("Receiving message from destination '" +
+                                     m_destination.getIdentifier() + "': " +
+                                     JMSUtil.safeFormatLogMessage(message));
 
-                while (properties.hasMoreElements())
-                {
-                    String key = (String) properties.nextElement();
+        JMSConnector.jmsLogger.debug("Trigger destination physical name: " + destPhysicalName);
+        JMSConnector.jmsLogger.debug("From destination physical name: " +
+                                     messageDestPhysicalName);
+    }
 
-                    Object objValue = message.getObjectProperty(key);
-                    int nnode = Node.createTextElement("property", String.valueOf(objValue),
-                                                       Node.getParent(cnode));
-                    Node.setAttribute(nnode, "name", key);
+    /**
+     * Registers a message that was handled successfully, but whose window is rolled back because
+     * of another message. When the message is delivered again it is only acknowledged. Without a
+     * redelivery policy the message is not delivered again, so nothing is registered.
+     *
+     * @param  message  The message.
+     */
+    void markHandledBeforeRollback(Message message)
+    {
+        RedeliveryPolicy redeliveryPolicy = m_destination.getRedeliveryPolicy();
 
-                    if (objValue instanceof String)
-                    {
-                        Node.setAttribute(nnode, "type", "String");
-                    }
-                    else if (objValue instanceof Short)
-                    {
-                        Node.setAttribute(nnode, "type", "Short");
-                    }
-                    else if (objValue instanceof Byte)
-                    {
-                        Node.setAttribute(nnode, "type", "Byte");
-                    }
-                    else if (objValue instanceof Boolean)
-                    {
-                        Node.setAttribute(nnode, "type", "Boolean");
-                    }
-                    else if (objValue instanceof Double)
-                    {
-                        Node.setAttribute(nnode, "type", "Double");
-                    }
-                    else if (objValue instanceof Float)
-                    {
-                        Node.setAttribute(nnode, "type", "Float");
-                    }
-                    else if (objValue instanceof Integer)
-                    {
-                        Node.setAttribute(nnode, "type", "Integer");
-                    }
-                    else if (objValue instanceof Long)
-                    {
-                        Node.setAttribute(nnode, "type", "Long");
-                    }
-                    else
-                    {
-                        Node.setAttribute(nnode, "type", "Object");
-                    }
-                }
+        if (redeliveryPolicy != null)
+        {
+            redeliveryPolicy.markHandled(message);
+        }
+    }
+
+    /**
+     * Adds the handled messages to the statistics of this trigger.
+     *
+     * @param  count         The number of handled messages.
+     * @param  handlingTime  The time spent on the messages in milliseconds.
+     */
+    void recordHandledMessages(int count, long handlingTime)
+    {
+        m_handledMessageCount.addAndGet(count);
+        m_handlingTime.addAndGet(handlingTime);
+    }
+
+    /**
+     * Called by the receiver after the trigger session was committed or rolled back. After a
+     * commit the messages that were only acknowledged are removed from the redelivery policy.
+     * After a rollback they are delivered again, so the policy keeps them.
+     *
+     * @param  committed  <code>true</code> if the session was committed.
+     */
+    void sessionCompleted(boolean committed)
+    {
+        if (m_acknowledgedMessages.isEmpty())
+        {
+            return;
+        }
+
+        RedeliveryPolicy redeliveryPolicy = m_destination.getRedeliveryPolicy();
+
+        if (committed && (redeliveryPolicy != null))
+        {
+            for (Message message : m_acknowledgedMessages)
+            {
+                redeliveryPolicy.acknowledged(message);
             }
         }
+
+        m_acknowledgedMessages.clear();
+    }
+
+    /**
+     * Checks the response of the trigger SOAP request. If the response contains a SOAP fault an
+     * exception is thrown.
+     *
+     * @param   response  The SOAP response.
+     *
+     * @throws  SOAPFault  In case the response contains a SOAP fault.
+     */
+    void checkTriggerResponse(int response)
+                       throws SOAPFault
+    {
+        if (Node.getLocalName(Node.getFirstChild(SOAPMessage.getBodyNode(response))).equals("Fault"))
+        {
+            // Throw an exception which will be handled by the caller. This way we do not have
+            // to worry about error destinations here.
+            throw new SOAPFault("",
+                                "SOAP Fault on response: \n" +
+                                JMSUtil.safeFormatLogMessage(Node.writeToString(response, false)));
+        }
+
+        if (JMSConnector.jmsLogger.isDebugEnabled())
+        {
+            JMSConnector.jmsLogger.debug("Succesfully executed trigger after receiving message from destination '" +
+                                         m_destination.getIdentifier() + "'. Received response: " +
+                                         JMSUtil.safeFormatLogMessage(Node.writeToString(response,
+                                                                                         true)));
+        }
     }
 
     /**
@@ -841,7 +1050,9 @@ public class Trigger
 	            throw new GeneralException("Trigger is already initialized!");
 	        }
 	    	
-	        session = m_destinationManager.createTriggerSession();
+	        // Durable subscriptions are bound to the client ID of the primary connection.
+	        session = m_destinationManager.createTriggerSession(m_destination.isDurableSubscriber());
+	        m_producerCache = new ProducerCache();
 	
 	        if (JMSConnector.jmsLogger.isDebugEnabled())
 	        {
@@ -871,7 +1082,56 @@ public class Trigger
 	        	m_consumer = session.createConsumer(m_destination.getInnerDestination(),
 	                                            this.messageSelector);
 	        }
-	        m_consumer.setMessageListener(this);
+
+	        String managerName = m_destinationManager.getName();
+	        String destinationName = m_destination.getName();
+	        int batchSize = m_config.getTriggerBatchSize(managerName, destinationName);
+	        int asyncWindowSize = m_config.getTriggerAsyncWindowSize(managerName, destinationName);
+	        String orderKey = m_config.getTriggerOrderKey(managerName, destinationName);
+	        int prefetchSize = m_config.getTriggerPrefetchSize(managerName, destinationName);
+	        TriggerWorkerPool workerPool = m_destination.getTriggerWorkerPool();
+
+	        if (orderKey != null)
+	        {
+	            m_receiver = new KeyedTriggerReceiver(this, session, m_consumer, orderKey,
+	                                                  m_config.getTriggerOrderThreadCount(managerName,
+	                                                                                      destinationName),
+	                                                  m_config.getTriggerOrderWindowSize(managerName,
+	                                                                                     destinationName));
+	            m_receiver.start();
+	        }
+	        else if (batchSize > 1)
+	        {
+	            m_receiver = new BatchTriggerReceiver(this, session, m_consumer, batchSize,
+	                                                  m_config.getTriggerBatchLingerTime(managerName,
+	                                                                                     destinationName),
+	                                                  m_config.getTriggerBatchElement(managerName,
+	                                                                                  destinationName));
+	            m_receiver.start();
+	        }
+	        else if (asyncWindowSize > 1)
+	        {
+	            m_receiver = new AsyncTriggerReceiver(this, session, m_consumer, asyncWindowSize,
+	                                                  workerPool);
+	            m_receiver.start();
+	        }
+	        else if (prefetchSize > 1)
+	        {
+	            m_receiver = new PrefetchTriggerReceiver(this, session, m_consumer, prefetchSize);
+	            m_receiver.start();
+	        }
+	        else if (workerPool != null)
+	        {
+	            // The trigger keeps up to the capacity of the pool in flight and commits once per
+	            // window, so a few trigger sessions can keep all workers busy.
+	            m_receiver = new AsyncTriggerReceiver(this, session, m_consumer,
+	                                                  workerPool.getCapacity(), workerPool);
+	            m_receiver.start();
+	        }
+	        else
+	        {
+	            m_consumer.setMessageListener(this);
+	        }
 	        created = true;	        
 		}catch (JMSException e)
 		{
@@ -891,6 +1151,30 @@ public class Trigger
 
     }
 
+    /**
+     * Returns whether the trigger session still belongs to a connection that is connected. This
+     * is <code>false</code> when the connection of the session failed or was reconnected since
+     * the trigger was created, or when the trigger is closed.
+     *
+     * @return  <code>true</code> if the trigger can still receive messages.
+     */
+    boolean isConnected()
+    {
+        Session current = session;
+
+        return (current != null) && m_destinationManager.isSessionConnected(current);
+    }
+
+    /**
+     * Returns the connector.
+     *
+     * @return  The connector.
+     */
+    JMSConnector getConnector()
+    {
+        return m_connector;
+    }
+
     /**
      * DOCUMENTME.
      *
@@ -912,14 +1196,651 @@ public class Trigger
     }
 
     /**
-     * Fixes null string references with an empty string.
+     * Returns the JMX component of this trigger.
      *
-     * @param   sStr  The string.
+     * @return  The managed component.
+     */
+    IManagedComponent getManagedComponent()
+    {
+        return managedComponent;
+    }
+
+    /**
+     * Returns the JMX counter for the message handling time.
      *
-     * @return  The given string or if it was <code>null</code>, an empty string.
+     * @return  The message handling counter.
      */
-    private static String nullToEmpty(String sStr)
+    ITimerEventValueCounter getMessageHandlingCounter()
     {
-        return (sStr != null) ? sStr : "";
+        return messageHandlingCounter;
+    }
+
+    /**
+     * Returns the message selector of the trigger consumer.
+     *
+     * @return  The message selector or <code>null</code>.
+     */
+    String getMessageSelector()
+    {
+        return messageSelector;
+    }
+
+    /**
+     * Returns the trigger SOAP request prototype. This node must not be modified.
+     *
+     * @return  The request prototype or 0 if the request could not be created.
+     */
+    int getRequestPrototype()
+    {
+        return m_requestPrototype;
+    }
+
+    /**
+     * Returns the timeout for the trigger SOAP request.
+     *
+     * @return  The request timeout.
+     */
+    long getRequestTimeout()
+    {
+        return m_requestTimeout;
+    }
+
+    /**
+     * Creates the trigger SOAP request prototype and compiles its parameters. The configuration
+     * is only read here, so a restart of the destination is needed to pick up changes.
+     *
+     * @throws  GeneralException  In case the request could not be created.
+     */
+    private void createRequestPrototype()
+                                 throws GeneralException
+    {
+        JMSConnectorConfiguration.TriggerMessageInfo messageInfo;
+
+        try
+        {
+            messageInfo = m_config.createMethodForInboundTrigger(m_destinationManager.getName(),
+                                                                 m_destination.getName());
+        }
+        catch (DirectoryException e)
+        {
+            throw new GeneralException(e);
+        }
+
+        if (messageInfo == null)
+        {
+            // Every message will fail with an error.
+            return;
+        }
+
+        m_requestPrototype = messageInfo.soapRequestNode;
+        m_requestTimeout = messageInfo.requestTimeout;
+        m_parameterTemplate = TriggerParameterTemplate.compile(m_requestPrototype);
+    }
+
+    /**
+     * Checks if the message type is supported by the trigger.
+     *
+     * @param   message  The received JMS message.
+     *
+     * @throws  JMSConnectorException  In case the message type is not supported.
+     */
+    private static void checkMessageType(Message message)
+                                  throws JMSConnectorException
+    {
+        if (!(message instanceof BytesMessage) && !(message instanceof TextMessage) &&
+                !(message instanceof MapMessage))
+        {
+            throw new JMSConnectorException("Cannot handle message of type '" +
+                                            message.getClass().getName() +
+                                            "'. Only BytesMessage, MapMessage " +
+                                            "and TextMessage is supported.");
+        }
+    }
+
+    /**
+     * Decodes the body of the bytes message. The body is read in chunks and decoded directly into
+     * one character array of the maximum decoded size, so the only full copy of the body next to
+     * that array is the resulting string.
+     *
+     * @param   message  The bytes message.
+     * @param   charset  The character set of the message.
+     *
+     * @return  The message text.
+     *
+     * @throws  JMSException  In case the message could not be read.
+     */
+    private String decodeBytesMessage(BytesMessage message, Charset charset)
+                               throws JMSException
+    {
+        // The message can be read more than once (e.g. when a batch is split).
+        message.reset();
+
+        if ((m_decoder == null) || !m_decoder.charset().equals(charset))
+        {
+            // Replace invalid input like new String(byte[], Charset) does.
+            m_decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+                               .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+
+        if (m_readChunk == null)
+        {
+            m_readChunk = new byte[DECODE_BUFFER_SIZE];
+            // Room for the bytes of an incomplete character of the previous chunk.
+            m_readBuffer = ByteBuffer.allocate(DECODE_BUFFER_SIZE + 16);
+        }
+
+        CharsetDecoder decoder = m_decoder;
+        ByteBuffer in = m_readBuffer;
+        double maxChars = Math.ceil(message.getBodyLength() * (double) decoder.maxCharsPerByte());
+        CharBuffer out = CharBuffer.wrap(new char[(int) Math.min(maxChars, Integer.MAX_VALUE - 8)]);
+        boolean endOfInput = false;
+
+        decoder.reset();
+        in.clear();
+
+        while (!endOfInput)
+        {
+            int read = message.readBytes(m_readChunk);
+
+            if (read > 0)
+            {
+                in.put(m_readChunk, 0, read);
+            }
+            else
+            {
+                endOfInput = true;
+            }
+
+            in.flip();
+
+            while (decoder.decode(in, out, endOfInput).isOverflow())
+            {
+                out = grow(out);
+            }
+
+            in.compact();
+        }
+
+        while (decoder.flush(out).isOverflow())
+        {
+            out = grow(out);
+        }
+
+        return new String(out.array(), 0, out.position());
+    }
+
+    /**
+     * Returns the character set to use for the messages of this trigger.
+     *
+     * @return  The character set.
+     *
+     * @throws  JMSConnectorException  In case the character set is not configured.
+     */
+    private Charset getCharset()
+                        throws JMSConnectorException
+    {
+        Charset charset = m_defaultCharset;
+
+        if (charset == null)
+        {
+            if (JMSConnector.jmsLogger.isDebugEnabled())
+            {
+                JMSConnector.jmsLogger.debug("Trigger character set not set. Using the one from destination or destination manager.");
+            }
+
+            charset = m_destination.getDefaultCharset();
+
+            if (charset == null)
+            {
+                throw new JMSConnectorException("Unable to determine character set.");
+            }
+        }
+
+        if (JMSConnector.jmsLogger.isDebugEnabled())
+        {
+            JMSConnector.jmsLogger.debug("Using character set: " + charset.displayName());
+        }
+
+        return charset;
+    }
+
+    /**
+     * Returns the body of the JMS message as text.
+     *
+     * @param   message     The received JMS message.
+     * @param   forSession  The session that received the message.
+     * @param   charset     The character set for bytes messages.
+     *
+     * @return  The message text.
+     *
+     * @throws  Exception  In case the message could not be converted.
+     */
+    private String getMessageText(Message message, Session forSession, Charset charset)
+                           throws Exception
+    {
+        checkMessageType(message);
+
+        if (message instanceof BytesMessage)
+        {
+            return decodeBytesMessage((BytesMessage) message, charset);
+        }
+        else if (message instanceof TextMessage)
+        {
+            return ((TextMessage) message).getText();
+        }
+
+        ConvertMapMessage convert = new ConvertMapMessage(forSession, message);
+
+        return ((TextMessage) convert.convert(m_connector.getSharedNomDocument())).getText();
+    }
+
+    /**
+     * Returns the JMS message ID of the message for logging purposes.
+     *
+     * @param   message  The message.
+     *
+     * @return  The message ID.
+     */
+    private static String getMessageId(Message message)
+    {
+        try
+        {
+            return message.getJMSMessageID();
+        }
+        catch (Exception ignored)
+        {
+            return "Unkwown";
+        }
+    }
+
+    /**
+     * Returns a larger copy of the decode buffer. This is only needed when the character set
+     * decodes more characters than it reports as its maximum.
+     *
+     * @param   out  The full buffer.
+     *
+     * @return  The new buffer, positioned after the copied characters.
+     */
+    private static CharBuffer grow(CharBuffer out)
+    {
+        CharBuffer larger = CharBuffer.wrap(Arrays.copyOf(out.array(),
+                                                          Math.max(DECODE_BUFFER_SIZE,
+                                                                   out.capacity() * 2)));
+
+        larger.position(out.position());
+
+        return larger;
+    }
+
+    /**
+     * Fixes null string references with an empty string.
+     *
+     * @param   sStr  The string.
+     *
+     * @return  The given string or if it was <code>null</code>, an empty string.
+     */
+    private static String nullToEmpty(String sStr)
+    {
+        return (sStr != null) ? sStr : "";
+    }
+
+    /**
+     * Reads the complete body of the bytes message. The BTC protocol needs the whole body as one
+     * array, so this buffers the full body.
+     *
+     * @param   message  The bytes message.
+     *
+     * @return  The body.
+     *
+     * @throws  JMSException  In case the message could not be read.
+     */
+    private static byte[] readBytes(BytesMessage message)
+                             throws JMSException
+    {
+        // The message can be read more than once (e.g. when a batch is split).
+        message.reset();
+
+        byte[] data = new byte[(int) message.getBodyLength()];
+
+        message.readBytes(data);
+
+        return data;
+    }
+
+    /**
+     * Rolls back the failed message for a retry if the redelivery policy allows it.
+     *
+     * @param   message           The message that failed.
+     * @param   forSession        The session that received the message.
+     * @param   e                 The error.
+     * @param   redeliveryPolicy  The redelivery policy.
+     *
+     * @return  <code>true</code> if the message was rolled back. If <code>false</code> is returned
+     *          the maximum number of retries is reached.
+     */
+    private boolean retryMessage(Message message, Session forSession, Exception e,
+                                 RedeliveryPolicy redeliveryPolicy)
+    {
+        String sMessageId = getMessageId(message);
+        int attempts = redeliveryPolicy.recordFailure(message);
+
+        if (!redeliveryPolicy.canRetry(attempts))
+        {
+            JMSConnector.jmsLogger.warn(e, LogMessages.TRIGGER_MESSAGE_RETRIES_EXHAUSTED,
+                                        m_destination.getIdentifier(), sMessageId,
+                                        redeliveryPolicy.getMaxRetries());
+            return false;
+        }
+
+        JMSConnector.jmsLogger.warn(e, LogMessages.TRIGGER_MESSAGE_RETRY,
+                                    m_destination.getIdentifier(), sMessageId, attempts);
+
+        messageHandlingErrorCounter.addEvent();
+
+        // Waiting here would keep the transaction open. The retry time is checked when the
+        // message is redelivered.
+        rollback(forSession, sMessageId);
+
+        return true;
+    }
+
+    /**
+     * Rolls back a message that is redelivered before its retry time. The transaction is closed
+     * before this method pauses, so no lock is kept while waiting.
+     *
+     * @param   message           The received message.
+     * @param   forSession        The session of the message.
+     * @param   redeliveryPolicy  The redelivery policy.
+     *
+     * @return  <code>true</code> if the message was rolled back.
+     */
+    private boolean deferRetry(Message message, Session forSession,
+                               RedeliveryPolicy redeliveryPolicy)
+    {
+        long delay = redeliveryPolicy.getRetryDelay(message);
+
+        if (delay <= 0)
+        {
+            return false;
+        }
+
+        String sMessageId = getMessageId(message);
+
+        if (JMSConnector.jmsLogger.isDebugEnabled())
+        {
+            JMSConnector.jmsLogger.debug("Message " + sMessageId + " from destination " +
+                                         m_destination.getIdentifier() + " is redelivered " +
+                                         delay + " ms before its retry time. It is rolled back.");
+        }
+
+        rollback(forSession, sMessageId);
+
+        try
+        {
+            Thread.sleep(Math.min(delay, RETRY_CHECK_INTERVAL));
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        return true;
+    }
+
+    /**
+     * Rolls back the session. Errors are logged.
+     *
+     * @param  forSession  The session to rollback.
+     * @param  sMessageId  The message ID used for logging.
+     */
+    private void rollback(Session forSession, String sMessageId)
+    {
+        try
+        {
+            // either no error destination is configured or sending to it wend wrong
+            forSession.rollback();
+        }
+        catch (Exception ex)
+        {
+            JMSConnector.jmsLogger.error(ex, LogMessages.TRIGGER_ROLLBACK_ERROR,
+                                         m_destination.getIdentifier(), sMessageId);
+        }
+    }
+
+    /**
+     * Fills in a placeholder in an attribute.
+     *
+     * @param   node         The node.
+     * @param   attrName     The name of the attribute.
+     * @param   placeholder  The placeholder.
+     * @param   message      The JMS message
+     *
+     * @throws  JMSException
+     */
+    private void setAttributeParameter(int node, String attrName,
+                                       TriggerParameterTemplate.Placeholder placeholder,
+                                       Message message)
+                                throws JMSException
+    {
+        String[] saNames;
+
+        switch (placeholder)
+        {
+            case MESSAGE_ID:
+                Node.setAttribute(node, attrName, nullToEmpty(message.getJMSMessageID()));
+                break;
+
+            case REPLY_TO_DESTINATION:
+                saNames = JMSUtil.getJmsDestinationNames(m_destination, message.getJMSReplyTo(),
+                                                         true);
+                Node.setAttribute(node, attrName,
+                                  nullToEmpty((saNames[1] != null) ? saNames[1] : saNames[0]));
+                break;
+
+            case FROM_DESTINATION:
+                saNames = JMSUtil.getJmsDestinationNames(m_destination,
+                                                         message.getJMSDestination(), true);
+                Node.setAttribute(node, attrName,
+                                  nullToEmpty((saNames[1] != null) ? saNames[1] : saNames[0]));
+                break;
+
+            case MESSAGE_PROTOCOL:
+                Node.setAttribute(node, attrName, nullToEmpty(m_btcProtocol));
+                break;
+
+            case CORRELATION_ID:
+                Node.setAttribute(node, attrName, nullToEmpty(message.getJMSCorrelationID()));
+                break;
+
+            case JMS_TYPE:
+                Node.setAttribute(node, attrName, nullToEmpty(message.getJMSType()));
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Fills in a placeholder in the data of a node.
+     *
+     * @param   cnode        The node.
+     * @param   placeholder  The placeholder.
+     * @param   inputmsg     The JMS message body string
+     * @param   xml          The JMS message body converted as XML
+     * @param   message      The JMS message
+     *
+     * @throws  JMSException
+     * @throws  UnsupportedEncodingException
+     * @throws  XMLException
+     */
+    private void setDataParameter(int cnode, TriggerParameterTemplate.Placeholder placeholder,
+                                  String inputmsg, int xml, Message message)
+                           throws JMSException, UnsupportedEncodingException, XMLException
+    {
+        String[] saNames;
+
+        switch (placeholder)
+        {
+            case INPUT_MESSAGE_BASE64:
+                Node.setData(cnode, Base64.encode(inputmsg));
+                break;
+
+            case INPUT_MESSAGE:
+                Node.setData(cnode, nullToEmpty(inputmsg));
+                break;
+
+            case INPUT_MESSAGE_IN_XML:
+                Node.setData(cnode, "");
+
+                if ((inputmsg != null) && (inputmsg.length() > 0))
+                {
+                    Document doc = Node.getDocument(cnode);
+
+                    Node.appendToChildren(doc.parseString(inputmsg), Node.getParent(cnode));
+                }
+                break;
+
+            case XML_MESSAGE:
+                Node.setData(cnode, "");
+
+                if (xml != 0)
+                {
+                    Node.appendToChildren(xml, Node.getParent(cnode));
+                }
+                else if ((inputmsg != null) && (inputmsg.length() > 0))
+                {
+                    Document doc = Node.getDocument(cnode);
+
+                    Node.appendToChildren(doc.parseString(inputmsg), Node.getParent(cnode));
+                }
+                break;
+
+            case MESSAGE_ID:
+                Node.setData(cnode, nullToEmpty(message.getJMSMessageID()));
+                break;
+
+            case REPLY_TO_DESTINATION:
+                if (message.getJMSReplyTo() != null)
+                {
+                    saNames = JMSUtil.getJmsDestinationNames(m_destination,
+                                                             message.getJMSReplyTo(), true);
+
+                    Node.setData(cnode, saNames[0]);
+
+                    if (saNames[1] != null)
+                    {
+                        int xParent = Node.getParent(cnode);
+
+                        if (xParent != 0)
+                        {
+                            Node.setAttribute(xParent, Destination.DESTINATION_PHYSICALNAME_ATTRIB,
+                                              saNames[1]);
+                        }
+                    }
+                }
+                else
+                {
+                    String reply2queue = JMSUtil.getDestinationIdentifier(JMSUtil.getDestinationURI(message
+                                                                                                    .getJMSReplyTo()));
+                    Node.setData(cnode, nullToEmpty(reply2queue));
+                }
+                break;
+
+            case FROM_DESTINATION:
+                saNames = JMSUtil.getJmsDestinationNames(m_destination,
+                                                         message.getJMSDestination(), true);
+
+                Node.setData(cnode, saNames[0]);
+
+                if (saNames[1] != null)
+                {
+                    int xParent = Node.getParent(cnode);
+
+                    if (xParent != 0)
+                    {
+                        Node.setAttribute(xParent, Destination.DESTINATION_PHYSICALNAME_ATTRIB,
+                                          saNames[1]);
+                    }
+                }
+                break;
+
+            case MESSAGE_PROTOCOL:
+                Node.setData(cnode, nullToEmpty(m_btcProtocol));
+                break;
+
+            case CORRELATION_ID:
+                Node.setData(cnode, nullToEmpty(message.getJMSCorrelationID()));
+                break;
+
+            case JMS_TYPE:
+                Node.setData(cnode, nullToEmpty(message.getJMSType()));
+                break;
+
+            case PROPERTIES:
+                Node.setData(cnode, ""); // empty it
+                setPropertiesParameter(Node.getParent(cnode), message);
+                break;
+        }
+    }
+
+    /**
+     * Adds the JMS message properties to the given node.
+     *
+     * @param   parent   The node to add the properties to.
+     * @param   message  The JMS message
+     *
+     * @throws  JMSException
+     */
+    private void setPropertiesParameter(int parent, Message message)
+                                 throws JMSException
+    {
+        Enumeration<?> properties = message.getPropertyNames();
+
+        while (properties.hasMoreElements())
+        {
+            String key = (String) properties.nextElement();
+
+            Object objValue = message.getObjectProperty(key);
+            int nnode = Node.createTextElement("property", String.valueOf(objValue), parent);
+            Node.setAttribute(nnode, "name", key);
+
+            if (objValue instanceof String)
+            {
+                Node.setAttribute(nnode, "type", "String");
+            }
+            else if (objValue instanceof Short)
+            {
+                Node.setAttribute(nnode, "type", "Short");
+            }
+            else if (objValue instanceof Byte)
+            {
+                Node.setAttribute(nnode, "type", "Byte");
+            }
+            else if (objValue instanceof Boolean)
+            {
+                Node.setAttribute(nnode, "type", "Boolean");
+            }
+            else if (objValue instanceof Double)
+            {
+                Node.setAttribute(nnode, "type", "Double");
+            }
+            else if (objValue instanceof Float)
+            {
+                Node.setAttribute(nnode, "type", "Float");
+            }
+            else if (objValue instanceof Integer)
+            {
+                Node.setAttribute(nnode, "type", "Integer");
+            }
+            else if (objValue instanceof Long)
+            {
+                Node.setAttribute(nnode, "type", "Long");
+            }
+            else
+            {
+                Node.setAttribute(nnode, "type", "Object");
+            }
+        }
     }
 }
@@ -0,0 +1,337 @@
+/*
+ *
+ *  Copyright 2004 Cordys R&D B.V.
+ *
+ *  This file is part of the Cordys JMS Connector.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.cordys.coe.ac.jmsconnector;
+
+import com.eibus.xml.nom.Node;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compiled form of the trigger parameters. The SOAP request is scanned once for placeholders like
+ * <code>{$messageid}</code> and the location of each placeholder is stored as a path of child
+ * indexes. For each message only these locations have to be filled in.
+ *
+ * <p>The bindings are stored in the same order as the placeholders were handled by the recursive
+ * scan: first the attributes of a node, then its children and then the data of the node.</p>
+ */
+class TriggerParameterTemplate
+{
+    /**
+     * Holds the placeholder bindings.
+     */
+    private final List<Binding> bindings;
+    /**
+     * Holds whether the template contains a placeholder that needs the message text.
+     */
+    private final boolean usesMessageText;
+    /**
+     * Holds whether the template contains the <code>{$xmlmessage}</code> placeholder.
+     */
+    private final boolean usesXmlMessage;
+
+    /**
+     * Creates a new TriggerParameterTemplate object.
+     *
+     * @param  bindings  The placeholder bindings.
+     */
+    private TriggerParameterTemplate(List<Binding> bindings)
+    {
+        boolean messageText = false;
+        boolean xmlMessage = false;
+
+        for (Binding binding : bindings)
+        {
+            switch (binding.placeholder)
+            {
+                case XML_MESSAGE:
+                    xmlMessage = true;
+                    // The text is used when the message is not converted by a BTC.
+                    messageText = true;
+                    break;
+
+                case INPUT_MESSAGE:
+                case INPUT_MESSAGE_BASE64:
+                case INPUT_MESSAGE_IN_XML:
+                    messageText = true;
+                    break;
+
+                default:
+                    break;
+            }
+        }
+
+        this.bindings = Collections.unmodifiableList(bindings);
+        this.usesMessageText = messageText;
+        this.usesXmlMessage = xmlMessage;
+    }
+
+    /**
+     * Compiles the template for the given SOAP request.
+     *
+     * @param   root  The root node of the SOAP request.
+     *
+     * @return  The compiled template.
+     */
+    static TriggerParameterTemplate compile(int root)
+    {
+        List<Binding> bindings = new ArrayList<Binding>();
+
+        compileNode(root, new ArrayList<Integer>(), bindings);
+
+        return new TriggerParameterTemplate(bindings);
+    }
+
+    /**
+     * Returns the placeholder bindings.
+     *
+     * @return  The bindings.
+     */
+    List<Binding> getBindings()
+    {
+        return bindings;
+    }
+
+    /**
+     * Returns the nodes of all bindings in the given SOAP request. All nodes are resolved before
+     * any placeholder is filled in, because filling in can add nodes to the request.
+     *
+     * @param   root  The root node of the SOAP request. This must have the same structure as the
+     *                request the template was compiled from.
+     *
+     * @return  The nodes of the bindings, in the same order as the bindings.
+     */
+    int[] resolve(int root)
+    {
+        int[] nodes = new int[bindings.size()];
+
+        for (int i = 0; i < nodes.length; i++)
+        {
+            int node = root;
+
+            for (int index : bindings.get(i).path)
+            {
+                node = Node.getFirstChild(node);
+
+                for (int j = 0; j < index; j++)
+                {
+                    node = Node.getNextSibling(node);
+                }
+            }
+
+            nodes[i] = node;
+        }
+
+        return nodes;
+    }
+
+    /**
+     * Returns whether the template contains a placeholder that needs the message text.
+     *
+     * @return  <code>true</code> if the message text is used.
+     */
+    boolean usesMessageText()
+    {
+        return usesMessageText;
+    }
+
+    /**
+     * Returns whether the template contains the <code>{$xmlmessage}</code> placeholder.
+     *
+     * @return  <code>true</code> if the XML message is used.
+     */
+    boolean usesXmlMessage()
+    {
+        return usesXmlMessage;
+    }
+
+    /**
+     * Scans the node for placeholders.
+     *
+     * @param   node      The node to scan.
+     * @param   path      The path of the node.
+     * @param   bindings  The list to add the bindings to.
+     *
+     * @return  <code>true</code> if a data placeholder was found for this node.
+     */
+    private static boolean compileNode(int node, List<Integer> path, List<Binding> bindings)
+    {
+        int attrCount = Node.getNumAttributes(node);
+
+        for (int i = 0; i < attrCount; i++)
+        {
+            String attrName = Node.getAttributeName(node, i + 1);
+            Placeholder placeholder = Placeholder.forAttribute(Node.getAttribute(node, attrName));
+
+            if (placeholder != null)
+            {
+                bindings.add(new Binding(path, attrName, placeholder));
+            }
+        }
+
+        boolean childDataBound = false;
+        int index = 0;
+
+        for (int child = Node.getFirstChild(node); child != 0; child = Node.getNextSibling(child))
+        {
+            path.add(index++);
+
+            if (compileNode(child, path, bindings))
+            {
+                childDataBound = true;
+            }
+
+            path.remove(path.size() - 1);
+        }
+
+        if (childDataBound)
+        {
+            // The data of this node comes from the child which is already replaced.
+            return false;
+        }
+
+        Placeholder placeholder = Placeholder.forData(Node.getDataWithDefault(node, null));
+
+        if (placeholder != null)
+        {
+            bindings.add(new Binding(path, null, placeholder));
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * The placeholders that can be used in the trigger parameters.
+     */
+    enum Placeholder
+    {
+        MESSAGE_ID("{$messageid}", true),
+        REPLY_TO_DESTINATION("{$reply2destination}", true),
+        FROM_DESTINATION("{$fromdestination}", true),
+        MESSAGE_PROTOCOL("{$messageprotocol}", true),
+        CORRELATION_ID("{$correlationid}", true),
+        JMS_TYPE("{$jmstype}", true),
+        INPUT_MESSAGE_BASE64("{$inputmessagebase64}", false),
+        INPUT_MESSAGE("{$inputmessage}", false),
+        INPUT_MESSAGE_IN_XML("{$inputmessageinxml}", false),
+        XML_MESSAGE("{$xmlmessage}", false),
+        PROPERTIES("{$properties}", false);
+
+        /**
+         * Indicates whether the placeholder can be used in an attribute.
+         */
+        private final boolean attribute;
+        /**
+         * The placeholder text.
+         */
+        private final String text;
+
+        /**
+         * Creates a new Placeholder object.
+         *
+         * @param  text       The placeholder text.
+         * @param  attribute  Whether the placeholder can be used in an attribute.
+         */
+        private Placeholder(String text, boolean attribute)
+        {
+            this.text = text;
+            this.attribute = attribute;
+        }
+
+        /**
+         * Returns the placeholder for an attribute value.
+         *
+         * @param   value  The attribute value.
+         *
+         * @return  The placeholder or <code>null</code> if the value is not a placeholder.
+         */
+        static Placeholder forAttribute(String value)
+        {
+            Placeholder placeholder = forData(value);
+
+            return ((placeholder != null) && placeholder.attribute) ? placeholder : null;
+        }
+
+        /**
+         * Returns the placeholder for the data of a node.
+         *
+         * @param   value  The data.
+         *
+         * @return  The placeholder or <code>null</code> if the value is not a placeholder.
+         */
+        static Placeholder forData(String value)
+        {
+            if ((value == null) || !value.startsWith("{$"))
+            {
+                return null;
+            }
+
+            for (Placeholder placeholder : values())
+            {
+                if (placeholder.text.equals(value))
+                {
+                    return placeholder;
+                }
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * Holds the location of one placeholder.
+     */
+    static class Binding
+    {
+        /**
+         * The name of the attribute or <code>null</code> if the placeholder is the node data.
+         */
+        final String attributeName;
+        /**
+         * The child indexes from the root node to the node.
+         */
+        final int[] path;
+        /**
+         * The placeholder.
+         */
+        final Placeholder placeholder;
+
+        /**
+         * Creates a new Binding object.
+         *
+         * @param  path           The path of the node.
+         * @param  attributeName  The attribute name or <code>null</code>.
+         * @param  placeholder    The placeholder.
+         */
+        Binding(List<Integer> path, String attributeName, Placeholder placeholder)
+        {
+            this.path = new int[path.size()];
+
+            for (int i = 0; i < this.path.length; i++)
+            {
+                this.path[i] = path.get(i);
+            }
+
+            this.attributeName = attributeName;
+            this.placeholder = placeholder;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ *
+ *  Copyright 2004 Cordys R&D B.V.
+ *
+ *  This file is part of the Cordys JMS Connector.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.cordys.coe.ac.jmsconnector;
+
+import com.cordys.coe.ac.jmsconnector.messages.LogMessages;
+
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+
+/**
+ * Base class for trigger modes which receive the messages in their own thread instead of using a
+ * JMS message listener. The receiving thread owns the trigger session, so all commits and
+ * rollbacks are done on this thread.
+ */
+abstract class TriggerReceiver
+    implements Runnable
+{
+    /**
+     * Time to wait for a message before checking if the receiver was stopped.
+     */
+    protected static final long RECEIVE_TIMEOUT = 1000L;
+    /**
+     * The consumer from which the messages are received.
+     */
+    protected final MessageConsumer consumer;
+    /**
+     * The trigger session.
+     */
+    protected final Session session;
+    /**
+     * The trigger for which the messages are received.
+     */
+    protected final Trigger trigger;
+    /**
+     * Indicates whether the receiver should stop.
+     */
+    private volatile boolean stopped = false;
+    /**
+     * The receiving thread.
+     */
+    private Thread thread;
+
+    /**
+     * Creates a new TriggerReceiver object.
+     *
+     * @param  trigger   The trigger.
+     * @param  session   The trigger session.
+     * @param  consumer  The consumer to receive from.
+     */
+    protected TriggerReceiver(Trigger trigger, Session session, MessageConsumer consumer)
+    {
+        this.trigger = trigger;
+        this.session = session;
+        this.consumer = consumer;
+    }
+
+    /**
+     * @see  java.lang.Runnable#run()
+     */
+    public void run()
+    {
+        while (!stopped)
+        {
+            try
+            {
+                receiveCycle();
+            }
+            catch (Exception e)
+            {
+                if (stopped)
+                {
+                    break;
+                }
+
+                JMSConnector.jmsLogger.error(e, LogMessages.TRIGGER_RECEIVE_LOOP_ERROR,
+                                             trigger.getName());
+
+                try
+                {
+                    // Prevent a busy loop when the session is broken. The connection poller
+                    // will restart the trigger.
+                    Thread.sleep(RECEIVE_TIMEOUT);
+                }
+                catch (InterruptedException ie)
+                {
+                    break;
+                }
+            }
+        }
+
+        try
+        {
+            onStop();
+        }
+        catch (Exception e)
+        {
+            if (JMSConnector.jmsLogger.isDebugEnabled())
+            {
+                JMSConnector.jmsLogger.debug("Ignored exception while stopping the trigger receiver.",
+                                             e);
+            }
+        }
+    }
+
+    /**
+     * Starts the receiving thread.
+     */
+    void start()
+    {
+        thread = new Thread(this, "JMSConnector-" + trigger.getName() + "-receiver");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Signals the receiving thread to stop. The consumer should be closed after this call so that
+     * a blocking receive returns.
+     */
+    void stop()
+    {
+        stopped = true;
+    }
+
+    /**
+     * Waits for the receiving thread to finish.
+     *
+     * @param  timeout  The maximum time to wait in milliseconds.
+     */
+    void waitForStop(long timeout)
+    {
+        if ((thread == null) || (thread == Thread.currentThread()))
+        {
+            return;
+        }
+
+        try
+        {
+            thread.join(timeout);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns whether the receiver was stopped.
+     *
+     * @return  <code>true</code> if the receiver was stopped.
+     */
+    protected boolean isStopped()
+    {
+        return stopped;
+    }
+
+    /**
+     * Called when the receive loop ends. Sub classes can release resources here.
+     *
+     * @throws  Exception  In case of any exception.
+     */
+    protected void onStop()
+                   throws Exception
+    {
+    }
+
+    /**
+     * Receives and handles the next messages. This method is called repeatedly until the receiver
+     * is stopped.
+     *
+     * @throws  Exception  In case of any exception.
+     */
+    protected abstract void receiveCycle()
+                                  throws Exception;
+}
@@ -0,0 +1,410 @@
+/*
+ *
+ *  Copyright 2004 Cordys R&D B.V.
+ *
+ *  This file is part of the Cordys JMS Connector.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.cordys.coe.ac.jmsconnector;
+
+import com.cordys.coe.ac.jmsconnector.messages.LogMessages;
+
+import com.eibus.management.IManagedComponent;
+import com.eibus.management.counters.CounterFactory;
+import com.eibus.management.counters.IEventOccurrenceCounter;
+
+import java.util.Enumeration;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Message;
+import javax.jms.QueueBrowser;
+
+/**
+ * Adjusts the number of triggers of a destination between a minimum and a maximum. At a fixed
+ * interval the backlog of the queue is measured with a queue browser and the average handling
+ * time of the messages in the last interval is calculated. Only the messages that the triggers
+ * will consume are counted, i.e. the queue is browsed with the message selector of the triggers.
+ * Redelivered messages that the triggers skip are not part of the backlog.
+ *
+ * <p>When the backlog cannot be handled by the current triggers within one interval, the number
+ * of triggers is doubled (up to the maximum). When the queue is empty and a trigger did not handle
+ * any message in the last interval, one trigger is removed (down to the minimum).</p>
+ */
+public class TriggerScaler
+    implements Runnable
+{
+    /**
+     * The maximum number of messages that are browsed to measure the queue depth.
+     */
+    private static final int MAX_BROWSE_COUNT = 10000;
+    /**
+     * The average handling time in the last interval.
+     */
+    private volatile long averageLatency;
+    /**
+     * The connector.
+     */
+    private final JMSConnector connector;
+    /**
+     * The destination.
+     */
+    private final Destination destination;
+    /**
+     * The scaling interval in milliseconds.
+     */
+    private final long interval;
+    /**
+     * The queue depth measured in the last interval.
+     */
+    private volatile int lastQueueDepth = -1;
+    /**
+     * Holds the JMX managed component.
+     */
+    private IManagedComponent managedComponent;
+    /**
+     * The maximum number of triggers.
+     */
+    private final int maxTriggers;
+    /**
+     * The minimum number of triggers.
+     */
+    private final int minTriggers;
+    /**
+     * Holds the handled message count and handling time of each trigger at the previous run.
+     */
+    private Map<Trigger, long[]> previousStatistics = new IdentityHashMap<Trigger, long[]>();
+    /**
+     * JMX counter for the number of times triggers were removed.
+     */
+    private IEventOccurrenceCounter scaleDownCounter;
+    /**
+     * JMX counter for the number of times triggers were added.
+     */
+    private IEventOccurrenceCounter scaleUpCounter;
+    /**
+     * The scheduler.
+     */
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Creates a new TriggerScaler object.
+     *
+     * @param  connector           The connector.
+     * @param  destination         The destination.
+     * @param  minTriggers         The minimum number of triggers.
+     * @param  maxTriggers         The maximum number of triggers.
+     * @param  interval            The scaling interval in milliseconds.
+     * @param  parentJMXComponent  The parent JMX component.
+     */
+    public TriggerScaler(JMSConnector connector, Destination destination, int minTriggers,
+                         int maxTriggers, long interval, IManagedComponent parentJMXComponent)
+    {
+        this.connector = connector;
+        this.destination = destination;
+        this.minTriggers = Math.max(1, minTriggers);
+        this.maxTriggers = Math.max(this.minTriggers, maxTriggers);
+        this.interval = interval;
+
+        if (parentJMXComponent != null)
+        {
+            managedComponent = parentJMXComponent.createSubComponent("TriggerScaler", "scaler",
+                                                                     LogMessages.JMX_TRIGGER_SCALER_SUBCOMPONENT_NAME,
+                                                                     this);
+            scaleUpCounter = (IEventOccurrenceCounter)
+                                 managedComponent.createPerformanceCounter("scaleUpCount",
+                                                                           LogMessages.JMX_TRIGGER_SCALER_SCALE_UP_COUNTER_NAME,
+                                                                           CounterFactory.EVENT_OCCURRENCE_COUNTER);
+            scaleDownCounter = (IEventOccurrenceCounter)
+                                   managedComponent.createPerformanceCounter("scaleDownCount",
+                                                                             LogMessages.JMX_TRIGGER_SCALER_SCALE_DOWN_COUNTER_NAME,
+                                                                             CounterFactory.EVENT_OCCURRENCE_COUNTER);
+        }
+    }
+
+    /**
+     * Returns the average handling time of a message in the last interval.
+     *
+     * @return  The average handling time in milliseconds.
+     */
+    public long getAverageLatency()
+    {
+        return averageLatency;
+    }
+
+    /**
+     * Returns the number of messages in the queue measured in the last interval.
+     *
+     * @return  The queue depth or -1 if it is not known.
+     */
+    public int getLastQueueDepth()
+    {
+        return lastQueueDepth;
+    }
+
+    /**
+     * Returns the maximum number of triggers.
+     *
+     * @return  The maximum number of triggers.
+     */
+    public int getMaxTriggers()
+    {
+        return maxTriggers;
+    }
+
+    /**
+     * Returns the minimum number of triggers.
+     *
+     * @return  The minimum number of triggers.
+     */
+    public int getMinTriggers()
+    {
+        return minTriggers;
+    }
+
+    /**
+     * Returns the current number of triggers.
+     *
+     * @return  The number of triggers.
+     */
+    public int getTriggerCount()
+    {
+        return destination.getTriggers().size();
+    }
+
+    /**
+     * @see  java.lang.Runnable#run()
+     */
+    public void run()
+    {
+        try
+        {
+            scale();
+        }
+        catch (Exception e)
+        {
+            JMSConnector.jmsLogger.error(e, LogMessages.TRIGGER_SCALER_ERROR,
+                                         destination.getIdentifier());
+        }
+    }
+
+    /**
+     * Starts the scaler.
+     */
+    public void start()
+    {
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+            {
+                public Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r,
+                                          "JMSConnector-" + destination.getIdentifier() +
+                                          "-scaler");
+
+                    t.setDaemon(true);
+
+                    return t;
+                }
+            });
+        scheduler.scheduleWithFixedDelay(this, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the scaler and waits for a running scale action to finish.
+     *
+     * @param  unregister  Whether the JMX components should be unregistered.
+     */
+    public void stop(boolean unregister)
+    {
+        if (scheduler != null)
+        {
+            scheduler.shutdown();
+
+            try
+            {
+                scheduler.awaitTermination(60, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            scheduler = null;
+        }
+
+        if (unregister && (managedComponent != null))
+        {
+            try
+            {
+                managedComponent.unregisterComponentTree();
+                managedComponent = null;
+            }
+            catch (Exception e)
+            {
+                if (JMSConnector.jmsLogger.isDebugEnabled())
+                {
+                    JMSConnector.jmsLogger.debug("Ignored exception while unregistering the JMX components.",
+                                                 e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @see  java.lang.Object#toString()
+     */
+    @Override public String toString()
+    {
+        return destination.getIdentifier() + ", triggers: " + minTriggers + "-" + maxTriggers +
+               ", queue depth: " + lastQueueDepth + ", latency: " + averageLatency;
+    }
+
+    /**
+     * Counts the messages in the queue that the triggers will consume.
+     *
+     * @param   trigger  One of the triggers of the destination.
+     *
+     * @return  The number of messages among the first MAX_BROWSE_COUNT messages of the queue.
+     *
+     * @throws  Exception  In case the queue could not be browsed.
+     */
+    private int measureQueueDepth(Trigger trigger)
+                           throws Exception
+    {
+        JMSConnectorTransaction transaction = new JMSConnectorTransaction(connector);
+
+        try
+        {
+            QueueBrowser browser = destination.getBrowser(transaction,
+                                                          trigger.getMessageSelector());
+
+            try
+            {
+                int browsed = 0;
+                int count = 0;
+
+                for (Enumeration<?> e = browser.getEnumeration();
+                         e.hasMoreElements() && (browsed < MAX_BROWSE_COUNT); browsed++)
+                {
+                    // When the selector can not check the delivery count, the trigger does.
+                    if (!trigger.exceedsMaxDeliveryCount((Message) e.nextElement()))
+                    {
+                        count++;
+                    }
+                }
+
+                return count;
+            }
+            finally
+            {
+                browser.close();
+            }
+        }
+        finally
+        {
+            // Nothing is changed, this only closes the session.
+            transaction.commit();
+        }
+    }
+
+    /**
+     * Checks the statistics and adds or removes triggers.
+     *
+     * @throws  Exception  In case of any exception.
+     */
+    private void scale()
+                throws Exception
+    {
+        List<Trigger> triggers = destination.getTriggers();
+        Map<Trigger, long[]> statistics = new IdentityHashMap<Trigger, long[]>();
+        long handled = 0;
+        long handlingTime = 0;
+        int idle = 0;
+
+        for (Trigger trigger : triggers)
+        {
+            long[] current = new long[] { trigger.getHandledMessageCount(), trigger.getHandlingTime() };
+            long[] previous = previousStatistics.get(trigger);
+
+            if (previous == null)
+            {
+                previous = new long[] { 0, 0 };
+            }
+
+            if (current[0] == previous[0])
+            {
+                idle++;
+            }
+
+            handled += current[0] - previous[0];
+            handlingTime += current[1] - previous[1];
+            statistics.put(trigger, current);
+        }
+
+        previousStatistics = statistics;
+
+        int count = triggers.size();
+
+        if (count == 0)
+        {
+            return;
+        }
+
+        int depth = measureQueueDepth(triggers.get(0));
+
+        lastQueueDepth = depth;
+        averageLatency = (handled > 0) ? (handlingTime / handled) : 0;
+
+        // The time the current triggers need to handle the backlog. If no message was handled
+        // all triggers are busy with long running requests.
+        long drainTime = (handled > 0) ? ((depth * averageLatency) / Math.max(1, count))
+                                       : Long.MAX_VALUE;
+
+        if ((depth > count) && (drainTime > interval) && (count < maxTriggers))
+        {
+            int target = Math.min(maxTriggers, Math.max(count + 1, count * 2));
+
+            JMSConnector.jmsLogger.info(LogMessages.TRIGGER_SCALER_SCALE_UP,
+                                        destination.getIdentifier(), count, target, depth,
+                                        averageLatency);
+
+            for (int i = count; i < target; i++)
+            {
+                destination.addTrigger();
+            }
+
+            if (scaleUpCounter != null)
+            {
+                scaleUpCounter.addEvent();
+            }
+        }
+        else if ((depth == 0) && (idle > 0) && (count > minTriggers))
+        {
+            JMSConnector.jmsLogger.info(LogMessages.TRIGGER_SCALER_SCALE_DOWN,
+                                        destination.getIdentifier(), count, count - 1);
+
+            destination.removeTrigger();
+
+            if (scaleDownCounter != null)
+            {
+                scaleDownCounter.addEvent();
+            }
+        }
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ *
+ *  Copyright 2004 Cordys R&D B.V.
+ *
+ *  This file is part of the Cordys JMS Connector.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.cordys.coe.ac.jmsconnector;
+
+import com.cordys.coe.ac.jmsconnector.messages.LogMessages;
+
+import com.eibus.management.IManagedComponent;
+import com.eibus.management.counters.CounterFactory;
+import com.eibus.management.counters.IEventOccurrenceCounter;
+import com.eibus.management.counters.ITimerEventValueCounter;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded worker pool which executes the trigger SOAP calls for a destination. The trigger
+ * sessions receive the messages and hand them over to this pool without waiting for the result,
+ * so a few receiving sessions can keep all workers busy. The receiving session collects the
+ * results of a window of messages and commits or rolls back the session itself (see <code>
+ * AsyncTriggerReceiver</code>).
+ *
+ * <p>The number of tasks that can be queued is bounded. When the pool is saturated the receiving
+ * thread blocks, which stops the JMS provider from delivering more messages to that session.</p>
+ */
+public class TriggerWorkerPool
+{
+    /**
+     * Holds the number of tasks which are currently being executed.
+     */
+    private final AtomicInteger activeWorkers = new AtomicInteger();
+    /**
+     * JMX counter for the number of times a submit had to wait for a free slot.
+     */
+    private IEventOccurrenceCounter backpressureCounter;
+    /**
+     * The maximum number of tasks that are either queued or running.
+     */
+    private final int capacity;
+    /**
+     * The actual thread pool.
+     */
+    private final ThreadPoolExecutor executor;
+    /**
+     * Holds the JMX managed component.
+     */
+    private IManagedComponent managedComponent;
+    /**
+     * The name of the pool. Used for the thread names.
+     */
+    private final String name;
+    /**
+     * Limits the number of tasks that are either queued or running.
+     */
+    private final Semaphore slots;
+    /**
+     * JMX counter for the time tasks spent executing.
+     */
+    private ITimerEventValueCounter taskExecutionCounter;
+    /**
+     * JMX counter for the time tasks spent waiting in the queue.
+     */
+    private ITimerEventValueCounter taskWaitCounter;
+    /**
+     * The number of worker threads.
+     */
+    private final int workerCount;
+
+    /**
+     * Creates a new TriggerWorkerPool object.
+     *
+     * @param  name                The name of the pool (normally the destination identifier).
+     * @param  workerCount         The number of worker threads.
+     * @param  queueSize           The maximum number of tasks waiting for a worker.
+     * @param  parentJMXComponent  The parent JMX component.
+     */
+    public TriggerWorkerPool(String name, int workerCount, int queueSize,
+                             IManagedComponent parentJMXComponent)
+    {
+        if (workerCount < 1)
+        {
+            throw new IllegalArgumentException("Worker count must be at least 1.");
+        }
+
+        if (queueSize < 1)
+        {
+            queueSize = workerCount;
+        }
+
+        this.name = name;
+        this.workerCount = workerCount;
+        this.capacity = workerCount + queueSize;
+        this.slots = new Semaphore(capacity, true);
+        this.executor = new ThreadPoolExecutor(workerCount, workerCount, 60L, TimeUnit.SECONDS,
+                                               new ArrayBlockingQueue<Runnable>(queueSize),
+                                               new WorkerThreadFactory());
+
+        if (parentJMXComponent != null)
+        {
+            managedComponent = parentJMXComponent.createSubComponent("TriggerWorkerPool", "workers",
+                                                                     LogMessages.JMX_TRIGGER_WORKER_POOL_SUBCOMPONENT_NAME,
+                                                                     this);
+            taskWaitCounter = (ITimerEventValueCounter)
+                                  managedComponent.createPerformanceCounter("taskWaitTime",
+                                                                            LogMessages.JMX_TRIGGER_WORKER_POOL_WAIT_COUNTER_NAME,
+                                                                            CounterFactory.TIMER_EVENT_VALUE_COUNTER);
+            taskExecutionCounter = (ITimerEventValueCounter)
+                                       managedComponent.createPerformanceCounter("taskExecutionTime",
+                                                                                 LogMessages.JMX_TRIGGER_WORKER_POOL_EXECUTION_COUNTER_NAME,
+                                                                                 CounterFactory.TIMER_EVENT_VALUE_COUNTER);
+            backpressureCounter = (IEventOccurrenceCounter)
+                                      managedComponent.createPerformanceCounter("backpressureCount",
+                                                                                LogMessages.JMX_TRIGGER_WORKER_POOL_BACKPRESSURE_COUNTER_NAME,
+                                                                                CounterFactory.EVENT_OCCURRENCE_COUNTER);
+        }
+    }
+
+    /**
+     * Hands the task over to the pool and returns without waiting for it. If the pool is saturated
+     * this method blocks until a slot becomes available.
+     *
+     * @param   task  The task to execute.
+     *
+     * @throws  InterruptedException  In case the thread was interrupted while waiting for a slot.
+     */
+    public void submit(final Runnable task)
+                throws InterruptedException
+    {
+        if (!slots.tryAcquire())
+        {
+            if (backpressureCounter != null)
+            {
+                backpressureCounter.addEvent();
+            }
+
+            if (JMSConnector.jmsLogger.isDebugEnabled())
+            {
+                JMSConnector.jmsLogger.debug("Trigger worker pool " + name +
+                                             " is saturated. Waiting for a free worker.");
+            }
+
+            slots.acquire();
+        }
+
+        final long waitStart = (taskWaitCounter != null) ? taskWaitCounter.start() : 0;
+
+        try
+        {
+            executor.execute(new Runnable()
+                {
+                    public void run()
+                    {
+                        if (taskWaitCounter != null)
+                        {
+                            taskWaitCounter.finish(waitStart);
+                        }
+
+                        long execStart = (taskExecutionCounter != null)
+                                         ? taskExecutionCounter.start() : 0;
+
+                        activeWorkers.incrementAndGet();
+
+                        try
+                        {
+                            task.run();
+                        }
+                        finally
+                        {
+                            activeWorkers.decrementAndGet();
+                            slots.release();
+
+                            if (taskExecutionCounter != null)
+                            {
+                                taskExecutionCounter.finish(execStart);
+                            }
+                        }
+                    }
+                });
+        }
+        catch (RuntimeException e)
+        {
+            slots.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the maximum number of tasks that can be queued or running at the same time.
+     *
+     * @return  The capacity of the pool.
+     */
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of workers currently executing a task.
+     *
+     * @return  The number of busy workers.
+     */
+    public int getActiveWorkerCount()
+    {
+        return activeWorkers.get();
+    }
+
+    /**
+     * Returns the number of tasks waiting for a free worker.
+     *
+     * @return  The queue depth.
+     */
+    public int getQueueDepth()
+    {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Returns the percentage of workers that are currently busy.
+     *
+     * @return  The worker utilisation (0-100).
+     */
+    public int getUtilisation()
+    {
+        return (activeWorkers.get() * 100) / workerCount;
+    }
+
+    /**
+     * Returns the number of worker threads.
+     *
+     * @return  The number of worker threads.
+     */
+    public int getWorkerCount()
+    {
+        return workerCount;
+    }
+
+    /**
+     * Stops the pool. Running tasks are allowed to finish.
+     */
+    public void shutdown()
+    {
+        executor.shutdown();
+
+        try
+        {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS))
+            {
+                executor.shutdownNow();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        if (managedComponent != null)
+        {
+            try
+            {
+                managedComponent.unregisterComponentTree();
+                managedComponent = null;
+            }
+            catch (Exception e)
+            {
+                if (JMSConnector.jmsLogger.isDebugEnabled())
+                {
+                    JMSConnector.jmsLogger.debug("Ignored exception while unregistering the JMX components.",
+                                                 e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @see  java.lang.Object#toString()
+     */
+    @Override public String toString()
+    {
+        return name + ", workers: " + workerCount + ", active: " + activeWorkers.get() +
+               ", queued: " + getQueueDepth();
+    }
+
+    /**
+     * Creates named daemon threads for the pool.
+     */
+    private class WorkerThreadFactory
+        implements ThreadFactory
+    {
+        /**
+         * Holds the sequence number of the next thread.
+         */
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        /**
+         * @see  java.util.concurrent.ThreadFactory#newThread(java.lang.Runnable)
+         */
+        public Thread newThread(Runnable r)
+        {
+            Thread t = new Thread(r, "JMSConnector-" + name + "-worker-" +
+                                  threadNumber.getAndIncrement());
+
+            t.setDaemon(true);
+
+            return t;
+        }
+    }
+}
@@ -311,10 +311,376 @@ public class LogMessages
 	 * Message with ID {0} is redelivered from destination {1}. Hence ignoring the message.
 	 */
 	public static final Message DO_NOT_PROCESS_REDELIVERED_MESSAGE = MESSAGE_SET.getMessage("doNotProcessRedeliveredMessage");
+	/**
+	 * Holds the definition of the message with ID JMX_TRIGGER_WORKER_POOL_SUBCOMPONENT_NAME.
+	 * Message text:
+	 * The worker pool which executes the trigger SOAP requests for this destination.
+	 */
+	public static final Message JMX_TRIGGER_WORKER_POOL_SUBCOMPONENT_NAME = MESSAGE_SET.getMessage("JMX_TRIGGER_WORKER_POOL_SUBCOMPONENT_NAME");
+	/**
+	 * Holds the definition of the message with ID JMX_TRIGGER_WORKER_POOL_WAIT_COUNTER_NAME.
+	 * Message text:
+	 * The amount of trigger requests queued for a worker and the time they waited.
+	 */
+	public static final Message JMX_TRIGGER_WORKER_POOL_WAIT_COUNTER_NAME = MESSAGE_SET.getMessage("JMX_TRIGGER_WORKER_POOL_WAIT_COUNTER_NAME");
+	/**
+	 * Holds the definition of the message with ID JMX_TRIGGER_WORKER_POOL_EXECUTION_COUNTER_NAME.
+	 * Message text:
+	 * The amount of trigger requests executed by the workers and the time it took to execute them.
+	 */
+	public static final Message JMX_TRIGGER_WORKER_POOL_EXECUTION_COUNTER_NAME = MESSAGE_SET.getMessage("JMX_TRIGGER_WORKER_POOL_EXECUTION_COUNTER_NAME");
+	/**
+	 * Holds the definition of the message with ID JMX_TRIGGER_WORKER_POOL_BACKPRESSURE_COUNTER_NAME.
+	 * Message text:
+	 * The amount of times a trigger had to wait because all workers were busy and the queue was full.
+	 */
+	public static final Message JMX_TRIGGER_WORKER_POOL_BACKPRESSURE_COUNTER_NAME = MESSAGE_SET.getMessage("JMX_TRIGGER_WORKER_POOL_BACKPRESSURE_COUNTER_NAME");
+	/**
+	 * Holds the definition of the message with ID TRIGGER_RECEIVE_LOOP_ERROR.
+	 * Message text:
+	 * Error in the receive loop of trigger {0}
+	 */
+	public static final Message TRIGGER_RECEIVE_LOOP_ERROR = MESSAGE_SET.getMessage("TRIGGER_RECEIVE_LOOP_ERROR");
+	/**
+	 * Holds the definition of the message with ID TRIGGER_ASYNC_WINDOW_ROLLBACK.
+	 * Message text:
+	 * Rolling back {1} messages of the asynchronous trigger window of destination {0} because a failed message could not be put in the error destination
+	 */
+	public static final Message TRIGGER_ASYNC_WINDOW_ROLLBACK = MESSAGE_SET.getMessage("TRIGGER_ASYNC_WINDOW_ROLLBACK");
+	/**
+	 * Holds the definition of the message with ID TRIGGER_ASYNC_REQUEST_TIMEOUT.
+	 * Message text:
+	 * No response received for the asynchronous trigger request within {0} ms
+	 */
+	public static final Message TRIGGER_ASYNC_REQUEST_TIMEOUT = MESSAGE_SET.getMessage("TRIGGER_ASYNC_REQUEST_TIMEOUT");
+	/**
+	 * Holds the definition of the message with ID TRIGGER_BATCH_ROLLBACK.
+	 * Message text:
+	 * Rolling back the trigger batch of {1} messages of destination {0} because a failed message could not be put in the error destination
+	 */
+	public static final Message TRIGGER_BATCH_ROLLBACK = MESSAGE_SET.getMessage("TRIGGER_BATCH_ROLLBACK");
+	/**
+	 * Holds the definition of the message with ID JMX_REDELIVERY_POLICY_SUBCOMPONENT_NAME.
+	 * Message text:
+	 * Redelivery policy
+	 */
+	public static final Message JMX_REDELIVERY_POLICY_SUBCOMPONENT_NAME = MESSAGE_SET.getMessage("JMX_REDELIVERY_POLICY_SUBCOMPONENT_NAME");
+	/**
+	 * Holds the definition of the message with ID JMX_REDELIVERY_POLICY_RETRY_COUNTER_NAME.
+	 * Message text:
+	 * Number of failed messages rolled back for a retry
+	 */
+	public static final Message JMX_REDELIVERY_POLICY_RETRY_COUNTER_NAME = MESSAGE_SET.getMessage("JMX_REDELIVERY_POLICY_RETRY_COUNTER_NAME");
+	/**
+	 * Holds the definition of the message with ID JMX_REDELIVERY_POLICY_EXHAUSTED_COUNTER_NAME.
+	 * Message text:
+	 * Number of messages that reached the maximum number of retries
+	 */
+	public static final Message JMX_REDELIVERY_POLICY_EXHAUSTED_COUNTER_NAME = MESSAGE_SET.getMessage("JMX_REDELIVERY_POLICY_EXHAUSTED_COUNTER_NAME");
+	/**
+	 * Holds the definition of the message with ID TRIGGER_MESSAGE_RETRY.
+	 * Message text:
+	 * Message {1} from destination {0} failed {2} time(s). It is rolled back for a retry.
+	 */
+	public static final Message TRIGGER_MESSAGE_RETRY = MESSAGE_SET.getMessage("TRIGGER_MESSAGE_RETRY");
+	/**
+	 * Holds the definition of the message with ID TRIGGER_MESSAGE_RETRIES_EXHAUSTED.
+	 * Message text:
+	 * Message {1} from destination {0} reached the maximum number of retries ({2}).
+	 */
+	public static final Message TRIGGER_MESSAGE_RETRIES_EXHAUSTED = MESSAGE_SET.getMessage("TRIGGER_MESSAGE_RETRIES_EXHAUSTED");
+	/**
+	 * Holds the definition of the message with ID JMX_TRIGGER_SCALER_SUBCOMPONENT_NAME.
+	 * Message text:
+	 * Trigger scaler
+	 */
+	public static final Message JMX_TRIGGER_SCALER_SUBCOMPONENT_NAME = MESSAGE_SET.getMessage("JMX_TRIGGER_SCALER_SUBCOMPONENT_NAME");
+	/**
+	 * Holds the definition of the message with ID JMX_TRIGGER_SCALER_SCALE_UP_COUNTER_NAME.
+	 * Message text:
+	 * Number of times triggers were added
+	 */
+	public static final Message JMX_TRIGGER_SCALER_SCALE_UP_COUNTER_NAME = MESSAGE_SET.getMessage("JMX_TRIGGER_SCALER_SCALE_UP_COUNTER_NAME");
+	/**
+	 * Holds the definition of the message with ID JMX_TRIGGER_SCALER_SCALE_DOWN_COUNTER_NAME.
+	 * Message text:
+	 * Number of times a trigger was removed
+	 */
+	public static final Message JMX_TRIGGER_SCALER_SCALE_DOWN_COUNTER_NAME = MESSAGE_SET.getMessage("JMX_TRIGGER_SCALER_SCALE_DOWN_COUNTER_NAME");
+	/**
+	 * Holds the definition of the message with ID TRIGGER_SCALER_ERROR.
+	 * Message text:
+	 * Unable to scale the triggers of destination {0}.
+	 */
+	public static final Message TRIGGER_SCALER_ERROR = MESSAGE_SET.getMessage("TRIGGER_SCALER_ERROR");
+	/**
+	 * Holds the definition of the message with ID TRIGGER_SCALER_SCALE_UP.
+	 * Message text:
+	 * Scaling up the triggers of destination {0} from {1} to {2}. Queue depth: {3}, average handling time: {4} ms.
+	 */
+	public static final Message TRIGGER_SCALER_SCALE_UP = MESSAGE_SET.getMessage("TRIGGER_SCALER_SCALE_UP");
+	/**
+	 * Holds the definition of the message with ID TRIGGER_SCALER_SCALE_DOWN.
+	 * Message text:
+	 * Scaling down the triggers of destination {0} from {1} to {2}.
+	 */
+	public static final Message TRIGGER_SCALER_SCALE_DOWN = MESSAGE_SET.getMessage("TRIGGER_SCALER_SCALE_DOWN");
+	/**
+	 * Holds the definition of the message with ID TRIGGER_SCALER_NOT_A_QUEUE.
+	 * Message text:
+	 * Trigger scaling is only supported for queues. The triggers of destination {0} are not scaled.
+	 */
+	public static final Message TRIGGER_SCALER_NOT_A_QUEUE = MESSAGE_SET.getMessage("TRIGGER_SCALER_NOT_A_QUEUE");
+	/**
+	 * Holds the definition of the message with ID TRIGGER_ORDERED_WINDOW_ROLLBACK.
+	 * Message text:
+	 * Unable to put the failed messages of destination {0} in the error destination. Rolling back the {1} messages of the ordered window.
+	 */
+	public static final Message TRIGGER_ORDERED_WINDOW_ROLLBACK = MESSAGE_SET.getMessage("TRIGGER_ORDERED_WINDOW_ROLLBACK");
+	/**
+	 * Holds the definition of the message with ID JMX_PREFETCH_BUFFER_SUBCOMPONENT_NAME.
+	 * Message text:
+	 * Trigger prefetch buffer
+	 */
+	public static final Message JMX_PREFETCH_BUFFER_SUBCOMPONENT_NAME = MESSAGE_SET.getMessage("JMX_PREFETCH_BUFFER_SUBCOMPONENT_NAME");
+	/**
+	 * Holds the definition of the message with ID JMX_PREFETCH_BUFFER_REFILL_COUNTER_NAME.
+	 * Message text:
+	 * Number of times the prefetch buffer was filled
+	 */
+	public static final Message JMX_PREFETCH_BUFFER_REFILL_COUNTER_NAME = MESSAGE_SET.getMessage("JMX_PREFETCH_BUFFER_REFILL_COUNTER_NAME");
+	/**
+	 * Holds the definition of the message with ID TRIGGER_PREFETCH_ROLLBACK.
+	 * Message text:
+	 * Unable to put a failed message of destination {0} in the error destination. Rolling back the {1} prefetched messages.
+	 */
+	public static final Message TRIGGER_PREFETCH_ROLLBACK = MESSAGE_SET.getMessage("TRIGGER_PREFETCH_ROLLBACK");
+	/**
+	 * Holds the definition of the message with ID JMX_REPLY_LISTENER_SUBCOMPONENT_NAME.
+	 * Message text:
+	 * Shared reply listener
+	 */
+	public static final Message JMX_REPLY_LISTENER_SUBCOMPONENT_NAME = MESSAGE_SET.getMessage("JMX_REPLY_LISTENER_SUBCOMPONENT_NAME");
+	/**
+	 * Holds the definition of the message with ID JMX_REPLY_LISTENER_MATCHED_COUNTER_NAME.
+	 * Message text:
+	 * Number of replies handed to a waiting request
+	 */
+	public static final Message JMX_REPLY_LISTENER_MATCHED_COUNTER_NAME = MESSAGE_SET.getMessage("JMX_REPLY_LISTENER_MATCHED_COUNTER_NAME");
+	/**
+	 * Holds the definition of the message with ID JMX_REPLY_LISTENER_LATE_COUNTER_NAME.
+	 * Message text:
+	 * Number of replies without a waiting request
+	 */
+	public static final Message JMX_REPLY_LISTENER_LATE_COUNTER_NAME = MESSAGE_SET.getMessage("JMX_REPLY_LISTENER_LATE_COUNTER_NAME");
+	/**
+	 * Holds the definition of the message with ID REPLY_LISTENER_ERROR.
+	 * Message text:
+	 * Error while handling a reply message from destination {0}.
+	 */
+	public static final Message REPLY_LISTENER_ERROR = MESSAGE_SET.getMessage("REPLY_LISTENER_ERROR");
+	/**
+	 * Holds the definition of the message with ID REPLY_LISTENER_CREATE_ERROR.
+	 * Message text:
+	 * Unable to create the shared reply listener for destination {0}. Replies are received with a correlation ID selector.
+	 */
+	public static final Message REPLY_LISTENER_CREATE_ERROR = MESSAGE_SET.getMessage("REPLY_LISTENER_CREATE_ERROR");
+	/**
+	 * Holds the definition of the message with ID REPLY_LISTENER_LATE_REPLY_TO_ERROR.
+	 * Message text:
+	 * No request is waiting for the reply with correlation ID {1} on destination {0}. The reply is put in error destination {2}.
+	 */
+	public static final Message REPLY_LISTENER_LATE_REPLY_TO_ERROR = MESSAGE_SET.getMessage("REPLY_LISTENER_LATE_REPLY_TO_ERROR");
+	/**
+	 * Holds the definition of the message with ID REPLY_LISTENER_LATE_REPLY_DISCARDED.
+	 * Message text:
+	 * No request is waiting for the reply with correlation ID {1} on destination {0}. The reply is discarded.
+	 */
+	public static final Message REPLY_LISTENER_LATE_REPLY_DISCARDED = MESSAGE_SET.getMessage("REPLY_LISTENER_LATE_REPLY_DISCARDED");
+	/**
+	 * Holds the definition of the message with ID JMX_SESSION_POOL_SUBCOMPONENT_NAME.
+	 * Message text:
+	 * Session pool
+	 */
+	public static final Message JMX_SESSION_POOL_SUBCOMPONENT_NAME = MESSAGE_SET.getMessage("JMX_SESSION_POOL_SUBCOMPONENT_NAME");
+	/**
+	 * Holds the definition of the message with ID JMX_SESSION_POOL_CREATED_COUNTER_NAME.
+	 * Message text:
+	 * Number of sessions that were created
+	 */
+	public static final Message JMX_SESSION_POOL_CREATED_COUNTER_NAME = MESSAGE_SET.getMessage("JMX_SESSION_POOL_CREATED_COUNTER_NAME");
+	/**
+	 * Holds the definition of the message with ID JMX_SESSION_POOL_REUSED_COUNTER_NAME.
+	 * Message text:
+	 * Number of sessions that were taken from the pool
+	 */
+	public static final Message JMX_SESSION_POOL_REUSED_COUNTER_NAME = MESSAGE_SET.getMessage("JMX_SESSION_POOL_REUSED_COUNTER_NAME");
+	/**
+	 * Holds the definition of the message with ID DESTINATIONMANAGER_CONNECTION_STRIPE_FAILED.
+	 * Message text:
+	 * Connection {1} of destination manager {0} failed. New sessions use the other connections until it is reconnected.
+	 */
+	public static final Message DESTINATIONMANAGER_CONNECTION_STRIPE_FAILED = MESSAGE_SET.getMessage("DESTINATIONMANAGER_CONNECTION_STRIPE_FAILED");
+	/**
+	 * Holds the definition of the message with ID DESTINATIONMANAGER_CONNECTION_STRIPES_RECONNECTED.
+	 * Message text:
+	 * The failed connections of destination manager {0} are reconnected.
+	 */
+	public static final Message DESTINATIONMANAGER_CONNECTION_STRIPES_RECONNECTED = MESSAGE_SET.getMessage("DESTINATIONMANAGER_CONNECTION_STRIPES_RECONNECTED");
+	/**
+	 * Holds the definition of the message with ID JMX_LONG_POLL_SUBCOMPONENT_NAME.
+	 * Message text:
+	 * Long poll dispatcher
+	 */
+	public static final Message JMX_LONG_POLL_SUBCOMPONENT_NAME = MESSAGE_SET.getMessage("JMX_LONG_POLL_SUBCOMPONENT_NAME");
+	/**
+	 * Holds the definition of the message with ID JMX_LONG_POLL_PARKED_COUNTER_NAME.
+	 * Message text:
+	 * Number of parked getMessage requests
+	 */
+	public static final Message JMX_LONG_POLL_PARKED_COUNTER_NAME = MESSAGE_SET.getMessage("JMX_LONG_POLL_PARKED_COUNTER_NAME");
+	/**
+	 * Holds the definition of the message with ID JMX_LONG_POLL_TIMEOUT_COUNTER_NAME.
+	 * Message text:
+	 * Number of parked getMessage requests that timed out
+	 */
+	public static final Message JMX_LONG_POLL_TIMEOUT_COUNTER_NAME = MESSAGE_SET.getMessage("JMX_LONG_POLL_TIMEOUT_COUNTER_NAME");
+	/**
+	 * Holds the definition of the message with ID LONG_POLL_CREATE_ERROR.
+	 * Message text:
+	 * Unable to start the long poll dispatcher for destination {0}. The getMessage requests wait in the processor thread.
+	 */
+	public static final Message LONG_POLL_CREATE_ERROR = MESSAGE_SET.getMessage("LONG_POLL_CREATE_ERROR");
+	/**
+	 * Holds the definition of the message with ID LONG_POLL_ERROR.
+	 * Message text:
+	 * Error in the long poll dispatcher of destination {0}.
+	 */
+	public static final Message LONG_POLL_ERROR = MESSAGE_SET.getMessage("LONG_POLL_ERROR");
+	/**
+	 * Holds the definition of the message with ID JMX_REPLY_LISTENER_INDEXED_COUNTER_NAME.
+	 * Message text:
+	 * Number of replies that were taken from the reply index
+	 */
+	public static final Message JMX_REPLY_LISTENER_INDEXED_COUNTER_NAME = MESSAGE_SET.getMessage("JMX_REPLY_LISTENER_INDEXED_COUNTER_NAME");
+	/**
+	 * Holds the definition of the message with ID CONFIGURATION_DUPLICATE_NAME.
+	 * Message text:
+	 * The configuration contains more than one {0} with the name {1}. Only the first one is used.
+	 */
+	public static final Message CONFIGURATION_DUPLICATE_NAME = MESSAGE_SET.getMessage("CONFIGURATION_DUPLICATE_NAME");
+	/**
+	 * Holds the definition of the message with ID CONFIGURATION_UNKNOWN_TRIGGER.
+	 * Message text:
+	 * Destination {0} refers to trigger {1}, which is not configured.
+	 */
+	public static final Message CONFIGURATION_UNKNOWN_TRIGGER = MESSAGE_SET.getMessage("CONFIGURATION_UNKNOWN_TRIGGER");
+	/**
+	 * Holds the definition of the message with ID CONFIGURATION_UNKNOWN_ERROR_DESTINATION.
+	 * Message text:
+	 * Destination {0} refers to error destination {1}, which is not configured.
+	 */
+	public static final Message CONFIGURATION_UNKNOWN_ERROR_DESTINATION = MESSAGE_SET.getMessage("CONFIGURATION_UNKNOWN_ERROR_DESTINATION");
+	/**
+	 * Holds the definition of the message with ID CONFIGURATION_RELOADED.
+	 * Message text:
+	 * The configuration was reloaded. {0}
+	 */
+	public static final Message CONFIGURATION_RELOADED = MESSAGE_SET.getMessage("CONFIGURATION_RELOADED");
+	/**
+	 * Holds the definition of the message with ID CONFIGURATION_RELOAD_ERROR.
+	 * Message text:
+	 * Error while reloading the configuration.
+	 */
+	public static final Message CONFIGURATION_RELOAD_ERROR = MESSAGE_SET.getMessage("CONFIGURATION_RELOAD_ERROR");
+	/**
+	 * Holds the definition of the message with ID JMX_CONFIGURATION_RELOADER_SUBCOMPONENT_NAME.
+	 * Message text:
+	 * Configuration reloader
+	 */
+	public static final Message JMX_CONFIGURATION_RELOADER_SUBCOMPONENT_NAME = MESSAGE_SET.getMessage("JMX_CONFIGURATION_RELOADER_SUBCOMPONENT_NAME");
+	/**
+	 * Holds the definition of the message with ID JMX_CONFIGURATION_RELOAD_COUNTER_NAME.
+	 * Message text:
+	 * Number of configuration reloads
+	 */
+	public static final Message JMX_CONFIGURATION_RELOAD_COUNTER_NAME = MESSAGE_SET.getMessage("JMX_CONFIGURATION_RELOAD_COUNTER_NAME");
+	/**
+	 * Holds the definition of the message with ID JMX_ERROR_PUBLISHER_SUBCOMPONENT_NAME.
+	 * Message text:
+	 * Error message publisher
+	 */
+	public static final Message JMX_ERROR_PUBLISHER_SUBCOMPONENT_NAME = MESSAGE_SET.getMessage("JMX_ERROR_PUBLISHER_SUBCOMPONENT_NAME");
+	/**
+	 * Holds the definition of the message with ID JMX_ERROR_PUBLISHER_PUBLISHED_COUNTER_NAME.
+	 * Message text:
+	 * Number of error messages that were committed
+	 */
+	public static final Message JMX_ERROR_PUBLISHER_PUBLISHED_COUNTER_NAME = MESSAGE_SET.getMessage("JMX_ERROR_PUBLISHER_PUBLISHED_COUNTER_NAME");
+	/**
+	 * Holds the definition of the message with ID JMX_ERROR_PUBLISHER_BATCH_COUNTER_NAME.
+	 * Message text:
+	 * Number of error message batches that were committed
+	 */
+	public static final Message JMX_ERROR_PUBLISHER_BATCH_COUNTER_NAME = MESSAGE_SET.getMessage("JMX_ERROR_PUBLISHER_BATCH_COUNTER_NAME");
+	/**
+	 * Holds the definition of the message with ID JMX_ERROR_PUBLISHER_FAILED_COUNTER_NAME.
+	 * Message text:
+	 * Number of error messages that could not be put in the error destination
+	 */
+	public static final Message JMX_ERROR_PUBLISHER_FAILED_COUNTER_NAME = MESSAGE_SET.getMessage("JMX_ERROR_PUBLISHER_FAILED_COUNTER_NAME");
+	/**
+	 * Holds the definition of the message with ID ERROR_PUBLISHER_CREATE_ERROR.
+	 * Message text:
+	 * Unable to create the error message publisher for destination {0}. Error messages are sent synchronously.
+	 */
+	public static final Message ERROR_PUBLISHER_CREATE_ERROR = MESSAGE_SET.getMessage("ERROR_PUBLISHER_CREATE_ERROR");
+	/**
+	 * Holds the definition of the message with ID ERROR_PUBLISHER_BATCH_ERROR.
+	 * Message text:
+	 * Error while committing a batch of {1} error messages to destination {0}. The messages are retried.
+	 */
+	public static final Message ERROR_PUBLISHER_BATCH_ERROR = MESSAGE_SET.getMessage("ERROR_PUBLISHER_BATCH_ERROR");
+	/**
+	 * Holds the definition of the message with ID ERROR_PUBLISHER_SEND_ERROR.
+	 * Message text:
+	 * Unable to put message {1} in error destination {0}.
+	 */
+	public static final Message ERROR_PUBLISHER_SEND_ERROR = MESSAGE_SET.getMessage("ERROR_PUBLISHER_SEND_ERROR");
+	/**
+	 * Holds the definition of the message with ID TRIGGER_ORDERED_MULTIPLE_LISTENERS.
+	 * Message text:
+	 * Destination {0} uses trigger-order-key with {1} trigger listeners. Messages with the same key are only kept in order within one trigger listener.
+	 */
+	public static final Message TRIGGER_ORDERED_MULTIPLE_LISTENERS = MESSAGE_SET.getMessage("TRIGGER_ORDERED_MULTIPLE_LISTENERS");
+	/**
+	 * Holds the definition of the message with ID TRIGGER_SCALER_ORDERED.
+	 * Message text:
+	 * Trigger scaling would break the ordering of trigger-order-key. The triggers of destination {0} are not scaled.
+	 */
+	public static final Message TRIGGER_SCALER_ORDERED = MESSAGE_SET.getMessage("TRIGGER_SCALER_ORDERED");
+	/**
+	 * Holds the definition of the message with ID JMX_SESSION_POOL_EVICTED_COUNTER_NAME.
+	 * Message text:
+	 * Number of idle sessions that were closed after the idle timeout
+	 */
+	public static final Message JMX_SESSION_POOL_EVICTED_COUNTER_NAME = MESSAGE_SET.getMessage("JMX_SESSION_POOL_EVICTED_COUNTER_NAME");
+	/**
+	 * Holds the definition of the message with ID JMX_REDELIVERY_POLICY_DEFERRED_COUNTER_NAME.
+	 * Message text:
+	 * Number of redeliveries that were rolled back because the backoff time had not passed
+	 */
+	public static final Message JMX_REDELIVERY_POLICY_DEFERRED_COUNTER_NAME = MESSAGE_SET.getMessage("JMX_REDELIVERY_POLICY_DEFERRED_COUNTER_NAME");
+	/**
+	 * Holds the definition of the message with ID LONG_POLL_DELIVERY_TIMEOUT.
+	 * Message text:
+	 * The transaction of a long poll message did not complete within {0} ms. The message is rolled back.
+	 */
+	public static final Message LONG_POLL_DELIVERY_TIMEOUT = MESSAGE_SET.getMessage("LONG_POLL_DELIVERY_TIMEOUT");
 	
 	
 	public static final String getFormatted(Message message, Object[] inserts){
-		MessageFormat format = new MessageFormat(LogMessages.DO_NOT_PROCESS_REDELIVERED_MESSAGE.getMessage(Locale.getDefault()));
+		MessageFormat format = new MessageFormat(message.getMessage(Locale.getDefault()));
 		String formattedMessage = format.format(inserts);
 		return formattedMessage;
 	}
@@ -18,6 +18,10 @@
  */
 package com.cordys.coe.ac.jmsconnector;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import junit.framework.TestCase;
 
 /**
@@ -57,4 +61,87 @@ public class JMSUtilTest extends TestCase
         assertEquals(expected, JMSUtil.safeFormatLogMessage(xmlWithNestedCDATA));
     }
 
+    /**
+     * Test method for {@link com.cordys.coe.ac.jmsconnector.JMSUtil#parseDynamicDestinationParameters(java.lang.String)}.
+     */
+    public void testParseDynamicDestinationParameters()
+    {
+        Map<String, String> params = JMSUtil.parseDynamicDestinationParameters("a=1, b = 2,c=,d");
+
+        assertEquals(4, params.size());
+        assertEquals("1", params.get("a"));
+        assertEquals("2", params.get("b"));
+        assertEquals("", params.get("c"));
+        assertTrue(params.containsKey("d"));
+        assertNull(params.get("d"));
+    }
+
+    /**
+     * Test method for {@link com.cordys.coe.ac.jmsconnector.JMSUtil#parseDynamicDestinationParameters(java.lang.String)}
+     * with an empty parameter string.
+     */
+    public void testParseDynamicDestinationParameters_Empty()
+    {
+        assertTrue(JMSUtil.parseDynamicDestinationParameters(null).isEmpty());
+        assertTrue(JMSUtil.parseDynamicDestinationParameters("").isEmpty());
+    }
+
+    /**
+     * Test that the parsed parameters cannot be changed, because they are shared by all messages
+     * of a destination.
+     */
+    public void testParseDynamicDestinationParameters_Unmodifiable()
+    {
+        Map<String, String> params = JMSUtil.parseDynamicDestinationParameters("a=1");
+
+        try
+        {
+            params.put("b", "2");
+            fail("The parameters should not be modifiable.");
+        }
+        catch (UnsupportedOperationException expected)
+        {
+        }
+    }
+
+    /**
+     * Test method for {@link com.cordys.coe.ac.jmsconnector.JMSUtil#appendDynamicDestinationParameters(java.lang.String, java.util.Map)}.
+     */
+    public void testAppendDynamicDestinationParameters()
+    {
+        Map<String, String> params = new LinkedHashMap<String, String>();
+
+        params.put("a", "1");
+        params.put("flag", null);
+        params.put("b", "");
+
+        assertEquals("queue:///Q1?a=1&flag&b=",
+                     JMSUtil.appendDynamicDestinationParameters("queue:///Q1", params));
+    }
+
+    /**
+     * Test method for {@link com.cordys.coe.ac.jmsconnector.JMSUtil#appendDynamicDestinationParameters(java.lang.String, java.util.Map)}
+     * with a physical name that already has parameters.
+     */
+    public void testAppendDynamicDestinationParameters_ReplacesQuery()
+    {
+        assertEquals("queue:///Q1?priority=5",
+                     JMSUtil.appendDynamicDestinationParameters("queue:///Q1?expiry=10&priority=1",
+                                                                JMSUtil.parseDynamicDestinationParameters("priority=5")));
+    }
+
+    /**
+     * Test method for {@link com.cordys.coe.ac.jmsconnector.JMSUtil#appendDynamicDestinationParameters(java.lang.String, java.util.Map)}
+     * without parameters.
+     */
+    public void testAppendDynamicDestinationParameters_NoParameters()
+    {
+        Map<String, String> none = Collections.emptyMap();
+
+        assertEquals("queue:///Q1?expiry=10",
+                     JMSUtil.appendDynamicDestinationParameters("queue:///Q1?expiry=10", none));
+        assertEquals("queue:///Q1",
+                     JMSUtil.appendDynamicDestinationParameters("queue:///Q1", null));
+    }
+
 }
@@ -0,0 +1,238 @@
+/*
+ *
+ *  Copyright 2004 Cordys R&D B.V.
+ *
+ *  This file is part of the Cordys JMS Connector.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.cordys.coe.ac.jmsconnector;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import javax.jms.Message;
+
+import junit.framework.TestCase;
+
+/**
+ * Test cases for RedeliveryPolicy class.
+ */
+public class RedeliveryPolicyTest extends TestCase
+{
+    /**
+     * Test method for {@link com.cordys.coe.ac.jmsconnector.RedeliveryPolicy#acknowledged(javax.jms.Message)}.
+     */
+    public void testAcknowledged()
+    {
+        RedeliveryPolicy policy = new RedeliveryPolicy(1, 0, 100, null);
+        Message message = createMessage("ID:1", -1);
+
+        policy.markHandled(message);
+        assertTrue(policy.isHandled(message));
+
+        policy.acknowledged(message);
+        assertFalse(policy.isHandled(message));
+    }
+
+    /**
+     * Test method for {@link com.cordys.coe.ac.jmsconnector.RedeliveryPolicy#canRetry(int)}.
+     */
+    public void testCanRetry()
+    {
+        RedeliveryPolicy policy = new RedeliveryPolicy(2, 0, 100, null);
+
+        assertTrue(policy.canRetry(1));
+        assertTrue(policy.canRetry(2));
+        assertFalse(policy.canRetry(3));
+    }
+
+    /**
+     * Test method for {@link com.cordys.coe.ac.jmsconnector.RedeliveryPolicy#getMaxDeliveryCount()}.
+     */
+    public void testGetMaxDeliveryCount()
+    {
+        assertEquals(1, new RedeliveryPolicy(0, 0, 100, null).getMaxDeliveryCount());
+        assertEquals(4, new RedeliveryPolicy(3, 0, 100, null).getMaxDeliveryCount());
+    }
+
+    /**
+     * Test method for {@link com.cordys.coe.ac.jmsconnector.RedeliveryPolicy#getRetryDelay(javax.jms.Message)}.
+     */
+    public void testGetRetryDelay()
+    {
+        RedeliveryPolicy policy = new RedeliveryPolicy(3, 10000, 100, null);
+        Message message = createMessage("ID:1", -1);
+
+        assertEquals(0, policy.getRetryDelay(message));
+
+        policy.recordFailure(message);
+
+        long delay = policy.getRetryDelay(message);
+
+        assertTrue((delay > 0) && (delay <= 10000));
+
+        // The backoff time doubles with every failed attempt.
+        policy.recordFailure(message);
+        assertTrue(policy.getRetryDelay(message) > 10000);
+
+        assertEquals(0, new RedeliveryPolicy(3, 0, 100, null).getRetryDelay(message));
+    }
+
+    /**
+     * Test method for {@link com.cordys.coe.ac.jmsconnector.RedeliveryPolicy#isDeliveryLimitExceeded(javax.jms.Message)}.
+     */
+    public void testIsDeliveryLimitExceeded()
+    {
+        RedeliveryPolicy policy = new RedeliveryPolicy(1, 0, 100, null);
+        Message message = createMessage("ID:1", -1);
+
+        policy.recordFailure(message);
+        policy.recordFailure(message);
+        assertTrue(policy.isExhausted(message));
+        assertFalse(policy.isDeliveryLimitExceeded(message));
+
+        // The message could not be put in the error destination either.
+        policy.recordFailure(message);
+        assertTrue(policy.isDeliveryLimitExceeded(message));
+
+        assertFalse(policy.isDeliveryLimitExceeded(createMessage("ID:2", 3)));
+        assertTrue(policy.isDeliveryLimitExceeded(createMessage("ID:2", 4)));
+    }
+
+    /**
+     * Test method for {@link com.cordys.coe.ac.jmsconnector.RedeliveryPolicy#isExhausted(javax.jms.Message)}
+     * with the delivery count set by the JMS provider.
+     */
+    public void testIsExhausted_DeliveryCount()
+    {
+        RedeliveryPolicy policy = new RedeliveryPolicy(2, 0, 100, null);
+
+        assertFalse(policy.isExhausted(createMessage("ID:1", 1)));
+        assertFalse(policy.isExhausted(createMessage("ID:1", 3)));
+        assertTrue(policy.isExhausted(createMessage("ID:1", 4)));
+    }
+
+    /**
+     * Test method for {@link com.cordys.coe.ac.jmsconnector.RedeliveryPolicy#isExhausted(javax.jms.Message)}
+     * with the failed attempts counted by the policy.
+     */
+    public void testIsExhausted_RecordedFailures()
+    {
+        RedeliveryPolicy policy = new RedeliveryPolicy(2, 0, 100, null);
+        Message message = createMessage("ID:1", -1);
+
+        assertEquals(1, policy.recordFailure(message));
+        assertEquals(2, policy.recordFailure(message));
+        assertFalse(policy.isExhausted(message));
+        assertEquals(3, policy.recordFailure(message));
+        assertTrue(policy.isExhausted(message));
+        assertFalse(policy.isExhausted(createMessage("ID:2", -1)));
+    }
+
+    /**
+     * Test method for {@link com.cordys.coe.ac.jmsconnector.RedeliveryPolicy#messageHandled(javax.jms.Message)}.
+     */
+    public void testMessageHandled()
+    {
+        RedeliveryPolicy policy = new RedeliveryPolicy(1, 0, 100, null);
+        Message message = createMessage("ID:1", -1);
+
+        policy.recordFailure(message);
+        policy.recordFailure(message);
+        assertTrue(policy.isExhausted(message));
+
+        policy.messageHandled(message);
+        assertFalse(policy.isExhausted(message));
+        assertEquals(0, policy.getTrackedMessageCount());
+    }
+
+    /**
+     * Test method for {@link com.cordys.coe.ac.jmsconnector.RedeliveryPolicy#recordFailure(javax.jms.Message)}
+     * which should start from the delivery count set by the JMS provider.
+     */
+    public void testRecordFailure_DeliveryCount()
+    {
+        RedeliveryPolicy policy = new RedeliveryPolicy(5, 0, 100, null);
+
+        assertEquals(3, policy.recordFailure(createMessage("ID:1", 3)));
+    }
+
+    /**
+     * Test that the tracked attempts are used instead of the delivery count, because a message
+     * that is redelivered before its retry time raises the delivery count as well.
+     */
+    public void testTrackedAttemptsOverDeliveryCount()
+    {
+        RedeliveryPolicy policy = new RedeliveryPolicy(2, 0, 100, null);
+
+        policy.recordFailure(createMessage("ID:1", 1));
+
+        assertFalse(policy.isExhausted(createMessage("ID:1", 5)));
+    }
+
+    /**
+     * Test that the oldest messages are dropped when the tracker is full.
+     */
+    public void testTrackerSize()
+    {
+        RedeliveryPolicy policy = new RedeliveryPolicy(0, 0, 2, null);
+        Message first = createMessage("ID:1", -1);
+
+        policy.recordFailure(first);
+        policy.recordFailure(createMessage("ID:2", -1));
+        policy.recordFailure(createMessage("ID:3", -1));
+
+        assertEquals(2, policy.getTrackedMessageCount());
+        assertFalse(policy.isExhausted(first));
+    }
+
+    /**
+     * Creates a message which only returns the message ID and the delivery count.
+     *
+     * @param   messageId      The message ID.
+     * @param   deliveryCount  The value of JMSXDeliveryCount or -1 if the property is not set.
+     *
+     * @return  The message.
+     */
+    private static Message createMessage(final String messageId, final int deliveryCount)
+    {
+        return (Message) Proxy.newProxyInstance(Message.class.getClassLoader(),
+                                                new Class<?>[] { Message.class },
+                                                new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    String name = method.getName();
+
+                    if ("getJMSMessageID".equals(name))
+                    {
+                        return messageId;
+                    }
+
+                    if ("propertyExists".equals(name))
+                    {
+                        return "JMSXDeliveryCount".equals(args[0]) && (deliveryCount >= 0);
+                    }
+
+                    if ("getIntProperty".equals(name) && "JMSXDeliveryCount".equals(args[0]))
+                    {
+                        return deliveryCount;
+                    }
+
+                    throw new UnsupportedOperationException(name);
+                }
+            });
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ *
+ *  Copyright 2004 Cordys R&D B.V.
+ *
+ *  This file is part of the Cordys JMS Connector.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.cordys.coe.ac.jmsconnector;
+
+import com.cordys.coe.ac.jmsconnector.exceptions.JMSConnectorException;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Session;
+
+import junit.framework.TestCase;
+
+/**
+ * Test cases for SessionPool class.
+ */
+public class SessionPoolTest extends TestCase
+{
+    /**
+     * The sessions closed by the factory.
+     */
+    private List<PooledSession> closedSessions;
+    /**
+     * The number of sessions created by the factory.
+     */
+    private int createdCount;
+    /**
+     * The factory of the tested pools.
+     */
+    private SessionPool.SessionFactory factory;
+    /**
+     * The connection of the created sessions or <code>null</code>.
+     */
+    private ConnectionStripe stripe;
+
+    /**
+     * Test that a session that is returned is borrowed again.
+     *
+     * @throws  Exception
+     */
+    public void testBorrowReusesIdleSession()
+        throws Exception
+    {
+        SessionPool pool = new SessionPool(factory, 2, 0, 0, null);
+        PooledSession session = pool.borrowSession();
+
+        assertEquals(1, pool.getActiveSessionCount());
+
+        pool.releaseSession(session, true);
+
+        assertEquals(0, pool.getActiveSessionCount());
+        assertEquals(1, pool.getIdleSessionCount());
+        assertSame(session, pool.borrowSession());
+        assertEquals(1, createdCount);
+    }
+
+    /**
+     * Test that borrowing a session closes the sessions that were idle longer than the idle
+     * timeout, also when they are not at the front of the pool.
+     *
+     * @throws  Exception
+     */
+    public void testBorrowEvictsExpiredSessions()
+        throws Exception
+    {
+        SessionPool pool = new SessionPool(factory, 4, 0, 50, null);
+        PooledSession first = pool.borrowSession();
+        PooledSession second = pool.borrowSession();
+
+        pool.releaseSession(first, true);
+        pool.releaseSession(second, true);
+        Thread.sleep(100);
+
+        PooledSession third = pool.borrowSession();
+
+        assertEquals(2, closedSessions.size());
+        assertTrue(closedSessions.contains(first));
+        assertTrue(closedSessions.contains(second));
+        assertNotSame(first, third);
+        assertNotSame(second, third);
+        assertEquals(0, pool.getIdleSessionCount());
+    }
+
+    /**
+     * Test that returning a session closes the sessions at the end of the pool that were idle
+     * longer than the idle timeout, while the sessions that are reused stay open.
+     *
+     * @throws  Exception
+     */
+    public void testReleaseEvictsExpiredSessions()
+        throws Exception
+    {
+        SessionPool pool = new SessionPool(factory, 4, 0, 50, null);
+        PooledSession busy = pool.borrowSession();
+        PooledSession unused = pool.borrowSession();
+
+        pool.releaseSession(unused, true);
+        Thread.sleep(100);
+        pool.releaseSession(busy, true);
+
+        assertEquals(1, closedSessions.size());
+        assertSame(unused, closedSessions.get(0));
+        assertEquals(1, pool.getIdleSessionCount());
+        assertSame(busy, pool.borrowSession());
+    }
+
+    /**
+     * Test that sessions are closed when the pool is full or when they are not valid.
+     *
+     * @throws  Exception
+     */
+    public void testReleaseClosesSessionWhenFullOrInvalid()
+        throws Exception
+    {
+        SessionPool pool = new SessionPool(factory, 1, 0, 0, null);
+        PooledSession first = pool.borrowSession();
+        PooledSession second = pool.borrowSession();
+        PooledSession third = pool.borrowSession();
+
+        pool.releaseSession(first, true);
+        pool.releaseSession(second, true);
+        pool.releaseSession(third, false);
+
+        assertEquals(1, pool.getIdleSessionCount());
+        assertEquals(2, closedSessions.size());
+        assertTrue(closedSessions.contains(second));
+        assertTrue(closedSessions.contains(third));
+    }
+
+    /**
+     * Test that an idle session of a connection that was reconnected is not borrowed again.
+     *
+     * @throws  Exception
+     */
+    public void testBorrowDiscardsSessionOfReconnectedConnection()
+        throws Exception
+    {
+        stripe = new ConnectionStripe(null, 1);
+        stripe.setConnection(createConnection());
+
+        SessionPool pool = new SessionPool(factory, 2, 0, 0, null);
+        PooledSession session = pool.borrowSession();
+
+        pool.releaseSession(session, true);
+        stripe.close();
+        stripe.setConnection(createConnection());
+
+        assertNotSame(session, pool.borrowSession());
+        assertEquals(1, closedSessions.size());
+        assertSame(session, closedSessions.get(0));
+    }
+
+    /**
+     * Test the maximum number of borrowed sessions.
+     *
+     * @throws  Exception
+     */
+    public void testMaxActive()
+        throws Exception
+    {
+        SessionPool pool = new SessionPool(factory, 2, 2, 0, null);
+        PooledSession first = pool.borrowSession();
+
+        pool.borrowSession();
+
+        try
+        {
+            pool.borrowSession();
+            fail("The third session should not be borrowed.");
+        }
+        catch (JMSConnectorException expected)
+        {
+        }
+
+        assertEquals(2, pool.getActiveSessionCount());
+
+        pool.releaseSession(first, true);
+
+        assertSame(first, pool.borrowSession());
+    }
+
+    /**
+     * Test that closing the pool closes the idle sessions.
+     *
+     * @throws  Exception
+     */
+    public void testClose()
+        throws Exception
+    {
+        SessionPool pool = new SessionPool(factory, 2, 0, 0, null);
+        PooledSession first = pool.borrowSession();
+        PooledSession second = pool.borrowSession();
+
+        pool.releaseSession(first, true);
+        pool.close(true);
+
+        assertEquals(0, pool.getIdleSessionCount());
+        assertEquals(1, closedSessions.size());
+
+        // A session that is returned after the pool was closed is closed as well.
+        pool.releaseSession(second, true);
+
+        assertEquals(2, closedSessions.size());
+    }
+
+    /**
+     * @see  junit.framework.TestCase#setUp()
+     */
+    @Override protected void setUp()
+                            throws Exception
+    {
+        closedSessions = new ArrayList<PooledSession>();
+        createdCount = 0;
+        stripe = null;
+        factory = new SessionPool.SessionFactory()
+            {
+                public PooledSession createPooledSession()
+                {
+                    createdCount++;
+
+                    return new PooledSession(createSession(), stripe,
+                                             (stripe != null) ? stripe.getGeneration() : 0, 0,
+                                             0);
+                }
+
+                public void closeSession(PooledSession session)
+                                  throws JMSException
+                {
+                    closedSessions.add(session);
+                    session.closeCaches();
+                    session.getSession().close();
+                }
+
+                public String getName()
+                {
+                    return "test";
+                }
+            };
+    }
+
+    /**
+     * Creates a connection which ignores all calls.
+     *
+     * @return  The connection.
+     */
+    private static Connection createConnection()
+    {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                                                   new Class<?>[] { Connection.class },
+                                                   new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    return null;
+                }
+            });
+    }
+
+    /**
+     * Creates a transacted session which only supports <code>getTransacted()</code> and <code>
+     * close()</code>.
+     *
+     * @return  The session.
+     */
+    private static Session createSession()
+    {
+        return (Session) Proxy.newProxyInstance(Session.class.getClassLoader(),
+                                                new Class<?>[] { Session.class },
+                                                new InvocationHandler()
+            {
+                private boolean closed;
+
+                public Object invoke(Object proxy, Method method, Object[] args)
+                              throws JMSException
+                {
+                    String name = method.getName();
+
+                    if ("getTransacted".equals(name))
+                    {
+                        if (closed)
+                        {
+                            throw new javax.jms.IllegalStateException("The session is closed.");
+                        }
+
+                        return Boolean.TRUE;
+                    }
+
+                    if ("close".equals(name))
+                    {
+                        closed = true;
+
+                        return null;
+                    }
+
+                    throw new UnsupportedOperationException(name);
+                }
+            });
+    }
+}